@@ -0,0 +1,106 @@
+package gov.epa.wikipedia.infoboxes.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierScanner;
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet;
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet.Kind;
+
+/**
+ * Benchmarks for the identifier scanners that Infobox runs over infobox cell text
+ * The regex* benchmarks run the regular expressions the scanners replaced, as a baseline
+ * @author GSINCL01
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractorBenchmark {
+
+	private static final Pattern CASRN_PATTERN = Pattern.compile("[0-9]{2,7}-[0-9]{2}-[0-9]");
+	private static final Pattern DTXSID_PATTERN = Pattern.compile("DTXSID[0-9]+");
+	private static final Pattern INCHIKEY_PATTERN = Pattern.compile("[A-Z]{14}-[A-Z]{10}-[A-Z]{1}");
+
+	// Text of every cell of every fixture infobox, i.e., what the extractors see in practice (mostly non-matching)
+	private List<String> cellTexts = new ArrayList<String>();
+
+	@Setup
+	public void setup() {
+		for (String fixture:new String[] {"chembox", "drugbox", "multi"}) {
+			for (Element table:Fixtures.loadInfoboxTables(fixture)) {
+				for (Element cell:table.select("td, li")) {
+					cellTexts.add(cell.text());
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void regexCasrns(Blackhole bh) {
+		regex(Kind.CASRN, CASRN_PATTERN, bh);
+	}
+
+	@Benchmark
+	public void regexDtxsids(Blackhole bh) {
+		regex(Kind.DTXSID, DTXSID_PATTERN, bh);
+	}
+
+	@Benchmark
+	public void regexInchikeys(Blackhole bh) {
+		regex(Kind.INCHIKEY, INCHIKEY_PATTERN, bh);
+	}
+
+	@Benchmark
+	public void scanCasrns(Blackhole bh) {
+		scan(Kind.CASRN, bh);
+	}
+
+	@Benchmark
+	public void scanDtxsids(Blackhole bh) {
+		scan(Kind.DTXSID, bh);
+	}
+
+	@Benchmark
+	public void scanInchikeys(Blackhole bh) {
+		scan(Kind.INCHIKEY, bh);
+	}
+
+	private void regex(Kind kind, Pattern p, Blackhole bh) {
+		IdentifierSet empty = IdentifierSet.empty(kind);
+		for (String text:cellTexts) {
+			List<String> extractedStrings = new ArrayList<String>();
+			Matcher m = p.matcher(text);
+			while (m.find()) {
+				extractedStrings.add(m.group());
+			}
+			bh.consume(empty.plus(extractedStrings));
+		}
+	}
+
+	private void scan(Kind kind, Blackhole bh) {
+		IdentifierSet empty = IdentifierSet.empty(kind);
+		for (String text:cellTexts) {
+			bh.consume(IdentifierScanner.scan(kind, text, empty));
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package gov.epa.wikipedia.infoboxes.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+
+import com.google.gson.Gson;
+
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.queries.ParseQuery.ParseResult;
+
+/**
+ * Class to load the page fixtures used by the benchmarks
+ * Each fixture is a parse query result (as returned by ParseQuery.run with prop=text|revid) for a full article:
+ * 	chembox		An article with one large Chembox
+ * 	drugbox		An article with one large Drugbox
+ * 	multi		An article with two Chemboxes and a Drugbox spread through the body
+ * @author GSINCL01
+ *
+ */
+public class Fixtures {
+
+	private static Gson gson = new Gson();
+
+	/**
+	 * Load a fixture
+	 * @param name	The fixture name (chembox, drugbox, or multi)
+	 * @return		The parse result
+	 */
+	public static ParseResult load(String name) {
+		String resource = "/fixtures/" + (name.equals("multi") ? "multi_infobox" : name) + "_page.json";
+		try (InputStream in = Fixtures.class.getResourceAsStream(resource)) {
+			if (in==null) {
+				throw new IllegalArgumentException("No fixture " + resource);
+			}
+
+			try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+				return gson.fromJson(reader, ParseResult.class);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read fixture " + resource, e);
+		}
+	}
+
+	/**
+	 * Load the infobox tables of a fixture, already found in the page DOM
+	 * @param name	The fixture name
+	 * @return		The infobox table elements
+	 */
+	public static List<Element> loadInfoboxTables(String name) {
+		List<Element> tables = new ArrayList<Element>();
+		for (String infoboxHtml:PageHtml.fromParseResult(load(name)).infoboxHtml) {
+			tables.add(Jsoup.parse(infoboxHtml).selectFirst("table.infobox"));
+		}
+
+		return tables;
+	}
+}
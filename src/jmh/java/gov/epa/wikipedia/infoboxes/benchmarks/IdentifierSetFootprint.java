@@ -0,0 +1,135 @@
+package gov.epa.wikipedia.infoboxes.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet;
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet.Kind;
+import gov.epa.wikipedia.infoboxes.processing.data.Infobox;
+
+/**
+ * Measurement of the heap held per infobox with identifiers in IdentifierSets, against the four HashSets of strings they replaced
+ * Not a JMH benchmark, since JMH measures time and allocation rather than retained heap: run it from the benchmark classpath with
+ * 	mvn -P benchmark compile exec:java -Dexec.mainClass=gov.epa.wikipedia.infoboxes.benchmarks.IdentifierSetFootprint
+ * Half of the infoboxes are empty and half have one identifier of each kind, each parsed to its own strings as in a real run
+ * Results depend on the JVM (e.g. compressed pointers), so compare the two figures from the same run
+ * @author GSINCL01
+ *
+ */
+public class IdentifierSetFootprint {
+
+	private static final int INFOBOX_COUNT = 200000;
+
+	/**
+	 * An infobox as stored before IdentifierSet, with a HashSet of strings per identifier kind
+	 */
+	private static class HashSetInfobox {
+		private String infoboxTitle;
+		private Set<String> dtxsids = new HashSet<String>();
+		private Set<String> casrns = new HashSet<String>();
+		private Set<String> inchikeys = new HashSet<String>();
+		private Set<String> smiles = new HashSet<String>();
+	}
+
+	public static void main(String[] args) {
+		// Create the shared empty sets first, so that they are not counted as held by the first infoboxes created
+		IdentifierSet.empty(Kind.CASRN);
+
+		long before = measure(i -> {
+			HashSetInfobox infobox = new HashSetInfobox();
+			infobox.infoboxTitle = title(i);
+			if (i % 2==1) {
+				infobox.casrns.add(casrn(i));
+				infobox.dtxsids.add(dtxsid(i));
+				infobox.inchikeys.add(inchikey(i));
+				infobox.smiles.add(smiles(i));
+			}
+			return infobox;
+		});
+
+		long after = measure(i -> {
+			Infobox infobox = new Infobox();
+			infobox.infoboxTitle = title(i);
+			if (i % 2==1) {
+				infobox.casrns = infobox.casrns.plus(Collections.singletonList(casrn(i)));
+				infobox.dtxsids = infobox.dtxsids.plus(Collections.singletonList(dtxsid(i)));
+				infobox.inchikeys = infobox.inchikeys.plus(Collections.singletonList(inchikey(i)));
+				infobox.smiles = infobox.smiles.plus(Collections.singletonList(smiles(i)));
+			}
+			return infobox;
+		});
+
+		System.out.println("Heap held per infobox over " + INFOBOX_COUNT + " infoboxes (half empty):");
+		System.out.println("\tHashSet<String>\t" + before + " bytes");
+		System.out.println("\tIdentifierSet\t" + after + " bytes");
+		System.out.println("\t(of which title\t" + measure(IdentifierSetFootprint::title) + " bytes)");
+	}
+
+	/**
+	 * Create INFOBOX_COUNT objects and measure the heap they hold, per object, once garbage is collected
+	 */
+	private static long measure(IntFunction<Object> create) {
+		long start = usedHeap();
+		List<Object> held = new ArrayList<Object>(INFOBOX_COUNT);
+		long listBytes = usedHeap() - start;
+		for (int i = 0; i < INFOBOX_COUNT; i++) {
+			held.add(create.apply(i));
+		}
+		long used = usedHeap() - start - listBytes;
+
+		// Use the objects after measuring, so they are still reachable when the heap is measured
+		if (held.size()!=INFOBOX_COUNT) {
+			throw new IllegalStateException();
+		}
+		return used / INFOBOX_COUNT;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static String title(int i) {
+		return "Compound " + i;
+	}
+
+	// Identifiers are made distinct per infobox, with a valid CAS check digit, so every value is packed as in real data
+	private static String casrn(int i) {
+		String digits = String.valueOf(1000000 + i) + "00";
+		int sum = 0;
+		for (int k = 0; k < digits.length(); k++) {
+			sum += (digits.charAt(digits.length() - 1 - k) - '0') * (k + 1);
+		}
+		return digits.substring(0, 7) + "-" + digits.substring(7) + "-" + (sum % 10);
+	}
+
+	private static String dtxsid(int i) {
+		return "DTXSID" + (7020000 + i);
+	}
+
+	private static String inchikey(int i) {
+		StringBuilder sb = new StringBuilder();
+		int n = i;
+		for (int k = 0; k < 14; k++) {
+			sb.append((char) ('A' + n % 26));
+			n = n / 26 + k;
+		}
+		return sb + "-UHFFFAOYSA-N";
+	}
+
+	private static String smiles(int i) {
+		return "CC(=O)N" + i;
+	}
+}
@@ -0,0 +1,84 @@
+package gov.epa.wikipedia.infoboxes.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.epa.wikipedia.infoboxes.processing.data.Infobox;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+import gov.epa.wikipedia.infoboxes.processing.queries.ParseQuery.ParseResult;
+
+/**
+ * Benchmarks for extracting infoboxes from a downloaded page and parsing identifiers from them
+ * @author GSINCL01
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+	@Param({"chembox", "drugbox", "multi"})
+	public String fixture;
+
+	private ParseResult parseResult;
+	private PageHtml pageHtml;
+	private List<Element> tables;
+
+	@Setup
+	public void setup() {
+		parseResult = Fixtures.load(fixture);
+
+		// As read back from a raw data file, i.e., with infobox HTML but no infoboxes extracted at download
+		PageHtml downloaded = PageHtml.fromParseResult(parseResult);
+		pageHtml = new PageHtml(downloaded.title, downloaded.pageId, downloaded.infoboxHtml);
+
+		tables = Fixtures.loadInfoboxTables(fixture);
+	}
+
+	/**
+	 * Full page download path: parse the article HTML, find the infoboxes, and extract identifiers in one pass
+	 */
+	@Benchmark
+	public PageHtml pageHtmlFromParseResult() {
+		return PageHtml.fromParseResult(parseResult);
+	}
+
+	/**
+	 * Reparse path: parse stored infobox HTML strings and extract identifiers
+	 */
+	@Benchmark
+	public ParsedPage parsedPageFromPageHtml() {
+		return ParsedPage.fromPageHtml(pageHtml);
+	}
+
+	/**
+	 * Identifier extraction alone, from infobox tables already in a DOM
+	 */
+	@Benchmark
+	public List<Infobox> infoboxFromTable() {
+		List<Infobox> infoboxes = new ArrayList<Infobox>(tables.size());
+		for (Element table:tables) {
+			infoboxes.add(table.hasClass("ib-chembox") ? Infobox.fromChembox(table) : Infobox.fromDrugbox(table));
+		}
+
+		return infoboxes;
+	}
+}
@@ -0,0 +1,98 @@
+package gov.epa.wikipedia.infoboxes.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.PageDownloader;
+import gov.epa.wikipedia.infoboxes.processing.PageParser;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+
+/**
+ * Benchmarks for saving and loading raw and parsed data files, over a corpus made by repeating the fixtures with distinct page IDs
+ * Files are written under the configured data folders with a "benchmark_" prefix and deleted afterwards
+ * Saving raw page HTML includes building its random-access store if WikipediaInfoboxesDict.BUILD_PAGE_HTML_STORE is set
+ * @author GSINCL01
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+	private static final String PAGE_HTML_FILE_NAME = "benchmark_raw_html.json";
+	private static final String PARSED_PAGES_FILE_NAME = "benchmark_parsed_data.json";
+
+	@Param({"1000"})
+	public int pageCount;
+
+	private List<PageHtml> pageHtml = new ArrayList<PageHtml>();
+	private List<ParsedPage> parsedPages = new ArrayList<ParsedPage>();
+
+	@Setup
+	public void setup() throws IOException {
+		String[] fixtures = {"chembox", "drugbox", "multi"};
+		for (int i = 0; i < pageCount; i++) {
+			PageHtml html = PageHtml.fromParseResult(Fixtures.load(fixtures[i % fixtures.length]));
+			html.pageId = i + 1;
+			html.parsedPage.pageId = i + 1;
+			pageHtml.add(html);
+			parsedPages.add(html.parsedPage);
+		}
+
+		// Files for the load benchmarks
+		PageDownloader.savePageHtml(pageHtml, PAGE_HTML_FILE_NAME);
+		PageParser.saveParsedPages(parsedPages, PARSED_PAGES_FILE_NAME);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (File file:new File[] {
+				new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + PAGE_HTML_FILE_NAME),
+				new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + "benchmark_raw_html.store"),
+				new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + PARSED_PAGES_FILE_NAME)}) {
+			file.delete();
+		}
+	}
+
+	@Benchmark
+	public void savePageHtml() throws IOException {
+		PageDownloader.savePageHtml(pageHtml, PAGE_HTML_FILE_NAME);
+	}
+
+	@Benchmark
+	public List<PageHtml> loadPageHtml() throws IOException {
+		return PageDownloader.getPageHtmlFromFile(PAGE_HTML_FILE_NAME);
+	}
+
+	@Benchmark
+	public void saveParsedPages() throws IOException {
+		PageParser.saveParsedPages(parsedPages, PARSED_PAGES_FILE_NAME);
+	}
+
+	@Benchmark
+	public List<ParsedPage> loadParsedPages() throws IOException {
+		return PageParser.getParsedPagesFromFile(PARSED_PAGES_FILE_NAME);
+	}
+}
@@ -1,5 +1,17 @@
 package gov.epa.wikipedia.infoboxes;
 
+import java.util.Arrays;
+import java.util.List;
+
+import gov.epa.wikipedia.infoboxes.processing.ColumnarFiles;
+import gov.epa.wikipedia.infoboxes.processing.FetchEngine;
+import gov.epa.wikipedia.infoboxes.processing.InfoboxTemplate;
+import gov.epa.wikipedia.infoboxes.processing.Metrics;
+import gov.epa.wikipedia.infoboxes.processing.PageDownloader;
+import gov.epa.wikipedia.infoboxes.processing.PageParser;
+import gov.epa.wikipedia.infoboxes.processing.queries.HttpTransport;
+import gov.epa.wikipedia.infoboxes.processing.queries.ResponseCache;
+
 /**
  * Constant strings and file download locations
  * @author GSINCL01
@@ -15,10 +27,18 @@ public class WikipediaInfoboxesDict {
 	public static final String TEMPLATE_DRUGBOX = "Template:Infobox drug";
 	public static final String TEMPLATE_CHEMBOX = "Template:Chembox";
 	
+	// Names (including redirects) that the Drugbox and Chembox templates are called by in page wikitext
+	public static final List<String> DRUGBOX_TEMPLATE_NAMES = Arrays.asList("Infobox drug", "Drugbox", "Infobox Drug");
+	public static final List<String> CHEMBOX_TEMPLATE_NAMES = Arrays.asList("Chembox");
+	
 	// Folder locations for downloaded and processed files
 	// Change as desired
 	public static final String RAW_DATA_FOLDER_PATH = "data/raw/";
 	public static final String PARSED_DATA_FOLDER_PATH = "data/parsed/";
+	public static final String ARCHIVE_FOLDER_PATH = "data/archive/";
+	public static final String RESPONSE_CACHE_FOLDER_PATH = "data/cache/";
+	public static final String METRICS_FOLDER_PATH = "data/metrics/";
+	public static final String LINKAGE_FOLDER_PATH = "data/linkage/";
 	
 	// Filenames for downloaded and processed files
 	// Change as desired
@@ -26,5 +46,117 @@ public class WikipediaInfoboxesDict {
 	public static final String CHEMBOX_RAW_HTML_FILE_NAME = "chembox_raw_html.json";
 	public static final String DRUGBOX_PARSED_DATA_FILE_NAME = "drugbox_parsed_data.json";
 	public static final String CHEMBOX_PARSED_DATA_FILE_NAME = "chembox_parsed_data.json";
+	
+	// Infobox templates to download and parse in a run, each saved to its own raw and parsed data files
+	// Up to TEMPLATE_PARALLELISM templates are processed at once; a page embedding several templates is downloaded once per run
+	// and saved to each template's files (fetches from all templates together still stay within FETCH_MAX_PER_HOST)
+	public static final List<InfoboxTemplate> INFOBOX_TEMPLATES = Arrays.asList(
+			new InfoboxTemplate(TEMPLATE_DRUGBOX, DRUGBOX_TEMPLATE_NAMES, DRUGBOX_RAW_HTML_FILE_NAME, DRUGBOX_PARSED_DATA_FILE_NAME),
+			new InfoboxTemplate(TEMPLATE_CHEMBOX, CHEMBOX_TEMPLATE_NAMES, CHEMBOX_RAW_HTML_FILE_NAME, CHEMBOX_PARSED_DATA_FILE_NAME));
+	public static final int TEMPLATE_PARALLELISM = 2;
+	
+	// Settings for fetching page contents from the API
+	// SEQUENTIAL mode sends one request at a time, as in earlier versions
+	// Change as desired, but be polite to Wikipedia: MAX_PER_HOST caps requests in flight to the API host
+	public static final FetchEngine.Mode FETCH_MODE = FetchEngine.Mode.PARALLEL;
+	public static final int FETCH_PARALLELISM = 8;
+	public static final int FETCH_MAX_PER_HOST = 8;
+	public static final int FETCH_PROGRESS_INTERVAL = 1000;
+	
+	// Settings for the HTTP client sending API requests (see HttpTransport)
+	// JDK uses HttpURLConnection with gzip and keep-alive; UNIREST uses Unirest, as in earlier versions
+	// Requests that take longer than the timeouts fail instead of hanging; Wikipedia asks clients to identify themselves by user agent
+	public static final HttpTransport.Backend HTTP_TRANSPORT = HttpTransport.Backend.JDK;
+	public static final int HTTP_CONNECT_TIMEOUT_SECONDS = 10;
+	public static final int HTTP_READ_TIMEOUT_SECONDS = 120;
+	public static final String HTTP_USER_AGENT = "wikipedia-infoboxes/0.0.1 (https://github.com/MrMSDS/wikipedia-infoboxes)";
+
+	// Settings for pacing API requests and retrying those the server turns away (see RequestScheduler)
+	// Requests are sent with maxlag, so the server refuses them while its replicas lag by more than API_MAXLAG_SECONDS (0 to leave it out)
+	// Refused requests are retried after the server's Retry-After delay, or after a random backoff of up to API_RETRY_BASE_DELAY_MILLIS,
+	// doubling with each attempt up to API_RETRY_MAX_DELAY_MILLIS; a request is given up on after API_MAX_ATTEMPTS attempts in all
+	// Requests in flight start at FETCH_MAX_PER_HOST, are halved whenever the server pushes back, and grow back one at a time
+	public static final int API_MAXLAG_SECONDS = 5;
+	public static final int API_MAX_ATTEMPTS = 6;
+	public static final long API_RETRY_BASE_DELAY_MILLIS = 1000;
+	public static final long API_RETRY_MAX_DELAY_MILLIS = 60 * 1000;
+
+	// Settings for the on-disk cache of API responses (see ResponseCache)
+	// READ_WRITE reuses responses younger than RESPONSE_CACHE_MAX_AGE_SECONDS and revalidates older ones with ETag/Last-Modified
+	// OFFLINE answers only from the cache, e.g. to reparse a crashed run without the network; OFF sends every request
+	// Least recently used responses are deleted once the cache is larger than RESPONSE_CACHE_MAX_BYTES
+	public static final ResponseCache.Mode RESPONSE_CACHE_MODE = ResponseCache.Mode.READ_WRITE;
+	public static final long RESPONSE_CACHE_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+	public static final long RESPONSE_CACHE_MAX_AGE_SECONDS = 60 * 60;
+	
+	// Settings for how page contents are retrieved
+	// PARSE_PER_PAGE sends one parse query per page
+	// LEAD_SECTION sends one parse query per page for the lead section alone (section=0), falling back to the whole page
+	// if no infobox is found there; this skips downloading and parsing the article body
+	// BATCHED gets wikitext for QUERY_BATCH_SIZE pages per query, then renders each page's infobox templates alone, as that page
+	// (the parse API renders one title per query, and captions and Wikidata lookups depend on the title)
+	// QUERY_BATCH_SIZE is limited to 50 by the API (500 for accounts with the apihighlimits right, e.g. bots)
+	public static final PageDownloader.RetrievalMode RETRIEVAL_MODE = PageDownloader.RetrievalMode.PARSE_PER_PAGE;
+	public static final int QUERY_BATCH_SIZE = 50;
+	
+	// Which pages to download when updating an existing download (see PageDownloader.UpdateMode)
+	public static final PageDownloader.UpdateMode UPDATE_MODE = PageDownloader.UpdateMode.CHANGED_PAGES;
+	
+	// Whether to log pages to a journal next to the raw data file as they are downloaded (see DownloadJournal)
+	// An interrupted download then resumes where it stopped on the next run; delete the journal file to start over instead
+	// JOURNAL_SYNC_INTERVAL is the number of pages between syncs to disk (pages are flushed to the file as they arrive either way)
+	public static final boolean JOURNAL_DOWNLOADS = true;
+	public static final int JOURNAL_SYNC_INTERVAL = 100;
+	
+	// Whether full downloads (UPDATE_MODE ALL_PAGES, or no existing raw data file) run as a pipeline (see PagePipeline)
+	// Listing, fetching, parsing, and writing then overlap, with at most PIPELINE_QUEUE_CAPACITY pages waiting between stages
+	public static final boolean PIPELINE_FULL_DOWNLOADS = true;
+	public static final int PIPELINE_QUEUE_CAPACITY = 256;
+	
+	// Settings for run metrics (see Metrics): request latencies, bytes, and statuses, stage throughput, parse and file I/O times, heap use
+	// JSON or PROMETHEUS writes a file to METRICS_FOLDER_PATH at the end of each run, named by its start time; OFF records nothing
+	// METRICS_JFR_EVENTS also emits each timing as a Flight Recorder event, for runs started with -XX:StartFlightRecording
+	public static final Metrics.Format METRICS_FORMAT = Metrics.Format.JSON;
+	public static final boolean METRICS_JFR_EVENTS = false;
+	
+	// Number of pages to parse at once (1 to parse one page at a time)
+	// When updating a parsed data file, pages to parse are collected PARSE_CHUNK_SIZE at a time (see ParsedPagesUpdater)
+	public static final int PARSE_PARALLELISM = Runtime.getRuntime().availableProcessors();
+	public static final int PARSE_CHUNK_SIZE = 1000;
+	
+	// Whether to keep raw infobox HTML in the raw data files
+	// Infoboxes are extracted while pages are downloaded either way; without the raw HTML, pages cannot be reparsed from file
+	public static final boolean KEEP_RAW_INFOBOX_HTML = true;
+	
+	// Where identifiers are extracted from (see PageParser.Backend)
+	// With the WIKITEXT backend, results are cross-checked against the existing raw HTML file, if any, when CROSS_CHECK_WIKITEXT is set
+	public static final PageParser.Backend EXTRACTION_BACKEND = PageParser.Backend.HTML;
+	public static final boolean CROSS_CHECK_WIKITEXT = true;
+	
+	// Whether to export each parsed data file to a Parquet file next to it whenever it changes (see PageParser.exportParsedPages)
+	// The export has one row per identifier, for fast column-pruned reads in pandas, Spark, DuckDB, etc. without parsing JSON
+	// Rows are written in row groups of COLUMNAR_ROW_GROUP_SIZE, each compressed with COLUMNAR_CODEC
+	public static final boolean EXPORT_COLUMNAR = true;
+	public static final int COLUMNAR_ROW_GROUP_SIZE = 100000;
+	public static final ColumnarFiles.Codec COLUMNAR_CODEC = ColumnarFiles.Codec.GZIP;
+	
+	// Settings for linking parsed identifiers to a local DSSTox export in CSV or TSV (see DsstoxLinker)
+	// Columns are found by name in the export's header row, ignoring case; the first name present is used, and only DTXSID is required
+	// LINKAGE_MATCH_INCHIKEY_BLOCK also reports substances sharing only the first InChIKey block (the skeleton) as candidates
+	// Rows are read in chunks of LINKAGE_CHUNK_SIZE and joined on LINKAGE_PARALLELISM threads
+	public static final List<String> DSSTOX_DTXSID_COLUMNS = Arrays.asList("DTXSID", "DSSTOX_SUBSTANCE_ID");
+	public static final List<String> DSSTOX_CASRN_COLUMNS = Arrays.asList("CASRN", "CAS_NUMBER", "CAS");
+	public static final List<String> DSSTOX_INCHIKEY_COLUMNS = Arrays.asList("INCHIKEY", "INCHI_KEY", "STANDARD_INCHIKEY");
+	public static final List<String> DSSTOX_NAME_COLUMNS = Arrays.asList("PREFERRED_NAME", "NAME");
+	public static final boolean LINKAGE_MATCH_INCHIKEY_BLOCK = true;
+	public static final int LINKAGE_PARALLELISM = Runtime.getRuntime().availableProcessors();
+	public static final int LINKAGE_CHUNK_SIZE = 10000;
+	
+	// Size at which the archive store starts a new segment file (see ArchiveStore)
+	public static final long ARCHIVE_SEGMENT_MAX_BYTES = 256L * 1024 * 1024;
+	
+	// Whether to build a random-access store (see PageHtmlStore) next to each raw data file when it is saved
+	// The store lets single pages be read by page ID without loading the whole file
+	public static final boolean BUILD_PAGE_HTML_STORE = true;
 
 }
@@ -1,127 +1,407 @@
 package gov.epa.wikipedia.infoboxes;
 
+import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
+import gov.epa.wikipedia.infoboxes.processing.ArchiveStore;
+import gov.epa.wikipedia.infoboxes.processing.DownloadJournal;
+import gov.epa.wikipedia.infoboxes.processing.DsstoxLinker;
+import gov.epa.wikipedia.infoboxes.processing.DumpReader;
+import gov.epa.wikipedia.infoboxes.processing.IdentifierIndex;
+import gov.epa.wikipedia.infoboxes.processing.InfoboxTemplate;
+import gov.epa.wikipedia.infoboxes.processing.Metrics;
 import gov.epa.wikipedia.infoboxes.processing.PageDownloader;
+import gov.epa.wikipedia.infoboxes.processing.PageDownloader.PageHtmlUpdate;
+import gov.epa.wikipedia.infoboxes.processing.PageDownloader.UpdateMode;
 import gov.epa.wikipedia.infoboxes.processing.PageParser;
-import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.PageParser.Backend;
+import gov.epa.wikipedia.infoboxes.processing.PagePipeline;
+import gov.epa.wikipedia.infoboxes.processing.ParsedPagesUpdater;
+import gov.epa.wikipedia.infoboxes.processing.RecordFiles.RecordWriter;
+import gov.epa.wikipedia.infoboxes.processing.SharedFetches;
+import gov.epa.wikipedia.infoboxes.processing.data.DumpPage;
 import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
-import kong.unirest.Unirest;
+import gov.epa.wikipedia.infoboxes.processing.queries.ApiClient;
 
 public class WikipediaInfoboxesMain {
 	
-	private static SimpleDateFormat TIMESTAMP_FORMAT = new SimpleDateFormat("yyyy-MM-dd-HHmmss");
+	// Identifier indexes of parsed data files, built on first use and kept in step with later updates
+	private static Map<String, IdentifierIndex> identifierIndexes = new ConcurrentHashMap<String, IdentifierIndex>();
 	
-	private static String generateArchiveFileName(String fileName) {
-		String stem = fileName.substring(0, fileName.indexOf("."));
-		String extension = fileName.substring(fileName.indexOf("."));
-		String timestamp = TIMESTAMP_FORMAT.format(new Date());
-		return "archived/" + stem + "_archived-" + timestamp + extension;
+	/**
+	 * Get the identifier index of a parsed data file, building it from the file on first use
+	 * The index is updated in place whenever the file's pages are updated by this class
+	 * @param parsedPagesFileName	The parsed data file (e.g. WikipediaInfoboxesDict.CHEMBOX_PARSED_DATA_FILE_NAME)
+	 * @return						The index
+	 * @throws IOException			File not found or other I/O problem
+	 */
+	public static synchronized IdentifierIndex getIdentifierIndex(String parsedPagesFileName) throws IOException {
+		IdentifierIndex index = identifierIndexes.get(parsedPagesFileName);
+		if (index==null) {
+			index = IdentifierIndex.fromFile(parsedPagesFileName);
+			identifierIndexes.put(parsedPagesFileName, index);
+		}
+		
+		return index;
+	}
+	
+	private static void updateIdentifierIndex(String parsedPagesFileName, List<ParsedPage> updatedParsedPages) {
+		IdentifierIndex index = identifierIndexes.get(parsedPagesFileName);
+		if (index!=null) {
+			int changes = index.update(updatedParsedPages);
+			System.out.println("Updated " + changes + " pages in identifier index of " + parsedPagesFileName + ".");
+		}
 	}
 	
-	private static List<PageHtml> archiveAndUpdatePageHtml(String pageHtmlFileName, String eiTitle, boolean redownloadExisting) 
+	private static void updateIdentifierIndex(String parsedPagesFileName) throws IOException {
+		IdentifierIndex index = identifierIndexes.get(parsedPagesFileName);
+		if (index!=null) {
+			// Read one page at a time, so the whole file is never held in memory alongside the index
+			int changes = index.updateFromFile(parsedPagesFileName);
+			System.out.println("Updated " + changes + " pages in identifier index of " + parsedPagesFileName + ".");
+		}
+	}
+	
+	/**
+	 * Download new, edited, or all pages (according to the update mode), merge them into the raw data file, and parse the
+	 * pages whose infobox HTML or extractor version changed into the parsed data file, archiving each file before it is replaced
+	 * Existing pages are read one at a time and written to partial files, which replace the data files only once complete,
+	 * so memory grows with the number of downloaded pages rather than the number of pages in the files
+	 */
+	private static void archiveAndUpdatePages(String eiTitle, String pageHtmlFileName, String parsedPagesFileName, UpdateMode mode) 
 			throws IOException {
 		System.out.println("Downloading pages from " + eiTitle + "...");
-		List<PageHtml> existingPageHtml = new ArrayList<PageHtml>();
+		System.out.println(mode==UpdateMode.ALL_PAGES ? "Redownloading all pages..." 
+				: mode==UpdateMode.CHANGED_PAGES ? "Updating new and edited pages..." : "Updating new pages...");
+		PageHtmlUpdate update = PageDownloader.findPageHtmlUpdate(eiTitle, pageHtmlFileName, mode);
+		System.out.println("Found " + update.getExistingRevisions().size() + " pages in existing file.");
+		
+		// If no pages were added, edited, or removed, the raw data file is only read, to check the parsed pages against it
+		boolean pageHtmlChanged = update.hasChanges();
+		File partialPageHtmlFile = new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + PagePipeline.PARTIAL_FILE_PREFIX + pageHtmlFileName);
+		File partialParsedPagesFile = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + PagePipeline.PARTIAL_FILE_PREFIX + parsedPagesFileName);
+		
+		System.out.println("Parsing pages...");
+		int count = 0;
+		ParsedPagesUpdater parsedPages = new ParsedPagesUpdater(parsedPagesFileName, update.getPageIds(), partialParsedPagesFile);
 		try {
-			existingPageHtml = PageDownloader.getPageHtmlFromFile(pageHtmlFileName);
-		} catch (IOException e) {
-			// If the file doesn't exist, just continue with the "existing" HTML as an empty list
+			count = PageDownloader.writeUpdatedPageHtml(pageHtmlFileName, update, pageHtmlChanged ? partialPageHtmlFile : null, html -> {
+				try {
+					parsedPages.write(html);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} finally {
+			parsedPages.close();
 		}
 		
-		System.out.println("Found " + existingPageHtml.size() + " pages in existing file.");
-		
-		// If redownloading existing files, just download them, archive, and return
-		if (redownloadExisting) {
-			System.out.println("Redownloading all pages...");
-			List<PageHtml> pageHtml = PageDownloader.downloadPageHtml(eiTitle);
-			
+		if (pageHtmlChanged) {
 			// If there is existing page HTML, archive it
-			if (existingPageHtml.size() > 0) {
-				PageDownloader.savePageHtml(existingPageHtml, generateArchiveFileName(pageHtmlFileName));
+			if (!update.getExistingRevisions().isEmpty()) {
+				ArchiveStore.archivePageHtmlFile(pageHtmlFileName);
 			}
 			
-			PageDownloader.savePageHtml(pageHtml, pageHtmlFileName);
-			System.out.println("Downloaded and saved " + pageHtml.size() + " pages to " + pageHtmlFileName + ".");
-			return pageHtml;
+			// Save the new HTML
+			PageDownloader.replacePageHtmlFile(partialPageHtmlFile, pageHtmlFileName);
+			System.out.println("Updated and saved " + count + " pages to " + pageHtmlFileName + ".");
+		} else {
+			// Nothing new was downloaded, so any download journal only repeats the existing file
+			DownloadJournal.delete(pageHtmlFileName);
 		}
 		
-		// Otherwise, check the existing page HTML file and update as needed
-		System.out.println("Updating new pages...");
-		List<PageHtml> updatedPageHtml = PageDownloader.updatePageHtml(eiTitle, pageHtmlFileName);
+		// If every page was reused in place, the file would be saved unchanged, so there is nothing to archive or save
+		if (!parsedPages.hasChanges()) {
+			Files.deleteIfExists(partialParsedPagesFile.toPath());
+			System.out.println("No parsed pages changed in " + parsedPagesFileName + ".");
+			return;
+		}
 		
-		// Updating only ever adds entries, does not change existing entries
-		// So if size has not changed, no updates have been made and we do not need to archive
-		if (existingPageHtml.size() < updatedPageHtml.size()) {
-			// If there is existing page HTML, archive it
-			if (existingPageHtml.size() > 0) {
-				PageDownloader.savePageHtml(existingPageHtml, generateArchiveFileName(pageHtmlFileName));
+		// If there are existing parsed pages, archive them
+		try {
+			ArchiveStore.archiveParsedPagesFile(parsedPagesFileName);
+		} catch (NoSuchFileException e) {
+			// If the file doesn't exist, there is nothing to archive
+		}
+		
+		// Save the new parsed pages
+		Files.move(partialParsedPagesFile.toPath(), new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + parsedPagesFileName).toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		System.out.println("Parsed and saved " + parsedPages.getCount() + " pages to " + parsedPagesFileName + ".");
+		updateIdentifierIndex(parsedPagesFileName);
+	}
+	
+	/**
+	 * Download the wikitext of pages embedding a template and parse their template calls directly, archiving existing parsed pages
+	 * If there is a raw HTML file for the template, the pages parsed from it are cross-checked against the wikitext results
+	 */
+	private static List<ParsedPage> archiveAndUpdateParsedPagesFromWikitext(String eiTitle, String pageHtmlFileName, 
+			String parsedPagesFileName) throws IOException {
+		System.out.println("Downloading and parsing wikitext of pages from " + eiTitle + "...");
+		List<ParsedPage> updatedParsedPages = PageDownloader.downloadParsedPagesFromWikitext(eiTitle);
+		
+		if (WikipediaInfoboxesDict.CROSS_CHECK_WIKITEXT) {
+			try {
+				List<ParsedPage> htmlParsedPages = PageParser.parsePageHtml(PageDownloader.getPageHtmlFromFile(pageHtmlFileName));
+				System.out.println("Cross-checking wikitext results against pages parsed from " + pageHtmlFileName + "...");
+				PageParser.crossCheck(htmlParsedPages, updatedParsedPages);
+			} catch (IOException e) {
+				// If there is no raw HTML file, there is nothing to cross-check against
 			}
+		}
+		
+		try {
+			ArchiveStore.archiveParsedPagesFile(parsedPagesFileName);
+		} catch (NoSuchFileException e) {
+			// If the file doesn't exist, there is nothing to archive
+		}
+		
+		PageParser.saveParsedPages(updatedParsedPages, parsedPagesFileName);
+		System.out.println("Parsed and saved " + updatedParsedPages.size() + " pages to " + parsedPagesFileName + ".");
+		updateIdentifierIndex(parsedPagesFileName, updatedParsedPages);
+		return updatedParsedPages;
+	}
 	
-			// Save the new HTML
-			PageDownloader.savePageHtml(updatedPageHtml, pageHtmlFileName);
-			System.out.println("Downloaded and saved " + (updatedPageHtml.size() - existingPageHtml.size())
-				+ " pages to " + pageHtmlFileName + ".");
-			return updatedPageHtml;
+	private static void archiveAndUpdateByTemplate(String eiTitle, String pageHtmlFileName, String parsedPagesFileName, 
+			UpdateMode mode, Backend backend) throws IOException {
+		// The wikitext backend always reads every page, since wikitext is cheap to download and there is no raw file to update
+		if (backend==Backend.WIKITEXT) {
+			archiveAndUpdateParsedPagesFromWikitext(eiTitle, pageHtmlFileName, parsedPagesFileName);
+			return;
 		}
 		
-		// Otherwise, return the HTML we already have
-		return existingPageHtml;
+		// A full download runs as one pipeline; updates need the whole listing up front to find new, edited, and removed pages
+		boolean fullDownload = mode==UpdateMode.ALL_PAGES || !new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + pageHtmlFileName).exists();
+		if (WikipediaInfoboxesDict.PIPELINE_FULL_DOWNLOADS && fullDownload) {
+			archiveAndDownloadPipelined(eiTitle, pageHtmlFileName, parsedPagesFileName);
+			return;
+		}
+		
+		archiveAndUpdatePages(eiTitle, pageHtmlFileName, parsedPagesFileName, mode);
 	}
 	
-	private static List<ParsedPage> archiveAndUpdateParsedPages(String parsedPagesFileName, List<PageHtml> updatedPageHtml) 
+	private static void archiveAndDownloadPipelined(String eiTitle, String pageHtmlFileName, String parsedPagesFileName) 
 			throws IOException {
-		System.out.println("Parsing pages...");
-		List<ParsedPage> existingParsedPages = new ArrayList<ParsedPage>();
+		System.out.println("Downloading and parsing all pages from " + eiTitle + "...");
 		try {
-			existingParsedPages = PageParser.getParsedPagesFromFile(parsedPagesFileName);
-		} catch (IOException e) {
-			// If the file doesn't exist, just continue with the "existing" pages as an empty list
+			ArchiveStore.archivePageHtmlFile(pageHtmlFileName);
+		} catch (NoSuchFileException e) {
+			// If the file doesn't exist, there is nothing to archive
+		}
+		try {
+			ArchiveStore.archiveParsedPagesFile(parsedPagesFileName);
+		} catch (NoSuchFileException e) {
+			// If the file doesn't exist, there is nothing to archive
 		}
 		
-		System.out.println("Found " + existingParsedPages.size() + " parsed pages in existing file.");
+		int count = PagePipeline.run(eiTitle, pageHtmlFileName, parsedPagesFileName);
+		System.out.println("Downloaded and saved " + count + " pages to " + pageHtmlFileName + " and " + parsedPagesFileName + ".");
 		
-		List<ParsedPage> updatedParsedPages = PageParser.parsePageHtml(updatedPageHtml);
+		// The parsed file was replaced outright, so any loaded index is rebuilt from it on next use
+		identifierIndexes.remove(parsedPagesFileName);
+	}
+	
+	public static void archiveAndUpdateEverything(boolean redownloadExisting) throws IOException {
+		archiveAndUpdateEverything(redownloadExisting ? UpdateMode.ALL_PAGES : UpdateMode.NEW_PAGES);
+	}
+	
+	public static void archiveAndUpdateEverything(UpdateMode mode) throws IOException {
+		archiveAndUpdateEverything(mode, WikipediaInfoboxesDict.EXTRACTION_BACKEND);
+	}
+	
+	public static void archiveAndUpdateEverything(UpdateMode mode, Backend backend) throws IOException {
+		archiveAndUpdateTemplates(WikipediaInfoboxesDict.INFOBOX_TEMPLATES, mode, backend);
+		ApiClient.getCache().printStats();
+		ApiClient.getScheduler().printStats();
+		Metrics.export();
+	}
+	
+	/**
+	 * Archive and update the data files of several templates, up to WikipediaInfoboxesDict.TEMPLATE_PARALLELISM at a time
+	 * Pages embedding more than one of the templates are downloaded once and saved to each template's files (see SharedFetches)
+	 * @param templates		The templates to update
+	 * @param mode			Which pages to download
+	 * @param backend		How to extract infoboxes
+	 * @throws IOException	If any template's files cannot be read or written (the other templates still finish first)
+	 */
+	public static void archiveAndUpdateTemplates(List<InfoboxTemplate> templates, UpdateMode mode, Backend backend) throws IOException {
+		int parallelism = Math.max(1, Math.min(WikipediaInfoboxesDict.TEMPLATE_PARALLELISM, templates.size()));
+		SharedFetches.begin();
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (InfoboxTemplate template:templates) {
+				futures.add(executor.submit(() -> {
+					archiveAndUpdateByTemplate(template.title, template.pageHtmlFileName, template.parsedPagesFileName, mode, backend);
+					return null;
+				}));
+			}
+			
+			Throwable failure = null;
+			for (Future<Void> future:futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					failure = failure==null ? e.getCause() : failure;
+				}
+			}
+			
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			} else if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			} else if (failure!=null) {
+				throw new RuntimeException("Template update failed", failure);
+			}
+			
+			exportColumnar(templates);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while updating templates", e);
+		} finally {
+			executor.shutdownNow();
+			int reused = SharedFetches.end();
+			if (reused > 0) {
+				System.out.println("Reused " + reused + " pages downloaded for more than one template.");
+			}
+		}
+	}
+	
+	/**
+	 * Parse Drugbox and Chembox pages from a local Wikipedia XML dump instead of the API, archiving existing parsed pages
+	 * Pages are routed to the parsed data file of each template they call (see WikipediaInfoboxesDict.INFOBOX_TEMPLATES), 
+	 * as with pages listed by the API
+	 * Pages are written to partial files, which replace the existing parsed data files only once the whole dump has been read,
+	 * so a dump that fails partway through leaves the existing files as they were (the partial files are overwritten on the next run)
+	 * @param dumpFile		The pages-articles dump (plain XML or bz2)
+	 * @param indexFile		The multistream index file, to read a multistream dump in parallel, or null to read sequentially
+	 * @throws IOException	If the dump cannot be read or the parsed pages cannot be written
+	 */
+	public static void archiveAndIngestDump(File dumpFile, File indexFile) throws IOException {
+		System.out.println("Reading pages from " + dumpFile.getName() + "...");
+		List<InfoboxTemplate> templates = WikipediaInfoboxesDict.INFOBOX_TEMPLATES;
+		Map<InfoboxTemplate, RecordWriter<ParsedPage>> writers = new LinkedHashMap<InfoboxTemplate, RecordWriter<ParsedPage>>();
+		try {
+			for (InfoboxTemplate template:templates) {
+				writers.put(template, PageParser.openParsedPagesWriter(PagePipeline.PARTIAL_FILE_PREFIX + template.parsedPagesFileName));
+			}
+			
+			Consumer<DumpPage> writePage = page -> {
+				try {
+					for (Map.Entry<InfoboxTemplate, RecordWriter<ParsedPage>> entry:writers.entrySet()) {
+						if (page.callsTemplate(entry.getKey().callNames)) {
+							entry.getValue().write(page.parsedPage);
+						}
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			};
+			
+			if (indexFile!=null) {
+				DumpReader.forEachPage(dumpFile, indexFile, WikipediaInfoboxesDict.PARSE_PARALLELISM, writePage);
+			} else {
+				DumpReader.forEachPage(dumpFile, writePage);
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			for (RecordWriter<ParsedPage> writer:writers.values()) {
+				writer.close();
+			}
+		}
 		
-		// If there are existing parsed pages, save them
-		if (existingParsedPages.size() > 0) {
-			PageParser.saveParsedPages(existingParsedPages, generateArchiveFileName(parsedPagesFileName));
+		// Replace the parsed data files only now that the whole dump has been read
+		for (Map.Entry<InfoboxTemplate, RecordWriter<ParsedPage>> entry:writers.entrySet()) {
+			String parsedPagesFileName = entry.getKey().parsedPagesFileName;
+			try {
+				ArchiveStore.archiveParsedPagesFile(parsedPagesFileName);
+			} catch (NoSuchFileException e) {
+				// If the file doesn't exist, there is nothing to archive
+			}
+			
+			Files.move(new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + PagePipeline.PARTIAL_FILE_PREFIX + parsedPagesFileName).toPath(),
+					new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + parsedPagesFileName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			System.out.println("Parsed and saved " + entry.getValue().getCount() + " pages to " + parsedPagesFileName + ".");
 		}
 		
-		// Save the new parsed pages
-		PageParser.saveParsedPages(updatedParsedPages, parsedPagesFileName);
-		System.out.println("Parsed and saved " + updatedParsedPages.size() + " pages to " + parsedPagesFileName + ".");
+		// The files were replaced outright, so any loaded indexes are rebuilt from them on next use
+		for (InfoboxTemplate template:templates) {
+			identifierIndexes.remove(template.parsedPagesFileName);
+		}
 		
-		return updatedParsedPages;
+		exportColumnar(templates);
 	}
 	
-	private static void archiveAndUpdateByTemplate(String eiTitle, String pageHtmlFileName, String parsedPagesFileName, 
-			boolean redownloadExisting) throws IOException {
-		try {
-			// Make sure Unirest is configured
-			Unirest.config().cookieSpec("standard").connectTimeout(0).socketTimeout(0);
-		} catch (Exception e) {
-			// Ignore if Unirest already configured
+	/**
+	 * Export the parsed data file of each template to Parquet (see PageParser.exportParsedPagesFile), if enabled
+	 * Files that have not changed since their last export are skipped
+	 */
+	private static void exportColumnar(List<InfoboxTemplate> templates) throws IOException {
+		if (!WikipediaInfoboxesDict.EXPORT_COLUMNAR) {
+			return;
 		}
 		
-		List<PageHtml> updatedPageHtml = archiveAndUpdatePageHtml(pageHtmlFileName, eiTitle, redownloadExisting);
-		archiveAndUpdateParsedPages(parsedPagesFileName, updatedPageHtml);
+		for (InfoboxTemplate template:templates) {
+			File parsedFile = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + template.parsedPagesFileName);
+			File columnarFile = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH 
+					+ PageParser.getColumnarFileName(template.parsedPagesFileName));
+			if (parsedFile.exists() && (!columnarFile.exists() || columnarFile.lastModified() < parsedFile.lastModified())) {
+				PageParser.exportParsedPagesFile(template.parsedPagesFileName);
+			}
+		}
 	}
 	
-	public static void archiveAndUpdateEverything(boolean redownloadExisting) throws IOException {
-		archiveAndUpdateByTemplate(WikipediaInfoboxesDict.TEMPLATE_DRUGBOX, WikipediaInfoboxesDict.DRUGBOX_RAW_HTML_FILE_NAME,
-				WikipediaInfoboxesDict.DRUGBOX_PARSED_DATA_FILE_NAME, redownloadExisting);
-		archiveAndUpdateByTemplate(WikipediaInfoboxesDict.TEMPLATE_CHEMBOX, WikipediaInfoboxesDict.CHEMBOX_RAW_HTML_FILE_NAME,
-				WikipediaInfoboxesDict.CHEMBOX_PARSED_DATA_FILE_NAME, redownloadExisting);
+	/**
+	 * Link the identifiers parsed for every template (see WikipediaInfoboxesDict.INFOBOX_TEMPLATES) to a local DSSTox export,
+	 * writing matched, conflict, and unmatched reports under WikipediaInfoboxesDict.LINKAGE_FOLDER_PATH (see DsstoxLinker)
+	 * @param dsstoxFile	The DSSTox export (CSV or TSV with a header row, optionally gzipped)
+	 * @return				The number of infoboxes with each status
+	 * @throws IOException	If a parsed data file or the export cannot be read, or a report cannot be written
+	 */
+	public static Map<DsstoxLinker.Status, Integer> linkToDsstox(File dsstoxFile) throws IOException {
+		System.out.println("Linking parsed identifiers to " + dsstoxFile.getName() + "...");
+		Map<String, IdentifierIndex> indexes = new LinkedHashMap<String, IdentifierIndex>();
+		for (InfoboxTemplate template:WikipediaInfoboxesDict.INFOBOX_TEMPLATES) {
+			indexes.put(template.parsedPagesFileName, getIdentifierIndex(template.parsedPagesFileName));
+		}
+		
+		return DsstoxLinker.link(dsstoxFile, indexes);
 	}
 	
 	public static void main(String[] args) {
 		try {
-			archiveAndUpdateEverything(false);
+			// With "link" and a DSSTox export as arguments, link the existing parsed data to DSSTox instead of updating it
+			if (args.length > 1 && args[0].equals("link")) {
+				linkToDsstox(new File(args[1]));
+				Metrics.export();
+				return;
+			}
+			
+			// With a dump file (and optionally its multistream index) as arguments, read the dump instead of the API
+			if (args.length > 0) {
+				archiveAndIngestDump(new File(args[0]), args.length > 1 ? new File(args[1]) : null);
+				Metrics.export();
+				return;
+			}
+			
+			archiveAndUpdateEverything(WikipediaInfoboxesDict.UPDATE_MODE);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,336 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.RecordFiles.RecordWriter;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+
+/**
+ * Class to archive raw and parsed data files as lightweight snapshots over a content-addressed, deduplicated store
+ * Each distinct infobox HTML string (and each distinct parsed page) is stored once, gzipped, in append-only segment files,
+ * keyed by its SHA-256 hash; a snapshot is a manifest of page ID to hash(es), so archiving costs roughly the size of
+ * the change since the last snapshot, and any snapshot can be restored in full
+ * Layout under WikipediaInfoboxesDict.ARCHIVE_FOLDER_PATH:
+ * 	segments/segment-NNNNN.dat	Gzipped objects, appended back to back
+ * 	index.ndjson				One line per object: hash, segment, offset, length
+ * 	snapshots/*.ndjson.gz		One manifest per archived file
+ * @author GSINCL01
+ *
+ */
+public class ArchiveStore {
+
+	/**
+	 * Class to hold the location of a stored object
+	 * @author GSINCL01
+	 *
+	 */
+	public static class ObjectLocation {
+		public String hash;
+		public int segment;
+		public long offset;
+		public int length;
+	}
+
+	/**
+	 * Snapshot manifest entry for a page from a raw HTML file
+	 * @author GSINCL01
+	 *
+	 */
+	public static class PageHtmlEntry {
+		public Integer pageId;
+		public String title;
+		public Long lastRevId;
+		public String touched;
+		public List<String> infoboxHashes = new ArrayList<String>();
+	}
+
+	/**
+	 * Snapshot manifest entry for a page from a parsed data file
+	 * @author GSINCL01
+	 *
+	 */
+	public static class ParsedPageEntry {
+		public Integer pageId;
+		public String hash;
+	}
+
+	private static SimpleDateFormat TIMESTAMP_FORMAT = new SimpleDateFormat("yyyy-MM-dd-HHmmss");
+
+	private static Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+	// Locations of all stored objects, loaded from the index on first use
+	private static Map<String, ObjectLocation> index = null;
+
+	/**
+	 * Archive a raw HTML data file as a snapshot
+	 * @param fileName		The raw HTML data file to archive
+	 * @return				The name of the snapshot
+	 * @throws IOException	If the file does not exist (NoSuchFileException), cannot be read, or the snapshot cannot be written
+	 */
+	public static synchronized String archivePageHtmlFile(String fileName) throws IOException {
+		checkExists(new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + fileName));
+		String snapshotName = generateSnapshotName(fileName);
+		int[] newObjects = new int[1];
+		try (RecordWriter<PageHtmlEntry> writer = RecordFiles.openWriter(getSnapshotFile(snapshotName), PageHtmlEntry.class)) {
+			PageDownloader.forEachPageHtmlInFile(fileName, html -> {
+				PageHtmlEntry entry = new PageHtmlEntry();
+				entry.pageId = html.pageId;
+				entry.title = html.title;
+				entry.lastRevId = html.lastRevId;
+				entry.touched = html.touched;
+				try {
+					for (String infoboxHtml:html.infoboxHtml) {
+						entry.infoboxHashes.add(putObject(infoboxHtml, newObjects));
+					}
+					writer.write(entry);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		System.out.println("Archived " + fileName + " as snapshot " + snapshotName + " (" + newObjects[0] + " new objects stored).");
+		return snapshotName;
+	}
+
+	/**
+	 * Archive a parsed data file as a snapshot
+	 * @param fileName		The parsed data file to archive
+	 * @return				The name of the snapshot
+	 * @throws IOException	If the file does not exist (NoSuchFileException), cannot be read, or the snapshot cannot be written
+	 */
+	public static synchronized String archiveParsedPagesFile(String fileName) throws IOException {
+		checkExists(new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + fileName));
+		String snapshotName = generateSnapshotName(fileName);
+		int[] newObjects = new int[1];
+		try (RecordWriter<ParsedPageEntry> writer = RecordFiles.openWriter(getSnapshotFile(snapshotName), ParsedPageEntry.class)) {
+			PageParser.forEachParsedPageInFile(fileName, page -> {
+				ParsedPageEntry entry = new ParsedPageEntry();
+				entry.pageId = page.pageId;
+				try {
+					entry.hash = putObject(gson.toJson(page), newObjects);
+					writer.write(entry);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		System.out.println("Archived " + fileName + " as snapshot " + snapshotName + " (" + newObjects[0] + " new objects stored).");
+		return snapshotName;
+	}
+
+	/**
+	 * Reconstruct the pages of a raw HTML file from a snapshot
+	 * @param snapshotName	The snapshot to restore (see listSnapshots)
+	 * @return				The pages as they were when archived
+	 * @throws IOException	If the snapshot or its objects cannot be read
+	 */
+	public static synchronized List<PageHtml> restorePageHtml(String snapshotName) throws IOException {
+		List<PageHtml> pageHtml = new ArrayList<PageHtml>();
+		for (PageHtmlEntry entry:RecordFiles.readAll(getSnapshotFile(snapshotName), PageHtmlEntry.class)) {
+			List<String> infoboxHtml = new ArrayList<String>();
+			for (String hash:entry.infoboxHashes) {
+				infoboxHtml.add(getObject(hash));
+			}
+
+			PageHtml html = new PageHtml(entry.title, entry.pageId, infoboxHtml);
+			html.lastRevId = entry.lastRevId;
+			html.touched = entry.touched;
+			pageHtml.add(html);
+		}
+
+		return pageHtml;
+	}
+
+	/**
+	 * Reconstruct the pages of a parsed data file from a snapshot
+	 * @param snapshotName	The snapshot to restore (see listSnapshots)
+	 * @return				The parsed pages as they were when archived
+	 * @throws IOException	If the snapshot or its objects cannot be read
+	 */
+	public static synchronized List<ParsedPage> restoreParsedPages(String snapshotName) throws IOException {
+		List<ParsedPage> parsedPages = new ArrayList<ParsedPage>();
+		for (ParsedPageEntry entry:RecordFiles.readAll(getSnapshotFile(snapshotName), ParsedPageEntry.class)) {
+			parsedPages.add(gson.fromJson(getObject(entry.hash), ParsedPage.class));
+		}
+
+		return parsedPages;
+	}
+
+	/**
+	 * List the snapshots of a data file, oldest first
+	 * @param fileName	The data file name (e.g. WikipediaInfoboxesDict.CHEMBOX_RAW_HTML_FILE_NAME)
+	 * @return			The snapshot names
+	 */
+	public static List<String> listSnapshots(String fileName) {
+		String prefix = getStem(fileName) + "_archived-";
+		String[] names = new File(WikipediaInfoboxesDict.ARCHIVE_FOLDER_PATH + "snapshots/").list((dir, name) -> name.startsWith(prefix));
+		if (names==null) {
+			return new ArrayList<String>();
+		}
+
+		Arrays.sort(names);
+		return Arrays.asList(names);
+	}
+
+	/**
+	 * Store an object if it is not already stored
+	 * @return	The object's hash
+	 */
+	private static String putObject(String content, int[] newObjects) throws IOException {
+		byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		String hash = sha256(bytes);
+		Map<String, ObjectLocation> index = getIndex();
+		if (index.containsKey(hash)) {
+			return hash;
+		}
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+			gzip.write(bytes);
+		}
+
+		// Roll over to a new segment once the current one is full
+		int segment = Math.max(0, getSegmentCount() - 1);
+		if (getSegmentFile(segment).length() >= WikipediaInfoboxesDict.ARCHIVE_SEGMENT_MAX_BYTES) {
+			segment++;
+		}
+
+		ObjectLocation location = new ObjectLocation();
+		location.hash = hash;
+		location.segment = segment;
+		location.length = compressed.size();
+		File segmentFile = getSegmentFile(segment);
+		segmentFile.getParentFile().mkdirs();
+		try (RandomAccessFile raf = new RandomAccessFile(segmentFile, "rw")) {
+			location.offset = raf.length();
+			raf.seek(location.offset);
+			raf.write(compressed.toByteArray());
+		}
+
+		// The object is written before its index line, so a crash can leave unindexed bytes but never a dangling index entry
+		try (RandomAccessFile raf = new RandomAccessFile(getIndexFile(), "rw")) {
+			raf.seek(raf.length());
+			raf.write((gson.toJson(location) + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+
+		index.put(hash, location);
+		newObjects[0]++;
+		return hash;
+	}
+
+	private static String getObject(String hash) throws IOException {
+		ObjectLocation location = getIndex().get(hash);
+		if (location==null) {
+			throw new IOException("Object " + hash + " not found in archive store");
+		}
+
+		byte[] compressed = new byte[location.length];
+		try (RandomAccessFile raf = new RandomAccessFile(getSegmentFile(location.segment), "r")) {
+			raf.seek(location.offset);
+			raf.readFully(compressed);
+		}
+
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read = 0;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static Map<String, ObjectLocation> getIndex() throws IOException {
+		if (index==null) {
+			Map<String, ObjectLocation> loadedIndex = new HashMap<String, ObjectLocation>();
+			if (getIndexFile().exists()) {
+				RecordFiles.forEach(getIndexFile(), ObjectLocation.class, location -> loadedIndex.put(location.hash, location));
+			}
+			index = loadedIndex;
+		}
+
+		return index;
+	}
+
+	private static void checkExists(File file) throws NoSuchFileException {
+		if (!file.exists()) {
+			throw new NoSuchFileException(file.getPath());
+		}
+	}
+
+	private static int getSegmentCount() {
+		int count = 0;
+		while (getSegmentFile(count).exists()) {
+			count++;
+		}
+
+		return count;
+	}
+
+	private static File getSegmentFile(int segment) {
+		return new File(WikipediaInfoboxesDict.ARCHIVE_FOLDER_PATH + "segments/" + String.format("segment-%05d.dat", segment));
+	}
+
+	private static File getIndexFile() {
+		File file = new File(WikipediaInfoboxesDict.ARCHIVE_FOLDER_PATH + "index.ndjson");
+		file.getParentFile().mkdirs();
+		return file;
+	}
+
+	private static File getSnapshotFile(String snapshotName) {
+		return new File(WikipediaInfoboxesDict.ARCHIVE_FOLDER_PATH + "snapshots/" + snapshotName);
+	}
+
+	private static String generateSnapshotName(String fileName) {
+		return getStem(fileName) + "_archived-" + TIMESTAMP_FORMAT.format(new Date()) + ".ndjson.gz";
+	}
+
+	private static String getStem(String fileName) {
+		return fileName.contains(".") ? fileName.substring(0, fileName.indexOf(".")) : fileName;
+	}
+
+	private static String sha256(byte[] bytes) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+			StringBuilder hex = new StringBuilder();
+			for (byte b:digest) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
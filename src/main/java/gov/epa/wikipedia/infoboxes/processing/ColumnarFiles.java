@@ -0,0 +1,620 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+
+/**
+ * Class to write flat tables to Parquet files one row at a time, for fast column-pruned reads in pandas, Spark, DuckDB, etc.
+ * Only the part of the format needed here is written, so no Parquet or Hadoop libraries are needed: flat schemas of 32-bit integer
+ * and UTF-8 string columns (optionally nullable), one page per column per row group, PLAIN or dictionary encoding, and
+ * no compression or GZIP. Rows are buffered a row group at a time, so memory use is bounded by the row group size
+ * Format spec: https://github.com/apache/parquet-format
+ * @author GSINCL01
+ *
+ */
+public class ColumnarFiles {
+
+	/**
+	 * Compression codecs for column pages (with their Parquet codec IDs)
+	 * @author GSINCL01
+	 *
+	 */
+	public enum Codec {
+		UNCOMPRESSED(0),
+		GZIP(2);
+
+		private int id;
+
+		private Codec(int id) {
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Value types of columns
+	 * @author GSINCL01
+	 *
+	 */
+	public enum ColumnType {
+		INT32,
+		STRING
+	}
+
+	/**
+	 * Class to describe one column of a file
+	 * @author GSINCL01
+	 *
+	 */
+	public static class Column {
+		public String name;
+		public ColumnType type;
+		public boolean optional;
+		public boolean dictionary;
+
+		/**
+		 * @param name			The column name
+		 * @param type			The value type
+		 * @param optional		Whether values can be null
+		 * @param dictionary	Whether to dictionary-encode the column (for strings repeated across rows, e.g. titles)
+		 */
+		public Column(String name, ColumnType type, boolean optional, boolean dictionary) {
+			this.name = name;
+			this.type = type;
+			this.optional = optional;
+			this.dictionary = dictionary && type==ColumnType.STRING;
+		}
+	}
+
+	private static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+	private static final String CREATED_BY = "wikipedia-infoboxes";
+
+	// Parquet enum values (see parquet.thrift)
+	private static final int TYPE_INT32 = 1;
+	private static final int TYPE_BYTE_ARRAY = 6;
+	private static final int REPETITION_REQUIRED = 0;
+	private static final int REPETITION_OPTIONAL = 1;
+	private static final int CONVERTED_TYPE_UTF8 = 0;
+	private static final int ENCODING_PLAIN = 0;
+	private static final int ENCODING_PLAIN_DICTIONARY = 2;
+	private static final int ENCODING_RLE = 3;
+	private static final int PAGE_DATA = 0;
+	private static final int PAGE_DICTIONARY = 2;
+
+	/**
+	 * Class to write a Parquet file one row at a time
+	 * @author GSINCL01
+	 *
+	 */
+	public static class ColumnarWriter implements Closeable {
+		private File file;
+		private OutputStream out;
+		private long position;
+		private List<Column> columns;
+		private Codec codec;
+		private int rowGroupSize;
+		private List<ColumnBuffer> buffers = new ArrayList<ColumnBuffer>();
+		private int bufferedRows;
+		private long count;
+		private List<byte[]> rowGroups = new ArrayList<byte[]>();
+		private long startNanos = System.nanoTime();
+		private boolean closed;
+
+		private ColumnarWriter(File file, List<Column> columns, int rowGroupSize, Codec codec) throws IOException {
+			this.file = file;
+			this.columns = columns;
+			this.rowGroupSize = Math.max(1, rowGroupSize);
+			this.codec = codec;
+			for (Column column:columns) {
+				buffers.add(new ColumnBuffer(column));
+			}
+
+			out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+			write(MAGIC);
+		}
+
+		/**
+		 * Write a row, flushing a row group to the file once enough rows are buffered
+		 * @param values		The row's values, in column order (Integer for INT32 columns, String for STRING columns)
+		 * @throws IOException	If a row group cannot be written
+		 */
+		public void write(Object... values) throws IOException {
+			if (values.length!=columns.size()) {
+				throw new IllegalArgumentException("Expected " + columns.size() + " values, got " + values.length);
+			}
+
+			for (int i = 0; i < values.length; i++) {
+				buffers.get(i).add(values[i]);
+			}
+			count++;
+			if (++bufferedRows==rowGroupSize) {
+				flushRowGroup();
+			}
+		}
+
+		/**
+		 * @return	The number of rows written so far
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+			try {
+				if (bufferedRows > 0) {
+					flushRowGroup();
+				}
+
+				byte[] footer = encodeFileMetaData();
+				write(footer);
+				write(new byte[] {(byte) footer.length, (byte) (footer.length >>> 8), (byte) (footer.length >>> 16),
+						(byte) (footer.length >>> 24)});
+				write(MAGIC);
+			} finally {
+				out.close();
+			}
+
+			String labels = Metrics.labels("file", file.getName(), "op", "write");
+			Metrics.observeNanos("file_duration_seconds", labels, System.nanoTime() - startNanos);
+			Metrics.add("file_records_total", labels, count);
+			Metrics.set("file_size_bytes", Metrics.labels("file", file.getName()), file.length());
+		}
+
+		private void write(byte[] bytes) throws IOException {
+			out.write(bytes);
+			position += bytes.length;
+		}
+
+		/**
+		 * Write one column chunk per column for the buffered rows, keeping the row group's metadata for the footer
+		 */
+		private void flushRowGroup() throws IOException {
+			ThriftWriter rowGroup = new ThriftWriter();
+			rowGroup.listBegin(1, ThriftWriter.STRUCT, columns.size());
+			long totalBytes = 0;
+			for (ColumnBuffer buffer:buffers) {
+				long chunkStart = position;
+				long dictionaryOffset = -1;
+				long uncompressedSize = 0;
+				long compressedSize = 0;
+				if (buffer.column.dictionary) {
+					dictionaryOffset = position;
+					byte[] page = buffer.encodeDictionary();
+					byte[] compressed = compress(page);
+					ThriftWriter header = new ThriftWriter();
+					header.writeI32(1, PAGE_DICTIONARY);
+					header.writeI32(2, page.length);
+					header.writeI32(3, compressed.length);
+					header.structBegin(7);
+					header.writeI32(1, buffer.dictionary.size());
+					header.writeI32(2, ENCODING_PLAIN_DICTIONARY);
+					header.structEnd();
+					byte[] headerBytes = header.finish();
+					write(headerBytes);
+					write(compressed);
+					uncompressedSize += headerBytes.length + page.length;
+					compressedSize += headerBytes.length + compressed.length;
+				}
+
+				long dataOffset = position;
+				byte[] page = buffer.encodeData();
+				byte[] compressed = compress(page);
+				ThriftWriter header = new ThriftWriter();
+				header.writeI32(1, PAGE_DATA);
+				header.writeI32(2, page.length);
+				header.writeI32(3, compressed.length);
+				header.structBegin(5);
+				header.writeI32(1, bufferedRows);
+				header.writeI32(2, buffer.column.dictionary ? ENCODING_PLAIN_DICTIONARY : ENCODING_PLAIN);
+				header.writeI32(3, ENCODING_RLE);
+				header.writeI32(4, ENCODING_RLE);
+				header.structEnd();
+				byte[] headerBytes = header.finish();
+				write(headerBytes);
+				write(compressed);
+				uncompressedSize += headerBytes.length + page.length;
+				compressedSize += headerBytes.length + compressed.length;
+				totalBytes += uncompressedSize;
+
+				// ColumnChunk, with its ColumnMetaData
+				rowGroup.elementBegin();
+				rowGroup.writeI64(2, chunkStart);
+				rowGroup.structBegin(3);
+				rowGroup.writeI32(1, buffer.column.type==ColumnType.INT32 ? TYPE_INT32 : TYPE_BYTE_ARRAY);
+				rowGroup.listBegin(2, ThriftWriter.I32, 2);
+				rowGroup.elementI32(buffer.column.dictionary ? ENCODING_PLAIN_DICTIONARY : ENCODING_PLAIN);
+				rowGroup.elementI32(ENCODING_RLE);
+				rowGroup.listBegin(3, ThriftWriter.BINARY, 1);
+				rowGroup.elementBinary(buffer.column.name);
+				rowGroup.writeI32(4, codec.id);
+				rowGroup.writeI64(5, bufferedRows);
+				rowGroup.writeI64(6, uncompressedSize);
+				rowGroup.writeI64(7, compressedSize);
+				rowGroup.writeI64(9, dataOffset);
+				if (dictionaryOffset >= 0) {
+					rowGroup.writeI64(11, dictionaryOffset);
+				}
+				rowGroup.structEnd();
+				rowGroup.elementEnd();
+
+				buffer.clear();
+			}
+			rowGroup.writeI64(2, totalBytes);
+			rowGroup.writeI64(3, bufferedRows);
+			rowGroups.add(rowGroup.finish());
+			bufferedRows = 0;
+		}
+
+		private byte[] encodeFileMetaData() {
+			ThriftWriter meta = new ThriftWriter();
+			meta.writeI32(1, 1);
+
+			// The root of the schema, then one leaf per column
+			meta.listBegin(2, ThriftWriter.STRUCT, columns.size() + 1);
+			meta.elementBegin();
+			meta.writeBinary(4, "schema");
+			meta.writeI32(5, columns.size());
+			meta.elementEnd();
+			for (Column column:columns) {
+				meta.elementBegin();
+				meta.writeI32(1, column.type==ColumnType.INT32 ? TYPE_INT32 : TYPE_BYTE_ARRAY);
+				meta.writeI32(3, column.optional ? REPETITION_OPTIONAL : REPETITION_REQUIRED);
+				meta.writeBinary(4, column.name);
+				if (column.type==ColumnType.STRING) {
+					meta.writeI32(6, CONVERTED_TYPE_UTF8);
+					meta.structBegin(10);	// LogicalType union, set to STRING
+					meta.structBegin(1);
+					meta.structEnd();
+					meta.structEnd();
+				}
+				meta.elementEnd();
+			}
+
+			meta.writeI64(3, count);
+			meta.listBegin(4, ThriftWriter.STRUCT, rowGroups.size());
+			for (byte[] rowGroup:rowGroups) {
+				meta.elementRaw(rowGroup);
+			}
+			meta.writeBinary(6, CREATED_BY);
+			return meta.finish();
+		}
+
+		private byte[] compress(byte[] page) throws IOException {
+			if (codec==Codec.UNCOMPRESSED) {
+				return page;
+			}
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(page.length / 2 + 64);
+			try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+				gzip.write(page);
+			}
+			return bytes.toByteArray();
+		}
+	}
+
+	/**
+	 * Open a Parquet file for writing rows one at a time, creating parent folders as needed
+	 * Row group size and compression come from WikipediaInfoboxesDict (COLUMNAR_ROW_GROUP_SIZE and COLUMNAR_CODEC)
+	 * @param file			The file to write
+	 * @param columns		The columns of the file
+	 * @return				A writer, which must be closed to finish the file
+	 * @throws IOException	If the file cannot be opened
+	 */
+	public static ColumnarWriter openWriter(File file, List<Column> columns) throws IOException {
+		return openWriter(file, columns, WikipediaInfoboxesDict.COLUMNAR_ROW_GROUP_SIZE, WikipediaInfoboxesDict.COLUMNAR_CODEC);
+	}
+
+	/**
+	 * Open a Parquet file for writing rows one at a time, creating parent folders as needed
+	 * @param file			The file to write
+	 * @param columns		The columns of the file
+	 * @param rowGroupSize	The number of rows per row group
+	 * @param codec			The compression codec for column pages
+	 * @return				A writer, which must be closed to finish the file
+	 * @throws IOException	If the file cannot be opened
+	 */
+	public static ColumnarWriter openWriter(File file, List<Column> columns, int rowGroupSize, Codec codec) throws IOException {
+		if (file.getParentFile()!=null) {
+			file.getParentFile().mkdirs();
+		}
+
+		return new ColumnarWriter(file, columns, rowGroupSize, codec);
+	}
+
+	/**
+	 * Class to buffer one column's values for the current row group
+	 */
+	private static class ColumnBuffer {
+		private Column column;
+		private int[] ints = new int[1024];
+		private int size;
+		private boolean[] present = new boolean[1024];
+		private ByteArrayOutputStream plainStrings = new ByteArrayOutputStream();
+		private Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		private List<String> dictionaryValues = new ArrayList<String>();
+
+		private ColumnBuffer(Column column) {
+			this.column = column;
+		}
+
+		private void add(Object value) {
+			if (value==null && !column.optional) {
+				throw new IllegalArgumentException("Null value in required column " + column.name);
+			}
+
+			if (size==ints.length) {
+				ints = Arrays.copyOf(ints, size * 2);
+				present = Arrays.copyOf(present, size * 2);
+			}
+
+			present[size] = value!=null;
+			if (value!=null && column.type==ColumnType.INT32) {
+				ints[size] = (Integer) value;
+			} else if (value!=null && column.dictionary) {
+				// Dictionary columns keep the index of each value in ints
+				ints[size] = dictionary.computeIfAbsent((String) value, v -> {
+					dictionaryValues.add(v);
+					return dictionaryValues.size() - 1;
+				});
+			} else if (value!=null) {
+				writePlainString(plainStrings, (String) value);
+			}
+			size++;
+		}
+
+		private byte[] encodeDictionary() {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			for (String value:dictionaryValues) {
+				writePlainString(bytes, value);
+			}
+			return bytes.toByteArray();
+		}
+
+		/**
+		 * Encode a data page: definition levels (for optional columns), then the non-null values
+		 */
+		private byte[] encodeData() {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			int valueCount = 0;
+			int[] levels = new int[size];
+			for (int i = 0; i < size; i++) {
+				levels[i] = present[i] ? 1 : 0;
+				valueCount += levels[i];
+			}
+
+			if (column.optional) {
+				byte[] encodedLevels = encodeHybrid(levels, size, 1);
+				writeIntLE(bytes, encodedLevels.length);
+				bytes.write(encodedLevels, 0, encodedLevels.length);
+			}
+
+			// Values of null rows are left out
+			int[] values = new int[valueCount];
+			for (int i = 0, j = 0; i < size; i++) {
+				if (present[i]) {
+					values[j++] = ints[i];
+				}
+			}
+
+			if (column.type==ColumnType.INT32) {
+				for (int value:values) {
+					writeIntLE(bytes, value);
+				}
+			} else if (column.dictionary) {
+				int bitWidth = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(0, dictionaryValues.size() - 1)));
+				bytes.write(bitWidth);
+				byte[] encodedValues = encodeHybrid(values, values.length, bitWidth);
+				bytes.write(encodedValues, 0, encodedValues.length);
+			} else {
+				byte[] plain = plainStrings.toByteArray();
+				bytes.write(plain, 0, plain.length);
+			}
+
+			return bytes.toByteArray();
+		}
+
+		private void clear() {
+			size = 0;
+			plainStrings.reset();
+			dictionary.clear();
+			dictionaryValues.clear();
+		}
+	}
+
+	/**
+	 * Encode small unsigned integers with the RLE / bit-packing hybrid (used for definition levels and dictionary indices)
+	 * Runs of 8 or more equal values are run-length encoded; everything else is bit-packed in groups of 8, the last padded with zeros
+	 */
+	private static byte[] encodeHybrid(int[] values, int count, int bitWidth) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int byteWidth = (bitWidth + 7) / 8;
+		List<Integer> packed = new ArrayList<Integer>();
+		int i = 0;
+		while (i < count) {
+			int run = 1;
+			while (i + run < count && values[i + run]==values[i]) {
+				run++;
+			}
+
+			if (run >= 8) {
+				writeBitPacked(bytes, packed, bitWidth);
+				writeUnsignedVarint(bytes, (long) run << 1);
+				for (int b = 0; b < byteWidth; b++) {
+					bytes.write(values[i] >>> (8 * b));
+				}
+				i += run;
+			} else {
+				for (int end = Math.min(count, i + 8); i < end; i++) {
+					packed.add(values[i]);
+				}
+			}
+		}
+		writeBitPacked(bytes, packed, bitWidth);
+
+		return bytes.toByteArray();
+	}
+
+	private static void writeBitPacked(ByteArrayOutputStream bytes, List<Integer> values, int bitWidth) {
+		if (values.isEmpty()) {
+			return;
+		}
+
+		int groups = (values.size() + 7) / 8;
+		writeUnsignedVarint(bytes, ((long) groups << 1) | 1);
+		long buffer = 0;
+		int bits = 0;
+		for (int i = 0; i < groups * 8; i++) {
+			long value = i < values.size() ? values.get(i) : 0;
+			buffer |= value << bits;
+			bits += bitWidth;
+			while (bits >= 8) {
+				bytes.write((int) buffer);
+				buffer >>>= 8;
+				bits -= 8;
+			}
+		}
+		values.clear();
+	}
+
+	private static void writePlainString(ByteArrayOutputStream bytes, String value) {
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+		writeIntLE(bytes, utf8.length);
+		bytes.write(utf8, 0, utf8.length);
+	}
+
+	private static void writeIntLE(ByteArrayOutputStream bytes, int value) {
+		bytes.write(value);
+		bytes.write(value >>> 8);
+		bytes.write(value >>> 16);
+		bytes.write(value >>> 24);
+	}
+
+	private static void writeUnsignedVarint(ByteArrayOutputStream bytes, long value) {
+		while ((value & ~0x7FL)!=0) {
+			bytes.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		bytes.write((int) value);
+	}
+
+	/**
+	 * Class to write Thrift structs with the compact protocol, as used for Parquet page headers and file metadata
+	 * Fields must be written in increasing ID order within each struct
+	 */
+	private static class ThriftWriter {
+		private static final int I32 = 5;
+		private static final int I64 = 6;
+		private static final int BINARY = 8;
+		private static final int LIST = 9;
+		private static final int STRUCT = 12;
+
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private Deque<Integer> lastFieldIds = new ArrayDeque<Integer>();
+		private int lastFieldId;
+
+		private void fieldBegin(int id, int type) {
+			int delta = id - lastFieldId;
+			if (delta > 0 && delta <= 15) {
+				bytes.write((delta << 4) | type);
+			} else {
+				bytes.write(type);
+				writeUnsignedVarint(bytes, zigzag(id));
+			}
+			lastFieldId = id;
+		}
+
+		private void writeI32(int id, int value) {
+			fieldBegin(id, I32);
+			writeUnsignedVarint(bytes, zigzag(value));
+		}
+
+		private void writeI64(int id, long value) {
+			fieldBegin(id, I64);
+			writeUnsignedVarint(bytes, zigzag(value));
+		}
+
+		private void writeBinary(int id, String value) {
+			fieldBegin(id, BINARY);
+			elementBinary(value);
+		}
+
+		private void structBegin(int id) {
+			fieldBegin(id, STRUCT);
+			elementBegin();
+		}
+
+		private void structEnd() {
+			elementEnd();
+		}
+
+		private void listBegin(int id, int elementType, int size) {
+			fieldBegin(id, LIST);
+			if (size < 15) {
+				bytes.write((size << 4) | elementType);
+			} else {
+				bytes.write(0xF0 | elementType);
+				writeUnsignedVarint(bytes, size);
+			}
+		}
+
+		private void elementBegin() {
+			lastFieldIds.push(lastFieldId);
+			lastFieldId = 0;
+		}
+
+		private void elementEnd() {
+			bytes.write(0);
+			lastFieldId = lastFieldIds.pop();
+		}
+
+		private void elementI32(int value) {
+			writeUnsignedVarint(bytes, zigzag(value));
+		}
+
+		private void elementBinary(String value) {
+			byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+			writeUnsignedVarint(bytes, utf8.length);
+			bytes.write(utf8, 0, utf8.length);
+		}
+
+		/**
+		 * Add a struct element already encoded by another writer (from elementBegin to elementEnd)
+		 */
+		private void elementRaw(byte[] struct) {
+			bytes.write(struct, 0, struct.length);
+		}
+
+		/**
+		 * End the top-level struct and get its bytes
+		 */
+		private byte[] finish() {
+			bytes.write(0);
+			return bytes.toByteArray();
+		}
+
+		private static long zigzag(long value) {
+			return (value << 1) ^ (value >> 63);
+		}
+	}
+}
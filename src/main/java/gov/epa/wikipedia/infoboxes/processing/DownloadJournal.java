@@ -0,0 +1,198 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+
+/**
+ * Class to log downloaded pages as they arrive, so that an interrupted download can resume without fetching them again
+ * The journal of a raw data file sits next to it (e.g. chembox_raw_html.journal.ndjson) and holds one PageHtml record per line
+ * Every record is flushed as it is written, and the file is synced to disk every WikipediaInfoboxesDict.JOURNAL_SYNC_INTERVAL records
+ * On opening, records left by an interrupted run are read back; a torn last line (from a crash mid-write) is dropped
+ * The journal is deleted once the data file has been saved with its pages (see PageDownloader.savePageHtml)
+ * @author GSINCL01
+ *
+ */
+public class DownloadJournal implements Closeable {
+
+	private static Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+	private File file;
+	private FileOutputStream out;
+	private Map<Integer, PageHtml> pages = new LinkedHashMap<Integer, PageHtml>();
+	private int resumedCount;
+	private int unsyncedCount;
+	private boolean failed;
+
+	private DownloadJournal(File file) throws IOException {
+		this.file = file;
+		long validLength = recover();
+		if (validLength < file.length()) {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(validLength);
+			}
+		}
+
+		resumedCount = pages.size();
+		if (file.getParentFile()!=null) {
+			file.getParentFile().mkdirs();
+		}
+		out = new FileOutputStream(file, true);
+	}
+
+	/**
+	 * Open the journal of a raw data file, reading back any pages logged by an interrupted run
+	 * @param fileName		The raw data file (e.g. WikipediaInfoboxesDict.CHEMBOX_RAW_HTML_FILE_NAME)
+	 * @return				An open journal, which must be closed when done
+	 * @throws IOException	If the journal cannot be read or opened for writing
+	 */
+	public static DownloadJournal open(String fileName) throws IOException {
+		return new DownloadJournal(getJournalFile(fileName));
+	}
+
+	/**
+	 * Delete the journal of a raw data file, e.g. once its pages have been saved to the data file
+	 * @param fileName	The raw data file
+	 * @return			True if there was a journal and it was deleted
+	 */
+	public static boolean delete(String fileName) {
+		return getJournalFile(fileName).delete();
+	}
+
+	/**
+	 * Get the pages in the journal, keyed by page ID (the latest record wins if a page was logged more than once)
+	 * @return	The journaled pages
+	 */
+	public synchronized Map<Integer, PageHtml> getPages() {
+		return new LinkedHashMap<Integer, PageHtml>(pages);
+	}
+
+	/**
+	 * Get the number of pages read back from an interrupted run when the journal was opened
+	 * @return	The resumed page count
+	 */
+	public int getResumedCount() {
+		return resumedCount;
+	}
+
+	/**
+	 * Forget journaled pages that should be downloaded again (e.g. pages edited since they were logged)
+	 * The records stay in the file, but a page downloaded again is logged again, and the latest record wins on resume
+	 * @param filter	Which pages to forget
+	 * @return			The number of pages forgotten
+	 */
+	public synchronized int discardIf(Predicate<PageHtml> filter) {
+		int size = pages.size();
+		pages.values().removeIf(filter);
+		return size - pages.size();
+	}
+
+	/**
+	 * Log a downloaded page
+	 * Pages without a page ID (failed downloads) are not logged, so they are retried on resume
+	 * If the journal cannot be written, a warning is printed and the download goes on without it
+	 * @param html	The downloaded page
+	 */
+	public synchronized void append(PageHtml html) {
+		if (failed || html==null || html.pageId==null) {
+			return;
+		}
+
+		try {
+			out.write((gson.toJson(html) + "\n").getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			pages.put(html.pageId, html);
+			if (++unsyncedCount >= WikipediaInfoboxesDict.JOURNAL_SYNC_INTERVAL) {
+				checkpoint();
+			}
+		} catch (IOException e) {
+			failed = true;
+			System.out.println("Could not write to download journal " + file.getName() + ", continuing without it: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Sync the journal to disk, so that the pages logged so far survive a system crash as well as a process crash
+	 * @throws IOException	If the journal cannot be synced
+	 */
+	public synchronized void checkpoint() throws IOException {
+		out.getFD().sync();
+		unsyncedCount = 0;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (!failed) {
+				checkpoint();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read back the records of an existing journal
+	 * @return	The length of the file up to the end of the last complete record
+	 */
+	private long recover() throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+
+		long validLength = 0;
+		long position = 0;
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+			int b;
+			while ((b = in.read())!=-1) {
+				position++;
+				if (b!='\n') {
+					line.write(b);
+					continue;
+				}
+
+				PageHtml html = readRecord(line);
+				if (html==null) {
+					break;
+				}
+				pages.put(html.pageId, html);
+				validLength = position;
+				line.reset();
+			}
+		}
+
+		return validLength;
+	}
+
+	private static PageHtml readRecord(ByteArrayOutputStream line) {
+		try {
+			PageHtml html = gson.fromJson(new String(line.toByteArray(), StandardCharsets.UTF_8), PageHtml.class);
+			return html!=null && html.pageId!=null ? html : null;
+		} catch (JsonParseException e) {
+			return null;
+		}
+	}
+
+	private static File getJournalFile(String fileName) {
+		String stem = fileName.contains(".") ? fileName.substring(0, fileName.indexOf(".")) : fileName;
+		return new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + stem + ".journal.ndjson");
+	}
+}
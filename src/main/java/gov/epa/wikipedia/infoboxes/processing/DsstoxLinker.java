@@ -0,0 +1,414 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.IdentifierIndex.IdentifierType;
+import gov.epa.wikipedia.infoboxes.processing.RecordFiles.RecordWriter;
+import gov.epa.wikipedia.infoboxes.processing.data.Identifiers;
+import gov.epa.wikipedia.infoboxes.processing.data.Infobox;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+
+/**
+ * Class to link the identifiers in parsed infoboxes to substances in a local DSSTox export (CSV or TSV, plain or gzipped)
+ * The export is read once, in chunks joined in parallel against the identifier index of each parsed data file on DTXSID, CASRN,
+ * and InChIKey (and optionally the first InChIKey block), so only the matched rows are ever held in memory
+ * Each infobox is then reported as matched (one DSSTox substance), conflicting (several substances, or a substance whose DTXSID
+ * differs from the infobox's own), or unmatched, one record at a time to a report file per status under LINKAGE_FOLDER_PATH
+ * @author GSINCL01
+ *
+ */
+public class DsstoxLinker {
+
+	/**
+	 * Outcomes of linking an infobox
+	 * @author GSINCL01
+	 *
+	 */
+	public enum Status {
+		MATCHED,	// All identifiers found point to one DSSTox substance, which agrees with any DTXSID in the infobox
+		CONFLICT,	// Identifiers point to several substances, or to one whose DTXSID is not the infobox's own
+		UNMATCHED	// No identifier was found in DSSTox (InChIKey block candidates may still be listed)
+	}
+
+	/**
+	 * Class to hold a DSSTox substance found for an infobox, with the identifiers it was found by
+	 * @author GSINCL01
+	 *
+	 */
+	public static class SubstanceMatch {
+		public String dtxsid;
+		public String preferredName;
+		public String casrn;
+		public String inchikey;
+		public List<String> matchedOn = new ArrayList<String>();
+
+		private SubstanceMatch(String[] row) {
+			this.dtxsid = row[DTXSID];
+			this.preferredName = row[NAME];
+			this.casrn = row[CASRN];
+			this.inchikey = row[INCHIKEY];
+		}
+	}
+
+	/**
+	 * Class to hold the linkage report for one infobox
+	 * @author GSINCL01
+	 *
+	 */
+	public static class InfoboxLink {
+		public Integer pageId;
+		public String pageTitle;
+		public String infoboxTitle;
+		public Status status;
+		public List<SubstanceMatch> matches = new ArrayList<SubstanceMatch>();
+		public List<SubstanceMatch> inchikeyBlockCandidates = new ArrayList<SubstanceMatch>();
+	}
+
+	// Positions of the columns used in each parsed row
+	private static final int DTXSID = 0;
+	private static final int CASRN = 1;
+	private static final int INCHIKEY = 2;
+	private static final int NAME = 3;
+
+	private static final String MATCHED_ON_BLOCK = "INCHIKEY_BLOCK";
+	private static final int INCHIKEY_BLOCK_LENGTH = 14;
+
+	/**
+	 * Class to collect the substances found for one infobox while the export is read
+	 */
+	private static class Links {
+		private Map<String, SubstanceMatch> matches = new LinkedHashMap<String, SubstanceMatch>();
+		private Map<String, SubstanceMatch> candidates = new LinkedHashMap<String, SubstanceMatch>();
+
+		private synchronized void add(String[] row, String matchedOn) {
+			Map<String, SubstanceMatch> target = matchedOn.equals(MATCHED_ON_BLOCK) ? candidates : matches;
+			SubstanceMatch match = target.computeIfAbsent(row[DTXSID], dtxsid -> new SubstanceMatch(row));
+			if (!match.matchedOn.contains(matchedOn)) {
+				match.matchedOn.add(matchedOn);
+			}
+		}
+	}
+
+	/**
+	 * Class to hold one parsed data file being linked: its index, the InChIKeys in it by first block, and the links found so far
+	 */
+	private static class Target {
+		private String parsedPagesFileName;
+		private IdentifierIndex index;
+		private Map<String, List<String>> inchikeysByBlock = new HashMap<String, List<String>>();
+		private Map<Long, Links> links = new ConcurrentHashMap<Long, Links>();
+
+		private Target(String parsedPagesFileName, IdentifierIndex index) {
+			this.parsedPagesFileName = parsedPagesFileName;
+			this.index = index;
+			if (WikipediaInfoboxesDict.LINKAGE_MATCH_INCHIKEY_BLOCK) {
+				index.forEach(IdentifierType.INCHIKEY, (inchikey, matches) -> inchikeysByBlock
+						.computeIfAbsent(inchikey.substring(0, INCHIKEY_BLOCK_LENGTH), block -> new ArrayList<String>()).add(inchikey));
+			}
+		}
+
+		private void addLinks(long[] postings, String[] row, String matchedOn) {
+			if (postings!=null) {
+				for (long posting:postings) {
+					links.computeIfAbsent(posting, p -> new Links()).add(row, matchedOn);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Link the infoboxes of several parsed data files to a DSSTox export, reading the export once, and write a report per status
+	 * for each file (e.g. "data/linkage/chembox_parsed_data_conflict.ndjson")
+	 * @param dsstoxFile	The DSSTox export, with a header row
+	 * @param indexes		The identifier index of each parsed data file, keyed by file name (see WikipediaInfoboxesMain.getIdentifierIndex)
+	 * @return				The number of infoboxes with each status, summed over the files
+	 * @throws IOException	If the export cannot be read, has no DTXSID column, or a report cannot be written
+	 */
+	public static Map<Status, Integer> link(File dsstoxFile, Map<String, IdentifierIndex> indexes) throws IOException {
+		long start = System.nanoTime();
+		List<Target> targets = new ArrayList<Target>();
+		indexes.forEach((fileName, index) -> targets.add(new Target(fileName, index)));
+
+		AtomicLong rowCount = new AtomicLong();
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(openExport(dsstoxFile), StandardCharsets.UTF_8), 1 << 16)) {
+			String header = br.readLine();
+			if (header==null) {
+				throw new IOException("DSSTox export " + dsstoxFile.getName() + " is empty");
+			}
+
+			char delimiter = header.indexOf('\t') >= 0 ? '\t' : ',';
+			int[] columns = findColumns(splitLine(header, delimiter, Integer.MAX_VALUE), dsstoxFile);
+			int lastColumn = Math.max(Math.max(columns[DTXSID], columns[CASRN]), Math.max(columns[INCHIKEY], columns[NAME]));
+
+			int parallelism = Math.max(1, WikipediaInfoboxesDict.LINKAGE_PARALLELISM);
+			Pipeline pipeline = new Pipeline("DSSTox linkage");
+			Pipeline.Channel<List<String>> chunks = pipeline.channel(parallelism * 2);
+			Pipeline.Channel<Integer> joined = pipeline.channel(parallelism * 2);
+			pipeline.source("read", chunks, emit -> {
+				List<String> chunk = new ArrayList<String>(WikipediaInfoboxesDict.LINKAGE_CHUNK_SIZE);
+				String line = null;
+				while ((line = br.readLine())!=null) {
+					chunk.add(line);
+					if (chunk.size()==WikipediaInfoboxesDict.LINKAGE_CHUNK_SIZE) {
+						emit.accept(chunk);
+						chunk = new ArrayList<String>(WikipediaInfoboxesDict.LINKAGE_CHUNK_SIZE);
+					}
+				}
+				if (!chunk.isEmpty()) {
+					emit.accept(chunk);
+				}
+			});
+			pipeline.stage("join", parallelism, chunks, joined, (chunk, emit) -> {
+				List<String[]> rows = parseRows(chunk, delimiter, columns, lastColumn);
+				for (Target target:targets) {
+					joinChunk(rows, target);
+				}
+				emit.accept(rows.size());
+			});
+			pipeline.sink("count", joined, rows -> rowCount.addAndGet(rows));
+			pipeline.run();
+		}
+
+		Map<Status, Integer> counts = new EnumMap<Status, Integer>(Status.class);
+		for (Status status:Status.values()) {
+			counts.put(status, 0);
+		}
+		for (Target target:targets) {
+			writeReports(target, counts);
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		Metrics.recordStage("linkage", rowCount.intValue(), System.nanoTime() - start);
+		counts.forEach((status, count) -> Metrics.add("linked_infoboxes_total", Metrics.labels("status", status.name().toLowerCase()), count));
+		System.out.println(String.format("Linked infoboxes to %d DSSTox rows in %.1f s: %d matched, %d conflicting, %d unmatched.",
+				rowCount.get(), seconds, counts.get(Status.MATCHED), counts.get(Status.CONFLICT), counts.get(Status.UNMATCHED)));
+		return counts;
+	}
+
+	/**
+	 * Find the DTXSID, CASRN, InChIKey, and name columns by header name (-1 for each column not present, except DTXSID)
+	 */
+	private static int[] findColumns(List<String> header, File dsstoxFile) throws IOException {
+		int[] columns = new int[4];
+		columns[DTXSID] = findColumn(header, WikipediaInfoboxesDict.DSSTOX_DTXSID_COLUMNS);
+		columns[CASRN] = findColumn(header, WikipediaInfoboxesDict.DSSTOX_CASRN_COLUMNS);
+		columns[INCHIKEY] = findColumn(header, WikipediaInfoboxesDict.DSSTOX_INCHIKEY_COLUMNS);
+		columns[NAME] = findColumn(header, WikipediaInfoboxesDict.DSSTOX_NAME_COLUMNS);
+		if (columns[DTXSID] < 0) {
+			throw new IOException("No DTXSID column " + WikipediaInfoboxesDict.DSSTOX_DTXSID_COLUMNS + " in DSSTox export "
+					+ dsstoxFile.getName());
+		}
+
+		return columns;
+	}
+
+	private static int findColumn(List<String> header, List<String> names) {
+		for (String name:names) {
+			for (int i = 0; i < header.size(); i++) {
+				if (header.get(i).trim().equalsIgnoreCase(name)) {
+					return i;
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Parse lines into rows of (DTXSID, CASRN, InChIKey, name), skipping lines without a well-formed DTXSID
+	 */
+	private static List<String[]> parseRows(List<String> lines, char delimiter, int[] columns, int lastColumn) {
+		List<String[]> rows = new ArrayList<String[]>(lines.size());
+		for (String line:lines) {
+			List<String> fields = splitLine(line, delimiter, lastColumn);
+			String[] row = new String[4];
+			for (int i = 0; i < row.length; i++) {
+				row[i] = columns[i] >= 0 && columns[i] < fields.size() ? emptyToNull(fields.get(columns[i]).trim()) : null;
+			}
+
+			if (Identifiers.encodeDtxsid(row[DTXSID])!=Identifiers.INVALID) {
+				rows.add(row);
+			}
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Probe a target's index with every identifier in a chunk of rows, one batch per identifier type
+	 */
+	private static void joinChunk(List<String[]> rows, Target target) {
+		for (int column:new int[] {DTXSID, CASRN, INCHIKEY}) {
+			List<String> values = new ArrayList<String>(rows.size());
+			for (String[] row:rows) {
+				values.add(row[column]);
+			}
+
+			IdentifierType type = column==DTXSID ? IdentifierType.DTXSID : column==CASRN ? IdentifierType.CASRN : IdentifierType.INCHIKEY;
+			long[][] postings = target.index.lookupPostings(type, values);
+			for (int i = 0; i < rows.size(); i++) {
+				target.addLinks(postings[i], rows.get(i), type.name());
+			}
+		}
+
+		if (target.inchikeysByBlock.isEmpty()) {
+			return;
+		}
+
+		// Infobox InChIKeys sharing a row's first block, other than the row's own InChIKey (already matched above)
+		List<String> blockValues = new ArrayList<String>();
+		List<String[]> blockRows = new ArrayList<String[]>();
+		for (String[] row:rows) {
+			String inchikey = row[INCHIKEY];
+			List<String> sameBlock = inchikey==null || inchikey.length() < INCHIKEY_BLOCK_LENGTH ? null
+					: target.inchikeysByBlock.get(inchikey.substring(0, INCHIKEY_BLOCK_LENGTH));
+			if (sameBlock!=null) {
+				for (String other:sameBlock) {
+					if (!other.equals(inchikey)) {
+						blockValues.add(other);
+						blockRows.add(row);
+					}
+				}
+			}
+		}
+
+		long[][] postings = target.index.lookupPostings(IdentifierType.INCHIKEY, blockValues);
+		for (int i = 0; i < blockRows.size(); i++) {
+			target.addLinks(postings[i], blockRows.get(i), MATCHED_ON_BLOCK);
+		}
+	}
+
+	/**
+	 * Write a report per status for a target, reading its parsed pages one at a time so that reports follow the parsed file's order
+	 * Infobox positions in the file are the same as in the index, which is kept in step with the file
+	 */
+	private static void writeReports(Target target, Map<Status, Integer> counts) throws IOException {
+		String stem = target.parsedPagesFileName.contains(".")
+				? target.parsedPagesFileName.substring(0, target.parsedPagesFileName.indexOf(".")) : target.parsedPagesFileName;
+		Map<Status, RecordWriter<InfoboxLink>> writers = new EnumMap<Status, RecordWriter<InfoboxLink>>(Status.class);
+		try {
+			for (Status status:Status.values()) {
+				// One compact record per line, so reports can be streamed and grepped
+				File file = new File(WikipediaInfoboxesDict.LINKAGE_FOLDER_PATH + stem + "_" + status.name().toLowerCase() + ".ndjson");
+				writers.put(status, RecordFiles.openWriter(file, InfoboxLink.class));
+			}
+
+			PageParser.forEachParsedPageInFile(target.parsedPagesFileName, page -> {
+				for (int i = 0; i < page.infoboxes.size(); i++) {
+					InfoboxLink link = toLink(page, i, target.links.get(((long) page.pageId << 32) | i));
+					try {
+						writers.get(link.status).write(link);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					counts.merge(link.status, 1, Integer::sum);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			for (RecordWriter<InfoboxLink> writer:writers.values()) {
+				writer.close();
+			}
+		}
+
+		System.out.println("Wrote linkage reports for " + target.parsedPagesFileName + " to " + WikipediaInfoboxesDict.LINKAGE_FOLDER_PATH
+				+ stem + "_*.ndjson.");
+	}
+
+	private static InfoboxLink toLink(ParsedPage page, int position, Links links) {
+		Infobox infobox = page.infoboxes.get(position);
+		InfoboxLink link = new InfoboxLink();
+		link.pageId = page.pageId;
+		link.pageTitle = page.title;
+		link.infoboxTitle = infobox.infoboxTitle;
+		if (links!=null) {
+			link.matches.addAll(links.matches.values());
+			for (SubstanceMatch candidate:links.candidates.values()) {
+				if (!links.matches.containsKey(candidate.dtxsid)) {
+					link.inchikeyBlockCandidates.add(candidate);
+				}
+			}
+		}
+
+		if (link.matches.isEmpty()) {
+			link.status = Status.UNMATCHED;
+		} else if (link.matches.size() > 1 || (!infobox.dtxsids.isEmpty() && !infobox.dtxsids.contains(link.matches.get(0).dtxsid))) {
+			link.status = Status.CONFLICT;
+		} else {
+			link.status = Status.MATCHED;
+		}
+
+		return link;
+	}
+
+	/**
+	 * Split a CSV or TSV line into fields, up to and including the given field
+	 * Double-quoted fields may hold delimiters and doubled quotes; quoted line breaks are not supported (DSSTox exports have none)
+	 */
+	private static List<String> splitLine(String line, char delimiter, int lastField) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c=='"' && i + 1 < line.length() && line.charAt(i + 1)=='"') {
+					field.append('"');
+					i++;
+				} else if (c=='"') {
+					quoted = false;
+				} else {
+					field.append(c);
+				}
+			} else if (c=='"') {
+				quoted = true;
+			} else if (c==delimiter) {
+				fields.add(field.toString());
+				if (fields.size() > lastField) {
+					return fields;
+				}
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+
+		fields.add(field.toString());
+		return fields;
+	}
+
+	private static String emptyToNull(String value) {
+		return value.isEmpty() ? null : value;
+	}
+
+	/**
+	 * Open a plain or gzipped export
+	 */
+	private static InputStream openExport(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+		if (file.getName().endsWith(".gz")) {
+			in = new GZIPInputStream(in, 1 << 16);
+		}
+
+		return in;
+	}
+}
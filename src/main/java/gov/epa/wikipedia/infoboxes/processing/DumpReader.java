@@ -0,0 +1,263 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.data.DumpPage;
+
+/**
+ * Class to read Chembox and Drugbox pages from a local Wikipedia "pages-articles" XML dump instead of the API
+ * Dumps can be plain XML, bz2, or bz2 multistream; multistream dumps are decompressed in parallel given their index file
+ * Dumps: https://dumps.wikimedia.org/enwiki/
+ * @author GSINCL01
+ *
+ */
+public class DumpReader {
+
+	// Quick check for a Chembox or Drugbox call before doing a full template search of the wikitext
+	private static final Pattern TEMPLATE_CALL_PATTERN = buildTemplateCallPattern();
+
+	private static XMLInputFactory xmlInputFactory = newXmlInputFactory();
+
+	/**
+	 * Read a dump sequentially and run an action on each article that calls a Chembox or Drugbox template
+	 * @param dumpFile		The dump file (plain XML, or bz2 with one or many streams)
+	 * @param action		The action to run on each page (already parsed, see DumpPage.parse), in dump order
+	 * @throws IOException	If the dump cannot be read
+	 */
+	public static void forEachPage(File dumpFile, Consumer<DumpPage> action) throws IOException {
+		try (InputStream in = openDump(dumpFile)) {
+			parsePages(in, action);
+		}
+	}
+
+	/**
+	 * Read a bz2 multistream dump with its index file, decompressing and parsing streams in parallel
+	 * @param dumpFile		The multistream dump file (e.g. enwiki-latest-pages-articles-multistream.xml.bz2)
+	 * @param indexFile		The index file (e.g. enwiki-latest-pages-articles-multistream-index.txt.bz2)
+	 * @param parallelism	The number of streams to decompress and parse at once
+	 * @param action		The action to run on each page (already parsed, see DumpPage.parse), in dump order
+	 * @throws IOException	If the dump or index cannot be read
+	 */
+	public static void forEachPage(File dumpFile, File indexFile, int parallelism, Consumer<DumpPage> action)
+			throws IOException {
+		List<Long> offsets = readStreamOffsets(indexFile);
+		System.out.println("Found " + offsets.size() + " streams in " + indexFile.getName() + ".");
+
+		long start = System.nanoTime();
+		int pageCount = 0;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+		try {
+			// Keep a bounded window of streams in flight and hand results on in order, so memory stays bounded
+			Deque<Future<List<DumpPage>>> window = new ArrayDeque<Future<List<DumpPage>>>();
+			int next = 0;
+			while (next < offsets.size() || !window.isEmpty()) {
+				while (next < offsets.size() && window.size() < 2 * parallelism) {
+					long offset = offsets.get(next++);
+					window.add(executor.submit(() -> parseStream(dumpFile, offset)));
+				}
+
+				for (DumpPage page:window.poll().get()) {
+					action.accept(page);
+					pageCount++;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading dump", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not read dump", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Read %d pages calling infobox templates from %d streams in %.1f s.", pageCount, offsets.size(), seconds));
+	}
+
+	/**
+	 * Decompress and parse the single bz2 stream starting at the given offset in a multistream dump
+	 */
+	private static List<DumpPage> parseStream(File dumpFile, long offset) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(dumpFile, "r")) {
+			raf.seek(offset);
+			InputStream in = new BufferedInputStream(Channels.newInputStream(raf.getChannel()), 1 << 16);
+
+			// Each stream holds a run of <page> elements with no root, so wrap them in one
+			InputStream pages = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+					new ByteArrayInputStream("<pages>".getBytes(StandardCharsets.UTF_8)),
+					new BZip2CompressorInputStream(in, false),
+					new ByteArrayInputStream("</pages>".getBytes(StandardCharsets.UTF_8)))));
+			List<DumpPage> dumpPages = new ArrayList<DumpPage>();
+			parsePages(pages, dumpPages::add);
+			return dumpPages;
+		}
+	}
+
+	/**
+	 * Read the distinct stream offsets from a multistream index file (lines of offset:pageId:title)
+	 */
+	private static List<Long> readStreamOffsets(File indexFile) throws IOException {
+		TreeSet<Long> offsets = new TreeSet<Long>();
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(openDump(indexFile), StandardCharsets.UTF_8))) {
+			String line = null;
+			while ((line = br.readLine())!=null) {
+				int colon = line.indexOf(':');
+				if (colon > 0) {
+					offsets.add(Long.parseLong(line.substring(0, colon)));
+				}
+			}
+		}
+
+		return new ArrayList<Long>(offsets);
+	}
+
+	/**
+	 * Open a plain or bz2-compressed file (all streams, if there are several)
+	 */
+	private static InputStream openDump(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+		if (file.getName().endsWith(".bz2")) {
+			in = new BZip2CompressorInputStream(in, true);
+		}
+
+		return in;
+	}
+
+	/**
+	 * Stream <page> elements with StAX and parse the article pages that call a Chembox or Drugbox template
+	 * Only the current page is held in memory
+	 */
+	private static void parsePages(InputStream in, Consumer<DumpPage> action) throws IOException {
+		XMLStreamReader reader = null;
+		try {
+			reader = xmlInputFactory.createXMLStreamReader(in, "UTF-8");
+
+			String title = null;
+			Integer pageId = null;
+			Long revId = null;
+			Integer ns = null;
+			boolean isRedirect = false;
+			String text = null;
+			Deque<String> path = new ArrayDeque<String>();
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event==XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+					String parent = path.peek();
+					path.push(name);
+					if (name.equals("page")) {
+						title = null;
+						pageId = null;
+						revId = null;
+						ns = null;
+						isRedirect = false;
+						text = null;
+					} else if ("page".equals(parent)) {
+						if (name.equals("title")) {
+							title = reader.getElementText();
+							path.pop();
+						} else if (name.equals("ns")) {
+							ns = Integer.valueOf(reader.getElementText().trim());
+							path.pop();
+						} else if (name.equals("id")) {
+							pageId = Integer.valueOf(reader.getElementText().trim());
+							path.pop();
+						} else if (name.equals("redirect")) {
+							isRedirect = true;
+						}
+					} else if ("revision".equals(parent) && name.equals("id")) {
+						revId = Long.valueOf(reader.getElementText().trim());
+						path.pop();
+					} else if ("revision".equals(parent) && name.equals("text")) {
+						text = reader.getElementText();
+						path.pop();
+					}
+				} else if (event==XMLStreamConstants.END_ELEMENT) {
+					path.pop();
+					if (reader.getLocalName().equals("page") && Integer.valueOf(0).equals(ns) && !isRedirect
+							&& text!=null && TEMPLATE_CALL_PATTERN.matcher(text).find()) {
+						DumpPage page = new DumpPage(title, pageId, revId, text).parse();
+						if (!page.templates.isEmpty()) {
+							action.accept(page);
+						}
+					}
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Could not parse dump XML", e);
+		} finally {
+			if (reader!=null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					// Ignore, the underlying stream is closed by the caller
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create a StAX factory without the JDK's default limit on total entity size, which full dumps (full of &quot; etc.) exceed
+	 */
+	private static XMLInputFactory newXmlInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		try {
+			factory.setProperty("http://www.oracle.com/xml/jaxp/properties/totalEntitySizeLimit", "0");
+		} catch (IllegalArgumentException e) {
+			// Not the JDK's built-in StAX implementation, so the limit does not apply
+		}
+		
+		return factory;
+	}
+
+	private static Pattern buildTemplateCallPattern() {
+		List<String> names = new ArrayList<String>(WikipediaInfoboxesDict.CHEMBOX_TEMPLATE_NAMES);
+		names.addAll(WikipediaInfoboxesDict.DRUGBOX_TEMPLATE_NAMES);
+		StringBuilder alternatives = new StringBuilder();
+		for (String name:names) {
+			if (alternatives.length() > 0) {
+				alternatives.append('|');
+			}
+			// First letter is case-insensitive and spaces may be written as underscores, as in MediaWiki
+			alternatives.append("[" + Character.toUpperCase(name.charAt(0)) + Character.toLowerCase(name.charAt(0)) + "]");
+			alternatives.append(Pattern.quote(name.substring(1)).replace(" ", "\\E[ _]\\Q"));
+		}
+
+		return Pattern.compile("\\{\\{\\s*(?:[Tt]emplate:)?(?:" + alternatives + ")\\s*[|}<]");
+	}
+}
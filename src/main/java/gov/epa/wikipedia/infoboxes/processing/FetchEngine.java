@@ -0,0 +1,192 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+
+/**
+ * Class to run blocking fetch tasks (e.g. MediaWiki API queries) with bounded parallelism
+ * Results are always returned in the same order as the inputs
+ * Every engine shares the same WikipediaInfoboxesDict.FETCH_MAX_PER_HOST permits for the API host, so tasks in flight
+ * across all engines running at once never exceed it
+ * A task must never wait on another task (e.g. a page another template is fetching, see SharedFetches) while holding a permit,
+ * or the tasks it waits on may never get one; such tasks are run with runWithoutPermits and take permits only around their requests
+ * @author GSINCL01
+ *
+ */
+public class FetchEngine {
+
+	/**
+	 * Modes for running fetch tasks
+	 * @author GSINCL01
+	 *
+	 */
+	public enum Mode {
+		SEQUENTIAL,		// One task at a time on the calling thread
+		PARALLEL		// Virtual threads if the JDK supports them, otherwise a fixed thread pool
+	}
+
+	// Shared per-host permits, so that separate engines running at the same time still respect the limit
+	// The limit is a single global setting, since engines with different limits could not share one set of permits
+	private static final ConcurrentHashMap<String, Semaphore> HOST_PERMITS = new ConcurrentHashMap<String, Semaphore>();
+
+	private Mode mode;
+	private int parallelism;
+	private String host;
+
+	public FetchEngine(Mode mode, int parallelism) {
+		this.mode = mode;
+		this.parallelism = Math.max(1, parallelism);
+		this.host = URI.create(WikipediaInfoboxesDict.WIKIPEDIA_API_URL).getHost();
+	}
+
+	/**
+	 * Create a fetch engine with the default settings from WikipediaInfoboxesDict
+	 * @return	A fetch engine
+	 */
+	public static FetchEngine withDefaults() {
+		return new FetchEngine(WikipediaInfoboxesDict.FETCH_MODE, WikipediaInfoboxesDict.FETCH_PARALLELISM);
+	}
+
+	/**
+	 * Run a fetch task for each input and collect the results in input order
+	 * @param inputs	The inputs to fetch (e.g. page IDs)
+	 * @param task		The blocking task to run on each input
+	 * @return			The results of the task, in the same order as the inputs
+	 */
+	public <T, R> List<R> run(List<T> inputs, Function<T, R> task) {
+		return run(inputs, task, true);
+	}
+
+	/**
+	 * Run a task for each input with the engine's parallelism, but without holding a host permit for the whole task
+	 * For tasks that may wait on other fetches: each must take a permit only around its own requests (see runSingle)
+	 * @param inputs	The inputs to fetch (e.g. page IDs)
+	 * @param task		The blocking task to run on each input
+	 * @return			The results of the task, in the same order as the inputs
+	 */
+	public <T, R> List<R> runWithoutPermits(List<T> inputs, Function<T, R> task) {
+		return run(inputs, task, false);
+	}
+
+	private <T, R> List<R> run(List<T> inputs, Function<T, R> task, boolean holdPermit) {
+		Function<T, R> limitedTask = holdPermit ? input -> runLimited(input, task) : task;
+		long start = System.nanoTime();
+		List<R> results = null;
+		if (mode==Mode.SEQUENTIAL || parallelism==1 || inputs.size() <= 1) {
+			results = runSequential(inputs, limitedTask);
+		} else {
+			results = runParallel(inputs, limitedTask);
+		}
+
+		reportThroughput(inputs.size(), System.nanoTime() - start);
+		return results;
+	}
+
+	private <T, R> List<R> runSequential(List<T> inputs, Function<T, R> task) {
+		List<R> results = new ArrayList<R>();
+		for (T input:inputs) {
+			results.add(task.apply(input));
+		}
+
+		return results;
+	}
+
+	private <T, R> List<R> runParallel(List<T> inputs, Function<T, R> task) {
+		ExecutorService executor = newExecutor();
+		Semaphore inFlight = new Semaphore(parallelism);
+		AtomicInteger completed = new AtomicInteger();
+		try {
+			List<Future<R>> futures = new ArrayList<Future<R>>();
+			for (T input:inputs) {
+				futures.add(executor.submit(() -> {
+					R result = null;
+					inFlight.acquireUninterruptibly();
+					try {
+						result = task.apply(input);
+					} finally {
+						inFlight.release();
+					}
+
+					int done = completed.incrementAndGet();
+					if (done % WikipediaInfoboxesDict.FETCH_PROGRESS_INTERVAL==0) {
+						System.out.println("Fetched " + done + "/" + inputs.size() + "...");
+					}
+					return result;
+				}));
+			}
+
+			// Futures are read back in submission order, which keeps results in input order
+			List<R> results = new ArrayList<R>();
+			for (Future<R> future:futures) {
+				results.add(future.get());
+			}
+
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while fetching", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Fetch task failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Run a single task on the calling thread while holding one of the permits for the API host
+	 * Lets code with its own threads (e.g. a Pipeline stage) share the per-host limit with engines running at the same time,
+	 * and tasks run with runWithoutPermits hold a permit only while they send requests
+	 * @param input	The input to fetch
+	 * @param task	The blocking task to run on it
+	 * @return		The result of the task
+	 */
+	public <T, R> R runSingle(T input, Function<T, R> task) {
+		return runLimited(input, task);
+	}
+
+	/**
+	 * Run a single task while holding one of the permits for the API host
+	 */
+	private <T, R> R runLimited(T input, Function<T, R> task) {
+		Semaphore permits = HOST_PERMITS.computeIfAbsent(host, h -> new Semaphore(Math.max(1, WikipediaInfoboxesDict.FETCH_MAX_PER_HOST), true));
+		permits.acquireUninterruptibly();
+		try {
+			return task.apply(input);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Use virtual threads (JDK 21+) if available, otherwise fall back to a fixed pool sized to the parallelism
+	 * Either way, the in-flight permits keep the number of running tasks at or below the parallelism
+	 */
+	private ExecutorService newExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(parallelism);
+		}
+	}
+
+	private void reportThroughput(int count, long elapsedNanos) {
+		Metrics.recordStage("fetch", count, elapsedNanos);
+		double seconds = elapsedNanos / 1e9;
+		double rate = seconds > 0 ? count / seconds : count;
+		System.out.println(String.format("Fetched %d items in %.1f s (%.1f items/s, mode %s, parallelism %d, max per host %d).",
+				count, seconds, rate, mode, mode==Mode.SEQUENTIAL ? 1 : parallelism, WikipediaInfoboxesDict.FETCH_MAX_PER_HOST));
+	}
+}
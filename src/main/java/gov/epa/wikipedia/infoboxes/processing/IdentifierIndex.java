@@ -0,0 +1,625 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+import gov.epa.wikipedia.infoboxes.processing.data.Identifiers;
+import gov.epa.wikipedia.infoboxes.processing.data.Infobox;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+
+/**
+ * Class to look up the pages and infoboxes carrying a chemical identifier without scanning the parsed pages
+ * CASRNs and DTXSIDs are keyed by their long encodings (see Identifiers) in primitive hash tables; InChIKeys and SMILES by string
+ * The index can be updated in place with new parsing results, touching only pages whose identifiers changed
+ * @author GSINCL01
+ *
+ */
+public class IdentifierIndex {
+
+	/**
+	 * Types of identifiers that can be looked up
+	 */
+	public enum IdentifierType {
+		CASRN, DTXSID, INCHIKEY, SMILES
+	}
+
+	/**
+	 * Class to hold a single lookup result, i.e., an infobox carrying the identifier
+	 * @author GSINCL01
+	 *
+	 */
+	public static class Match {
+		public Integer pageId;
+		public String pageTitle;
+		public String infoboxTitle;
+
+		private Match(Integer pageId, String pageTitle, String infoboxTitle) {
+			this.pageId = pageId;
+			this.pageTitle = pageTitle;
+			this.infoboxTitle = infoboxTitle;
+		}
+
+		@Override
+		public String toString() {
+			return pageTitle + " (" + pageId + "): " + infoboxTitle;
+		}
+	}
+
+	private Map<Integer, ParsedPage> pages = new HashMap<Integer, ParsedPage>();
+
+	// Keys indexed for each page, so a page's old postings can be found when it changes
+	private Map<Integer, PageKeys> pageKeys = new HashMap<Integer, PageKeys>();
+
+	// Postings are (page ID << 32 | infobox position on the page)
+	private LongPostingsMap casrnPostings = new LongPostingsMap();
+	private LongPostingsMap dtxsidPostings = new LongPostingsMap();
+	private Map<String, PostingList> inchikeyPostings = new HashMap<String, PostingList>();
+	private Map<String, PostingList> smilesPostings = new HashMap<String, PostingList>();
+
+	private ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Build an index from a parsed data file, reading one page at a time
+	 * @param fileName		The parsed data file (e.g. WikipediaInfoboxesDict.CHEMBOX_PARSED_DATA_FILE_NAME)
+	 * @return				The index
+	 * @throws IOException	File not found or other I/O problem
+	 */
+	public static IdentifierIndex fromFile(String fileName) throws IOException {
+		IdentifierIndex index = new IdentifierIndex();
+		PageParser.forEachParsedPageInFile(fileName, index::put);
+		return index;
+	}
+
+	/**
+	 * Build an index from parsed pages
+	 * @param parsedPages	The parsed pages
+	 * @return				The index
+	 */
+	public static IdentifierIndex fromParsedPages(Iterable<ParsedPage> parsedPages) {
+		IdentifierIndex index = new IdentifierIndex();
+		for (ParsedPage page:parsedPages) {
+			index.put(page);
+		}
+
+		return index;
+	}
+
+	/**
+	 * Bring the index in line with a new full set of parsed pages (e.g. from archiveAndUpdatePages)
+	 * Pages whose identifiers did not change keep their postings; removed pages are dropped
+	 * @param parsedPages	The new parsed pages, covering every page that should stay in the index
+	 * @return				The number of pages added, changed, or removed
+	 */
+	public int update(Iterable<ParsedPage> parsedPages) {
+		lock.writeLock().lock();
+		try {
+			Set<Integer> keptPageIds = new HashSet<Integer>();
+			int changes = 0;
+			for (ParsedPage page:parsedPages) {
+				changes += updateUnlocked(page, keptPageIds);
+			}
+
+			return changes + removeOthersUnlocked(keptPageIds);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Bring the index in line with a parsed data file, reading one page at a time (see update)
+	 * @param fileName		The parsed data file, covering every page that should stay in the index
+	 * @return				The number of pages added, changed, or removed
+	 * @throws IOException	File not found or other I/O problem
+	 */
+	public int updateFromFile(String fileName) throws IOException {
+		lock.writeLock().lock();
+		try {
+			Set<Integer> keptPageIds = new HashSet<Integer>();
+			int[] changes = new int[1];
+			PageParser.forEachParsedPageInFile(fileName, page -> changes[0] += updateUnlocked(page, keptPageIds));
+			return changes[0] + removeOthersUnlocked(keptPageIds);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replace a page's postings if its identifiers or titles changed, recording its page ID as kept
+	 * @return	1 if the page was added or changed, else 0
+	 */
+	private int updateUnlocked(ParsedPage page, Set<Integer> keptPageIds) {
+		if (page.pageId==null) {
+			return 0;
+		}
+
+		keptPageIds.add(page.pageId);
+		PageKeys oldKeys = pageKeys.get(page.pageId);
+		PageKeys newKeys = new PageKeys(page);
+		ParsedPage oldPage = pages.get(page.pageId);
+		if (oldKeys!=null && oldKeys.equals(newKeys) && titlesEqual(oldPage, page)) {
+			pages.put(page.pageId, page);
+			return 0;
+		}
+
+		removeUnlocked(page.pageId);
+		putUnlocked(page, newKeys);
+		return 1;
+	}
+
+	/**
+	 * Remove every page not recorded as kept
+	 * @return	The number of pages removed
+	 */
+	private int removeOthersUnlocked(Set<Integer> keptPageIds) {
+		int removed = 0;
+		for (Integer pageId:new ArrayList<Integer>(pages.keySet())) {
+			if (!keptPageIds.contains(pageId)) {
+				removeUnlocked(pageId);
+				removed++;
+			}
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Add a page to the index, replacing any page with the same page ID
+	 * @param page	The parsed page
+	 */
+	public void put(ParsedPage page) {
+		if (page.pageId==null) {
+			return;
+		}
+
+		lock.writeLock().lock();
+		try {
+			removeUnlocked(page.pageId);
+			putUnlocked(page, new PageKeys(page));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove a page from the index
+	 * @param pageId	The page ID
+	 */
+	public void remove(int pageId) {
+		lock.writeLock().lock();
+		try {
+			removeUnlocked(pageId);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the number of pages in the index
+	 * @return	The page count
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return pages.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Find the infoboxes carrying an identifier
+	 * @param type		The identifier type
+	 * @param value		The identifier (e.g. "50-00-0")
+	 * @return			The matching infoboxes, ordered by page ID then position on the page (empty if none)
+	 */
+	public List<Match> lookup(IdentifierType type, String value) {
+		lock.readLock().lock();
+		try {
+			return toMatches(getPostings(type, value));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Find the infoboxes carrying each of a batch of identifiers of one type
+	 * @param type		The identifier type
+	 * @param values	The identifiers
+	 * @return			The matching infoboxes keyed by identifier, in the order given (identifiers without matches map to empty lists)
+	 */
+	public Map<String, List<Match>> lookupAll(IdentifierType type, Collection<String> values) {
+		Map<String, List<Match>> matches = new LinkedHashMap<String, List<Match>>();
+		lock.readLock().lock();
+		try {
+			for (String value:values) {
+				matches.put(value, toMatches(getPostings(type, value)));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		return matches;
+	}
+
+	/**
+	 * Find the pages carrying any of a batch of identifiers of one type
+	 * @param type		The identifier type
+	 * @param values	The identifiers
+	 * @return			The distinct page IDs, in ascending order
+	 */
+	public int[] lookupPageIds(IdentifierType type, Collection<String> values) {
+		lock.readLock().lock();
+		try {
+			int[] pageIds = new int[16];
+			int count = 0;
+			for (String value:values) {
+				PostingList postings = getPostings(type, value);
+				for (int i = 0; postings!=null && i < postings.size; i++) {
+					if (count==pageIds.length) {
+						pageIds = Arrays.copyOf(pageIds, count * 2);
+					}
+					pageIds[count++] = (int) (postings.values[i] >>> 32);
+				}
+			}
+
+			return Arrays.stream(pageIds, 0, count).sorted().distinct().toArray();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Find the infoboxes carrying each of a batch of identifiers of one type, as postings (page ID << 32 | infobox position on the page)
+	 * For bulk joins that report per infobox (e.g. DsstoxLinker), with the read lock taken once for the whole batch
+	 * @param type		The identifier type
+	 * @param values	The identifiers (null entries match nothing)
+	 * @return			The postings of each identifier, in the order given (null where there are none)
+	 */
+	public long[][] lookupPostings(IdentifierType type, List<String> values) {
+		long[][] postings = new long[values.size()][];
+		lock.readLock().lock();
+		try {
+			for (int i = 0; i < values.size(); i++) {
+				PostingList list = getPostings(type, values.get(i));
+				if (list!=null && list.size > 0) {
+					postings[i] = list.toArray();
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		return postings;
+	}
+
+	/**
+	 * Run an action on every indexed identifier of one type with its matches (e.g. to export or join in bulk)
+	 * @param type		The identifier type
+	 * @param action	The action to run on each identifier and its matches
+	 */
+	public void forEach(IdentifierType type, BiConsumer<String, List<Match>> action) {
+		lock.readLock().lock();
+		try {
+			switch (type) {
+			case CASRN:
+				casrnPostings.forEach((key, postings) -> action.accept(Identifiers.decodeCasrn(key), toMatches(postings)));
+				break;
+			case DTXSID:
+				dtxsidPostings.forEach((key, postings) -> action.accept(Identifiers.decodeDtxsid(key), toMatches(postings)));
+				break;
+			case INCHIKEY:
+				inchikeyPostings.forEach((key, postings) -> action.accept(key, toMatches(postings)));
+				break;
+			case SMILES:
+				smilesPostings.forEach((key, postings) -> action.accept(key, toMatches(postings)));
+				break;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private PostingList getPostings(IdentifierType type, String value) {
+		if (value==null) {
+			return null;
+		}
+
+		switch (type) {
+		case CASRN:
+			long casrn = Identifiers.encodeCasrn(value.trim());
+			return casrn==Identifiers.INVALID ? null : casrnPostings.get(casrn);
+		case DTXSID:
+			long dtxsid = Identifiers.encodeDtxsid(value.trim());
+			return dtxsid==Identifiers.INVALID ? null : dtxsidPostings.get(dtxsid);
+		case INCHIKEY:
+			return inchikeyPostings.get(value.trim());
+		case SMILES:
+			return smilesPostings.get(value);
+		default:
+			return null;
+		}
+	}
+
+	private List<Match> toMatches(PostingList postings) {
+		List<Match> matches = new ArrayList<Match>();
+		if (postings==null) {
+			return matches;
+		}
+
+		long[] sorted = Arrays.copyOf(postings.values, postings.size);
+		Arrays.sort(sorted);
+		for (long posting:sorted) {
+			ParsedPage page = pages.get((int) (posting >>> 32));
+			Infobox infobox = page.infoboxes.get((int) posting);
+			matches.add(new Match(page.pageId, page.title, infobox.infoboxTitle));
+		}
+
+		return matches;
+	}
+
+	private void putUnlocked(ParsedPage page, PageKeys keys) {
+		pages.put(page.pageId, page);
+		pageKeys.put(page.pageId, keys);
+		for (int i = 0; i < keys.casrns.length; i++) {
+			casrnPostings.getOrCreate(keys.casrns[i]).add(keys.casrnPostings[i]);
+		}
+		for (int i = 0; i < keys.dtxsids.length; i++) {
+			dtxsidPostings.getOrCreate(keys.dtxsids[i]).add(keys.dtxsidPostings[i]);
+		}
+		for (int i = 0; i < keys.inchikeys.length; i++) {
+			inchikeyPostings.computeIfAbsent(keys.inchikeys[i], key -> new PostingList()).add(keys.inchikeyPostings[i]);
+		}
+		for (int i = 0; i < keys.smiles.length; i++) {
+			smilesPostings.computeIfAbsent(keys.smiles[i], key -> new PostingList()).add(keys.smilesPostings[i]);
+		}
+	}
+
+	private void removeUnlocked(int pageId) {
+		pages.remove(pageId);
+		PageKeys keys = pageKeys.remove(pageId);
+		if (keys==null) {
+			return;
+		}
+
+		// Keys left with no postings stay in the primitive tables, which do not support deletion; they match nothing
+		for (long casrn:keys.casrns) {
+			casrnPostings.get(casrn).removePage(pageId);
+		}
+		for (long dtxsid:keys.dtxsids) {
+			dtxsidPostings.get(dtxsid).removePage(pageId);
+		}
+		// A key listed in several infoboxes of the page is visited again after its list was already emptied and removed
+		for (String inchikey:keys.inchikeys) {
+			PostingList postings = inchikeyPostings.get(inchikey);
+			if (postings!=null && postings.removePage(pageId)==0) {
+				inchikeyPostings.remove(inchikey);
+			}
+		}
+		for (String smiles:keys.smiles) {
+			PostingList postings = smilesPostings.get(smiles);
+			if (postings!=null && postings.removePage(pageId)==0) {
+				smilesPostings.remove(smiles);
+			}
+		}
+	}
+
+	private static boolean titlesEqual(ParsedPage a, ParsedPage b) {
+		if (a==null || !Objects.equals(a.title, b.title) || a.infoboxes.size()!=b.infoboxes.size()) {
+			return false;
+		}
+
+		for (int i = 0; i < a.infoboxes.size(); i++) {
+			if (!Objects.equals(a.infoboxes.get(i).infoboxTitle, b.infoboxes.get(i).infoboxTitle)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Class to hold the encoded identifiers of one page with their postings, in parallel arrays (one entry per
+	 * identifier of each infobox, so a key can repeat with different postings)
+	 */
+	private static class PageKeys {
+		private long[] casrns;
+		private long[] casrnPostings;
+		private long[] dtxsids;
+		private long[] dtxsidPostings;
+		private String[] inchikeys;
+		private long[] inchikeyPostings;
+		private String[] smiles;
+		private long[] smilesPostings;
+
+		private PageKeys(ParsedPage page) {
+			LongList casrnKeys = new LongList();
+			LongList casrnValues = new LongList();
+			LongList dtxsidKeys = new LongList();
+			LongList dtxsidValues = new LongList();
+			List<String> inchikeyKeys = new ArrayList<String>();
+			LongList inchikeyValues = new LongList();
+			List<String> smilesKeys = new ArrayList<String>();
+			LongList smilesValues = new LongList();
+			for (int i = 0; i < page.infoboxes.size(); i++) {
+				Infobox infobox = page.infoboxes.get(i);
+				long posting = ((long) page.pageId << 32) | i;
+				// Infoboxes hold CASRNs and DTXSIDs already packed, so they are indexed without decoding (malformed ones are not packed)
+				for (long key:infobox.casrns.getPacked()) {
+					casrnKeys.add(key);
+					casrnValues.add(posting);
+				}
+				for (long key:infobox.dtxsids.getPacked()) {
+					dtxsidKeys.add(key);
+					dtxsidValues.add(posting);
+				}
+				for (String inchikey:infobox.inchikeys) {
+					inchikeyKeys.add(inchikey);
+					inchikeyValues.add(posting);
+				}
+				for (String smiles:infobox.smiles) {
+					smilesKeys.add(smiles);
+					smilesValues.add(posting);
+				}
+			}
+
+			casrns = casrnKeys.toArray();
+			casrnPostings = casrnValues.toArray();
+			dtxsids = dtxsidKeys.toArray();
+			dtxsidPostings = dtxsidValues.toArray();
+			inchikeys = inchikeyKeys.toArray(new String[0]);
+			inchikeyPostings = inchikeyValues.toArray();
+			smiles = smilesKeys.toArray(new String[0]);
+			smilesPostings = smilesValues.toArray();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof PageKeys)) {
+				return false;
+			}
+
+			PageKeys other = (PageKeys) o;
+			return Arrays.equals(casrns, other.casrns) && Arrays.equals(casrnPostings, other.casrnPostings)
+					&& Arrays.equals(dtxsids, other.dtxsids) && Arrays.equals(dtxsidPostings, other.dtxsidPostings)
+					&& Arrays.equals(inchikeys, other.inchikeys) && Arrays.equals(inchikeyPostings, other.inchikeyPostings)
+					&& Arrays.equals(smiles, other.smiles) && Arrays.equals(smilesPostings, other.smilesPostings);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(casrns) ^ Arrays.hashCode(dtxsids);
+		}
+	}
+
+	/**
+	 * Class to hold a growable list of longs
+	 */
+	private static class LongList {
+		long[] values = new long[2];
+		int size;
+
+		void add(long value) {
+			if (size==values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Class to hold the postings of one key, without duplicates
+	 */
+	private static class PostingList extends LongList {
+
+		@Override
+		void add(long posting) {
+			// The same identifier can be listed twice in one infobox, which would give the same (key, posting) pair twice
+			for (int i = 0; i < size; i++) {
+				if (values[i]==posting) {
+					return;
+				}
+			}
+			super.add(posting);
+		}
+
+		/**
+		 * Remove all postings of a page
+		 * @return	The number of postings left
+		 */
+		private int removePage(int pageId) {
+			int kept = 0;
+			for (int i = 0; i < size; i++) {
+				if ((int) (values[i] >>> 32)!=pageId) {
+					values[kept++] = values[i];
+				}
+			}
+			size = kept;
+			return size;
+		}
+	}
+
+	/**
+	 * Class to map long keys to posting lists with open addressing, avoiding boxed keys
+	 */
+	private static class LongPostingsMap {
+		private long[] keys = new long[16];
+		private PostingList[] values = new PostingList[16];
+		private int size;
+
+		private PostingList get(long key) {
+			int mask = keys.length - 1;
+			for (int slot = mix(key) & mask; values[slot]!=null; slot = (slot + 1) & mask) {
+				if (keys[slot]==key) {
+					return values[slot];
+				}
+			}
+
+			return null;
+		}
+
+		private PostingList getOrCreate(long key) {
+			PostingList postings = get(key);
+			if (postings==null) {
+				if ((size + 1) * 2 > keys.length) {
+					resize();
+				}
+				postings = new PostingList();
+				insert(key, postings);
+				size++;
+			}
+
+			return postings;
+		}
+
+		private void forEach(BiConsumer<Long, PostingList> action) {
+			for (int slot = 0; slot < keys.length; slot++) {
+				if (values[slot]!=null && values[slot].size > 0) {
+					action.accept(keys[slot], values[slot]);
+				}
+			}
+		}
+
+		private void insert(long key, PostingList postings) {
+			int mask = keys.length - 1;
+			int slot = mix(key) & mask;
+			while (values[slot]!=null) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = key;
+			values[slot] = postings;
+		}
+
+		private void resize() {
+			long[] oldKeys = keys;
+			PostingList[] oldValues = values;
+			keys = new long[oldKeys.length * 2];
+			values = new PostingList[oldValues.length * 2];
+			for (int slot = 0; slot < oldKeys.length; slot++) {
+				if (oldValues[slot]!=null) {
+					insert(oldKeys[slot], oldValues[slot]);
+				}
+			}
+		}
+
+		private static int mix(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+}
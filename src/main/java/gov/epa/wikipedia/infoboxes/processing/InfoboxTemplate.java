@@ -0,0 +1,35 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.util.List;
+
+/**
+ * Class to describe an infobox template to download and parse, and where its pages are saved
+ * The templates processed in a run are listed in WikipediaInfoboxesDict.INFOBOX_TEMPLATES
+ * Infobox tables and template calls are parsed by type (see Infobox), so a new template type also needs an extractor there
+ * @author GSINCL01
+ *
+ */
+public class InfoboxTemplate {
+	public String title;
+	public List<String> callNames;
+	public String pageHtmlFileName;
+	public String parsedPagesFileName;
+
+	/**
+	 * @param title					The template page title, used to list embedding pages (e.g. "Template:Chembox")
+	 * @param callNames				The names (including redirects) the template is called by in page wikitext
+	 * @param pageHtmlFileName		The raw data file for the template's pages
+	 * @param parsedPagesFileName	The parsed data file for the template's pages
+	 */
+	public InfoboxTemplate(String title, List<String> callNames, String pageHtmlFileName, String parsedPagesFileName) {
+		this.title = title;
+		this.callNames = callNames;
+		this.pageHtmlFileName = pageHtmlFileName;
+		this.parsedPagesFileName = parsedPagesFileName;
+	}
+
+	@Override
+	public String toString() {
+		return title;
+	}
+}
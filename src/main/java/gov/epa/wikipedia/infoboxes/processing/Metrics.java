@@ -0,0 +1,394 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.GsonBuilder;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+
+/**
+ * Class to collect run metrics (request latencies, bytes and statuses, stage throughput, parse times, file I/O times, heap use)
+ * and export them at the end of a run, so that runs can be compared
+ * Metrics are counters, gauges, and histograms, named in Prometheus style and told apart by labels (e.g. query="parse")
+ * Formats (set by WikipediaInfoboxesDict.METRICS_FORMAT):
+ * 	OFF			Nothing is recorded
+ * 	PROMETHEUS	Prometheus text exposition format (*.prom), e.g. for the node exporter's textfile collector
+ * 	JSON		A JSON document with the same metrics, plus mean and approximate quantiles for each histogram (a quantile is left
+ * 				out if the histogram is empty or the quantile is beyond the largest bucket, so the document is always valid JSON)
+ * If WikipediaInfoboxesDict.METRICS_JFR_EVENTS is set, every timing is also emitted as a Flight Recorder event (see MetricsEvents)
+ * @author GSINCL01
+ *
+ */
+public class Metrics {
+
+	/**
+	 * Formats for exporting metrics
+	 */
+	public enum Format {
+		OFF,
+		PROMETHEUS,
+		JSON
+	}
+
+	private static final String PREFIX = "infoboxes_";
+
+	// Upper bounds of histogram buckets, in seconds, from a fast infobox parse to a slow API request
+	private static final double[] BUCKETS = { 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25,
+			0.5, 1, 2.5, 5, 10, 30, 60 };
+
+	/**
+	 * A histogram of durations in seconds
+	 */
+	static class Histogram {
+		private LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+		private LongAdder count = new LongAdder();
+		private DoubleAdder sum = new DoubleAdder();
+
+		Histogram() {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = new LongAdder();
+			}
+		}
+
+		void observe(double seconds) {
+			int i = 0;
+			while (i < BUCKETS.length && seconds > BUCKETS[i]) {
+				i++;
+			}
+			counts[i].increment();
+			count.increment();
+			sum.add(seconds);
+		}
+
+		/**
+		 * Estimate a quantile as the upper bound of the bucket it falls in
+		 * @return	The bound, or NaN if the histogram is empty or the quantile is in the overflow bucket, which has no bound
+		 */
+		double quantile(double q) {
+			long total = count.sum();
+			if (total==0) {
+				return Double.NaN;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(q * total));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS.length; i++) {
+				seen += counts[i].sum();
+				if (seen >= rank) {
+					return BUCKETS[i];
+				}
+			}
+			return Double.NaN;
+		}
+	}
+
+	private static final boolean ENABLED = WikipediaInfoboxesDict.METRICS_FORMAT!=Format.OFF;
+	private static final boolean JFR_ENABLED = WikipediaInfoboxesDict.METRICS_JFR_EVENTS && MetricsEvents.isAvailable();
+
+	// Metrics by name, then by labels
+	private static ConcurrentMap<String, ConcurrentMap<String, LongAdder>> counters = new ConcurrentHashMap<String, ConcurrentMap<String, LongAdder>>();
+	private static ConcurrentMap<String, ConcurrentMap<String, Double>> gauges = new ConcurrentHashMap<String, ConcurrentMap<String, Double>>();
+	private static ConcurrentMap<String, ConcurrentMap<String, Histogram>> histograms = new ConcurrentHashMap<String, ConcurrentMap<String, Histogram>>();
+	private static long startMillis = System.currentTimeMillis();
+
+	/**
+	 * Check whether metrics are being recorded, e.g. to skip building labels or reading the clock when they are not
+	 * @return	True unless WikipediaInfoboxesDict.METRICS_FORMAT is OFF
+	 */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * Build a label set from name and value pairs, e.g. labels("query", "parse", "status", "200")
+	 * @param namesAndValues	Alternating label names and values
+	 * @return					The labels in Prometheus form, e.g. query="parse",status="200"
+	 */
+	public static String labels(String... namesAndValues) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			String value = String.valueOf(namesAndValues[i + 1]).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+			sb.append(namesAndValues[i]).append("=\"").append(value).append('"');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Add to a counter
+	 * @param name		The metric name, without the common prefix (e.g. "http_responses_total")
+	 * @param labels	The labels (see labels), or an empty string
+	 * @param delta		The amount to add
+	 */
+	public static void add(String name, String labels, long delta) {
+		if (!ENABLED) {
+			return;
+		}
+		counters.computeIfAbsent(name, k -> new ConcurrentHashMap<String, LongAdder>())
+			.computeIfAbsent(labels, k -> new LongAdder()).add(delta);
+	}
+
+	/**
+	 * Add one to a counter
+	 * @param name		The metric name
+	 * @param labels	The labels, or an empty string
+	 */
+	public static void increment(String name, String labels) {
+		add(name, labels, 1);
+	}
+
+	/**
+	 * Set a gauge
+	 * @param name		The metric name
+	 * @param labels	The labels, or an empty string
+	 * @param value		The value
+	 */
+	public static void set(String name, String labels, double value) {
+		if (!ENABLED) {
+			return;
+		}
+		gauges.computeIfAbsent(name, k -> new ConcurrentHashMap<String, Double>()).put(labels, value);
+	}
+
+	/**
+	 * Record a duration in a histogram (and as a Flight Recorder event, if enabled)
+	 * @param name			The metric name, ending in _seconds by convention
+	 * @param labels		The labels, or an empty string
+	 * @param elapsedNanos	The duration in nanoseconds
+	 */
+	public static void observeNanos(String name, String labels, long elapsedNanos) {
+		if (!ENABLED) {
+			return;
+		}
+		histograms.computeIfAbsent(name, k -> new ConcurrentHashMap<String, Histogram>())
+			.computeIfAbsent(labels, k -> new Histogram()).observe(elapsedNanos / 1e9);
+		if (JFR_ENABLED) {
+			MetricsEvents.commitTiming(name, labels, elapsedNanos);
+		}
+	}
+
+	/**
+	 * Record the items handled and the time taken by a run of a processing stage, and its throughput in items per second
+	 * @param stage			The stage name (e.g. "fetch")
+	 * @param items			The number of items handled
+	 * @param elapsedNanos	The time taken
+	 */
+	public static void recordStage(String stage, long items, long elapsedNanos) {
+		if (!ENABLED) {
+			return;
+		}
+		String labels = labels("stage", stage);
+		add("stage_items_total", labels, items);
+		set("stage_items_per_second", labels, elapsedNanos > 0 ? items / (elapsedNanos / 1e9) : 0);
+		observeNanos("stage_duration_seconds", labels, elapsedNanos);
+	}
+
+	/**
+	 * Record the heap in use at a point of a run (e.g. after loading a data file)
+	 * @param point	A name for the point
+	 */
+	public static void recordHeap(String point) {
+		if (!ENABLED) {
+			return;
+		}
+		Runtime runtime = Runtime.getRuntime();
+		set("heap_used_bytes", labels("point", point), runtime.totalMemory() - runtime.freeMemory());
+	}
+
+	/**
+	 * Write the metrics to WikipediaInfoboxesDict.METRICS_FOLDER_PATH in the configured format, in a file named by the run start time
+	 * @return	The file written, or null if metrics are off or could not be written
+	 */
+	public static File export() {
+		if (!ENABLED) {
+			return null;
+		}
+
+		String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date(startMillis));
+		File file = new File(WikipediaInfoboxesDict.METRICS_FOLDER_PATH + "metrics-" + stamp
+				+ (WikipediaInfoboxesDict.METRICS_FORMAT==Format.PROMETHEUS ? ".prom" : ".json"));
+		try {
+			export(file, WikipediaInfoboxesDict.METRICS_FORMAT);
+			System.out.println("Wrote metrics to " + file.getPath() + ".");
+			return file;
+		} catch (IOException e) {
+			System.out.println("Could not write metrics to " + file.getPath() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Write the metrics to a file
+	 * @param file			The file to write
+	 * @param format		The format (PROMETHEUS or JSON)
+	 * @throws IOException	If the file cannot be written
+	 */
+	public static void export(File file, Format format) throws IOException {
+		recordJvm();
+		if (file.getParentFile()!=null) {
+			file.getParentFile().mkdirs();
+		}
+
+		try (Writer writer = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+			if (format==Format.PROMETHEUS) {
+				writePrometheus(writer);
+			} else {
+				writeJson(writer);
+			}
+		}
+	}
+
+	/**
+	 * Forget all metrics recorded so far, e.g. between runs in one process
+	 */
+	public static void reset() {
+		counters.clear();
+		gauges.clear();
+		histograms.clear();
+		startMillis = System.currentTimeMillis();
+	}
+
+	private static void writePrometheus(Writer writer) {
+		PrintWriter out = new PrintWriter(writer);
+		for (Map.Entry<String, ConcurrentMap<String, LongAdder>> metric:new TreeMap<String, ConcurrentMap<String, LongAdder>>(counters).entrySet()) {
+			out.print("# TYPE " + PREFIX + metric.getKey() + " counter\n");
+			for (Map.Entry<String, LongAdder> series:new TreeMap<String, LongAdder>(metric.getValue()).entrySet()) {
+				out.print(PREFIX + metric.getKey() + braces(series.getKey()) + " " + series.getValue().sum() + "\n");
+			}
+		}
+
+		for (Map.Entry<String, ConcurrentMap<String, Double>> metric:new TreeMap<String, ConcurrentMap<String, Double>>(gauges).entrySet()) {
+			out.print("# TYPE " + PREFIX + metric.getKey() + " gauge\n");
+			for (Map.Entry<String, Double> series:new TreeMap<String, Double>(metric.getValue()).entrySet()) {
+				out.print(PREFIX + metric.getKey() + braces(series.getKey()) + " " + format(series.getValue()) + "\n");
+			}
+		}
+
+		for (Map.Entry<String, ConcurrentMap<String, Histogram>> metric:new TreeMap<String, ConcurrentMap<String, Histogram>>(histograms).entrySet()) {
+			String name = PREFIX + metric.getKey();
+			out.print("# TYPE " + name + " histogram\n");
+			for (Map.Entry<String, Histogram> series:new TreeMap<String, Histogram>(metric.getValue()).entrySet()) {
+				String labels = series.getKey();
+				Histogram histogram = series.getValue();
+				long cumulative = 0;
+				for (int i = 0; i <= BUCKETS.length; i++) {
+					cumulative += histogram.counts[i].sum();
+					String le = i < BUCKETS.length ? format(BUCKETS[i]) : "+Inf";
+					out.print(name + "_bucket" + braces(labels.isEmpty() ? labels("le", le) : labels + "," + labels("le", le))
+							+ " " + cumulative + "\n");
+				}
+				out.print(name + "_sum" + braces(labels) + " " + format(histogram.sum.sum()) + "\n");
+				out.print(name + "_count" + braces(labels) + " " + histogram.count.sum() + "\n");
+			}
+		}
+		out.flush();
+	}
+
+	private static void writeJson(Writer writer) {
+		Map<String, Object> json = new LinkedHashMap<String, Object>();
+		json.put("start", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.ROOT).format(new Date(startMillis)));
+		json.put("elapsedSeconds", (System.currentTimeMillis() - startMillis) / 1000.0);
+
+		Map<String, Map<String, Long>> counterValues = new TreeMap<String, Map<String, Long>>();
+		counters.forEach((name, series) -> {
+			Map<String, Long> values = new TreeMap<String, Long>();
+			series.forEach((labels, value) -> values.put(labels, value.sum()));
+			counterValues.put(PREFIX + name, values);
+		});
+		json.put("counters", counterValues);
+
+		Map<String, Map<String, Double>> gaugeValues = new TreeMap<String, Map<String, Double>>();
+		gauges.forEach((name, series) -> {
+			// JSON has no NaN or infinity, so such values are only in the Prometheus format
+			Map<String, Double> values = new TreeMap<String, Double>();
+			series.forEach((labels, value) -> {
+				if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+					values.put(labels, value);
+				}
+			});
+			gaugeValues.put(PREFIX + name, values);
+		});
+		json.put("gauges", gaugeValues);
+
+		Map<String, Map<String, Map<String, Object>>> histogramValues = new TreeMap<String, Map<String, Map<String, Object>>>();
+		histograms.forEach((name, series) -> {
+			Map<String, Map<String, Object>> values = new TreeMap<String, Map<String, Object>>();
+			series.forEach((labels, histogram) -> {
+				Map<String, Object> summary = new LinkedHashMap<String, Object>();
+				long count = histogram.count.sum();
+				summary.put("count", count);
+				summary.put("sum", histogram.sum.sum());
+				summary.put("mean", count > 0 ? histogram.sum.sum() / count : 0);
+				putQuantile(summary, "p50", histogram.quantile(0.5));
+				putQuantile(summary, "p95", histogram.quantile(0.95));
+				putQuantile(summary, "p99", histogram.quantile(0.99));
+				values.put(labels, summary);
+			});
+			histogramValues.put(PREFIX + name, values);
+		});
+		json.put("histograms", histogramValues);
+
+		new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(json, writer);
+	}
+
+	/**
+	 * Add a quantile to a histogram summary, unless it has no value (see Histogram.quantile)
+	 */
+	private static void putQuantile(Map<String, Object> summary, String name, double value) {
+		if (!Double.isNaN(value)) {
+			summary.put(name, value);
+		}
+	}
+
+	/**
+	 * Record heap use at export time, including the peak over the whole run
+	 * The peak is the sum of each heap pool's own peak, so it is an upper bound when pools peaked at different times
+	 */
+	private static void recordJvm() {
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		set("jvm_heap_used_bytes", "", heap.getUsed());
+		set("jvm_heap_committed_bytes", "", heap.getCommitted());
+		set("jvm_heap_max_bytes", "", heap.getMax());
+
+		long peak = 0;
+		for (MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType()==MemoryType.HEAP && pool.getPeakUsage()!=null) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		set("jvm_heap_peak_bytes", "", peak);
+	}
+
+	private static String braces(String labels) {
+		return labels.isEmpty() ? "" : "{" + labels + "}";
+	}
+
+	private static String format(double value) {
+		if (value==Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+			return String.valueOf((long) value);
+		}
+		return String.valueOf(value);
+	}
+}
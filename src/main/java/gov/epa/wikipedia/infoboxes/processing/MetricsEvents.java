@@ -0,0 +1,109 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class to emit metric timings as custom Flight Recorder events, so they line up with GC, thread, and I/O events in a recording
+ * Record with e.g. java -XX:StartFlightRecording=filename=run.jfr ... and open the file in JDK Mission Control
+ * Flight Recorder is only in Java 11+ and later Java 8 updates, and is not in the Java 8 API that the project compiles against
+ * (--release 8), so the event type is defined at run time through jdk.jfr.EventFactory, looked up reflectively; on JVMs without
+ * Flight Recorder isAvailable is false and no events are emitted
+ * @author GSINCL01
+ *
+ */
+class MetricsEvents {
+
+	private static final String EVENT_NAME = "gov.epa.wikipedia.infoboxes.Timing";
+
+	// Event factory and the Event methods used on its events, or null if Flight Recorder is not present
+	private static final Object FACTORY;
+	private static final MethodHandle NEW_EVENT;
+	private static final MethodHandle IS_ENABLED;
+	private static final MethodHandle SET;
+	private static final MethodHandle COMMIT;
+
+	// Positions of the event fields, in the order they are defined below
+	private static final int METRIC_FIELD = 0;
+	private static final int LABELS_FIELD = 1;
+	private static final int ELAPSED_FIELD = 2;
+
+	static {
+		Object factory = null;
+		MethodHandle newEvent = null;
+		MethodHandle isEnabled = null;
+		MethodHandle set = null;
+		MethodHandle commit = null;
+		try {
+			Class<?> eventClass = Class.forName("jdk.jfr.Event");
+			Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+			Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+			Constructor<?> valueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class, List.class);
+
+			List<Object> annotations = Arrays.asList(annotation("Name", EVENT_NAME), annotation("Label", "Infoboxes Timing"),
+					annotation("Category", new String[] { "Wikipedia Infoboxes" }),
+					annotation("Description", "A duration recorded by Metrics.observeNanos"));
+			List<Object> fields = Arrays.asList(
+					valueDescriptor.newInstance(String.class, "metric", Collections.singletonList(annotation("Label", "Metric"))),
+					valueDescriptor.newInstance(String.class, "labels", Collections.singletonList(annotation("Label", "Labels"))),
+					valueDescriptor.newInstance(long.class, "elapsed", Arrays.asList(annotation("Label", "Elapsed"),
+							annotation("Timespan", "NANOSECONDS"))));
+			factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			newEvent = lookup.findVirtual(factoryClass, "newEvent", MethodType.methodType(eventClass));
+			isEnabled = lookup.findVirtual(eventClass, "isEnabled", MethodType.methodType(boolean.class));
+			set = lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class));
+			commit = lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class));
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			factory = null;
+		}
+
+		FACTORY = factory;
+		NEW_EVENT = newEvent;
+		IS_ENABLED = isEnabled;
+		SET = set;
+		COMMIT = commit;
+	}
+
+	/**
+	 * Create a jdk.jfr.AnnotationElement for one of the jdk.jfr annotations
+	 * @param name	The simple name of the annotation (e.g. "Label")
+	 * @param value	The annotation value
+	 */
+	private static Object annotation(String name, Object value) throws ReflectiveOperationException {
+		Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+		return annotationElementClass.getConstructor(Class.class, Object.class).newInstance(Class.forName("jdk.jfr." + name), value);
+	}
+
+	/**
+	 * Check whether Flight Recorder is present in this JVM
+	 * @return	True if events can be emitted
+	 */
+	static boolean isAvailable() {
+		return FACTORY!=null;
+	}
+
+	static void commitTiming(String metric, String labels, long elapsedNanos) {
+		if (FACTORY==null) {
+			return;
+		}
+
+		try {
+			Object event = NEW_EVENT.invoke(FACTORY);
+			if ((boolean) IS_ENABLED.invoke(event)) {
+				SET.invoke(event, METRIC_FIELD, metric);
+				SET.invoke(event, LABELS_FIELD, labels);
+				SET.invoke(event, ELAPSED_FIELD, elapsedNanos);
+				COMMIT.invoke(event);
+			}
+		} catch (Throwable e) {
+			// A failure to record an event never fails the run it is timing
+		}
+	}
+}
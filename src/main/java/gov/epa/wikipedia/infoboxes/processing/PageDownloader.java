@@ -1,25 +1,33 @@
 package gov.epa.wikipedia.infoboxes.processing;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.RecordFiles.RecordWriter;
 import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+import gov.epa.wikipedia.infoboxes.processing.data.WikitextTemplate;
 import gov.epa.wikipedia.infoboxes.processing.queries.EmbeddedInQuery;
+import gov.epa.wikipedia.infoboxes.processing.queries.EmbeddedInQuery.PageInfo;
 import gov.epa.wikipedia.infoboxes.processing.queries.ParseQuery;
 import gov.epa.wikipedia.infoboxes.processing.queries.ParseQuery.ParseResult;
+import gov.epa.wikipedia.infoboxes.processing.queries.RevisionsQuery;
 
 /**
  * Class to download raw HTML from Wikipedia pages using the Media Wiki API
@@ -28,7 +36,93 @@ import gov.epa.wikipedia.infoboxes.processing.queries.ParseQuery.ParseResult;
  */
 public class PageDownloader {
 	
-	private static Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+	/**
+	 * Modes for retrieving page contents from the API
+	 * @author GSINCL01
+	 *
+	 */
+	public enum RetrievalMode {
+		PARSE_PER_PAGE,	// One parse query per page
+		LEAD_SECTION,	// One parse query per page for the lead section only, where infoboxes sit, or the whole page if it has none there
+		BATCHED			// Batched revisions queries for wikitext, then a parse query per page for its infobox templates alone
+	}
+	
+	/**
+	 * Modes for updating an existing download
+	 * @author GSINCL01
+	 *
+	 */
+	public enum UpdateMode {
+		NEW_PAGES,		// Only download pages that have not been downloaded before
+		CHANGED_PAGES,	// Download new pages and pages edited since the last download, and drop pages no longer embedding the template
+		ALL_PAGES		// Redownload everything
+	}
+	
+	/**
+	 * The pages an update downloads and drops, to be merged into the existing data file one page at a time (see writeUpdatedPageHtml)
+	 * Only the downloaded pages are held in memory; existing pages are known by page and revision ID alone
+	 * @author GSINCL01
+	 *
+	 */
+	public static class PageHtmlUpdate {
+		private UpdateMode mode;
+		private Map<Integer, Long> existingRevisions = new LinkedHashMap<Integer, Long>();
+		private Map<Integer, PageHtml> downloaded = new LinkedHashMap<Integer, PageHtml>();
+		private Set<Integer> removedPageIds = new HashSet<Integer>();
+		
+		/**
+		 * Get the page and revision IDs in the existing data file, in file order
+		 * @return	Revision IDs keyed by page ID, empty if there is no existing file
+		 */
+		public Map<Integer, Long> getExistingRevisions() {
+			return existingRevisions;
+		}
+		
+		/**
+		 * Get the pages downloaded by the update, which replace existing pages in place or are added after them
+		 * @return	The downloaded pages keyed by page ID, in download order
+		 */
+		public Map<Integer, PageHtml> getDownloaded() {
+			return downloaded;
+		}
+		
+		/**
+		 * Get the existing pages that no longer embed the template and are left out of the updated file
+		 * @return	The removed page IDs
+		 */
+		public Set<Integer> getRemovedPageIds() {
+			return removedPageIds;
+		}
+		
+		/**
+		 * Get the IDs of every page in the updated file
+		 * @return	The page IDs
+		 */
+		public Set<Integer> getPageIds() {
+			Set<Integer> pageIds = new HashSet<Integer>(existingRevisions.keySet());
+			pageIds.removeAll(removedPageIds);
+			pageIds.addAll(downloaded.keySet());
+			return pageIds;
+		}
+		
+		/**
+		 * Check if the update added, removed, or re-downloaded any pages
+		 * Pages downloaded again at the same revision only count when redownloading everything, since rendering may still differ
+		 * @return	True if the data file should be archived and saved
+		 */
+		public boolean hasChanges() {
+			if (!removedPageIds.isEmpty() || (mode==UpdateMode.ALL_PAGES && !downloaded.isEmpty())) {
+				return true;
+			}
+			
+			for (PageHtml html:downloaded.values()) {
+				if (!existingRevisions.containsKey(html.pageId) || !Objects.equals(existingRevisions.get(html.pageId), html.lastRevId)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
 	
 	/**
 	 * Download all pages that embed an element with the given title (e.g. "Template:Chembox")
@@ -40,7 +134,7 @@ public class PageDownloader {
 		Set<Integer> newPageIds = EmbeddedInQuery.getPageIds(eiTitle);
 		
 		if (!newPageIds.isEmpty()) {
-			List<PageHtml> newPageHtml = getPageHtmlFromApi(newPageIds);
+			List<PageHtml> newPageHtml = getPageHtmlFromApi(newPageIds, (DownloadJournal) null);
 			pageHtml.addAll(newPageHtml);
 		}
 		
@@ -54,76 +148,531 @@ public class PageDownloader {
 	 * @return							A list of PageHtml objects from the relevant pages
 	 */
 	public static List<PageHtml> updatePageHtml(String eiTitle, String existingPageHtmlFileName) {
+		return updatePageHtml(eiTitle, existingPageHtmlFileName, UpdateMode.NEW_PAGES);
+	}
+	
+	/**
+	 * Update the pages that embed an element with the given title (e.g. "Template:Chembox") according to the update mode
+	 * Holds every page of the updated file in memory; to update a data file one page at a time, use findPageHtmlUpdate
+	 * and writeUpdatedPageHtml instead
+	 * @param eiTitle					The element title to query
+	 * @param existingPageHtmlFileName	The name of the file containing existing HTML
+	 * @param mode						Which pages to download
+	 * @return							A list of PageHtml objects from the relevant pages, in existing order with new pages last
+	 */
+	public static List<PageHtml> updatePageHtml(String eiTitle, String existingPageHtmlFileName, UpdateMode mode) {
+		PageHtmlUpdate update = findPageHtmlUpdate(eiTitle, existingPageHtmlFileName, mode);
 		List<PageHtml> pageHtml = new ArrayList<PageHtml>();
+		try {
+			writeUpdatedPageHtml(existingPageHtmlFileName, update, null, pageHtml::add);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return pageHtml;
+	}
+	
+	/**
+	 * Find and download the new, edited, or all pages that embed an element with the given title, according to the update mode,
+	 * and the existing pages that no longer embed it (CHANGED_PAGES and ALL_PAGES only)
+	 * Only page and revision IDs are read from the existing data file
+	 * If WikipediaInfoboxesDict.JOURNAL_DOWNLOADS is set, pages are logged to the file's download journal as they arrive,
+	 * and pages logged by an interrupted run are not downloaded again (see DownloadJournal)
+	 * @param eiTitle					The element title to query
+	 * @param existingPageHtmlFileName	The name of the file containing existing HTML
+	 * @param mode						Which pages to download
+	 * @return							The update, to be merged into the existing file with writeUpdatedPageHtml
+	 */
+	public static PageHtmlUpdate findPageHtmlUpdate(String eiTitle, String existingPageHtmlFileName, UpdateMode mode) {
+		PageHtmlUpdate update = new PageHtmlUpdate();
+		update.mode = mode;
+		try {
+			update.existingRevisions = getRevisionsFromFile(existingPageHtmlFileName);
+		} catch (IOException e) {
+			// If the file doesn't exist, every page counts as new
+		}
+		
+		DownloadJournal journal = openJournal(existingPageHtmlFileName);
+		try {
+			if (mode==UpdateMode.CHANGED_PAGES) {
+				findChangedPageHtml(eiTitle, update, journal);
+				return update;
+			}
+			
+			Set<Integer> pageIds = EmbeddedInQuery.getPageIds(eiTitle);
+			Set<Integer> downloadPageIds = new LinkedHashSet<Integer>(pageIds);
+			if (mode==UpdateMode.ALL_PAGES) {
+				for (Integer pageId:update.existingRevisions.keySet()) {
+					if (!pageIds.contains(pageId)) {
+						update.removedPageIds.add(pageId);
+					}
+				}
+			} else {
+				downloadPageIds.removeAll(update.existingRevisions.keySet());
+			}
+			
+			for (PageHtml html:getPageHtmlFromApi(downloadPageIds, journal)) {
+				update.downloaded.put(html.pageId, html);
+			}
+			return update;
+		} finally {
+			closeJournal(journal);
+		}
+	}
+	
+	static DownloadJournal openJournal(String fileName) {
+		if (!WikipediaInfoboxesDict.JOURNAL_DOWNLOADS) {
+			return null;
+		}
 		
 		try {
-			// Try to find the existing page HTML file
-			pageHtml.addAll(PageDownloader.getPageHtmlFromFile(existingPageHtmlFileName));
+			DownloadJournal journal = DownloadJournal.open(fileName);
+			if (journal.getResumedCount() > 0) {
+				System.out.println("Resuming interrupted download: found " + journal.getResumedCount() + " pages in journal.");
+			}
+			return journal;
 		} catch (IOException e) {
-			// If the file doesn't exist, go straight to download all HTML directly
-			return downloadPageHtml(eiTitle);
+			System.out.println("Could not open download journal for " + fileName + ", continuing without it: " + e.getMessage());
+			return null;
 		}
-
-		Set<Integer> existingPageIds = pageHtml.stream().map(html -> html.pageId).collect(Collectors.toSet());
-		Set<Integer> newPageIds = EmbeddedInQuery.getPageIds(eiTitle);
+	}
+	
+	static void closeJournal(DownloadJournal journal) {
+		if (journal==null) {
+			return;
+		}
+		
+		try {
+			journal.close();
+		} catch (IOException e) {
+			// The pages are already flushed; a failed final sync only weakens the guarantee for the last few
+		}
+	}
+	
+	/**
+	 * Download new and edited pages that embed an element with the given title, and find pages that no longer embed it
+	 * Pages downloaded before revision IDs were stored count as edited, so they are refreshed once
+	 * @param eiTitle	The element title to query
+	 * @param update	The update to add the downloaded and removed pages to
+	 * @param journal	The journal to log pages to and resume from, or null
+	 */
+	private static void findChangedPageHtml(String eiTitle, PageHtmlUpdate update, DownloadJournal journal) {
+		Map<Integer, PageInfo> pageInfo = EmbeddedInQuery.getPageInfo(eiTitle);
 		
-		for (Integer pageId:existingPageIds) {
-			newPageIds.remove(pageId);
+		Set<Integer> changedPageIds = new LinkedHashSet<Integer>();
+		for (Map.Entry<Integer, Long> existing:update.existingRevisions.entrySet()) {
+			PageInfo info = pageInfo.get(existing.getKey());
+			if (info==null) {
+				update.removedPageIds.add(existing.getKey());
+			} else if (existing.getValue()==null || !existing.getValue().equals(info.lastrevid)) {
+				changedPageIds.add(existing.getKey());
+			}
 		}
 		
-		if (!newPageIds.isEmpty()) {
-			List<PageHtml> newPageHtml = getPageHtmlFromApi(newPageIds);
-			pageHtml.addAll(newPageHtml);
+		for (Integer pageId:pageInfo.keySet()) {
+			if (!update.existingRevisions.containsKey(pageId)) {
+				changedPageIds.add(pageId);
+			}
 		}
 		
-		return pageHtml;
+		System.out.println("Found " + changedPageIds.size() + " new or edited pages and " + update.removedPageIds.size() + " removed pages.");
+		
+		// Journaled pages edited again since they were logged are downloaded again
+		if (journal!=null) {
+			journal.discardIf(html -> pageInfo.get(html.pageId)==null 
+					|| !Objects.equals(html.lastRevId, pageInfo.get(html.pageId).lastrevid));
+		}
+		
+		if (!changedPageIds.isEmpty()) {
+			for (PageHtml html:getPageHtmlFromApi(changedPageIds, journal)) {
+				PageInfo info = pageInfo.get(html.pageId);
+				if (info!=null) {
+					// Keep the revision ID actually downloaded if there is one, since the page may have been edited since listing
+					if (html.lastRevId==null) {
+						html.lastRevId = info.lastrevid;
+					}
+					html.touched = info.touched;
+				}
+				update.downloaded.put(html.pageId, html);
+			}
+		}
 	}
 	
 	/**
-	 * Run queries to get HTML from a set of page IDs
+	 * Merge an update into the existing data file one page at a time: removed pages are left out, downloaded pages replace
+	 * existing ones in place, and new pages are added at the end
+	 * Pages that failed to download keep their existing version, so they are tried again on the next update
+	 * @param existingPageHtmlFileName	The name of the file containing existing HTML
+	 * @param update					The update (see findPageHtmlUpdate)
+	 * @param file						The file to write the updated pages to (e.g. a partial file, moved over the existing file
+	 * 									with replacePageHtmlFile), or null to only run the action
+	 * @param action					The action to run on each page of the updated file, in order (e.g. to parse it)
+	 * @return							The number of pages in the updated file
+	 * @throws IOException				If a file cannot be read or written
+	 */
+	public static int writeUpdatedPageHtml(String existingPageHtmlFileName, PageHtmlUpdate update, File file, 
+			Consumer<PageHtml> action) throws IOException {
+		int[] count = new int[1];
+		try (RecordWriter<PageHtml> writer = file==null ? null : RecordFiles.openWriter(file, PageHtml.class)) {
+			Consumer<PageHtml> write = html -> {
+				try {
+					if (writer!=null) {
+						writer.write(html);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				action.accept(html);
+				count[0]++;
+			};
+			
+			try {
+				if (!update.existingRevisions.isEmpty()) {
+					forEachPageHtmlInFile(existingPageHtmlFileName, html -> {
+						if (!update.removedPageIds.contains(html.pageId)) {
+							write.accept(update.downloaded.containsKey(html.pageId) ? update.downloaded.get(html.pageId) : html);
+						}
+					});
+				}
+				for (PageHtml html:update.downloaded.values()) {
+					if (!update.existingRevisions.containsKey(html.pageId)) {
+						write.accept(html);
+					}
+				}
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+		
+		return count[0];
+	}
+	
+	/**
+	 * Move a completely written data file (e.g. from writeUpdatedPageHtml) over a data file, as savePageHtml would have saved it
+	 * @param file			The file written
+	 * @param fileName		The filename to replace
+	 * @throws IOException	If the file cannot be moved
+	 */
+	public static void replacePageHtmlFile(File file, String fileName) throws IOException {
+		Files.move(file.toPath(), new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + fileName).toPath(), 
+				StandardCopyOption.REPLACE_EXISTING);
+		
+		// The data file now holds every downloaded page, so the download journal is no longer needed
+		DownloadJournal.delete(fileName);
+		
+		// Keep the random-access store in step with the data file
+		if (WikipediaInfoboxesDict.BUILD_PAGE_HTML_STORE) {
+			PageHtmlStore.build(fileName);
+		}
+	}
+	
+	/**
+	 * Download the wikitext of all pages that embed an element with the given title (e.g. "Template:Chembox") and
+	 * parse their Chembox and Drugbox template calls directly, without rendering or parsing any HTML
+	 * Wikitext is fetched with batched revisions queries, so this costs one request per WikipediaInfoboxesDict.QUERY_BATCH_SIZE pages
+	 * @param eiTitle	The element title to query
+	 * @return			A list of ParsedPage objects from the relevant pages
+	 */
+	public static List<ParsedPage> downloadParsedPagesFromWikitext(String eiTitle) {
+		List<Integer> pageIds = new ArrayList<Integer>(EmbeddedInQuery.getPageIds(eiTitle));
+		List<List<Integer>> batches = RevisionsQuery.toBatches(pageIds, WikipediaInfoboxesDict.QUERY_BATCH_SIZE);
+		List<List<ParsedPage>> batchedParsedPages = FetchEngine.withDefaults().run(batches, batch -> RevisionsQuery.run(batch).stream()
+				.map(page -> ParsedPage.fromWikitext(page.title, page.pageid, page.getWikitext()))
+				.collect(Collectors.toList()));
+		return batchedParsedPages.stream().flatMap(List::stream).collect(Collectors.toList());
+	}
+	
+	/**
+	 * Run queries to get HTML from a set of page IDs, using the default fetch engine settings
 	 * @param pageIds	The set of page IDs to query
+	 * @param journal	The journal to log pages to and resume from, or null
 	 * @return			The HTML contents of the queried pages
 	 */
-	private static List<PageHtml> getPageHtmlFromApi(Set<Integer> pageIds) {
+	private static List<PageHtml> getPageHtmlFromApi(Set<Integer> pageIds, DownloadJournal journal) {
+		return getPageHtmlFromApi(pageIds, FetchEngine.withDefaults(), journal);
+	}
+	
+	/**
+	 * Run queries to get HTML from a set of page IDs
+	 * @param pageIds	The set of page IDs to query
+	 * @param engine	The fetch engine to run the queries with
+	 * @return			The HTML contents of the queried pages, in the iteration order of the page IDs
+	 */
+	public static List<PageHtml> getPageHtmlFromApi(Set<Integer> pageIds, FetchEngine engine) {
+		return getPageHtmlFromApi(pageIds, engine, null);
+	}
+	
+	/**
+	 * Run queries to get HTML from a set of page IDs, logging each page to a journal as it arrives
+	 * Pages already in the journal are taken from it instead of being downloaded again
+	 * @param pageIds	The set of page IDs to query
+	 * @param engine	The fetch engine to run the queries with
+	 * @param journal	The journal to log pages to and resume from, or null
+	 * @return			The HTML contents of the queried pages, in the iteration order of the page IDs
+	 */
+	public static List<PageHtml> getPageHtmlFromApi(Set<Integer> pageIds, FetchEngine engine, DownloadJournal journal) {
+		Map<Integer, PageHtml> journaledPageHtml = journal==null ? new LinkedHashMap<Integer, PageHtml>() : journal.getPages();
+		List<Integer> pageIdList = new ArrayList<Integer>();
+		for (Integer pageId:pageIds) {
+			if (!journaledPageHtml.containsKey(pageId)) {
+				pageIdList.add(pageId);
+			}
+		}
+		
+		if (pageIdList.size() < pageIds.size()) {
+			System.out.println("Skipping " + (pageIds.size() - pageIdList.size()) + " pages already in download journal.");
+		}
+		
+		// Failed pages (e.g. given up on after retries, see RequestScheduler) are reported and left out, rather than failing the run
+		Map<Integer, String> failures = new ConcurrentSkipListMap<Integer, String>();
+		List<PageHtml> fetchedPageHtml = null;
+		if (WikipediaInfoboxesDict.RETRIEVAL_MODE==RetrievalMode.BATCHED) {
+			List<List<Integer>> batches = RevisionsQuery.toBatches(pageIdList, WikipediaInfoboxesDict.QUERY_BATCH_SIZE);
+			// Pages another template is fetching are waited on without a host permit, which is taken only for this batch's own queries
+			List<List<PageHtml>> batchedPageHtml = engine.runWithoutPermits(batches, batch -> {
+				try {
+					List<PageHtml> pageHtml = SharedFetches.fetchBatch(batch, ids -> engine.runSingle(ids, PageDownloader::getPageHtmlFromApiBatch));
+					if (journal!=null) {
+						pageHtml.forEach(journal::append);
+					}
+					return pageHtml;
+				} catch (RuntimeException e) {
+					batch.forEach(pageId -> failures.put(pageId, e.toString()));
+					return new ArrayList<PageHtml>();
+				}
+			});
+			fetchedPageHtml = batchedPageHtml.stream().flatMap(List::stream).collect(Collectors.toList());
+		} else {
+			fetchedPageHtml = engine.runWithoutPermits(pageIdList, pageId -> {
+				try {
+					PageHtml pageHtml = SharedFetches.fetch(pageId, id -> engine.runSingle(id, PageDownloader::getPageHtmlFromApi));
+					if (journal!=null) {
+						journal.append(pageHtml);
+					}
+					return pageHtml;
+				} catch (RuntimeException e) {
+					failures.put(pageId, e.toString());
+					return null;
+				}
+			});
+		}
+		
+		if (!failures.isEmpty()) {
+			System.out.println("Failed to download " + failures.size() + " pages:");
+			failures.forEach((pageId, message) -> System.out.println("\t" + pageId + ": " + message));
+		}
+		
+		Map<Integer, PageHtml> fetchedById = new LinkedHashMap<Integer, PageHtml>();
+		for (PageHtml html:fetchedPageHtml) {
+			if (html!=null) {
+				fetchedById.put(html.pageId, html);
+			}
+		}
+		
+		if (journaledPageHtml.isEmpty() && failures.isEmpty()) {
+			return fetchedPageHtml;
+		}
+		
+		// Put the journaled pages back in their places among the fetched ones
 		List<PageHtml> pageHtml = new ArrayList<PageHtml>();
 		for (Integer pageId:pageIds) {
-			ParseResult result = ParseQuery.run(pageId, "text");
-			PageHtml thisPageHtml = PageHtml.fromParseResult(result);
+			PageHtml html = journaledPageHtml.containsKey(pageId) ? journaledPageHtml.get(pageId) : fetchedById.get(pageId);
+			if (html!=null) {
+				pageHtml.add(html);
+			}
+		}
+		return pageHtml;
+	}
+	
+	/**
+	 * Run a parse query to get HTML from a single page
+	 * In LEAD_SECTION mode, only the lead section is rendered and downloaded, unless no infobox is found in it
+	 * @param pageId	The page ID to query
+	 * @return			The HTML contents of the queried page
+	 */
+	private static PageHtml getPageHtmlFromApi(Integer pageId) {
+		if (WikipediaInfoboxesDict.RETRIEVAL_MODE==RetrievalMode.LEAD_SECTION) {
+			ParseResult result = ParseQuery.runSection(pageId, "text|revid", 0);
+			PageHtml leadPageHtml = PageHtml.fromParseResult(result, WikipediaInfoboxesDict.KEEP_RAW_INFOBOX_HTML);
+			if (hasInfoboxes(leadPageHtml)) {
+				return leadPageHtml;
+			}
+		}
+		
+		return getFullPageHtmlFromApi(pageId);
+	}
+	
+	/**
+	 * Run a parse query to get HTML from the whole of a single page
+	 * @param pageId	The page ID to query
+	 * @return			The HTML contents of the queried page
+	 */
+	static PageHtml getFullPageHtmlFromApi(Integer pageId) {
+		ParseResult result = ParseQuery.run(pageId, "text|revid");
+		return PageHtml.fromParseResult(result, WikipediaInfoboxesDict.KEEP_RAW_INFOBOX_HTML);
+	}
+	
+	/**
+	 * Check whether infoboxes were extracted from a page, e.g. to decide whether a lead section query needs the whole page instead
+	 * Infoboxes are usually at the top of the lead, but some pages place them further down or inside other templates
+	 */
+	static boolean hasInfoboxes(PageHtml pageHtml) {
+		return pageHtml.parsedPage!=null && !pageHtml.parsedPage.infoboxes.isEmpty();
+	}
+	
+	/**
+	 * Get HTML for a batch of pages by fetching their wikitext in one query and rendering only their infobox templates
+	 * Each page's templates are rendered as that page (the parse API renders one title per query), so captions and anything
+	 * else depending on the page name or its Wikidata item come out as in a normal page render
+	 * Pages whose infoboxes cannot be found or rendered this way (e.g. templates transcluded indirectly) fall back
+	 * to a parse query of their own
+	 * @param pageIds	The batch of page IDs to query (at most WikipediaInfoboxesDict.QUERY_BATCH_SIZE)
+	 * @return			The HTML contents of the queried pages, in batch order
+	 */
+	static List<PageHtml> getPageHtmlFromApiBatch(List<Integer> pageIds) {
+		List<String> templateNames = new ArrayList<String>(WikipediaInfoboxesDict.CHEMBOX_TEMPLATE_NAMES);
+		templateNames.addAll(WikipediaInfoboxesDict.DRUGBOX_TEMPLATE_NAMES);
+		
+		Map<Integer, PageHtml> pageHtmlById = new LinkedHashMap<Integer, PageHtml>();
+		Map<Integer, Long> revIds = new LinkedHashMap<Integer, Long>();
+		for (RevisionsQuery.Page page:RevisionsQuery.run(pageIds)) {
+			revIds.put(page.pageid, page.getRevId());
+			List<WikitextTemplate> templates = WikitextTemplate.findAll(page.getWikitext(), templateNames);
+			if (!templates.isEmpty()) {
+				renderTemplates(page.pageid, page.title, templates, pageHtmlById);
+			}
+		}
+		
+		List<PageHtml> pageHtml = new ArrayList<PageHtml>();
+		for (Integer pageId:pageIds) {
+			PageHtml thisPageHtml = pageHtmlById.get(pageId);
+			if (thisPageHtml==null || (thisPageHtml.infoboxHtml.isEmpty() && thisPageHtml.parsedPage.infoboxes.isEmpty())) {
+				thisPageHtml = getPageHtmlFromApi(pageId);
+			} else {
+				thisPageHtml.lastRevId = revIds.get(pageId);
+			}
 			pageHtml.add(thisPageHtml);
 		}
 		
 		return pageHtml;
 	}
+	
+	/**
+	 * Render a page's infobox templates as that page, wrapped as a batch of one so that the result splits the same way
+	 */
+	private static void renderTemplates(Integer pageId, String title, List<WikitextTemplate> templates, Map<Integer, PageHtml> pageHtmlById) {
+		StringBuilder text = new StringBuilder();
+		text.append("<div class=\"" + PageHtml.BATCH_WRAPPER_CLASS + "\" data-pageid=\"" + pageId + "\">\n");
+		for (WikitextTemplate template:templates) {
+			text.append(template.text).append("\n");
+		}
+		text.append("</div>\n");
+		
+		Map<Integer, String> titles = new LinkedHashMap<Integer, String>();
+		titles.put(pageId, title);
+		ParseResult result = null;
+		try {
+			result = ParseQuery.runText(text.toString(), title);
+		} catch (RuntimeException e) {
+			// Handled below, like an error response
+		}
+		if (result==null || result.parse==null) {
+			// Leave these pages to the per-page fallback
+			return;
+		}
+		
+		for (PageHtml pageHtml:PageHtml.fromBatchParseResult(result, titles, WikipediaInfoboxesDict.KEEP_RAW_INFOBOX_HTML)) {
+			pageHtmlById.put(pageHtml.pageId, pageHtml);
+		}
+	}
 
 	/**
-	 * Write page HTML to a JSON file
+	 * Write page HTML to a data file, one record at a time (format chosen by file name, see RecordFiles)
 	 * @param pageHtml		The PageHtml objects to write
 	 * @param fileName		The filename to write to
 	 * @throws IOException	If the file cannot be written
 	 */
-	public static void savePageHtml(List<PageHtml> pageHtml, String fileName) throws IOException {
+	public static void savePageHtml(Iterable<PageHtml> pageHtml, String fileName) throws IOException {
 		File file = new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + fileName);
-		file.getParentFile().mkdirs();
+		RecordFiles.writeAll(pageHtml, file, PageHtml.class);
 		
-		try (BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
-			bw.write(gson.toJson(pageHtml));
-		} catch (IOException e) {
-			throw e;
+		// The data file now holds every downloaded page, so the download journal is no longer needed
+		DownloadJournal.delete(fileName);
+		
+		// Keep the random-access store in step with the data file
+		if (WikipediaInfoboxesDict.BUILD_PAGE_HTML_STORE) {
+			PageHtmlStore.build(fileName);
 		}
 	}
 
 	/**
-	 * Read page HTML from a JSON file
+	 * Read page HTML from a data file
 	 * @param fileName		The file to read
 	 * @return				The contents of the file as PageHtml objects
 	 * @throws IOException	File not found or other I/O problem
 	 */
 	public static List<PageHtml> getPageHtmlFromFile(String fileName) throws IOException {
-		try (BufferedReader br = new BufferedReader(new FileReader(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + fileName))) {
-			PageHtml[] pageHtmlArray = gson.fromJson(br, PageHtml[].class);
-			return Arrays.asList(pageHtmlArray);
-		} catch (IOException e) {
-			throw e;
+		File file = new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + fileName);
+		return RecordFiles.readAll(file, PageHtml.class);
+	}
+	
+	/**
+	 * Read selected pages from a data file
+	 * Pages are looked up in the file's random-access store (see PageHtmlStore) if it is up to date, so only they are decoded;
+	 * otherwise the file is scanned one record at a time
+	 * @param fileName		The file to read
+	 * @param pageIds		The page IDs to read
+	 * @return				The pages found, in the order of the page IDs
+	 * @throws IOException	File not found or other I/O problem
+	 */
+	public static List<PageHtml> getPageHtmlFromFile(String fileName, Collection<Integer> pageIds) throws IOException {
+		List<PageHtml> pageHtml = new ArrayList<PageHtml>();
+		if (PageHtmlStore.isUpToDate(fileName)) {
+			try (PageHtmlStore store = PageHtmlStore.open(fileName)) {
+				for (Integer pageId:pageIds) {
+					PageHtml html = store.get(pageId);
+					if (html!=null) {
+						pageHtml.add(html);
+					}
+				}
+			}
+			return pageHtml;
 		}
+		
+		Map<Integer, PageHtml> pageHtmlById = new LinkedHashMap<Integer, PageHtml>();
+		Set<Integer> wanted = new LinkedHashSet<Integer>(pageIds);
+		forEachPageHtmlInFile(fileName, html -> {
+			if (wanted.contains(html.pageId)) {
+				pageHtmlById.putIfAbsent(html.pageId, html);
+			}
+		});
+		for (Integer pageId:wanted) {
+			if (pageHtmlById.containsKey(pageId)) {
+				pageHtml.add(pageHtmlById.get(pageId));
+			}
+		}
+		return pageHtml;
+	}
+	
+	/**
+	 * Run an action on each page in a data file without reading the whole file into memory
+	 * @param fileName		The file to read
+	 * @param action		The action to run on each page
+	 * @throws IOException	File not found or other I/O problem
+	 */
+	public static void forEachPageHtmlInFile(String fileName, Consumer<PageHtml> action) throws IOException {
+		File file = new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + fileName);
+		RecordFiles.forEach(file, PageHtml.class, action);
+	}
+	
+	/**
+	 * Read just the page IDs and revision IDs from a data file, in file order
+	 * @param fileName		The file to read
+	 * @return				Revision IDs keyed by page ID (values are null for pages downloaded without revision IDs)
+	 * @throws IOException	File not found or other I/O problem
+	 */
+	public static Map<Integer, Long> getRevisionsFromFile(String fileName) throws IOException {
+		Map<Integer, Long> revisions = new LinkedHashMap<Integer, Long>();
+		forEachPageHtmlInFile(fileName, html -> revisions.put(html.pageId, html.lastRevId));
+		return revisions;
 	}
 }
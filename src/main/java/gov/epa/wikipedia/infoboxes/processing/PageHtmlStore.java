@@ -0,0 +1,328 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+
+/**
+ * Class to look up single pages of a raw HTML data file by page ID without reading the whole file
+ * A store file is built from a raw data file (see build) and opened memory-mapped; records are only decoded when requested
+ * File layout (big-endian):
+ * 	Header		magic "PHS1", record count (int), index offset (long)
+ * 	Records		PageHtml records as UTF-8 JSON, back to back
+ * 	Index		One entry per record, sorted by page ID: page ID (int), record length (int), record offset (long)
+ * @author GSINCL01
+ *
+ */
+public class PageHtmlStore implements Closeable {
+
+	private static final int MAGIC = 0x50485331;
+	private static final int HEADER_SIZE = 16;
+	private static final int INDEX_ENTRY_SIZE = 16;
+
+	private static Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+	private int count;
+	private long indexOffset;
+
+	// Open-addressing hash table from page ID to index entry, for constant-time lookups
+	private int[] slotPageIds;
+	private int[] slotEntries;
+
+	private PageHtmlStore(File file) throws IOException {
+		raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() > Integer.MAX_VALUE) {
+				throw new IOException("Store file " + file.getName() + " is too large to map (" + raf.length() + " bytes)");
+			}
+
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (raf.length() < HEADER_SIZE || buffer.getInt(0)!=MAGIC) {
+				throw new IOException(file.getName() + " is not a page HTML store file");
+			}
+
+			count = buffer.getInt(4);
+			indexOffset = buffer.getLong(8);
+			buildSlots();
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Build the store file for a raw HTML data file, replacing any previous store file
+	 * If a page ID appears more than once, the first record is kept
+	 * @param fileName		The raw HTML data file (e.g. WikipediaInfoboxesDict.CHEMBOX_RAW_HTML_FILE_NAME)
+	 * @return				The number of pages in the store
+	 * @throws IOException	If the data file cannot be read or the store cannot be written
+	 */
+	public static int build(String fileName) throws IOException {
+		File storeFile = getStoreFile(fileName);
+		File tempFile = new File(storeFile.getPath() + ".tmp");
+		if (storeFile.getParentFile()!=null) {
+			storeFile.getParentFile().mkdirs();
+		}
+
+		IndexBuilder index = new IndexBuilder();
+		try (RandomAccessFile out = new RandomAccessFile(tempFile, "rw")) {
+			out.setLength(0);
+			out.seek(HEADER_SIZE);
+			try {
+				PageDownloader.forEachPageHtmlInFile(fileName, html -> {
+					if (html.pageId==null) {
+						return;
+					}
+
+					byte[] bytes = gson.toJson(html).getBytes(StandardCharsets.UTF_8);
+					try {
+						index.add(html.pageId, bytes.length, out.getFilePointer());
+						out.write(bytes);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+
+			long indexOffset = out.getFilePointer();
+			int count = index.write(out);
+			out.seek(0);
+			out.writeInt(MAGIC);
+			out.writeInt(count);
+			out.writeLong(indexOffset);
+		}
+
+		// Replace the old store in one step, so readers never see a partly written store
+		Files.move(tempFile.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return index.size;
+	}
+
+	/**
+	 * Open the store file of a raw HTML data file
+	 * @param fileName		The raw HTML data file the store was built from
+	 * @return				An open store, which must be closed when done
+	 * @throws IOException	If the store file does not exist or is not valid
+	 */
+	public static PageHtmlStore open(String fileName) throws IOException {
+		return new PageHtmlStore(getStoreFile(fileName));
+	}
+
+	/**
+	 * Check if a raw HTML data file has a store that was built after the file was last written
+	 * @param fileName	The raw HTML data file
+	 * @return			True if the store exists and is not older than the data file
+	 */
+	public static boolean isUpToDate(String fileName) {
+		File storeFile = getStoreFile(fileName);
+		File file = new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + fileName);
+		return storeFile.exists() && file.exists() && storeFile.lastModified() >= file.lastModified();
+	}
+
+	/**
+	 * Get the number of pages in the store
+	 * @return	The page count
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Check if the store has a page
+	 * @param pageId	The page ID
+	 * @return			True if the page is in the store
+	 */
+	public boolean contains(int pageId) {
+		return findEntry(pageId) >= 0;
+	}
+
+	/**
+	 * Get a single page, decoding only its record
+	 * @param pageId	The page ID
+	 * @return			The page, or null if it is not in the store
+	 */
+	public PageHtml get(int pageId) {
+		int entry = findEntry(pageId);
+		return entry < 0 ? null : decode(entry);
+	}
+
+	/**
+	 * Get the page ID of the n-th page in page ID order
+	 * @param n		The position in page ID order, from 0 to size() - 1
+	 * @return		The page ID
+	 */
+	public int getPageId(int n) {
+		return buffer.getInt(entryPosition(n));
+	}
+
+	/**
+	 * Run an action on each page with a page ID in a range, in page ID order, decoding one record at a time
+	 * @param fromPageId	The first page ID (inclusive)
+	 * @param toPageId		The last page ID (inclusive)
+	 * @param action		The action to run on each page
+	 */
+	public void forEachInRange(int fromPageId, int toPageId, Consumer<PageHtml> action) {
+		for (int entry = lowerBound(fromPageId); entry < count && getPageId(entry) <= toPageId; entry++) {
+			action.accept(decode(entry));
+		}
+	}
+
+	/**
+	 * Run an action on each page in the store, in page ID order, decoding one record at a time
+	 * @param action	The action to run on each page
+	 */
+	public void forEach(Consumer<PageHtml> action) {
+		for (int entry = 0; entry < count; entry++) {
+			action.accept(decode(entry));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		// Mapped buffers are released by the garbage collector; closing the file is all that can be done portably
+		buffer = null;
+		raf.close();
+	}
+
+	private PageHtml decode(int entry) {
+		int position = entryPosition(entry);
+		int length = buffer.getInt(position + 4);
+		long offset = buffer.getLong(position + 8);
+
+		// Read through a duplicate so concurrent lookups do not share a buffer position
+		ByteBuffer record = buffer.duplicate();
+		record.position((int) offset);
+		byte[] bytes = new byte[length];
+		record.get(bytes);
+		return gson.fromJson(new String(bytes, StandardCharsets.UTF_8), PageHtml.class);
+	}
+
+	private int entryPosition(int entry) {
+		// Mapped files are under 2 GB, so positions fit in an int
+		return (int) (indexOffset + (long) entry * INDEX_ENTRY_SIZE);
+	}
+
+	/**
+	 * Find the first index entry with a page ID at least the given one (binary search over the sorted index)
+	 */
+	private int lowerBound(int pageId) {
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getPageId(mid) < pageId) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	private int findEntry(int pageId) {
+		int mask = slotPageIds.length - 1;
+		for (int slot = mix(pageId) & mask; slotEntries[slot] >= 0; slot = (slot + 1) & mask) {
+			if (slotPageIds[slot]==pageId) {
+				return slotEntries[slot];
+			}
+		}
+
+		return -1;
+	}
+
+	private void buildSlots() {
+		int capacity = Integer.highestOneBit(Math.max(2, count * 2 - 1)) << 1;
+		slotPageIds = new int[capacity];
+		slotEntries = new int[capacity];
+		Arrays.fill(slotEntries, -1);
+		int mask = capacity - 1;
+		for (int entry = 0; entry < count; entry++) {
+			int pageId = getPageId(entry);
+			int slot = mix(pageId) & mask;
+			while (slotEntries[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			slotPageIds[slot] = pageId;
+			slotEntries[slot] = entry;
+		}
+	}
+
+	/**
+	 * Class to collect index entries while records are written, without boxing
+	 */
+	private static class IndexBuilder {
+		private int[] pageIds = new int[1024];
+		private int[] lengths = new int[1024];
+		private long[] offsets = new long[1024];
+		private int size;
+
+		private void add(int pageId, int length, long offset) {
+			if (size==pageIds.length) {
+				pageIds = Arrays.copyOf(pageIds, size * 2);
+				lengths = Arrays.copyOf(lengths, size * 2);
+				offsets = Arrays.copyOf(offsets, size * 2);
+			}
+			pageIds[size] = pageId;
+			lengths[size] = length;
+			offsets[size] = offset;
+			size++;
+		}
+
+		/**
+		 * Write the entries sorted by page ID, keeping the first entry for a repeated page ID
+		 * @return	The number of entries written
+		 */
+		private int write(RandomAccessFile out) throws IOException {
+			// Sort by page ID, then by position in the data file
+			long[] order = new long[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = ((long) pageIds[i] << 32) | i;
+			}
+			Arrays.sort(order);
+
+			ByteBuffer entries = ByteBuffer.allocate(size * INDEX_ENTRY_SIZE);
+			int count = 0;
+			for (int i = 0; i < size; i++) {
+				int entry = (int) order[i];
+				if (count > 0 && entries.getInt((count - 1) * INDEX_ENTRY_SIZE)==pageIds[entry]) {
+					continue;
+				}
+				entries.putInt(pageIds[entry]).putInt(lengths[entry]).putLong(offsets[entry]);
+				count++;
+			}
+			out.write(entries.array(), 0, count * INDEX_ENTRY_SIZE);
+			size = count;
+			return count;
+		}
+	}
+
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static File getStoreFile(String fileName) {
+		String stem = fileName.contains(".") ? fileName.substring(0, fileName.indexOf(".")) : fileName;
+		return new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + stem + ".store");
+	}
+}
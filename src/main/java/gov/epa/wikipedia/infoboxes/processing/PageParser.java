@@ -1,19 +1,29 @@
 package gov.epa.wikipedia.infoboxes.processing;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.ColumnarFiles.Column;
+import gov.epa.wikipedia.infoboxes.processing.ColumnarFiles.ColumnType;
+import gov.epa.wikipedia.infoboxes.processing.ColumnarFiles.ColumnarWriter;
+import gov.epa.wikipedia.infoboxes.processing.IdentifierIndex.IdentifierType;
+import gov.epa.wikipedia.infoboxes.processing.RecordFiles.RecordWriter;
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet;
+import gov.epa.wikipedia.infoboxes.processing.data.Infobox;
 import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
 import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
 
@@ -24,47 +34,251 @@ import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
  */
 public class PageParser {
 	
-	private static Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
-
 	/**
-	 * Parse page HTML contents and extract sets of identifiers of interest
+	 * Sources that infobox identifiers can be extracted from
+	 * @author GSINCL01
+	 *
+	 */
+	public enum Backend {
+		HTML,		// Rendered page HTML (prop=text), with raw infobox HTML kept on disk
+		WIKITEXT	// Template parameters in page wikitext, with much less to download and no HTML parsing
+	}
+	
+	// Columns of the Parquet export of parsed pages: one row per identifier, with the page and infobox it was found in
+	// Titles and identifier types repeat across rows, so they are dictionary-encoded
+	private static final List<Column> EXPORT_COLUMNS = Arrays.asList(
+			new Column("page_id", ColumnType.INT32, false, false),
+			new Column("page_title", ColumnType.STRING, true, true),
+			new Column("infobox_index", ColumnType.INT32, false, false),
+			new Column("infobox_title", ColumnType.STRING, true, true),
+			new Column("identifier_type", ColumnType.STRING, false, true),
+			new Column("identifier", ColumnType.STRING, false, false));
+	
+	/**
+	 * Parse page HTML contents and extract sets of identifiers of interest, using the default parallelism
 	 * @param pageHtml	The list of page HTML to parse
 	 * @return			The list of parsed results
 	 */
 	public static List<ParsedPage> parsePageHtml(List<PageHtml> pageHtml) {
-		List<ParsedPage> parsedPages = pageHtml.stream().map(html -> ParsedPage.fromPageHtml(html)).collect(Collectors.toList());
+		return parsePageHtml(pageHtml, WikipediaInfoboxesDict.PARSE_PARALLELISM);
+	}
+	
+	/**
+	 * Parse page HTML contents and extract sets of identifiers of interest
+	 * Pages that fail to parse are reported and left out, rather than stopping the whole run
+	 * @param pageHtml		The list of page HTML to parse
+	 * @param parallelism	The number of pages to parse at once (1 to parse on the calling thread)
+	 * @return				The list of parsed results, in the same order as the page HTML
+	 */
+	public static List<ParsedPage> parsePageHtml(List<PageHtml> pageHtml, int parallelism) {
+		long start = System.nanoTime();
+		Map<Integer, String> failures = new ConcurrentSkipListMap<Integer, String>();
+		
+		List<ParsedPage> parsedPages = null;
+		if (parallelism <= 1) {
+			parsedPages = pageHtml.stream().map(html -> parseIsolated(html, failures)).collect(Collectors.toList());
+		} else {
+			// A dedicated pool keeps the parallelism independent of the common pool; collecting a parallel stream keeps order
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				parsedPages = pool.submit(() -> pageHtml.parallelStream().map(html -> parseIsolated(html, failures))
+						.collect(Collectors.toList())).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while parsing", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Parsing failed", e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		}
+		
+		parsedPages.removeIf(page -> page==null);
+		
+		Metrics.recordStage("parse", pageHtml.size(), System.nanoTime() - start);
+		Metrics.add("parse_failures_total", "", failures.size());
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Parsed %d pages in %.2f s (%.1f pages/s, parallelism %d).",
+				pageHtml.size(), seconds, seconds > 0 ? pageHtml.size() / seconds : pageHtml.size(), Math.max(1, parallelism)));
+		if (!failures.isEmpty()) {
+			System.out.println("Failed to parse " + failures.size() + " pages:");
+			failures.forEach((pageId, message) -> System.out.println("\t" + pageId + ": " + message));
+		}
+		
 		return parsedPages;
 	}
 	
 	/**
-	 * Write parsed pages to a JSON file
+	 * Parse a single page, recording any failure instead of throwing it
+	 * @return	The parsed page, or null if it failed to parse
+	 */
+	private static ParsedPage parseIsolated(PageHtml html, Map<Integer, String> failures) {
+		try {
+			return ParsedPage.fromPageHtml(html);
+		} catch (RuntimeException e) {
+			failures.put(html.pageId, html.title + " (" + e + ")");
+			return null;
+		}
+	}
+	
+	/**
+	 * Compare pages parsed by two backends (e.g. HTML and wikitext) and report pages whose identifiers differ
+	 * Identifiers are compared as the union over all of a page's infoboxes, since the backends may split infoboxes differently
+	 * @param expectedPages	The pages parsed by one backend
+	 * @param actualPages	The pages parsed by the other backend
+	 * @return				The IDs of pages found by both backends whose identifiers differ
+	 */
+	public static List<Integer> crossCheck(List<ParsedPage> expectedPages, List<ParsedPage> actualPages) {
+		Map<Integer, ParsedPage> actualPagesById = new HashMap<Integer, ParsedPage>();
+		for (ParsedPage page:actualPages) {
+			actualPagesById.put(page.pageId, page);
+		}
+		
+		List<Integer> differingPageIds = new ArrayList<Integer>();
+		int comparedCount = 0;
+		int[] differenceCounts = new int[4];
+		for (ParsedPage expected:expectedPages) {
+			ParsedPage actual = actualPagesById.get(expected.pageId);
+			if (actual==null) {
+				continue;
+			}
+			
+			comparedCount++;
+			List<Function<Infobox, IdentifierSet>> getters = Arrays.asList(infobox -> infobox.casrns, infobox -> infobox.dtxsids,
+					infobox -> infobox.inchikeys, infobox -> infobox.smiles);
+			boolean differs = false;
+			for (int i = 0; i < getters.size(); i++) {
+				if (!collectIdentifiers(expected, getters.get(i)).equals(collectIdentifiers(actual, getters.get(i)))) {
+					differenceCounts[i]++;
+					differs = true;
+				}
+			}
+			
+			if (differs) {
+				differingPageIds.add(expected.pageId);
+			}
+		}
+		
+		System.out.println(String.format("Compared %d pages: %d differ (CASRN %d, DTXSID %d, InChIKey %d, SMILES %d).",
+				comparedCount, differingPageIds.size(), differenceCounts[0], differenceCounts[1], differenceCounts[2], differenceCounts[3]));
+		return differingPageIds;
+	}
+	
+	private static Set<String> collectIdentifiers(ParsedPage page, Function<Infobox, IdentifierSet> getter) {
+		return IdentifierSet.union(page.infoboxes.stream().map(getter).collect(Collectors.toList()));
+	}
+	
+	/**
+	 * Write parsed pages to a data file, one record at a time (format chosen by file name, see RecordFiles)
 	 * @param parsedPages	The ParsedPage objects to write
 	 * @param fileName		The filename to write to
 	 * @throws IOException	If the file cannot be written
 	 */
-	public static void saveParsedPages(List<ParsedPage> parsedPages, String fileName) throws IOException {
+	public static void saveParsedPages(Iterable<ParsedPage> parsedPages, String fileName) throws IOException {
+		File file = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + fileName);
+		RecordFiles.writeAll(parsedPages, file, ParsedPage.class);
+	}
+	
+	/**
+	 * Open a parsed page data file for writing one page at a time (format chosen by file name, see RecordFiles)
+	 * @param fileName		The filename to write to
+	 * @return				A record writer, which must be closed to finish the file
+	 * @throws IOException	If the file cannot be opened
+	 */
+	public static RecordWriter<ParsedPage> openParsedPagesWriter(String fileName) throws IOException {
+		File file = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + fileName);
+		return RecordFiles.openWriter(file, ParsedPage.class);
+	}
+	
+	/**
+	 * Write parsed pages to a Parquet file for analytics, flattened to one row per identifier (see EXPORT_COLUMNS and ColumnarFiles)
+	 * Pages are written one at a time, so they can be streamed from a data file (see exportParsedPagesFile)
+	 * @param parsedPages	The ParsedPage objects to write
+	 * @param fileName		The filename to write to (e.g. "chembox_parsed_data.parquet")
+	 * @return				The number of rows written
+	 * @throws IOException	If the file cannot be written
+	 */
+	public static long exportParsedPages(Iterable<ParsedPage> parsedPages, String fileName) throws IOException {
 		File file = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + fileName);
-		file.getParentFile().mkdirs();
+		try (ColumnarWriter writer = ColumnarFiles.openWriter(file, EXPORT_COLUMNS)) {
+			for (ParsedPage page:parsedPages) {
+				exportParsedPage(page, writer);
+			}
+			return writer.getCount();
+		}
+	}
+	
+	/**
+	 * Export a parsed page data file to a Parquet file next to it (see exportParsedPages), reading one page at a time
+	 * @param parsedPagesFileName	The parsed data file (e.g. WikipediaInfoboxesDict.CHEMBOX_PARSED_DATA_FILE_NAME)
+	 * @return						The name of the Parquet file (e.g. "chembox_parsed_data.parquet")
+	 * @throws IOException			If the data file cannot be read or the Parquet file cannot be written
+	 */
+	public static String exportParsedPagesFile(String parsedPagesFileName) throws IOException {
+		String fileName = getColumnarFileName(parsedPagesFileName);
+		File file = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + fileName);
+		try (ColumnarWriter writer = ColumnarFiles.openWriter(file, EXPORT_COLUMNS)) {
+			forEachParsedPageInFile(parsedPagesFileName, page -> {
+				try {
+					exportParsedPage(page, writer);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			System.out.println("Exported " + writer.getCount() + " identifiers from " + parsedPagesFileName + " to " + fileName + ".");
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
 		
-		try (BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
-			bw.write(gson.toJson(parsedPages));
-		} catch (IOException e) {
-			throw e;
+		return fileName;
+	}
+	
+	/**
+	 * Get the name of the Parquet export of a parsed data file (the file name up to its first dot, with a .parquet extension)
+	 * @param parsedPagesFileName	The parsed data file
+	 * @return						The Parquet file name
+	 */
+	public static String getColumnarFileName(String parsedPagesFileName) {
+		int dot = parsedPagesFileName.indexOf(".");
+		return (dot > 0 ? parsedPagesFileName.substring(0, dot) : parsedPagesFileName) + ".parquet";
+	}
+	
+	private static void exportParsedPage(ParsedPage page, ColumnarWriter writer) throws IOException {
+		for (int i = 0; i < page.infoboxes.size(); i++) {
+			Infobox infobox = page.infoboxes.get(i);
+			exportIdentifiers(page, i, infobox, IdentifierType.DTXSID, infobox.dtxsids, writer);
+			exportIdentifiers(page, i, infobox, IdentifierType.CASRN, infobox.casrns, writer);
+			exportIdentifiers(page, i, infobox, IdentifierType.INCHIKEY, infobox.inchikeys, writer);
+			exportIdentifiers(page, i, infobox, IdentifierType.SMILES, infobox.smiles, writer);
+		}
+	}
+	
+	private static void exportIdentifiers(ParsedPage page, int position, Infobox infobox, IdentifierType type, IdentifierSet identifiers, 
+			ColumnarWriter writer) throws IOException {
+		for (String identifier:identifiers) {
+			writer.write(page.pageId, page.title, position, infobox.infoboxTitle, type.name(), identifier);
 		}
 	}
 	
 	/**
-	 * Read parsed pages from a JSON file
+	 * Read parsed pages from a data file
 	 * @param fileName		The file to read
 	 * @return				The contents of the file as ParsedPage objects
 	 * @throws IOException	File not found or other I/O problem
 	 */
 	public static List<ParsedPage> getParsedPagesFromFile(String fileName) throws IOException {
-		try (BufferedReader br = new BufferedReader(new FileReader(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + fileName))) {
-			ParsedPage[] parsedPagesArray = gson.fromJson(br, ParsedPage[].class);
-			return Arrays.asList(parsedPagesArray);
-		} catch (IOException e) {
-			throw e;
-		}
+		File file = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + fileName);
+		return RecordFiles.readAll(file, ParsedPage.class);
+	}
+	
+	/**
+	 * Run an action on each parsed page in a data file without reading the whole file into memory
+	 * @param fileName		The file to read
+	 * @param action		The action to run on each parsed page
+	 * @throws IOException	File not found or other I/O problem
+	 */
+	public static void forEachParsedPageInFile(String fileName, Consumer<ParsedPage> action) throws IOException {
+		File file = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + fileName);
+		RecordFiles.forEach(file, ParsedPage.class, action);
 	}
 }
@@ -0,0 +1,244 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.PageDownloader.RetrievalMode;
+import gov.epa.wikipedia.infoboxes.processing.RecordFiles.RecordWriter;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+import gov.epa.wikipedia.infoboxes.processing.queries.EmbeddedInQuery;
+import gov.epa.wikipedia.infoboxes.processing.queries.ParseQuery;
+import gov.epa.wikipedia.infoboxes.processing.queries.ParseQuery.ParseResult;
+
+/**
+ * Class to download and parse every page embedding a template as one pipeline, instead of listing, fetching, parsing,
+ * and writing one after another (see Pipeline):
+ * 	list		Page IDs stream from each page of embedded-in results
+ * 	fetch		FETCH_PARALLELISM workers (at most FETCH_MAX_PER_HOST) send the API queries (I/O-bound)
+ * 	parse		PARSE_PARALLELISM workers extract the infoboxes and identifiers from the responses (CPU-bound)
+ * 	write		Raw and parsed records are written as they arrive, in the order they finish
+ * Records are written to partial files that replace the data files only once the run completes, and pages are logged
+ * to the download journal (see DownloadJournal) as they are parsed, so an interrupted run resumes where it stopped
+ * Fetches hold FetchEngine's per-host permits, so pipelines for several templates running at once share the limit, and
+ * pages already downloaded for another template in the same run are reused (see SharedFetches)
+ * @author GSINCL01
+ *
+ */
+public class PagePipeline {
+
+	// Prefix of the files written before they replace the data files, once complete
+	public static final String PARTIAL_FILE_PREFIX = "partial_";
+
+	/**
+	 * A fetched page, either as a raw parse query result still to be parsed or as page HTML (from a batch or the journal)
+	 */
+	private static class Fetched {
+		private Integer pageId;
+		private ParseResult result;
+		private PageHtml pageHtml;
+		private boolean journaled;
+		private boolean leadSection;
+		private SharedFetches.Claim claim;
+	}
+
+	/**
+	 * Download, parse, and save every page embedding a template, replacing the raw and parsed data files
+	 * Existing data files should be archived first (see ArchiveStore)
+	 * @param eiTitle				The template title (e.g. WikipediaInfoboxesDict.TEMPLATE_CHEMBOX)
+	 * @param pageHtmlFileName		The raw data file to write
+	 * @param parsedPagesFileName	The parsed data file to write
+	 * @return						The number of pages saved
+	 * @throws IOException			If the data files cannot be written
+	 */
+	public static int run(String eiTitle, String pageHtmlFileName, String parsedPagesFileName) throws IOException {
+		File pageHtmlFile = new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + pageHtmlFileName);
+		File parsedPagesFile = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + parsedPagesFileName);
+		File partialPageHtmlFile = new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + PARTIAL_FILE_PREFIX + pageHtmlFileName);
+		File partialParsedPagesFile = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + PARTIAL_FILE_PREFIX + parsedPagesFileName);
+		partialPageHtmlFile.getParentFile().mkdirs();
+		partialParsedPagesFile.getParentFile().mkdirs();
+
+		DownloadJournal journal = PageDownloader.openJournal(pageHtmlFileName);
+		Map<Integer, PageHtml> journaledPageHtml = journal==null ? new LinkedHashMap<Integer, PageHtml>() : journal.getPages();
+		Map<Integer, String> failures = new ConcurrentSkipListMap<Integer, String>();
+		Set<SharedFetches.Claim> openClaims = ConcurrentHashMap.newKeySet();
+		FetchEngine engine = FetchEngine.withDefaults();
+		int batchSize = WikipediaInfoboxesDict.RETRIEVAL_MODE==RetrievalMode.BATCHED ? WikipediaInfoboxesDict.QUERY_BATCH_SIZE : 1;
+		int capacity = WikipediaInfoboxesDict.PIPELINE_QUEUE_CAPACITY;
+		
+		// As with FetchEngine, requests in flight never exceed the per-host limit
+		int fetchWorkers = WikipediaInfoboxesDict.FETCH_MODE==FetchEngine.Mode.SEQUENTIAL ? 1
+				: Math.min(WikipediaInfoboxesDict.FETCH_PARALLELISM, WikipediaInfoboxesDict.FETCH_MAX_PER_HOST);
+
+		Pipeline pipeline = new Pipeline(eiTitle);
+		Pipeline.Channel<List<Integer>> pageIdBatches = pipeline.channel(Math.max(1, capacity / batchSize));
+		Pipeline.Channel<Fetched> fetched = pipeline.channel(capacity);
+		Pipeline.Channel<PageHtml> parsed = pipeline.channel(capacity);
+
+		pipeline.source("list", pageIdBatches, emit -> {
+			Set<Integer> seen = new HashSet<Integer>();
+			List<Integer> batch = new ArrayList<Integer>();
+			EmbeddedInQuery.forEachPageId(eiTitle, pageId -> {
+				if (seen.add(pageId)) {
+					batch.add(pageId);
+				}
+				if (batch.size()==batchSize) {
+					emit.accept(new ArrayList<Integer>(batch));
+					batch.clear();
+				}
+			});
+			if (!batch.isEmpty()) {
+				emit.accept(batch);
+			}
+		});
+
+		pipeline.stage("fetch", fetchWorkers, pageIdBatches, fetched, (pageIds, emit) -> {
+			List<Integer> toFetch = new ArrayList<Integer>();
+			for (Integer pageId:pageIds) {
+				PageHtml html = journaledPageHtml.get(pageId);
+				if (html!=null) {
+					Fetched item = new Fetched();
+					item.pageId = pageId;
+					item.pageHtml = html;
+					item.journaled = true;
+					emit.accept(item);
+				} else {
+					toFetch.add(pageId);
+				}
+			}
+
+			if (toFetch.isEmpty()) {
+				return;
+			} else if (batchSize > 1) {
+				List<PageHtml> batch = null;
+				try {
+					// The permit is taken only for the batch's own queries, never while waiting on another template's pages
+					batch = SharedFetches.fetchBatch(toFetch, ids -> engine.runSingle(ids, PageDownloader::getPageHtmlFromApiBatch));
+				} catch (RuntimeException e) {
+					// Given up on after retries (see RequestScheduler), so reported like pages that fail to parse
+					toFetch.forEach(pageId -> failures.put(pageId, e.toString()));
+					return;
+				}
+				for (PageHtml html:batch) {
+					Fetched item = new Fetched();
+					item.pageId = html.pageId;
+					item.pageHtml = html;
+					emit.accept(item);
+				}
+			} else {
+				boolean leadSection = WikipediaInfoboxesDict.RETRIEVAL_MODE==RetrievalMode.LEAD_SECTION;
+				for (Integer pageId:toFetch) {
+					Fetched item = new Fetched();
+					item.pageId = pageId;
+					
+					// Another template's pipeline owns the page, so wait for its result instead of fetching the page again
+					SharedFetches.Claim claim = SharedFetches.claim(pageId);
+					item.pageHtml = claim!=null && !claim.isOwned() ? claim.await() : null;
+					if (item.pageHtml!=null) {
+						emit.accept(item);
+						continue;
+					} else if (claim!=null && claim.isOwned()) {
+						item.claim = claim;
+						openClaims.add(claim);
+					}
+					
+					try {
+						item.result = engine.runSingle(pageId, id -> leadSection ? ParseQuery.runSection(id, "text|revid", 0) : ParseQuery.run(id, "text|revid"));
+					} catch (RuntimeException e) {
+						if (item.claim!=null) {
+							item.claim.fail(e);
+							openClaims.remove(item.claim);
+						}
+						failures.put(pageId, e.toString());
+						continue;
+					}
+					item.leadSection = leadSection;
+					emit.accept(item);
+				}
+			}
+		});
+
+		pipeline.stage("parse", WikipediaInfoboxesDict.PARSE_PARALLELISM, fetched, parsed, (item, emit) -> {
+			PageHtml html = null;
+			try {
+				html = item.pageHtml!=null ? item.pageHtml
+						: PageHtml.fromParseResult(item.result, WikipediaInfoboxesDict.KEEP_RAW_INFOBOX_HTML);
+				if (item.leadSection && !PageDownloader.hasInfoboxes(html)) {
+					// Rare enough that the whole page is fetched right here rather than sent back to the fetch stage, though still
+					// under a host permit like every other request
+					html = engine.runSingle(item.pageId, PageDownloader::getFullPageHtmlFromApi);
+				}
+			} catch (RuntimeException e) {
+				if (item.claim!=null) {
+					item.claim.fail(e);
+					openClaims.remove(item.claim);
+				}
+				// Pages that fail to download are reported and left out of the data files, so the next update downloads them as new pages
+				failures.put(item.pageId, e.toString());
+				return;
+			}
+			
+			try {
+				html.parsedPage = ParsedPage.fromPageHtml(html);
+			} catch (RuntimeException e) {
+				// Pages that fail to parse are reported but still saved to the raw data file, so the next update parses them
+				// again from it rather than downloading them again
+				failures.put(item.pageId, e.toString());
+			}
+			if (journal!=null && !item.journaled) {
+				journal.append(html);
+			}
+			if (item.claim!=null) {
+				item.claim.complete(html);
+				openClaims.remove(item.claim);
+			}
+			emit.accept(html);
+		});
+
+		int[] count = new int[1];
+		try (RecordWriter<PageHtml> pageHtmlWriter = RecordFiles.openWriter(partialPageHtmlFile, PageHtml.class);
+				RecordWriter<ParsedPage> parsedPagesWriter = RecordFiles.openWriter(partialParsedPagesFile, ParsedPage.class)) {
+			pipeline.sink("write", parsed, html -> {
+				pageHtmlWriter.write(html);
+				if (html.parsedPage!=null) {
+					parsedPagesWriter.write(html.parsedPage);
+				}
+				if (++count[0] % WikipediaInfoboxesDict.FETCH_PROGRESS_INTERVAL==0) {
+					System.out.println("Saved " + count[0] + " pages...");
+				}
+			});
+			pipeline.run();
+		} finally {
+			// Pages left unfinished by a failed run are given up, so other templates waiting on them fetch them themselves
+			openClaims.forEach(claim -> claim.fail(new IllegalStateException("Pipeline for " + eiTitle + " stopped")));
+			PageDownloader.closeJournal(journal);
+		}
+
+		if (!failures.isEmpty()) {
+			System.out.println("Failed to download or parse " + failures.size() + " pages:");
+			failures.forEach((pageId, message) -> System.out.println("\t" + pageId + ": " + message));
+		}
+
+		// Replace the data files only now that every page has been written
+		Files.move(partialPageHtmlFile.toPath(), pageHtmlFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(partialParsedPagesFile.toPath(), parsedPagesFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		DownloadJournal.delete(pageHtmlFileName);
+		if (WikipediaInfoboxesDict.BUILD_PAGE_HTML_STORE) {
+			PageHtmlStore.build(pageHtmlFileName);
+		}
+
+		return count[0];
+	}
+}
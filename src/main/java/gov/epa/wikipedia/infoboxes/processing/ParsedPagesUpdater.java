@@ -0,0 +1,182 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.RecordFiles.RecordReader;
+import gov.epa.wikipedia.infoboxes.processing.RecordFiles.RecordWriter;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+
+/**
+ * Class to write a new parsed data file from pages of HTML given one at a time (e.g. by PageDownloader.writeUpdatedPageHtml),
+ * reusing existing parsed pages whose source (see ParsedPage.hashSource) and extractor version are unchanged and parsing only the rest
+ * The existing parsed data file is read alongside, one record at a time: updates keep pages in place, so a page's existing
+ * record is found at the head of the file rather than looked up, and memory does not grow with the number of pages
+ * Pages to parse are collected into chunks of WikipediaInfoboxesDict.PARSE_CHUNK_SIZE and parsed in parallel (see PageParser.parsePageHtml)
+ * A page that fails to parse keeps its existing parsed page, if it has one, and is parsed again on the next update
+ * @author GSINCL01
+ *
+ */
+public class ParsedPagesUpdater implements Closeable {
+
+	private RecordReader<ParsedPage> existingReader;
+	private ParsedPage existing;
+	private Set<Integer> pageIds;
+	private Set<Integer> seenPageIds = new HashSet<Integer>();
+	private RecordWriter<ParsedPage> writer;
+
+	// Pages waiting to be written in order: an existing parsed page to reuse, or page HTML to parse
+	private List<Object> pending = new ArrayList<Object>();
+	private List<PageHtml> toParse = new ArrayList<PageHtml>();
+
+	// Existing parsed pages of the pages to parse, kept in case they fail to parse
+	private Map<Integer, ParsedPage> previousById = new HashMap<Integer, ParsedPage>();
+
+	private int reusedCount;
+	private int parsedCount;
+	private int failedCount;
+	private int droppedCount;
+	private boolean hasExistingFile;
+
+	/**
+	 * Open the existing parsed data file (if any) and the file to write
+	 * @param existingParsedPagesFileName	The name of the existing parsed data file
+	 * @param pageIds						The IDs of every page that will be given, to drop existing pages left out of the update
+	 * @param file							The file to write (e.g. a partial file to be moved over the existing file)
+	 * @throws IOException					If a file cannot be opened
+	 */
+	public ParsedPagesUpdater(String existingParsedPagesFileName, Set<Integer> pageIds, File file) throws IOException {
+		File existingFile = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + existingParsedPagesFileName);
+		this.hasExistingFile = existingFile.exists();
+		this.pageIds = pageIds;
+		this.writer = RecordFiles.openWriter(file, ParsedPage.class);
+		if (hasExistingFile) {
+			existingReader = RecordFiles.openReader(existingFile, ParsedPage.class);
+			existing = nextExisting();
+		}
+	}
+
+	/**
+	 * Add the next page, reusing its existing parsed page if it is current or parsing it otherwise
+	 * @param html			The page HTML
+	 * @throws IOException	If the parsed data file cannot be written
+	 */
+	public void write(PageHtml html) throws IOException {
+		seenPageIds.add(html.pageId);
+
+		// Skip existing pages that were removed, or already passed (if the existing file was written in another order)
+		while (existing!=null && (!pageIds.contains(existing.pageId) || seenPageIds.contains(existing.pageId) && !existing.pageId.equals(html.pageId))) {
+			droppedCount++;
+			existing = nextExisting();
+		}
+
+		ParsedPage page = null;
+		if (existing!=null && existing.pageId.equals(html.pageId)) {
+			page = existing;
+			existing = nextExisting();
+		}
+
+		if (page!=null && page.isCurrent(ParsedPage.hashSource(html))) {
+			pending.add(page);
+			reusedCount++;
+		} else {
+			pending.add(html);
+			toParse.add(html);
+			if (page!=null) {
+				previousById.put(page.pageId, page);
+			}
+		}
+
+		// Reused pages are small, but are still flushed regularly so that long runs of them are not held in memory
+		if (toParse.size() >= WikipediaInfoboxesDict.PARSE_CHUNK_SIZE || pending.size() >= 10 * WikipediaInfoboxesDict.PARSE_CHUNK_SIZE) {
+			flush();
+		}
+	}
+
+	private ParsedPage nextExisting() {
+		return existingReader.hasNext() ? existingReader.next() : null;
+	}
+
+	/**
+	 * Parse the pages collected so far and write every pending page in order
+	 * Pages that fail to parse (reported by PageParser.parsePageHtml) keep their existing parsed page, or are left out if new
+	 */
+	private void flush() throws IOException {
+		Map<Integer, ParsedPage> parsedById = new HashMap<Integer, ParsedPage>();
+		if (!toParse.isEmpty()) {
+			for (ParsedPage page:PageParser.parsePageHtml(toParse)) {
+				parsedById.put(page.pageId, page);
+			}
+		}
+
+		for (Object item:pending) {
+			ParsedPage page = null;
+			if (item instanceof ParsedPage) {
+				page = (ParsedPage) item;
+			} else if ((page = parsedById.get(((PageHtml) item).pageId))!=null) {
+				parsedCount++;
+			} else {
+				page = previousById.get(((PageHtml) item).pageId);
+				failedCount++;
+			}
+
+			if (page!=null) {
+				writer.write(page);
+			}
+		}
+
+		pending.clear();
+		toParse.clear();
+		previousById.clear();
+	}
+
+	/**
+	 * Check if the new file differs from the existing one, i.e. if any page was parsed again or left out
+	 * Pages that failed to parse are not changes, since they keep their existing parsed page (or were not in the file)
+	 * @return	True if the parsed data file should be archived and replaced
+	 */
+	public boolean hasChanges() {
+		return !hasExistingFile || parsedCount > 0 || droppedCount > 0;
+	}
+
+	/**
+	 * Get the number of pages written
+	 * @return	The number of pages
+	 */
+	public int getCount() {
+		return writer.getCount();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			while (existing!=null) {
+				droppedCount++;
+				existing = nextExisting();
+			}
+			System.out.println("Reused " + reusedCount + " unchanged parsed pages and parsed " + parsedCount + " pages.");
+			if (failedCount > 0) {
+				System.out.println("Kept the existing parsed pages (if any) of " + failedCount + " pages that failed to parse.");
+			}
+			Metrics.add("parse_reused_pages_total", "", reusedCount);
+		} finally {
+			try {
+				writer.close();
+			} finally {
+				if (existingReader!=null) {
+					existingReader.close();
+				}
+			}
+		}
+	}
+}
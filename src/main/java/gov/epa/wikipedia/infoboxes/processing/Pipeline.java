@@ -0,0 +1,288 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Class to run stages of work at the same time, connected by bounded channels
+ * Each stage takes items from one channel and emits items to the next; a full channel blocks the stage feeding it,
+ * so memory use stays bounded and a run takes about as long as its slowest stage rather than the sum of all stages
+ * If any stage fails, every stage stops and run throws the first failure
+ * @author GSINCL01
+ *
+ */
+public class Pipeline {
+
+	private static final long POLL_MILLIS = 100;
+
+	/**
+	 * Code that produces items (e.g. by paging through an API listing)
+	 * @param <T>	The item type
+	 */
+	public interface Source<T> {
+		void run(Consumer<T> emit) throws Exception;
+	}
+
+	/**
+	 * Code that turns one item into any number of items
+	 * @param <I>	The input item type
+	 * @param <O>	The output item type
+	 */
+	public interface Step<I, O> {
+		void apply(I item, Consumer<O> emit) throws Exception;
+	}
+
+	/**
+	 * Code that consumes items at the end of a pipeline (e.g. by writing them to a file)
+	 * @param <T>	The item type
+	 */
+	public interface Sink<T> {
+		void accept(T item) throws Exception;
+	}
+
+	/**
+	 * A bounded queue between stages, which is closed once every stage writing to it has finished
+	 * @param <T>	The item type
+	 */
+	public class Channel<T> {
+		private BlockingQueue<T> queue;
+		private AtomicInteger openWriters = new AtomicInteger();
+
+		private Channel(int capacity) {
+			queue = new ArrayBlockingQueue<T>(Math.max(1, capacity));
+		}
+
+		private void put(T item) throws InterruptedException {
+			while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				checkAborted();
+			}
+		}
+
+		/**
+		 * Take the next item, waiting if necessary
+		 * @return	The item, or null once the channel is closed and empty
+		 */
+		private T take() throws InterruptedException {
+			while (true) {
+				checkAborted();
+				boolean closed = openWriters.get()==0;
+				T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (item!=null) {
+					return item;
+				} else if (closed && queue.isEmpty()) {
+					return null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Thrown inside stages to unwind them once another stage has failed
+	 */
+	private static class AbortedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private String name;
+	private List<Thread> threads = new ArrayList<Thread>();
+	private List<String> stageNames = new ArrayList<String>();
+	private List<AtomicLong> stageBusyNanos = new ArrayList<AtomicLong>();
+	private List<AtomicInteger> stageCounts = new ArrayList<AtomicInteger>();
+	private List<Integer> stageWorkers = new ArrayList<Integer>();
+	private AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	public Pipeline(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Create a channel between stages
+	 * @param capacity	The maximum number of items waiting in the channel
+	 * @return			The channel
+	 */
+	public <T> Channel<T> channel(int capacity) {
+		return new Channel<T>(capacity);
+	}
+
+	/**
+	 * Add a stage that produces items on one thread
+	 * @param stageName	The stage name, for reporting
+	 * @param out		The channel to emit items to
+	 * @param source	The code producing items
+	 */
+	public <T> void source(String stageName, Channel<T> out, Source<T> source) {
+		AtomicInteger count = addStage(stageName, 1);
+		AtomicLong busyNanos = stageBusyNanos.get(stageBusyNanos.size() - 1);
+		out.openWriters.incrementAndGet();
+		addThread(stageName, () -> {
+			long start = System.nanoTime();
+			long[] blockedNanos = new long[1];
+			try {
+				source.run(item -> {
+					blockedNanos[0] += emitTimed(out, item);
+					count.incrementAndGet();
+				});
+			} finally {
+				busyNanos.addAndGet(System.nanoTime() - start - blockedNanos[0]);
+				out.openWriters.decrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Add a stage that transforms items on several threads (output order follows completion, not input order)
+	 * @param stageName	The stage name, for reporting
+	 * @param workers	The number of threads
+	 * @param in		The channel to take items from
+	 * @param out		The channel to emit items to
+	 * @param step		The code transforming each item
+	 */
+	public <I, O> void stage(String stageName, int workers, Channel<I> in, Channel<O> out, Step<I, O> step) {
+		AtomicInteger count = addStage(stageName, workers);
+		AtomicLong busyNanos = stageBusyNanos.get(stageBusyNanos.size() - 1);
+		out.openWriters.addAndGet(Math.max(1, workers));
+		for (int i = 0; i < Math.max(1, workers); i++) {
+			addThread(stageName + "-" + i, () -> {
+				try {
+					long[] blockedNanos = new long[1];
+					I item;
+					while ((item = in.take())!=null) {
+						long start = System.nanoTime();
+						blockedNanos[0] = 0;
+						step.apply(item, result -> blockedNanos[0] += emitTimed(out, result));
+						busyNanos.addAndGet(System.nanoTime() - start - blockedNanos[0]);
+						count.incrementAndGet();
+					}
+				} finally {
+					out.openWriters.decrementAndGet();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Add a stage that consumes items on one thread
+	 * @param stageName	The stage name, for reporting
+	 * @param in		The channel to take items from
+	 * @param sink		The code consuming each item
+	 */
+	public <T> void sink(String stageName, Channel<T> in, Sink<T> sink) {
+		AtomicInteger count = addStage(stageName, 1);
+		AtomicLong busyNanos = stageBusyNanos.get(stageBusyNanos.size() - 1);
+		addThread(stageName, () -> {
+			T item;
+			while ((item = in.take())!=null) {
+				long start = System.nanoTime();
+				sink.accept(item);
+				busyNanos.addAndGet(System.nanoTime() - start);
+				count.incrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Run every stage until all items have reached the sinks, then print how long each stage was busy
+	 * @throws IOException	If a stage failed with an I/O problem
+	 */
+	public void run() throws IOException {
+		long start = System.nanoTime();
+		threads.forEach(Thread::start);
+		try {
+			for (Thread thread:threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+			threads.forEach(Thread::interrupt);
+			Thread.currentThread().interrupt();
+		}
+
+		report(System.nanoTime() - start);
+
+		Throwable t = failure.get();
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		} else if (t!=null) {
+			throw new RuntimeException(name + " pipeline failed", t);
+		}
+	}
+
+	private AtomicInteger addStage(String stageName, int workers) {
+		AtomicInteger count = new AtomicInteger();
+		stageNames.add(stageName);
+		stageWorkers.add(Math.max(1, workers));
+		stageBusyNanos.add(new AtomicLong());
+		stageCounts.add(count);
+		return count;
+	}
+
+	private interface Body {
+		void run() throws Exception;
+	}
+
+	private void addThread(String threadName, Body body) {
+		Thread thread = new Thread(() -> {
+			try {
+				body.run();
+			} catch (AbortedException e) {
+				// Another stage failed first
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+			}
+		}, name + "-" + threadName);
+		threads.add(thread);
+	}
+
+	private <T> void emit(Channel<T> out, T item) {
+		try {
+			out.put(item);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AbortedException();
+		}
+	}
+
+	/**
+	 * Emit an item, returning how long the stage was blocked waiting for room in the channel
+	 * Blocked time is left out of a stage's busy time, so that a stage held up by a slower one downstream does not look slow
+	 */
+	private <T> long emitTimed(Channel<T> out, T item) {
+		long start = System.nanoTime();
+		emit(out, item);
+		return System.nanoTime() - start;
+	}
+
+	private void checkAborted() {
+		if (failure.get()!=null || Thread.currentThread().isInterrupted()) {
+			throw new AbortedException();
+		}
+	}
+
+	/**
+	 * Print the busy time of each stage (summed over its workers and divided by their number), to show the bottleneck
+	 * Busy time leaves out time spent waiting for items or for room downstream
+	 */
+	private void report(long elapsedNanos) {
+		StringBuilder sb = new StringBuilder(String.format("Pipeline %s finished in %.1f s:", name, elapsedNanos / 1e9));
+		for (int i = 0; i < stageNames.size(); i++) {
+			String stage = "pipeline_" + stageNames.get(i);
+			Metrics.recordStage(stage, stageCounts.get(i).get(), elapsedNanos);
+			Metrics.set("stage_busy_seconds_per_worker", Metrics.labels("stage", stage), stageBusyNanos.get(i).get() / 1e9 / stageWorkers.get(i));
+			sb.append(String.format(" %s %d items, %.1f s busy per worker (%d workers);", stageNames.get(i), stageCounts.get(i).get(),
+					stageBusyNanos.get(i).get() / 1e9 / stageWorkers.get(i), stageWorkers.get(i)));
+		}
+		System.out.println(sb.toString());
+	}
+}
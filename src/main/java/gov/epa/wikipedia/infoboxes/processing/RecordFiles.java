@@ -0,0 +1,283 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Class to read and write data files one record at a time, so that memory use does not grow with file size
+ * The format is chosen from the file name when writing:
+ * 	*.json			Pretty-printed JSON array (the original format)
+ * 	*.ndjson		One compact JSON record per line
+ * 	*.gz suffix		Either of the above, gzip-compressed
+ * When reading, the format is detected from the file contents, so any of the above can be read regardless of name
+ * Each file's read or write time (from opening to closing), record count, size, and the heap in use afterwards go to Metrics
+ * @author GSINCL01
+ *
+ */
+public class RecordFiles {
+
+	private static Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+	/**
+	 * Class to write records to a data file one at a time
+	 * @author GSINCL01
+	 *
+	 * @param <T>	The record type
+	 */
+	public static class RecordWriter<T> implements Closeable {
+		private Class<T> clazz;
+		private Writer writer;
+		private JsonWriter jsonWriter;
+		private int count;
+		private File file;
+		private long startNanos = System.nanoTime();
+
+		private RecordWriter(File file, Class<T> clazz) throws IOException {
+			this.clazz = clazz;
+			this.file = file;
+
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			if (isGzip(file.getName())) {
+				out = new GZIPOutputStream(out, 1 << 16);
+			}
+			this.writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+
+			if (!isNdjson(file.getName())) {
+				jsonWriter = new JsonWriter(writer);
+				jsonWriter.setIndent("  ");
+				jsonWriter.beginArray();
+			}
+		}
+
+		/**
+		 * Write a single record
+		 * @param record		The record to write
+		 * @throws IOException	If the record cannot be written
+		 */
+		public void write(T record) throws IOException {
+			try {
+				if (jsonWriter!=null) {
+					gson.toJson(record, clazz, jsonWriter);
+				} else {
+					gson.toJson(record, clazz, writer);
+					writer.write('\n');
+				}
+			} catch (JsonParseException e) {
+				throw new IOException("Could not write record", e);
+			}
+			count++;
+		}
+
+		/**
+		 * Get the number of records written so far
+		 * @return	The record count
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (jsonWriter!=null) {
+				jsonWriter.endArray();
+				jsonWriter.close();
+			} else {
+				writer.close();
+			}
+			recordFileMetrics(file, "write", count, startNanos);
+		}
+	}
+
+	/**
+	 * Class to read records from a data file one at a time
+	 * @author GSINCL01
+	 *
+	 * @param <T>	The record type
+	 */
+	public static class RecordReader<T> implements Iterator<T>, Closeable {
+		private Class<T> clazz;
+		private JsonReader jsonReader;
+		private boolean isEmpty;
+		private int count;
+		private File file;
+		private long startNanos = System.nanoTime();
+
+		private RecordReader(File file, Class<T> clazz) throws IOException {
+			this.clazz = clazz;
+			this.file = file;
+
+			InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+			in.mark(2);
+			int b1 = in.read();
+			int b2 = in.read();
+			in.reset();
+			if (b1==0x1f && b2==0x8b) {
+				in = new GZIPInputStream(in, 1 << 16);
+			}
+
+			jsonReader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+			// Allows several top-level values, i.e., NDJSON
+			jsonReader.setLenient(true);
+			try {
+				if (jsonReader.peek()==JsonToken.BEGIN_ARRAY) {
+					jsonReader.beginArray();
+				}
+			} catch (EOFException e) {
+				// Empty file, so no records
+				isEmpty = true;
+			} catch (IOException e) {
+				jsonReader.close();
+				throw e;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (isEmpty) {
+				return false;
+			}
+
+			try {
+				JsonToken token = jsonReader.peek();
+				return token!=JsonToken.END_ARRAY && token!=JsonToken.END_DOCUMENT;
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not read record", e);
+			}
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			count++;
+			return gson.fromJson(jsonReader, clazz);
+		}
+
+		@Override
+		public void close() throws IOException {
+			jsonReader.close();
+			recordFileMetrics(file, "read", count, startNanos);
+		}
+	}
+
+	private static void recordFileMetrics(File file, String op, int count, long startNanos) {
+		if (Metrics.isEnabled()) {
+			String labels = Metrics.labels("file", file.getName(), "op", op);
+			Metrics.observeNanos("file_duration_seconds", labels, System.nanoTime() - startNanos);
+			Metrics.add("file_records_total", labels, count);
+			Metrics.set("file_size_bytes", Metrics.labels("file", file.getName()), file.length());
+			Metrics.recordHeap(op + " " + file.getName());
+		}
+	}
+
+	/**
+	 * Open a data file for writing records one at a time, creating parent folders as needed
+	 * @param file			The file to write
+	 * @param clazz			The record type
+	 * @return				A record writer, which must be closed to finish the file
+	 * @throws IOException	If the file cannot be opened
+	 */
+	public static <T> RecordWriter<T> openWriter(File file, Class<T> clazz) throws IOException {
+		if (file.getParentFile()!=null) {
+			file.getParentFile().mkdirs();
+		}
+
+		return new RecordWriter<T>(file, clazz);
+	}
+
+	/**
+	 * Open a data file for reading records one at a time
+	 * @param file			The file to read
+	 * @param clazz			The record type
+	 * @return				A record reader, which must be closed when done
+	 * @throws IOException	File not found or other I/O problem
+	 */
+	public static <T> RecordReader<T> openReader(File file, Class<T> clazz) throws IOException {
+		return new RecordReader<T>(file, clazz);
+	}
+
+	/**
+	 * Write records to a data file
+	 * @param records		The records to write
+	 * @param file			The file to write
+	 * @param clazz			The record type
+	 * @throws IOException	If the file cannot be written
+	 */
+	public static <T> void writeAll(Iterable<T> records, File file, Class<T> clazz) throws IOException {
+		try (RecordWriter<T> writer = openWriter(file, clazz)) {
+			for (T record:records) {
+				writer.write(record);
+			}
+		}
+	}
+
+	/**
+	 * Run an action on each record in a data file without holding the whole file in memory
+	 * @param file			The file to read
+	 * @param clazz			The record type
+	 * @param action		The action to run on each record
+	 * @throws IOException	File not found or other I/O problem
+	 */
+	public static <T> void forEach(File file, Class<T> clazz, Consumer<T> action) throws IOException {
+		try (RecordReader<T> reader = openReader(file, clazz)) {
+			try {
+				while (reader.hasNext()) {
+					action.accept(reader.next());
+				}
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * Read all records from a data file
+	 * @param file			The file to read
+	 * @param clazz			The record type
+	 * @return				The records in file order
+	 * @throws IOException	File not found or other I/O problem
+	 */
+	public static <T> List<T> readAll(File file, Class<T> clazz) throws IOException {
+		List<T> records = new ArrayList<T>();
+		forEach(file, clazz, records::add);
+		return records;
+	}
+
+	private static boolean isGzip(String fileName) {
+		return fileName.endsWith(".gz");
+	}
+
+	private static boolean isNdjson(String fileName) {
+		return fileName.endsWith(".ndjson") || fileName.endsWith(".ndjson.gz");
+	}
+}
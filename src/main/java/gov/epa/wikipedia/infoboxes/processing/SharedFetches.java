@@ -0,0 +1,210 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+
+/**
+ * Class to share downloaded pages between templates processed in the same run, so that a page embedding several templates
+ * (e.g. both Chembox and Drugbox) is fetched and parsed once and saved to each template's files
+ * Sharing is on between begin and end (see WikipediaInfoboxesMain.archiveAndUpdateEverything); otherwise every fetch goes straight through
+ * The first template to ask for a page fetches it, and any other asking meanwhile or later waits for that result
+ * If that fetch fails, waiting templates fetch the page themselves
+ * Fetchers passed in take their own host permits (see FetchEngine.runSingle), since callers must not hold one while waiting here
+ * @author GSINCL01
+ *
+ */
+public class SharedFetches {
+
+	private static volatile ConcurrentHashMap<Integer, CompletableFuture<PageHtml>> fetches;
+	private static AtomicInteger reusedCount = new AtomicInteger();
+
+	/**
+	 * A claim on a page: either this caller fetches it and must complete the claim, or it waits for another caller's fetch
+	 */
+	static class Claim {
+		private Integer pageId;
+		private CompletableFuture<PageHtml> future;
+		private boolean owned;
+
+		/**
+		 * @return	True if the caller should fetch the page and then call complete or fail
+		 */
+		boolean isOwned() {
+			return owned;
+		}
+
+		void complete(PageHtml html) {
+			if (owned) {
+				future.complete(html);
+			}
+		}
+
+		/**
+		 * Give up the claim, e.g. after a failed fetch, so that waiting callers fetch the page themselves
+		 */
+		void fail(Throwable t) {
+			if (owned) {
+				ConcurrentHashMap<Integer, CompletableFuture<PageHtml>> current = fetches;
+				if (current!=null) {
+					current.remove(pageId, future);
+				}
+				future.completeExceptionally(t);
+			}
+		}
+
+		/**
+		 * Wait for the owner's result
+		 * @return	The page, or null if the owner's fetch failed
+		 */
+		PageHtml await() {
+			try {
+				PageHtml html = future.join();
+				reusedCount.incrementAndGet();
+				Metrics.increment("shared_fetches_total", Metrics.labels("result", "reused"));
+				return html;
+			} catch (CompletionException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Start sharing pages between templates
+	 */
+	public static synchronized void begin() {
+		fetches = new ConcurrentHashMap<Integer, CompletableFuture<PageHtml>>();
+		reusedCount.set(0);
+	}
+
+	/**
+	 * Stop sharing pages and let go of the shared pages
+	 * @return	The number of pages reused by a template from another template's download
+	 */
+	public static synchronized int end() {
+		fetches = null;
+		return reusedCount.get();
+	}
+
+	/**
+	 * Claim a page before fetching it
+	 * @param pageId	The page ID
+	 * @return			The claim, or null if sharing is off
+	 */
+	static Claim claim(Integer pageId) {
+		ConcurrentHashMap<Integer, CompletableFuture<PageHtml>> current = fetches;
+		if (current==null || pageId==null) {
+			return null;
+		}
+
+		Claim claim = new Claim();
+		claim.pageId = pageId;
+		CompletableFuture<PageHtml> future = new CompletableFuture<PageHtml>();
+		CompletableFuture<PageHtml> existing = current.putIfAbsent(pageId, future);
+		claim.future = existing!=null ? existing : future;
+		claim.owned = existing==null;
+		return claim;
+	}
+
+	/**
+	 * Fetch a page, or reuse it if another template has fetched or is fetching it
+	 * @param pageId	The page ID
+	 * @param fetcher	The code fetching and parsing a page
+	 * @return			The page
+	 */
+	static PageHtml fetch(Integer pageId, Function<Integer, PageHtml> fetcher) {
+		Claim claim = claim(pageId);
+		if (claim==null) {
+			return fetcher.apply(pageId);
+		} else if (!claim.isOwned()) {
+			PageHtml html = claim.await();
+			return html!=null ? html : fetcher.apply(pageId);
+		}
+
+		try {
+			PageHtml html = fetcher.apply(pageId);
+			claim.complete(html);
+			return html;
+		} catch (RuntimeException | Error e) {
+			claim.fail(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Fetch a batch of pages, reusing any that another template has fetched or is fetching
+	 * Unclaimed pages are fetched first, so that pages this caller owns are never waited on by it
+	 * @param pageIds	The page IDs
+	 * @param fetcher	The code fetching and parsing a batch of pages
+	 * @return			The pages, in the order of the page IDs
+	 */
+	static List<PageHtml> fetchBatch(List<Integer> pageIds, Function<List<Integer>, List<PageHtml>> fetcher) {
+		if (fetches==null) {
+			return fetcher.apply(pageIds);
+		}
+
+		Map<Integer, Claim> owned = new LinkedHashMap<Integer, Claim>();
+		Map<Integer, Claim> waiting = new LinkedHashMap<Integer, Claim>();
+		for (Integer pageId:pageIds) {
+			Claim claim = claim(pageId);
+			if (claim==null || claim.isOwned()) {
+				owned.put(pageId, claim);
+			} else {
+				waiting.put(pageId, claim);
+			}
+		}
+
+		Map<Integer, PageHtml> byId = new HashMap<Integer, PageHtml>();
+		if (!owned.isEmpty()) {
+			try {
+				fetcher.apply(new ArrayList<Integer>(owned.keySet())).forEach(html -> byId.put(html.pageId, html));
+			} catch (RuntimeException | Error e) {
+				for (Claim claim:owned.values()) {
+					if (claim!=null) {
+						claim.fail(e);
+					}
+				}
+				throw e;
+			}
+
+			for (Map.Entry<Integer, Claim> entry:owned.entrySet()) {
+				PageHtml html = byId.get(entry.getKey());
+				if (entry.getValue()!=null && html!=null) {
+					entry.getValue().complete(html);
+				} else if (entry.getValue()!=null) {
+					entry.getValue().fail(new IllegalStateException("Page " + entry.getKey() + " missing from batch"));
+				}
+			}
+		}
+
+		List<Integer> refetch = new ArrayList<Integer>();
+		for (Map.Entry<Integer, Claim> entry:waiting.entrySet()) {
+			PageHtml html = entry.getValue().await();
+			if (html!=null) {
+				byId.put(entry.getKey(), html);
+			} else {
+				refetch.add(entry.getKey());
+			}
+		}
+		if (!refetch.isEmpty()) {
+			fetcher.apply(refetch).forEach(html -> byId.put(html.pageId, html));
+		}
+
+		List<PageHtml> pageHtml = new ArrayList<PageHtml>();
+		for (Integer pageId:pageIds) {
+			if (byId.containsKey(pageId)) {
+				pageHtml.add(byId.get(pageId));
+			}
+		}
+		return pageHtml;
+	}
+}
@@ -0,0 +1,55 @@
+package gov.epa.wikipedia.infoboxes.processing.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+
+/**
+ * Class to hold an article read from a Wikipedia XML dump that calls a Chembox or Drugbox template
+ * @author GSINCL01
+ *
+ */
+public class DumpPage {
+	public String title;
+	public Integer pageId;
+	public Long revId;
+	public String wikitext;
+	public List<WikitextTemplate> templates;
+	public ParsedPage parsedPage;
+	
+	public DumpPage(String title, Integer pageId, Long revId, String wikitext) {
+		this.title = title;
+		this.pageId = pageId;
+		this.revId = revId;
+		this.wikitext = wikitext;
+	}
+	
+	/**
+	 * Find the page's Chembox and Drugbox template calls and parse them
+	 * @return	This page, with templates and parsedPage filled in
+	 */
+	public DumpPage parse() {
+		List<String> templateNames = new ArrayList<String>(WikipediaInfoboxesDict.CHEMBOX_TEMPLATE_NAMES);
+		templateNames.addAll(WikipediaInfoboxesDict.DRUGBOX_TEMPLATE_NAMES);
+		templates = WikitextTemplate.findAll(wikitext, templateNames);
+		parsedPage = ParsedPage.fromTemplates(title, pageId, templates);
+		return this;
+	}
+	
+	/**
+	 * Check if the page calls any of the given templates (e.g. WikipediaInfoboxesDict.DRUGBOX_TEMPLATE_NAMES)
+	 * @param names		The template names
+	 * @return			True if the page calls one of them
+	 */
+	public boolean callsTemplate(Collection<String> names) {
+		for (WikitextTemplate template:templates) {
+			if (names.contains(WikitextTemplate.normalizeName(template.name))) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+}
@@ -0,0 +1,226 @@
+package gov.epa.wikipedia.infoboxes.processing.data;
+
+import java.util.Collections;
+
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet.Kind;
+
+/**
+ * Class to find CAS registry numbers, DTXSIDs, and InChIKeys in text without regular expressions
+ * Scanners walk the text once with charAt and allocate nothing unless an identifier is found
+ * Candidates are rejected unless they stand alone (not part of a longer run of digits or letters) and are well-formed:
+ * 	CASRN		2-7 digits, hyphen, 2 digits, hyphen, check digit, where the check digit matches the CAS checksum
+ * 	DTXSID		"DTXSID" followed by 1 or more digits (IdentifierSet packs those of up to Identifiers.MAX_PACKED_DIGITS digits)
+ * 	InChIKey	14 letters, hyphen, 8 letters, S or N (standard flag), A (version), hyphen, 1 letter (all upper case)
+ * @author GSINCL01
+ *
+ */
+public class IdentifierScanner {
+
+	// Returned by the find methods when there is no (further) identifier in the text
+	public static final long NOT_FOUND = -1L;
+
+	private static final String DTXSID_PREFIX = "DTXSID";
+
+	/**
+	 * Add the identifiers of a kind found in text to a set
+	 * @param kind	The identifier kind (CASRN, DTXSID, or INCHIKEY)
+	 * @param text	The text to scan
+	 * @param set	The set to add to
+	 * @return		The set with any identifiers found (the same set if none are)
+	 */
+	public static IdentifierSet scan(Kind kind, CharSequence text, IdentifierSet set) {
+		if (text==null) {
+			return set;
+		}
+
+		int from = 0;
+		long range;
+		while ((range = find(kind, text, from))!=NOT_FOUND) {
+			int start = (int) (range >>> 32);
+			int end = (int) range;
+			set = set.plus(Collections.singletonList(text.subSequence(start, end).toString()));
+			from = end;
+		}
+
+		return set;
+	}
+
+	/**
+	 * Find the next identifier of a kind in text
+	 * @param kind	The identifier kind (CASRN, DTXSID, or INCHIKEY)
+	 * @param text	The text to scan
+	 * @param from	The index to start from
+	 * @return		The range of the identifier as (start << 32 | end), or NOT_FOUND
+	 */
+	public static long find(Kind kind, CharSequence text, int from) {
+		switch (kind) {
+		case CASRN:
+			return findCasrn(text, from);
+		case DTXSID:
+			return findDtxsid(text, from);
+		case INCHIKEY:
+			return findInchikey(text, from);
+		default:
+			throw new IllegalArgumentException("Cannot scan text for " + kind);
+		}
+	}
+
+	/**
+	 * Find the next valid CAS registry number in text
+	 * @param text	The text to scan
+	 * @param from	The index to start from
+	 * @return		The range of the CAS number as (start << 32 | end), or NOT_FOUND
+	 */
+	public static long findCasrn(CharSequence text, int from) {
+		int length = text.length();
+		int i = from;
+		while (i < length) {
+			if (!isDigit(text.charAt(i))) {
+				i++;
+				continue;
+			}
+
+			// Read a whole run of digits, so a CAS number is never matched from the middle of a longer number
+			int start = i;
+			while (i < length && isDigit(text.charAt(i))) {
+				i++;
+			}
+
+			// Skip a run that began before from
+			int runLength = i - start;
+			if (start > 0 && isDigit(text.charAt(start - 1))) {
+				continue;
+			}
+
+			int end = i + 5;
+			if (runLength >= 2 && runLength <= 7 && end <= length
+					&& text.charAt(i)=='-' && isDigit(text.charAt(i + 1)) && isDigit(text.charAt(i + 2))
+					&& text.charAt(i + 3)=='-' && isDigit(text.charAt(i + 4))
+					&& (end==length || !isDigit(text.charAt(end)))
+					&& isValidCasChecksum(text, start, end)) {
+				return ((long) start << 32) | end;
+			}
+		}
+
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Check the check digit of a CAS registry number
+	 * The check digit is the sum of the other digits, each multiplied by its position counting from the right, modulo 10
+	 * @param text	The text holding the CAS number
+	 * @param start	The start of the CAS number
+	 * @param end	The end (exclusive) of the CAS number
+	 * @return		True if the check digit is correct
+	 */
+	public static boolean isValidCasChecksum(CharSequence text, int start, int end) {
+		int checkDigit = text.charAt(end - 1) - '0';
+		int sum = 0;
+		int position = 1;
+		for (int i = end - 3; i >= start; i--) {
+			char c = text.charAt(i);
+			if (c!='-') {
+				sum += (c - '0') * position++;
+			}
+		}
+
+		return sum % 10==checkDigit;
+	}
+
+	/**
+	 * Find the next DTXSID in text
+	 * @param text	The text to scan
+	 * @param from	The index to start from
+	 * @return		The range of the DTXSID as (start << 32 | end), or NOT_FOUND
+	 */
+	public static long findDtxsid(CharSequence text, int from) {
+		int length = text.length();
+		int last = length - DTXSID_PREFIX.length();
+		for (int start = from; start < last; start++) {
+			if (text.charAt(start)!='D' || !regionMatches(text, start, DTXSID_PREFIX)
+					|| (start > 0 && (isLetter(text.charAt(start - 1)) || isDigit(text.charAt(start - 1))))) {
+				continue;
+			}
+
+			// Read a whole run of digits, however long, and leave it to IdentifierSet whether it can be packed
+			int end = start + DTXSID_PREFIX.length();
+			while (end < length && isDigit(text.charAt(end))) {
+				end++;
+			}
+
+			if (end > start + DTXSID_PREFIX.length() && (end==length || !isLetter(text.charAt(end)))) {
+				return ((long) start << 32) | end;
+			}
+		}
+
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Find the next well-formed InChIKey in text
+	 * @param text	The text to scan
+	 * @param from	The index to start from
+	 * @return		The range of the InChIKey as (start << 32 | end), or NOT_FOUND
+	 */
+	public static long findInchikey(CharSequence text, int from) {
+		int length = text.length();
+		int i = from;
+		while (i + 27 <= length) {
+			if (!isUpper(text.charAt(i))) {
+				i++;
+				continue;
+			}
+
+			// The first block is a whole run of 14 letters
+			int start = i;
+			while (i < length && isUpper(text.charAt(i))) {
+				i++;
+			}
+
+			if (i - start!=14 || (start > 0 && isLetter(text.charAt(start - 1))) || start + 27 > length) {
+				continue;
+			}
+
+			int end = start + 27;
+			if (text.charAt(start + 14)=='-' && isUpperRun(text, start + 15, start + 25) && text.charAt(start + 25)=='-'
+					&& isUpper(text.charAt(start + 26)) && (end==length || !isLetter(text.charAt(end)))
+					&& (text.charAt(start + 23)=='S' || text.charAt(start + 23)=='N') && text.charAt(start + 24)=='A') {
+				return ((long) start << 32) | end;
+			}
+		}
+
+		return NOT_FOUND;
+	}
+
+	private static boolean regionMatches(CharSequence text, int start, String prefix) {
+		for (int i = 0; i < prefix.length(); i++) {
+			if (text.charAt(start + i)!=prefix.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean isUpperRun(CharSequence text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!isUpper(text.charAt(i))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isUpper(char c) {
+		return c >= 'A' && c <= 'Z';
+	}
+
+	private static boolean isLetter(char c) {
+		return isUpper(c) || (c >= 'a' && c <= 'z');
+	}
+}
@@ -0,0 +1,389 @@
+package gov.epa.wikipedia.infoboxes.processing.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Class to hold an immutable set of identifiers of one kind from an infobox, in much less memory than a HashSet of strings
+ * CASRNs and DTXSIDs are packed into one long each and InChIKeys into two (see Identifiers); SMILES are shared through a bounded pool
+ * Values that cannot be packed (e.g. a malformed InChIKey, or a DTXSID too long to pack) are kept as strings, with their positions
+ * in the set so that iteration keeps the first-seen order; empty sets are shared
+ * Sets are written to and read from JSON as arrays of strings, as before (see the adapters below)
+ * @author GSINCL01
+ *
+ */
+public final class IdentifierSet implements Iterable<String> {
+
+	/**
+	 * Kinds of identifiers, which determine how values are packed
+	 */
+	public enum Kind {
+		CASRN(1), DTXSID(1), INCHIKEY(2), SMILES(0);
+
+		// Number of longs per packed value (0 if values are never packed)
+		private final int width;
+
+		Kind(int width) {
+			this.width = width;
+		}
+	}
+
+	private static final int[] NO_POSITIONS = new int[0];
+
+	private static final Map<Kind, IdentifierSet> EMPTY_SETS = new EnumMap<Kind, IdentifierSet>(Kind.class);
+	static {
+		for (Kind kind:Kind.values()) {
+			EMPTY_SETS.put(kind, new IdentifierSet(kind, new long[0], new String[0], NO_POSITIONS));
+		}
+	}
+
+	// SMILES strings repeat across infoboxes, pages, and archives, so repeats share one string through a fixed-size pool
+	// A slot holds the last string hashed to it, so the pool never grows or keeps strings alive beyond SMILES_POOL_SIZE of them,
+	// at the cost of missing some repeats; slots are read and written without locks, which is safe since strings are immutable
+	private static final int SMILES_POOL_SIZE = 1 << 16;
+	private static final String[] SMILES_POOL = new String[SMILES_POOL_SIZE];
+
+	private final Kind kind;
+	private final long[] packed;
+	private final String[] others;
+	private final int[] otherPositions; // Position of each of others in the set, in increasing order (empty for SMILES, which are all others)
+
+	private IdentifierSet(Kind kind, long[] packed, String[] others, int[] otherPositions) {
+		this.kind = kind;
+		this.packed = packed;
+		this.others = others;
+		this.otherPositions = otherPositions;
+	}
+
+	/**
+	 * Get the empty set of a kind
+	 * @param kind	The identifier kind
+	 * @return		The shared empty set
+	 */
+	public static IdentifierSet empty(Kind kind) {
+		return EMPTY_SETS.get(kind);
+	}
+
+	/**
+	 * Create a set from identifier strings, dropping duplicates and keeping the first-seen order
+	 * @param kind		The identifier kind
+	 * @param values	The identifier strings
+	 * @return			The set
+	 */
+	public static IdentifierSet of(Kind kind, Collection<String> values) {
+		return empty(kind).plus(values);
+	}
+
+	/**
+	 * Create a set with additional identifiers; this set is left unchanged
+	 * @param values	The identifier strings to add
+	 * @return			A set with this set's identifiers followed by any new ones (this set itself if nothing is new)
+	 */
+	public IdentifierSet plus(Collection<String> values) {
+		long[] newPacked = packed;
+		String[] newOthers = others;
+		int[] newOtherPositions = otherPositions;
+		long[] value = new long[kind.width];
+		for (String str:values) {
+			if (str==null || contains(newPacked, newOthers, str)) {
+				continue;
+			}
+
+			if (pack(str, value)) {
+				newPacked = Arrays.copyOf(newPacked, newPacked.length + kind.width);
+				System.arraycopy(value, 0, newPacked, newPacked.length - kind.width, kind.width);
+			} else {
+				if (kind.width > 0) {
+					newOtherPositions = Arrays.copyOf(newOtherPositions, newOtherPositions.length + 1);
+					newOtherPositions[newOtherPositions.length - 1] = newPacked.length / kind.width + newOthers.length;
+				}
+				newOthers = Arrays.copyOf(newOthers, newOthers.length + 1);
+				newOthers[newOthers.length - 1] = kind==Kind.SMILES ? intern(str) : str;
+			}
+		}
+
+		return newPacked==packed && newOthers==others ? this : new IdentifierSet(kind, newPacked, newOthers, newOtherPositions);
+	}
+
+	/**
+	 * Get the identifier kind
+	 * @return	The kind
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Get the number of identifiers
+	 * @return	The size of the set
+	 */
+	public int size() {
+		return (kind.width==0 ? 0 : packed.length / kind.width) + others.length;
+	}
+
+	/**
+	 * Check if the set has no identifiers
+	 * @return	True if the set is empty
+	 */
+	public boolean isEmpty() {
+		return packed.length==0 && others.length==0;
+	}
+
+	/**
+	 * Check if the set has an identifier
+	 * @param str	The identifier string
+	 * @return		True if the identifier is in the set
+	 */
+	public boolean contains(String str) {
+		return str!=null && contains(packed, others, str);
+	}
+
+	/**
+	 * Get the packed identifiers (see Identifiers), without decoding them to strings
+	 * For CASRNs and DTXSIDs there is one long per identifier; for InChIKeys there are two (high, low); for SMILES there are none
+	 * Identifiers that could not be packed are not included
+	 * @return	A copy of the packed identifiers
+	 */
+	public long[] getPacked() {
+		return packed.clone();
+	}
+
+	/**
+	 * Get the identifiers as strings
+	 * @return	A new list of the identifiers, in set order
+	 */
+	public List<String> toList() {
+		List<String> list = new ArrayList<String>(size());
+		for (String str:this) {
+			list.add(str);
+		}
+
+		return list;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return i < size();
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				return get(i++);
+			}
+		};
+	}
+
+	/**
+	 * Sets are equal if they hold the same identifiers of the same kind, in any order
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this==o) {
+			return true;
+		} else if (!(o instanceof IdentifierSet)) {
+			return false;
+		}
+
+		IdentifierSet other = (IdentifierSet) o;
+		return kind==other.kind && new HashSet<String>(toList()).equals(new HashSet<String>(other.toList()));
+	}
+
+	@Override
+	public int hashCode() {
+		return new HashSet<String>(toList()).hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return toList().toString();
+	}
+
+	private String get(int i) {
+		if (kind.width==0) {
+			return others[i];
+		}
+
+		// Strings are rare, so their positions are searched rather than indexed
+		int packedIndex = i;
+		for (int k = 0; k < otherPositions.length && otherPositions[k] <= i; k++) {
+			if (otherPositions[k]==i) {
+				return others[k];
+			}
+			packedIndex--;
+		}
+
+		switch (kind) {
+		case CASRN:
+			return Identifiers.decodeCasrn(packed[packedIndex]);
+		case DTXSID:
+			return Identifiers.decodeDtxsid(packed[packedIndex]);
+		case INCHIKEY:
+			return Identifiers.decodeInchikey(packed[2 * packedIndex], packed[2 * packedIndex + 1]);
+		default:
+			throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * Pack an identifier string into value (of length kind.width)
+	 * @return	True if the string could be packed
+	 */
+	private boolean pack(String str, long[] value) {
+		switch (kind) {
+		case CASRN:
+			value[0] = Identifiers.encodeCasrn(str);
+			return value[0]!=Identifiers.INVALID;
+		case DTXSID:
+			value[0] = Identifiers.encodeDtxsid(str);
+			return value[0]!=Identifiers.INVALID;
+		case INCHIKEY:
+			if (!Identifiers.isInchikey(str)) {
+				return false;
+			}
+			value[0] = Identifiers.encodeInchikeyHigh(str);
+			value[1] = Identifiers.encodeInchikeyLow(str);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private boolean contains(long[] packed, String[] others, String str) {
+		long[] value = new long[kind.width];
+		if (kind.width > 0 && pack(str, value)) {
+			for (int i = 0; i < packed.length; i += kind.width) {
+				if (packed[i]==value[0] && (kind.width==1 || packed[i + 1]==value[1])) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		for (String other:others) {
+			if (other.equals(str)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String intern(String smiles) {
+		int h = smiles.hashCode();
+		int slot = (h ^ (h >>> 16)) & (SMILES_POOL_SIZE - 1);
+		String pooled = SMILES_POOL[slot];
+		if (smiles.equals(pooled)) {
+			return pooled;
+		}
+
+		SMILES_POOL[slot] = smiles;
+		return smiles;
+	}
+
+	/**
+	 * Get the union of the identifiers of several sets as strings (e.g. over all infoboxes on a page)
+	 * @param sets	The sets
+	 * @return		The distinct identifiers
+	 */
+	public static Set<String> union(Iterable<IdentifierSet> sets) {
+		Set<String> union = new HashSet<String>();
+		for (IdentifierSet set:sets) {
+			for (String str:set) {
+				union.add(str);
+			}
+		}
+
+		return union;
+	}
+
+	/**
+	 * Gson adapter to read and write identifier sets as JSON arrays of strings
+	 * A JSON null is read as an empty set, and a null set is written as an empty array
+	 * @author GSINCL01
+	 *
+	 */
+	public static class Adapter extends TypeAdapter<IdentifierSet> {
+		private final Kind kind;
+
+		protected Adapter(Kind kind) {
+			this.kind = kind;
+		}
+
+		@Override
+		public void write(JsonWriter out, IdentifierSet set) throws IOException {
+			out.beginArray();
+			if (set!=null) {
+				for (String str:set) {
+					out.value(str);
+				}
+			}
+			out.endArray();
+		}
+
+		@Override
+		public IdentifierSet read(JsonReader in) throws IOException {
+			if (in.peek()==JsonToken.NULL) {
+				in.nextNull();
+				return empty(kind);
+			}
+
+			List<String> values = new ArrayList<String>();
+			in.beginArray();
+			while (in.hasNext()) {
+				if (in.peek()==JsonToken.NULL) {
+					in.nextNull();
+				} else {
+					values.add(in.nextString());
+				}
+			}
+			in.endArray();
+			return of(kind, values);
+		}
+	}
+
+	public static class CasrnAdapter extends Adapter {
+		public CasrnAdapter() {
+			super(Kind.CASRN);
+		}
+	}
+
+	public static class DtxsidAdapter extends Adapter {
+		public DtxsidAdapter() {
+			super(Kind.DTXSID);
+		}
+	}
+
+	public static class InchikeyAdapter extends Adapter {
+		public InchikeyAdapter() {
+			super(Kind.INCHIKEY);
+		}
+	}
+
+	public static class SmilesAdapter extends Adapter {
+		public SmilesAdapter() {
+			super(Kind.SMILES);
+		}
+	}
+}
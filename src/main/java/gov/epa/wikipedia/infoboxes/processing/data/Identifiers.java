@@ -0,0 +1,189 @@
+package gov.epa.wikipedia.infoboxes.processing.data;
+
+/**
+ * Class to encode CAS registry numbers and DTXSIDs as longs, and InChIKeys as pairs of longs, so they can be stored and compared without strings
+ * CASRN and DTXSID encodings keep the digit count in the top byte, so leading zeros (e.g. DTXSID0020232) survive a round trip;
+ * that leaves 56 bits for the value, so identifiers of up to MAX_PACKED_DIGITS digits are encoded
+ * @author GSINCL01
+ *
+ */
+public class Identifiers {
+
+	// Returned when a string is not a well-formed identifier of the requested type
+	public static final long INVALID = -1L;
+
+	// Most digits that fit in the 56 bits below the digit count (10^16 < 2^56 < 10^17)
+	public static final int MAX_PACKED_DIGITS = 16;
+
+	private static final String DTXSID_PREFIX = "DTXSID";
+
+	/**
+	 * Encode a CAS registry number (e.g. 50-00-0) as a long
+	 * @param casrn		The CAS registry number
+	 * @return			The encoded number, or INVALID if the string is not a well-formed CAS number
+	 */
+	public static long encodeCasrn(String casrn) {
+		if (casrn==null) {
+			return INVALID;
+		}
+
+		// 2-7 digits, hyphen, 2 digits, hyphen, 1 digit
+		int length = casrn.length();
+		if (length < 7 || length > 12 || casrn.charAt(length - 2)!='-' || casrn.charAt(length - 5)!='-') {
+			return INVALID;
+		}
+
+		long value = 0;
+		int digits = 0;
+		for (int i = 0; i < length; i++) {
+			if (i==length - 2 || i==length - 5) {
+				continue;
+			}
+
+			char c = casrn.charAt(i);
+			if (c < '0' || c > '9') {
+				return INVALID;
+			}
+			value = value * 10 + (c - '0');
+			digits++;
+		}
+
+		return pack(digits, value);
+	}
+
+	/**
+	 * Decode a CAS registry number encoded by encodeCasrn
+	 * @param encoded	The encoded number
+	 * @return			The CAS registry number as a string
+	 */
+	public static String decodeCasrn(long encoded) {
+		String digits = unpack(encoded);
+		int length = digits.length();
+		return digits.substring(0, length - 3) + "-" + digits.substring(length - 3, length - 1) + "-" + digits.substring(length - 1);
+	}
+
+	/**
+	 * Encode a DSSTox substance identifier (e.g. DTXSID7020182) as a long
+	 * @param dtxsid	The DTXSID
+	 * @return			The encoded identifier, or INVALID if the string is not a well-formed DTXSID of up to MAX_PACKED_DIGITS digits
+	 */
+	public static long encodeDtxsid(String dtxsid) {
+		if (dtxsid==null || !dtxsid.startsWith(DTXSID_PREFIX)) {
+			return INVALID;
+		}
+
+		int digits = dtxsid.length() - DTXSID_PREFIX.length();
+		if (digits < 1 || digits > MAX_PACKED_DIGITS) {
+			return INVALID;
+		}
+
+		long value = 0;
+		for (int i = DTXSID_PREFIX.length(); i < dtxsid.length(); i++) {
+			char c = dtxsid.charAt(i);
+			if (c < '0' || c > '9') {
+				return INVALID;
+			}
+			value = value * 10 + (c - '0');
+		}
+
+		return pack(digits, value);
+	}
+
+	/**
+	 * Decode a DTXSID encoded by encodeDtxsid
+	 * @param encoded	The encoded identifier
+	 * @return			The DTXSID as a string
+	 */
+	public static String decodeDtxsid(long encoded) {
+		return DTXSID_PREFIX + unpack(encoded);
+	}
+
+	/**
+	 * Encode the first 13 letters of an InChIKey (e.g. WSFSSNUMVMOOMR-UHFFFAOYSA-N) in base 26
+	 * @param inchikey	The InChIKey
+	 * @return			The encoded letters, or INVALID if the string is not a well-formed InChIKey
+	 */
+	public static long encodeInchikeyHigh(String inchikey) {
+		return isInchikey(inchikey) ? encodeLetters(inchikey, 0, 13) : INVALID;
+	}
+
+	/**
+	 * Encode the last 12 letters of an InChIKey in base 26 (see encodeInchikeyHigh)
+	 * @param inchikey	The InChIKey
+	 * @return			The encoded letters, or INVALID if the string is not a well-formed InChIKey
+	 */
+	public static long encodeInchikeyLow(String inchikey) {
+		return isInchikey(inchikey) ? encodeLetters(inchikey, 13, 25) : INVALID;
+	}
+
+	/**
+	 * Decode an InChIKey encoded by encodeInchikeyHigh and encodeInchikeyLow
+	 * @param high	The encoded first 13 letters
+	 * @param low	The encoded last 12 letters
+	 * @return		The InChIKey as a string
+	 */
+	public static String decodeInchikey(long high, long low) {
+		char[] letters = new char[25];
+		decodeLetters(high, letters, 0, 13);
+		decodeLetters(low, letters, 13, 25);
+		return new StringBuilder(27).append(letters, 0, 14).append('-').append(letters, 14, 10).append('-').append(letters[24]).toString();
+	}
+
+	/**
+	 * Check if a string is a well-formed InChIKey: 14 letters, hyphen, 10 letters, hyphen, 1 letter (all upper case)
+	 * @param inchikey	The string to check
+	 * @return			True if the string is a well-formed InChIKey
+	 */
+	public static boolean isInchikey(String inchikey) {
+		if (inchikey==null || inchikey.length()!=27 || inchikey.charAt(14)!='-' || inchikey.charAt(25)!='-') {
+			return false;
+		}
+
+		for (int i = 0; i < 27; i++) {
+			char c = inchikey.charAt(i);
+			if (i!=14 && i!=25 && (c < 'A' || c > 'Z')) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Encode letters from..to (counting letters only, skipping the hyphens) of an InChIKey; 26^13 fits in a long
+	 */
+	private static long encodeLetters(String inchikey, int from, int to) {
+		long value = 0;
+		for (int letter = from; letter < to; letter++) {
+			value = value * 26 + (inchikey.charAt(letterPosition(letter)) - 'A');
+		}
+
+		return value;
+	}
+
+	private static void decodeLetters(long value, char[] letters, int from, int to) {
+		for (int letter = to - 1; letter >= from; letter--) {
+			letters[letter] = (char) ('A' + value % 26);
+			value /= 26;
+		}
+	}
+
+	private static int letterPosition(int letter) {
+		return letter < 14 ? letter : letter < 24 ? letter + 1 : letter + 2;
+	}
+
+	private static long pack(int digits, long value) {
+		return ((long) digits << 56) | value;
+	}
+
+	private static String unpack(long encoded) {
+		int digits = (int) (encoded >>> 56);
+		String value = Long.toString(encoded & 0x00FFFFFFFFFFFFFFL);
+		StringBuilder sb = new StringBuilder(digits);
+		for (int i = value.length(); i < digits; i++) {
+			sb.append('0');
+		}
+
+		return sb.append(value).toString();
+	}
+}
@@ -1,15 +1,16 @@
 package gov.epa.wikipedia.infoboxes.processing.data;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.Collections;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
+import com.google.gson.annotations.JsonAdapter;
+
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet.Kind;
+
 /**
  * Class to hold chemical identifiers retrieved from an individual infobox on a Wikipedia page
  * @author GSINCL01
@@ -17,14 +18,27 @@ import org.jsoup.select.Elements;
  */
 public class Infobox {
 	public String infoboxTitle;
-	public Set<String> dtxsids = new HashSet<String>();
-	public Set<String> casrns = new HashSet<String>();
-	public Set<String> inchikeys = new HashSet<String>();
-	public Set<String> smiles = new HashSet<String>();
 	
-	private static final Pattern INCHIKEY_PATTERN = Pattern.compile("[A-Z]{14}-[A-Z]{10}-[A-Z]{1}");
-	private static final Pattern CASRN_PATTERN = Pattern.compile("[0-9]{2,7}-[0-9]{2}-[0-9]");
-	private static final Pattern DTXSID_PATTERN = Pattern.compile("DTXSID[0-9]+");
+	// Immutable compact sets, written to JSON as arrays of strings (see IdentifierSet)
+	@JsonAdapter(value = IdentifierSet.DtxsidAdapter.class, nullSafe = false)
+	public IdentifierSet dtxsids = IdentifierSet.empty(Kind.DTXSID);
+	@JsonAdapter(value = IdentifierSet.CasrnAdapter.class, nullSafe = false)
+	public IdentifierSet casrns = IdentifierSet.empty(Kind.CASRN);
+	@JsonAdapter(value = IdentifierSet.InchikeyAdapter.class, nullSafe = false)
+	public IdentifierSet inchikeys = IdentifierSet.empty(Kind.INCHIKEY);
+	@JsonAdapter(value = IdentifierSet.SmilesAdapter.class, nullSafe = false)
+	public IdentifierSet smiles = IdentifierSet.empty(Kind.SMILES);
+	
+	// Version of the extraction code below, saved with each parsed page (see ParsedPage.isCurrent)
+	// Bump it whenever a change here would extract different identifiers, so that existing pages are parsed again
+	// 2: identifiers found by IdentifierScanner rather than regular expressions (checked CAS numbers, standalone identifiers only)
+	public static final int EXTRACTOR_VERSION = 2;
+	
+	// Chembox and Drugbox template parameters holding each identifier (Chembox numbers repeated parameters, e.g. CASNo1)
+	private static final Pattern CASRN_PARAM_PATTERN = Pattern.compile("CASNo[0-9]*|CASNoOther|CAS_number[0-9]*|CAS_supplemental");
+	private static final Pattern DTXSID_PARAM_PATTERN = Pattern.compile("DTXSID[0-9]*|CompTox[0-9]*");
+	private static final Pattern INCHIKEY_PARAM_PATTERN = Pattern.compile("(Std)?InChIKey[0-9]*");
+	private static final Pattern SMILES_PARAM_PATTERN = Pattern.compile("SMILES[0-9]*");
 	
 	/**
 	 * Check if any data at all was retrieved from the infobox
@@ -49,7 +63,10 @@ public class Infobox {
 	 */
 	public static Infobox fromChembox(Element table) {
 		Infobox infobox = new Infobox();
-		infobox.infoboxTitle = table.selectFirst("caption").text();
+		Element caption = table.selectFirst("caption");
+		if (caption!=null) {
+			infobox.infoboxTitle = caption.text();
+		}
 		
 		Elements trs = table.select("tr");
 		for (Element tr:trs) {
@@ -57,20 +74,13 @@ public class Infobox {
 			for (Element td:tds) {
 				String header = td.text();
 				if (header.equals("CAS Number")) {
-					Element tdNext = td.nextElementSibling();
-					List<String> extractedCasrns = extractPatternFromHtmlList(tdNext, CASRN_PATTERN);
-					infobox.casrns.addAll(extractedCasrns);
+					infobox.casrns = scanHtmlList(td.nextElementSibling(), Kind.CASRN, infobox.casrns);
 				} else if (header.equals("CompTox Dashboard (EPA)")) {
-					Element tdNext = td.nextElementSibling();
-					List<String> extractedDtxsids = extractPatternFromHtmlList(tdNext, DTXSID_PATTERN);
-					infobox.dtxsids.addAll(extractedDtxsids);
+					infobox.dtxsids = scanHtmlList(td.nextElementSibling(), Kind.DTXSID, infobox.dtxsids);
 				} else if (header.startsWith("InChI")) {
-					List<String> extractedInchikeys = extractPatternFromHtmlList(td, INCHIKEY_PATTERN);
-					infobox.inchikeys.addAll(extractedInchikeys);
+					infobox.inchikeys = scanHtmlList(td, Kind.INCHIKEY, infobox.inchikeys);
 				} else if (header.startsWith("SMILES")) {
-					List<String> strings = getListFromHtml(td);
-					List<String> trimmedSmiles = trimToColonFromList(strings);
-					infobox.smiles.addAll(trimmedSmiles);
+					infobox.smiles = addSmilesFromHtmlList(td, infobox.smiles);
 				}
 			}
 		}
@@ -96,24 +106,21 @@ public class Infobox {
 			if (th!=null) {
 				String header = th.text();
 				if (header.equals("CAS Number")) {
-					Element td = tr.selectFirst("td");
-					List<String> extractedCasrns = extractPattern(td, CASRN_PATTERN);
-					infobox.casrns.addAll(extractedCasrns);
+					infobox.casrns = scan(tr.selectFirst("td"), Kind.CASRN, infobox.casrns);
 				} else if (header.equals("CompTox Dashboard (EPA)")) {
-					Element td = tr.selectFirst("td");
-					List<String> extractedDtxsids = extractPattern(td, DTXSID_PATTERN);
-					infobox.dtxsids.addAll(extractedDtxsids);
+					infobox.dtxsids = scan(tr.selectFirst("td"), Kind.DTXSID, infobox.dtxsids);
 				}
 			} else {
 				Element td = tr.selectFirst("td");
+				if (td==null) {
+					continue;
+				}
+				
 				String header = td.text();
 				if (header.startsWith("SMILES")) {
-					List<String> strings = getListFromHtml(td);
-					List<String> trimmedSmiles = trimToColonFromList(strings);
-					infobox.smiles.addAll(trimmedSmiles);
+					infobox.smiles = addSmilesFromHtmlList(td, infobox.smiles);
 				} else if (header.startsWith("InChI")) {
-					List<String> extractedInchikeys = extractPattern(td, INCHIKEY_PATTERN);
-					infobox.inchikeys.addAll(extractedInchikeys);
+					infobox.inchikeys = scan(td, Kind.INCHIKEY, infobox.inchikeys);
 				}
 			}
 		}
@@ -121,63 +128,105 @@ public class Infobox {
 		return infobox;
 	}
 	
-	private static List<String> extractPattern(Element e, Pattern p) {
-		List<String> extractedStrings = null;
-		if (e.html().contains("<li>")) {
-			extractedStrings = extractPatternFromHtmlList(e, p);
-		} else {
-			extractedStrings = extractPatternFromString(e.text(), p);
+	/**
+	 * Extract identifiers from a Chembox template call in page wikitext
+	 * @param template	The Chembox template call
+	 * @param pageTitle	The title of the page, used as the infobox title if the template does not set Name
+	 * @return			An infobox object containing the identifiers from the template parameters
+	 */
+	public static Infobox fromChemboxTemplate(WikitextTemplate template, String pageTitle) {
+		Infobox infobox = fromTemplateParams(template);
+		infobox.infoboxTitle = template.hasParam("Name") ? stripMarkup(template.params.get("Name")) : pageTitle;
+		return infobox;
+	}
+	
+	/**
+	 * Extract identifiers from a Drugbox (Infobox drug) template call in page wikitext
+	 * @param template	The Drugbox template call
+	 * @return			An infobox object containing the identifiers from the template parameters
+	 */
+	public static Infobox fromDrugboxTemplate(WikitextTemplate template) {
+		Infobox infobox = fromTemplateParams(template);
+		if (template.hasParam("drug_name")) {
+			infobox.infoboxTitle = stripMarkup(template.params.get("drug_name"));
 		}
-		return extractedStrings;
+		return infobox;
 	}
 	
-	private static List<String> extractPatternFromString(String str, Pattern p) {
-		List<String> extractedStrings = new ArrayList<String>();
-		Matcher m = p.matcher(str);
-		while (m.find()) {
-			extractedStrings.add(m.group());
+	/**
+	 * Extract identifiers from the parameters of a Chembox or Drugbox template call (and templates nested in it)
+	 * Chembox and Drugbox use different parameter names, but they do not overlap, so one set of names covers both
+	 */
+	private static Infobox fromTemplateParams(WikitextTemplate template) {
+		Infobox infobox = new Infobox();
+		for (Map.Entry<String, String> param:template.getAllParams()) {
+			String key = param.getKey();
+			String value = stripMarkup(param.getValue());
+			if (value.isEmpty()) {
+				continue;
+			}
+			
+			if (CASRN_PARAM_PATTERN.matcher(key).matches()) {
+				infobox.casrns = IdentifierScanner.scan(Kind.CASRN, value, infobox.casrns);
+			} else if (DTXSID_PARAM_PATTERN.matcher(key).matches()) {
+				infobox.dtxsids = IdentifierScanner.scan(Kind.DTXSID, value, infobox.dtxsids);
+			} else if (INCHIKEY_PARAM_PATTERN.matcher(key).matches()) {
+				infobox.inchikeys = IdentifierScanner.scan(Kind.INCHIKEY, value, infobox.inchikeys);
+			} else if (SMILES_PARAM_PATTERN.matcher(key).matches()) {
+				infobox.smiles = infobox.smiles.plus(Collections.singletonList(value));
+			}
 		}
 		
-		return extractedStrings;
+		return infobox;
 	}
 	
-	private static List<String> extractPatternFromHtmlList(Element e, Pattern p) {
-		List<String> strings = getListFromHtml(e);
-		return extractPatternFromList(strings, p);
+	/**
+	 * Remove references, nowiki tags, and other HTML tags from a parameter value
+	 */
+	private static String stripMarkup(String value) {
+		return value.replaceAll("(?s)<ref[^>]*/>|<ref[^>]*>.*?</ref>", "")
+				.replaceAll("</?nowiki>|<[^>]+>", "")
+				.trim();
 	}
-
-	private static List<String> getListFromHtml(Element e) {
-		List<String> strings = new ArrayList<String>();
-		Elements lis = e.select("li");
-		for (Element li:lis) {
-			strings.add(li.text());
+	
+	/**
+	 * Add the identifiers found in an element to a set, scanning each list item separately if the element has a list
+	 */
+	private static IdentifierSet scan(Element e, Kind kind, IdentifierSet set) {
+		if (e==null) {
+			return set;
+		} else if (e.selectFirst("li")!=null) {
+			return scanHtmlList(e, kind, set);
+		} else {
+			return IdentifierScanner.scan(kind, e.text(), set);
 		}
-		
-		return strings;
 	}
-
-	private static List<String> extractPatternFromList(List<String> strings, Pattern p) {
-		List<String> extractedStrings = new ArrayList<String>();
-		for (String str:strings) {
-			List<String> patternStrings = extractPatternFromString(str, p);
-			if (patternStrings!=null) {
-				extractedStrings.addAll(patternStrings);
-			}
+	
+	/**
+	 * Add the identifiers found in the list items of an element to a set
+	 */
+	private static IdentifierSet scanHtmlList(Element e, Kind kind, IdentifierSet set) {
+		if (e==null) {
+			return set;
 		}
 		
-		return extractedStrings;
+		for (Element li:e.select("li")) {
+			set = IdentifierScanner.scan(kind, li.text(), set);
+		}
+		return set;
 	}
-
-	private static List<String> trimToColonFromList(List<String> strings) {
-		List<String> trimmedStrings = new ArrayList<String>();
-		for (String str:strings) {
+	
+	/**
+	 * Add the SMILES in the list items of an element to a set, dropping any label before a colon (e.g. "Isomeric SMILES: ")
+	 */
+	private static IdentifierSet addSmilesFromHtmlList(Element e, IdentifierSet set) {
+		for (Element li:e.select("li")) {
+			String str = li.text();
 			if (str.contains(": ")) {
-				trimmedStrings.add(str.substring(str.indexOf(":") + 1).trim());
-			} else {
-				trimmedStrings.add(str);
+				str = str.substring(str.indexOf(":") + 1).trim();
 			}
+			set = set.plus(Collections.singletonList(str));
 		}
-		
-		return trimmedStrings;
+		return set;
 	}
-}
\ No newline at end of file
+}
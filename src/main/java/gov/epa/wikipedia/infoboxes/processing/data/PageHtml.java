@@ -1,13 +1,20 @@
 package gov.epa.wikipedia.infoboxes.processing.data;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
 
+import gov.epa.wikipedia.infoboxes.processing.Metrics;
 import gov.epa.wikipedia.infoboxes.processing.queries.ParseQuery.ParseResult;
 
 /**
@@ -20,6 +27,26 @@ public class PageHtml {
 	public Integer pageId;
 	public List<String> infoboxHtml;
 	
+	// Latest revision ID and touched timestamp when the page was downloaded (null for pages downloaded before these were stored)
+	public Long lastRevId;
+	public String touched;
+	
+	// Infoboxes extracted while the page was downloaded, so they do not have to be parsed again (not saved to file)
+	// Null if extraction failed, in which case the infobox HTML is kept so that the page is parsed (and its failure reported) later
+	public transient ParsedPage parsedPage;
+	
+	// Class of the div used to separate pages when several pages' infoboxes are rendered in one parse query
+	public static final String BATCH_WRAPPER_CLASS = "wikipedia-infoboxes-batch";
+	
+	// Elements skipped when searching for infoboxes, since infobox tables are not found inside them in rendered articles
+	private static final Set<String> SKIPPED_TAGS = new HashSet<String>(Arrays.asList("p", "ul", "ol", "dl", "h1", "h2", "h3", 
+			"h4", "h5", "h6", "pre", "blockquote", "figure", "img", "style", "link", "meta", "sup", "math"));
+	private static final List<String> SKIPPED_CLASSES = Arrays.asList("reflist", "mw-references-wrap", "navbox", "thumb");
+	
+	// Metric labels for HTML parse times
+	private static final String PAGE_PARSE_LABELS = Metrics.labels("source", "page");
+	private static final String BATCH_PARSE_LABELS = Metrics.labels("source", "batch");
+	
 	public PageHtml(String title, Integer pageId, List<String> infoboxHtml) {
 		this.title = title;
 		this.pageId = pageId;
@@ -32,14 +59,129 @@ public class PageHtml {
 	 * @return			A PageHtml object, i.e., a list of strings containing infobox HTML with page info
 	 */
 	public static PageHtml fromParseResult(ParseResult result) {
+		return fromParseResult(result, true);
+	}
+	
+	/**
+	 * Parse a raw API query result once, extracting the infoboxes directly to a ParsedPage (kept in parsedPage)
+	 * A page whose infoboxes fail to extract is still returned, with its infobox HTML kept and no parsed page (see extractInfoboxes)
+	 * @param result			A raw result from a MediaWiki API parse query
+	 * @param keepInfoboxHtml	Whether to also keep the infobox HTML strings, e.g. for archiving
+	 * @return					A PageHtml object with infobox HTML (if kept) and the extracted infoboxes
+	 * @throws IllegalStateException	If the result has no page, e.g. an error response for a page deleted since it was listed
+	 */
+	public static PageHtml fromParseResult(ParseResult result, boolean keepInfoboxHtml) {
+		if (result==null || result.parse==null || result.parse.text==null) {
+			String error = result==null ? "no result" : result.error!=null ? result.error.code + ": " + result.error.info : "no page in result";
+			throw new IllegalStateException("Parse query failed (" + error + ")");
+		}
+		
+		long start = System.nanoTime();
 		Document doc = Jsoup.parse(result.parse.text.html);
-		Elements infoboxes = doc.select("table.infobox");
+		List<Element> infoboxes = findInfoboxTables(doc);
+		Metrics.observeNanos("html_parse_duration_seconds", PAGE_PARSE_LABELS, System.nanoTime() - start);
+		
+		PageHtml pageHtml = new PageHtml(result.parse.title, result.parse.pageid, toHtml(infoboxes, keepInfoboxHtml));
+		pageHtml.lastRevId = result.parse.revid;
+		extractInfoboxes(pageHtml, infoboxes);
+		return pageHtml;
+	}
+	
+	/**
+	 * Split the result of rendering several pages' infobox templates in one parse query back into pages
+	 * Each page's templates are expected to be wrapped in a div with class BATCH_WRAPPER_CLASS and a data-pageid attribute
+	 * @param result			A raw result from a MediaWiki API parse query of batched wikitext
+	 * @param titles			The titles of the pages in the batch, keyed by page ID, in batch order
+	 * @param keepInfoboxHtml	Whether to also keep the infobox HTML strings, e.g. for archiving
+	 * @return					A list of PageHtml objects in batch order (pages with no rendered infoboxes have none)
+	 */
+	public static List<PageHtml> fromBatchParseResult(ParseResult result, Map<Integer, String> titles, boolean keepInfoboxHtml) {
+		long start = System.nanoTime();
+		Document doc = Jsoup.parse(result.parse.text.html);
+		Metrics.observeNanos("html_parse_duration_seconds", BATCH_PARSE_LABELS, System.nanoTime() - start);
+		List<PageHtml> pageHtml = new ArrayList<PageHtml>();
+		for (Map.Entry<Integer, String> entry:titles.entrySet()) {
+			List<Element> infoboxes = new ArrayList<Element>();
+			Element wrapper = doc.selectFirst("div." + BATCH_WRAPPER_CLASS + "[data-pageid=" + entry.getKey() + "]");
+			if (wrapper!=null) {
+				infoboxes = findInfoboxTables(wrapper);
+			}
+			
+			PageHtml thisPageHtml = new PageHtml(entry.getValue(), entry.getKey(), toHtml(infoboxes, keepInfoboxHtml));
+			extractInfoboxes(thisPageHtml, infoboxes);
+			pageHtml.add(thisPageHtml);
+		}
+		
+		return pageHtml;
+	}
+	
+	/**
+	 * Extract a page's infoboxes while its DOM is at hand, keeping them in parsedPage
+	 * Extraction failures are left to the parse step, which isolates and reports them per page (see PageParser): the infobox HTML
+	 * is kept instead, so that the page is still saved and parsed again from it, rather than counted as a failed download
+	 */
+	static void extractInfoboxes(PageHtml pageHtml, List<Element> infoboxes) {
+		try {
+			pageHtml.parsedPage = ParsedPage.fromInfoboxTables(pageHtml.title, pageHtml.pageId, infoboxes);
+		} catch (RuntimeException e) {
+			pageHtml.parsedPage = null;
+			pageHtml.infoboxHtml = toHtml(infoboxes, true);
+		}
+	}
+	
+	/**
+	 * Find all infobox tables (table.infobox) under an element in one walk of the DOM
+	 * Subtrees that never hold infoboxes in rendered articles (paragraphs, lists, headings, references, navboxes...)
+	 * are skipped entirely, as are text nodes
+	 * @param root	The element to search under
+	 * @return		The infobox tables in document order
+	 */
+	public static List<Element> findInfoboxTables(Element root) {
+		List<Element> infoboxes = new ArrayList<Element>();
+		NodeTraversor.filter(new NodeFilter() {
+			@Override
+			public FilterResult head(Node node, int depth) {
+				if (!(node instanceof Element)) {
+					return FilterResult.SKIP_ENTIRELY;
+				}
+				
+				Element element = (Element) node;
+				if (element.normalName().equals("table") && element.hasClass("infobox")) {
+					// Keep descending, in case of infoboxes nested in infoboxes
+					infoboxes.add(element);
+					return FilterResult.CONTINUE;
+				}
+				
+				if (SKIPPED_TAGS.contains(element.normalName())) {
+					return FilterResult.SKIP_ENTIRELY;
+				}
+				
+				for (String className:SKIPPED_CLASSES) {
+					if (element.hasClass(className)) {
+						return FilterResult.SKIP_ENTIRELY;
+					}
+				}
+				
+				return FilterResult.CONTINUE;
+			}
+			
+			@Override
+			public FilterResult tail(Node node, int depth) {
+				return FilterResult.CONTINUE;
+			}
+		}, root);
+		
+		return infoboxes;
+	}
+	
+	private static List<String> toHtml(List<Element> infoboxes, boolean keepInfoboxHtml) {
 		List<String> infoboxHtml = new ArrayList<String>();
-		for (Element infobox:infoboxes) {
-			String html = infobox.outerHtml();
-			infoboxHtml.add(html);
+		if (keepInfoboxHtml) {
+			for (Element infobox:infoboxes) {
+				infoboxHtml.add(infobox.outerHtml());
+			}
 		}
 		
-		return new PageHtml(result.parse.title, result.parse.pageid, infoboxHtml);
+		return infoboxHtml;
 	}
-}
\ No newline at end of file
+}
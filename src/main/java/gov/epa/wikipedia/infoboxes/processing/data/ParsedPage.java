@@ -1,12 +1,19 @@
 package gov.epa.wikipedia.infoboxes.processing.data;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.Metrics;
+
 /**
  * Class to hold parsed data from multiple infoboxes on a Wikipedia page
  * @author GSINCL01
@@ -17,6 +24,17 @@ public class ParsedPage {
 	public Integer pageId;
 	public List<Infobox> infoboxes = new ArrayList<Infobox>();
 	
+	// Hash of the infobox HTML (or revision, if the HTML was not kept) the page was parsed from and the extractor version used
+	// (null if parsed from wikitext or by an older version), so that pages whose infoboxes have not changed are not parsed again (see ParsedPagesUpdater)
+	public String sourceHash;
+	public Integer extractorVersion;
+	
+	// Metric labels for infobox parse times, built once since they are used for every infobox
+	private static final String CHEMBOX_HTML_LABELS = Metrics.labels("type", "chembox", "source", "html");
+	private static final String DRUGBOX_HTML_LABELS = Metrics.labels("type", "drugbox", "source", "html");
+	private static final String CHEMBOX_WIKITEXT_LABELS = Metrics.labels("type", "chembox", "source", "wikitext");
+	private static final String DRUGBOX_WIKITEXT_LABELS = Metrics.labels("type", "drugbox", "source", "wikitext");
+	
 	public ParsedPage(String title, Integer pageId) {
 		this.title = title;
 		this.pageId = pageId;
@@ -24,20 +42,97 @@ public class ParsedPage {
 
 	/**
 	 * Parse all infoboxes in a page to infobox objects and store them with page info
+	 * If the infoboxes were already extracted when the page was downloaded, those are used instead
 	 * @param pageHtml		The HTML contents of a page to parse
 	 * @return				A ParsedPage object, i.e., a list of infobox objects with page info
 	 */
 	public static ParsedPage fromPageHtml(PageHtml pageHtml) {
-		ParsedPage page = new ParsedPage(pageHtml.title, pageHtml.pageId);
-		for (String infoboxHtml:pageHtml.infoboxHtml) {
-			Document doc = Jsoup.parse(infoboxHtml);
-			Element table = doc.selectFirst("table.infobox");
+		ParsedPage page = pageHtml.parsedPage;
+		if (page==null) {
+			List<Element> tables = new ArrayList<Element>();
+			for (String infoboxHtml:pageHtml.infoboxHtml) {
+				Document doc = Jsoup.parse(infoboxHtml);
+				tables.add(doc.selectFirst("table.infobox"));
+			}
+			
+			page = fromInfoboxTables(pageHtml.title, pageHtml.pageId, tables);
+		}
+		
+		page.sourceHash = hashSource(pageHtml);
+		page.extractorVersion = Infobox.EXTRACTOR_VERSION;
+		return page;
+	}
+	
+	/**
+	 * Check if this page was parsed from the given infobox HTML by the current extractor, so parsing it again would give the same result
+	 * @param sourceHash	The hash of the page's current contents (see hashSource), or null if unknown
+	 * @return				True if the page does not need to be parsed again
+	 */
+	public boolean isCurrent(String sourceHash) {
+		return extractorVersion!=null && extractorVersion==Infobox.EXTRACTOR_VERSION && sourceHash!=null && sourceHash.equals(this.sourceHash);
+	}
+	
+	/**
+	 * Hash what a page was or will be parsed from, to tell whether it needs to be parsed again
+	 * Without KEEP_RAW_INFOBOX_HTML, the infobox HTML is empty for every page, so the revision downloaded is hashed instead
+	 * @param pageHtml	The page HTML
+	 * @return			The hash, or null if the page has neither infobox HTML nor a revision ID, so it is always parsed again
+	 */
+	public static String hashSource(PageHtml pageHtml) {
+		if (pageHtml.infoboxHtml!=null && !pageHtml.infoboxHtml.isEmpty()) {
+			return hashInfoboxHtml(pageHtml.infoboxHtml);
+		} else if (pageHtml.lastRevId!=null) {
+			return hashInfoboxHtml(Arrays.asList("revision:" + pageHtml.lastRevId));
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Hash a page's infobox HTML, to tell whether a page needs to be parsed again
+	 * @param infoboxHtml	The infobox HTML strings of a page
+	 * @return				The SHA-256 hash of the strings, as hex
+	 */
+	private static String hashInfoboxHtml(List<String> infoboxHtml) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			if (infoboxHtml!=null) {
+				for (String html:infoboxHtml) {
+					digest.update(html.getBytes(StandardCharsets.UTF_8));
+					digest.update((byte) 0); // Separator, so that moving text between infoboxes changes the hash
+				}
+			}
+			
+			StringBuilder hex = new StringBuilder();
+			for (byte b:digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Parse infobox tables (already found in a page's DOM) to infobox objects and store them with page info
+	 * @param title			The page title
+	 * @param pageId		The page ID
+	 * @param tables		The infobox table elements
+	 * @return				A ParsedPage object, i.e., a list of infobox objects with page info
+	 */
+	public static ParsedPage fromInfoboxTables(String title, Integer pageId, List<Element> tables) {
+		ParsedPage page = new ParsedPage(title, pageId);
+		for (Element table:tables) {
+			long start = System.nanoTime();
 			Infobox infobox = null;
-			if (table.hasClass("infobox ib-chembox")) {
+			boolean chembox = table.hasClass("infobox ib-chembox");
+			if (chembox) {
 				infobox = Infobox.fromChembox(table);
 			} else {
 				infobox = Infobox.fromDrugbox(table);
 			}
+			recordParseTime(chembox, "html", start);
 			
 			if (!infobox.isEmpty()) {
 				page.infoboxes.add(infobox);
@@ -46,4 +141,53 @@ public class ParsedPage {
 		
 		return page;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Parse all Chembox and Drugbox template calls in a page's wikitext to infobox objects and store them with page info
+	 * @param title			The page title
+	 * @param pageId		The page ID
+	 * @param wikitext		The page wikitext
+	 * @return				A ParsedPage object, i.e., a list of infobox objects with page info
+	 */
+	public static ParsedPage fromWikitext(String title, Integer pageId, String wikitext) {
+		List<String> templateNames = new ArrayList<String>(WikipediaInfoboxesDict.CHEMBOX_TEMPLATE_NAMES);
+		templateNames.addAll(WikipediaInfoboxesDict.DRUGBOX_TEMPLATE_NAMES);
+		return fromTemplates(title, pageId, WikitextTemplate.findAll(wikitext, templateNames));
+	}
+	
+	/**
+	 * Parse Chembox and Drugbox template calls (already found in a page's wikitext) to infobox objects
+	 * @param title			The page title
+	 * @param pageId		The page ID
+	 * @param templates		The template calls
+	 * @return				A ParsedPage object, i.e., a list of infobox objects with page info
+	 */
+	public static ParsedPage fromTemplates(String title, Integer pageId, List<WikitextTemplate> templates) {
+		ParsedPage page = new ParsedPage(title, pageId);
+		for (WikitextTemplate template:templates) {
+			long start = System.nanoTime();
+			Infobox infobox = null;
+			boolean chembox = WikipediaInfoboxesDict.CHEMBOX_TEMPLATE_NAMES.contains(WikitextTemplate.normalizeName(template.name));
+			if (chembox) {
+				infobox = Infobox.fromChemboxTemplate(template, title);
+			} else {
+				infobox = Infobox.fromDrugboxTemplate(template);
+			}
+			recordParseTime(chembox, "wikitext", start);
+			
+			if (!infobox.isEmpty()) {
+				page.infoboxes.add(infobox);
+			}
+		}
+		
+		return page;
+	}
+	
+	private static void recordParseTime(boolean chembox, String source, long startNanos) {
+		if (Metrics.isEnabled()) {
+			String labels = source.equals("html") ? (chembox ? CHEMBOX_HTML_LABELS : DRUGBOX_HTML_LABELS)
+					: (chembox ? CHEMBOX_WIKITEXT_LABELS : DRUGBOX_WIKITEXT_LABELS);
+			Metrics.observeNanos("infobox_parse_duration_seconds", labels, System.nanoTime() - startNanos);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package gov.epa.wikipedia.infoboxes.processing.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Class to hold a template call (e.g. {{Chembox ...}}) found in page wikitext
+ * @author GSINCL01
+ *
+ */
+public class WikitextTemplate {
+	public String name;
+	public String text;
+	public Map<String, String> params = new LinkedHashMap<String, String>();
+
+	public WikitextTemplate(String name, String text) {
+		this.name = name;
+		this.text = text;
+	}
+
+	/**
+	 * Check if the template sets a (non-empty) named parameter
+	 * @param key	The parameter name
+	 * @return		True if the parameter is set
+	 */
+	public boolean hasParam(String key) {
+		String value = params.get(key);
+		return value!=null && !value.isEmpty();
+	}
+
+	/**
+	 * Get all parameters of the template, including those of templates nested in its parameter values
+	 * (e.g. the parameters of {{Chembox Identifiers}} in a Chembox's Section1)
+	 * @return	The parameters as name/value pairs, outer parameters first
+	 */
+	public List<Map.Entry<String, String>> getAllParams() {
+		List<Map.Entry<String, String>> allParams = new ArrayList<Map.Entry<String, String>>();
+		addAllParams(params, allParams);
+		return allParams;
+	}
+	
+	private static void addAllParams(Map<String, String> params, List<Map.Entry<String, String>> allParams) {
+		for (Map.Entry<String, String> param:params.entrySet()) {
+			allParams.add(param);
+			String value = param.getValue();
+			int i = 0;
+			while ((i = value.indexOf("{{", i)) >= 0) {
+				int end = findClosingBraces(value, i);
+				if (end < 0) {
+					break;
+				}
+				
+				List<String> parts = splitTopLevel(value.substring(i + 2, end - 2));
+				addAllParams(parseParams(parts), allParams);
+				i = end;
+			}
+		}
+	}
+	
+	/**
+	 * Find all top-level calls of the given templates in a page's wikitext
+	 * @param wikitext		The wikitext to search
+	 * @param names			The template names to look for (e.g. "Chembox", "Infobox drug")
+	 * @return				A list of template calls in the order they appear
+	 */
+	public static List<WikitextTemplate> findAll(String wikitext, Collection<String> names) {
+		List<WikitextTemplate> templates = new ArrayList<WikitextTemplate>();
+		if (wikitext==null) {
+			return templates;
+		}
+
+		Set<String> normalizedNames = names.stream().map(WikitextTemplate::normalizeName).collect(Collectors.toSet());
+		String text = stripComments(wikitext);
+		int i = 0;
+		while ((i = text.indexOf("{{", i)) >= 0) {
+			int end = findClosingBraces(text, i);
+			if (end < 0) {
+				break;
+			}
+
+			String call = text.substring(i, end);
+			String body = call.substring(2, call.length() - 2);
+			List<String> parts = splitTopLevel(body);
+			String name = normalizeName(parts.get(0));
+			if (normalizedNames.contains(name)) {
+				WikitextTemplate template = new WikitextTemplate(parts.get(0).trim(), call);
+				template.params = parseParams(parts);
+				templates.add(template);
+				i = end;
+			} else {
+				// Keep looking inside other templates, in case the infobox is wrapped
+				i += 2;
+			}
+		}
+
+		return templates;
+	}
+
+	/**
+	 * Normalize a template name the way MediaWiki does for lookups: case-insensitive first letter, underscores as spaces
+	 * @param name	The raw template name
+	 * @return		The normalized name
+	 */
+	public static String normalizeName(String name) {
+		String normalized = name.replace('_', ' ').replaceAll("\\s+", " ").trim();
+		if (normalized.regionMatches(true, 0, "Template:", 0, 9)) {
+			normalized = normalized.substring(9).trim();
+		}
+
+		if (normalized.isEmpty()) {
+			return normalized;
+		}
+
+		return Character.toUpperCase(normalized.charAt(0)) + normalized.substring(1);
+	}
+
+	private static String stripComments(String wikitext) {
+		return wikitext.replaceAll("(?s)<!--.*?(-->|$)", "");
+	}
+
+	/**
+	 * Find the end (exclusive) of the template call opening at the given index, or -1 if it is never closed
+	 */
+	private static int findClosingBraces(String text, int start) {
+		int depth = 0;
+		int i = start;
+		while (i < text.length() - 1) {
+			if (text.charAt(i)=='{' && text.charAt(i + 1)=='{') {
+				depth++;
+				i += 2;
+			} else if (text.charAt(i)=='}' && text.charAt(i + 1)=='}') {
+				depth--;
+				i += 2;
+				if (depth==0) {
+					return i;
+				}
+			} else {
+				i++;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Split a template body on pipes that are not inside nested templates or links
+	 */
+	private static List<String> splitTopLevel(String body) {
+		List<String> parts = new ArrayList<String>();
+		int braces = 0;
+		int brackets = 0;
+		int start = 0;
+		for (int i = 0; i < body.length(); i++) {
+			char c = body.charAt(i);
+			char next = i + 1 < body.length() ? body.charAt(i + 1) : 0;
+			if (c=='{' && next=='{') {
+				braces++;
+				i++;
+			} else if (c=='}' && next=='}') {
+				braces--;
+				i++;
+			} else if (c=='[' && next=='[') {
+				brackets++;
+				i++;
+			} else if (c==']' && next==']') {
+				brackets--;
+				i++;
+			} else if (c=='|' && braces<=0 && brackets<=0) {
+				parts.add(body.substring(start, i));
+				start = i + 1;
+			}
+		}
+
+		parts.add(body.substring(start));
+		return parts;
+	}
+
+	/**
+	 * Turn the split parts of a template call (after the name) into named and positional parameters
+	 */
+	private static Map<String, String> parseParams(List<String> parts) {
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		int position = 1;
+		for (String part:parts.subList(1, parts.size())) {
+			int equals = indexOfTopLevelEquals(part);
+			if (equals >= 0) {
+				params.put(part.substring(0, equals).trim(), part.substring(equals + 1).trim());
+			} else {
+				params.put(String.valueOf(position++), part.trim());
+			}
+		}
+
+		return params;
+	}
+
+	private static int indexOfTopLevelEquals(String part) {
+		int depth = 0;
+		for (int i = 0; i < part.length(); i++) {
+			char c = part.charAt(i);
+			if (c=='{' || c=='[') {
+				depth++;
+			} else if (c=='}' || c==']') {
+				depth--;
+			} else if (c=='=' && depth<=0) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+}
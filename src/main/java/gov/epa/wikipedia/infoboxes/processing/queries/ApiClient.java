@@ -0,0 +1,262 @@
+package gov.epa.wikipedia.infoboxes.processing.queries;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.Metrics;
+import gov.epa.wikipedia.infoboxes.processing.queries.HttpTransport.Response;
+import kong.unirest.Unirest;
+
+/**
+ * Class to send MediaWiki API requests for the query classes, reading and writing the response cache (see ResponseCache)
+ * GET requests go through the cache; POST requests (e.g. rendering wikitext) are always sent
+ * Requests are sent with the transport set by WikipediaInfoboxesDict.HTTP_TRANSPORT (see HttpTransport), or one set with setTransport,
+ * paced and retried by the request scheduler (see RequestScheduler) and sent with maxlag, which is left out of cache keys
+ * @author GSINCL01
+ *
+ */
+public class ApiClient {
+
+	private static String apiUrl = WikipediaInfoboxesDict.WIKIPEDIA_API_URL;
+	private static ResponseCache cache;
+	private static HttpTransport transport;
+	private static RequestScheduler scheduler;
+
+	/**
+	 * Point requests at another API endpoint (e.g. a local stub server)
+	 * @param url	The API URL
+	 */
+	public static synchronized void setApiUrl(String url) {
+		apiUrl = url;
+	}
+
+	/**
+	 * Replace the response cache (e.g. to use another folder or mode); null restores the default cache
+	 * @param responseCache	The cache to use
+	 */
+	public static synchronized void setCache(ResponseCache responseCache) {
+		cache = responseCache;
+	}
+
+	/**
+	 * Get the response cache, creating it with the default settings on first use
+	 * @return	The response cache
+	 */
+	public static synchronized ResponseCache getCache() {
+		if (cache==null) {
+			cache = ResponseCache.withDefaults();
+		}
+		return cache;
+	}
+
+	/**
+	 * Replace the HTTP transport (e.g. with a FakeTransport); null restores the default transport
+	 * @param httpTransport	The transport to use
+	 */
+	public static synchronized void setTransport(HttpTransport httpTransport) {
+		transport = httpTransport;
+	}
+
+	/**
+	 * Get the HTTP transport, creating the one set by WikipediaInfoboxesDict.HTTP_TRANSPORT on first use
+	 * @return	The transport
+	 */
+	public static synchronized HttpTransport getTransport() {
+		if (transport==null) {
+			transport = WikipediaInfoboxesDict.HTTP_TRANSPORT==HttpTransport.Backend.UNIREST ? UnirestTransport.withDefaults()
+					: JdkTransport.withDefaults();
+		}
+		return transport;
+	}
+
+	/**
+	 * Replace the request scheduler (e.g. to use other retry settings); null restores the default scheduler
+	 * @param requestScheduler	The scheduler to use
+	 */
+	public static synchronized void setScheduler(RequestScheduler requestScheduler) {
+		scheduler = requestScheduler;
+	}
+
+	/**
+	 * Get the request scheduler, creating it with the default settings on first use
+	 * @return	The request scheduler
+	 */
+	public static synchronized RequestScheduler getScheduler() {
+		if (scheduler==null) {
+			scheduler = RequestScheduler.withDefaults();
+		}
+		return scheduler;
+	}
+
+	private static synchronized String getApiUrl() {
+		return apiUrl;
+	}
+
+	/**
+	 * Send a GET request, or answer it from the cache
+	 * A fresh cached response is used as is; a stale one is revalidated with If-None-Match or If-Modified-Since if possible
+	 * @param params	The query parameters, in a fixed order (the order is part of the cache key)
+	 * @param type		The class to map the JSON response to
+	 * @return			The mapped response, or null if the cache is offline and the response is not cached
+	 * @throws UncheckedIOException	If the request failed, after any retries (see RequestScheduler)
+	 */
+	public static <T> T get(Map<String, Object> params, Class<T> type) {
+		ResponseCache cache = getCache();
+		if (cache.getMode()==ResponseCache.Mode.OFF) {
+			Response response = send(params, new LinkedHashMap<String, String>());
+			return readBody(response.body, type);
+		}
+
+		String key = getKey(params);
+		ResponseCache.Entry entry = cache.get(key);
+		if (entry!=null && (cache.getMode()==ResponseCache.Mode.OFFLINE || entry.isFresh(cache.getMaxAgeMillis()))) {
+			cache.recordHit(false);
+			return readBody(entry.body, type);
+		} else if (cache.getMode()==ResponseCache.Mode.OFFLINE) {
+			cache.recordMiss();
+			return null;
+		}
+
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		if (entry!=null && entry.etag!=null) {
+			headers.put("If-None-Match", entry.etag);
+		}
+		if (entry!=null && entry.lastModified!=null) {
+			headers.put("If-Modified-Since", entry.lastModified);
+		}
+
+		Response response = send(params, headers);
+		if (response.status==304 && entry!=null) {
+			entry.fetchedAt = System.currentTimeMillis();
+			cache.put(entry);
+			cache.recordHit(true);
+			return readBody(entry.body, type);
+		}
+
+		cache.recordMiss();
+		String body = response.body;
+		if (!isErrorBody(body)) {
+			ResponseCache.Entry newEntry = new ResponseCache.Entry();
+			newEntry.key = key;
+			newEntry.etag = response.getHeader("ETag");
+			newEntry.lastModified = response.getHeader("Last-Modified");
+			newEntry.fetchedAt = System.currentTimeMillis();
+			newEntry.body = body;
+			cache.put(newEntry);
+		}
+
+		return readBody(body, type);
+	}
+
+	/**
+	 * Send a POST request with form fields (never cached)
+	 * @param fields	The form fields
+	 * @param type		The class to map the JSON response to
+	 * @return			The mapped response, or null if the cache is offline
+	 * @throws UncheckedIOException	If the request failed, after any retries (see RequestScheduler)
+	 */
+	public static <T> T post(Map<String, Object> fields, Class<T> type) {
+		if (getCache().getMode()==ResponseCache.Mode.OFFLINE) {
+			return null;
+		}
+
+		String query = getQueryLabel(fields);
+		Map<String, Object> sentFields = withMaxlag(fields);
+		Response response = getScheduler().send(query, fields, () -> {
+			long start = System.nanoTime();
+			try {
+				return record(query, getTransport().post(getApiUrl(), sentFields), start);
+			} catch (IOException e) {
+				record(query, null, start);
+				throw e;
+			}
+		});
+		return readBody(response.body, type);
+	}
+
+	private static Response send(Map<String, Object> params, Map<String, String> headers) {
+		String query = getQueryLabel(params);
+		Map<String, Object> sentParams = withMaxlag(params);
+		return getScheduler().send(query, params, () -> {
+			long start = System.nanoTime();
+			try {
+				return record(query, getTransport().get(getApiUrl(), sentParams, headers), start);
+			} catch (IOException e) {
+				record(query, null, start);
+				throw e;
+			}
+		});
+	}
+
+	/**
+	 * Add the maxlag parameter (WikipediaInfoboxesDict.API_MAXLAG_SECONDS), so that the server refuses the request
+	 * while its database replicas lag, rather than add to their load
+	 */
+	private static Map<String, Object> withMaxlag(Map<String, Object> params) {
+		if (WikipediaInfoboxesDict.API_MAXLAG_SECONDS <= 0 || params.containsKey("maxlag")) {
+			return params;
+		}
+
+		Map<String, Object> sentParams = new LinkedHashMap<String, Object>(params);
+		sentParams.put("maxlag", WikipediaInfoboxesDict.API_MAXLAG_SECONDS);
+		return sentParams;
+	}
+
+	/**
+	 * Record the latency, status, and body size of a request in the run metrics (see Metrics)
+	 * @param response	The response, or null if the request failed without one
+	 */
+	private static Response record(String query, Response response, long startNanos) {
+		if (Metrics.isEnabled()) {
+			String labels = Metrics.labels("query", query);
+			Metrics.observeNanos("http_request_duration_seconds", labels, System.nanoTime() - startNanos);
+			Metrics.increment("http_responses_total", Metrics.labels("query", query, "status", response==null ? "error" : String.valueOf(response.status)));
+			if (response!=null && response.body!=null) {
+				Metrics.add("http_response_body_bytes_total", labels, response.body.length());
+			}
+		}
+		return response;
+	}
+
+	/**
+	 * Name the kind of request for metrics, e.g. parse, parse_section, or query_embeddedin
+	 */
+	private static String getQueryLabel(Map<String, Object> params) {
+		Object action = params.get("action");
+		if ("query".equals(action)) {
+			Object kind = params.containsKey("list") ? params.get("list") : params.get("prop");
+			return "query_" + kind;
+		} else if ("parse".equals(action) && params.containsKey("section")) {
+			return "parse_section";
+		} else if ("parse".equals(action) && params.containsKey("text")) {
+			return "parse_text";
+		}
+		return String.valueOf(action);
+	}
+
+	/**
+	 * Build the cache key of a request from the API URL and its parameters
+	 */
+	static String getKey(Map<String, Object> params) {
+		StringBuilder sb = new StringBuilder(getApiUrl()).append('?');
+		for (Map.Entry<String, Object> param:params.entrySet()) {
+			sb.append(param.getKey()).append('=').append(param.getValue()).append('&');
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Check for a MediaWiki error response (e.g. maxlag), which is sent with status 200 but should not be reused
+	 */
+	private static boolean isErrorBody(String body) {
+		return body==null || body.startsWith("{\"error\"");
+	}
+
+	private static <T> T readBody(String body, Class<T> type) {
+		return Unirest.config().getObjectMapper().readValue(body, type);
+	}
+}
@@ -1,15 +1,16 @@
 package gov.epa.wikipedia.infoboxes.processing.queries;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import com.google.gson.annotations.SerializedName;
 
-import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
-import kong.unirest.HttpResponse;
-import kong.unirest.Unirest;
+import gov.epa.wikipedia.infoboxes.processing.Metrics;
 
 /**
  * Class to run the Media Wiki "embedded-in" query for pages embedding a given element
@@ -29,6 +30,7 @@ public class EmbeddedInQuery {
 		@SerializedName("continue")
 		public Continue continue_;
 		public Query query;
+		public ParseQuery.Error error;
 	}
 	
 	/**
@@ -62,6 +64,39 @@ public class EmbeddedInQuery {
 		public String title;
 	}
 	
+	/**
+	 * Json wrapper class for result of embedded-in query used as a generator for page info (formatversion=2)
+	 * @author GSINCL01
+	 *
+	 */
+	public static class PageInfoResult {
+		@SerializedName("continue")
+		public Map<String, String> continue_;
+		public PageInfoQuery query;
+		public ParseQuery.Error error;
+	}
+	
+	/**
+	 * "Query" element of result of embedded-in generator query
+	 * @author GSINCL01
+	 *
+	 */
+	public static class PageInfoQuery {
+		public List<PageInfo> pages;
+	}
+	
+	/**
+	 * "Page" element of result of embedded-in generator query, with the page's latest revision info
+	 * @author GSINCL01
+	 *
+	 */
+	public static class PageInfo {
+		public int pageid;
+		public String title;
+		public Long lastrevid;
+		public String touched;
+	}
+	
 	private static final int EI_LIMIT = 500; // Max permitted query size
 	private static final int EI_NAMESPACE = 0; // Wiki pages only (exclude users, templates, etc.)
 	
@@ -71,20 +106,15 @@ public class EmbeddedInQuery {
 	 * @return				A result set with a list of embedded-in results and pagination info
 	 */
 	private static EmbeddedInResult runSingleQuery(String eiTitle) {
-		HttpResponse<EmbeddedInResult> response = Unirest.get(WikipediaInfoboxesDict.WIKIPEDIA_API_URL)
-				.queryString("action", "query")
-				.queryString("list", "embeddedin")
-				.queryString("eititle", eiTitle)
-				.queryString("eilimit", EI_LIMIT)
-				.queryString("einamespace", EI_NAMESPACE)
-				.queryString("format", "json")
-				.asObject(EmbeddedInResult.class);
+		Map<String, Object> params = new LinkedHashMap<String, Object>();
+		params.put("action", "query");
+		params.put("list", "embeddedin");
+		params.put("eititle", eiTitle);
+		params.put("eilimit", EI_LIMIT);
+		params.put("einamespace", EI_NAMESPACE);
+		params.put("format", "json");
 		
-		if (response.getStatus()==200) {
-			return response.getBody();
-		} else {
-			return null;
-		}
+		return ApiClient.get(params, EmbeddedInResult.class);
 	}
 	
 	/**
@@ -94,21 +124,16 @@ public class EmbeddedInQuery {
 	 * @return				A result set with a list of embedded-in results and pagination info
 	 */
 	private static EmbeddedInResult runSingleQuery(String eiTitle, String eiContinue) {
-		HttpResponse<EmbeddedInResult> response = Unirest.get(WikipediaInfoboxesDict.WIKIPEDIA_API_URL)
-				.queryString("action", "query")
-				.queryString("list", "embeddedin")
-				.queryString("eititle", eiTitle)
-				.queryString("eicontinue", eiContinue)
-				.queryString("eilimit", EI_LIMIT)
-				.queryString("einamespace", EI_NAMESPACE)
-				.queryString("format", "json")
-				.asObject(EmbeddedInResult.class);
+		Map<String, Object> params = new LinkedHashMap<String, Object>();
+		params.put("action", "query");
+		params.put("list", "embeddedin");
+		params.put("eititle", eiTitle);
+		params.put("eicontinue", eiContinue);
+		params.put("eilimit", EI_LIMIT);
+		params.put("einamespace", EI_NAMESPACE);
+		params.put("format", "json");
 		
-		if (response.getStatus()==200) {
-			return response.getBody();
-		} else {
-			return null;
-		}
+		return ApiClient.get(params, EmbeddedInResult.class);
 	}
 	
 	/**
@@ -118,10 +143,26 @@ public class EmbeddedInQuery {
 	 */
 	private static List<EmbeddedIn> run(String eiTitle) {
 		List<EmbeddedIn> embeddedIn = new ArrayList<EmbeddedIn>();
-		
+		forEach(eiTitle, embeddedIn::add);
+		return embeddedIn;
+	}
+	
+	/**
+	 * Loop the embedded-in query until it runs out of results, running an action on each result as its page of results arrives
+	 * @param eiTitle	The title to retrieve results for
+	 * @param action	The action to run on each embedded-in result
+	 */
+	private static void forEach(String eiTitle, Consumer<EmbeddedIn> action) {
+		long start = System.nanoTime();
+		int count = 0;
 		EmbeddedInResult result = runSingleQuery(eiTitle);
-		while (result!=null) {
-			embeddedIn.addAll(result.query.embeddedin);
+		while (true) {
+			// A missing or error response (e.g. an offline cache miss) must not be taken for the end of the listing
+			if (result==null || result.error!=null || result.query==null || result.query.embeddedin==null) {
+				throw new IllegalStateException(getFailureMessage(eiTitle, result==null ? null : result.error, count));
+			}
+			result.query.embeddedin.forEach(action);
+			count += result.query.embeddedin.size();
 			
 			if (result.continue_!=null) {
 				result = runSingleQuery(eiTitle, result.continue_.eicontinue);
@@ -129,8 +170,7 @@ public class EmbeddedInQuery {
 				break;
 			}
 		}
-		
-		return embeddedIn;
+		Metrics.recordStage("list", count, System.nanoTime() - start);
 	}
 	
 	/**
@@ -143,4 +183,73 @@ public class EmbeddedInQuery {
 		Set<Integer> pageIds = embeddedIn.stream().map(e -> e.pageid).collect(Collectors.toSet());
 		return pageIds;
 	}
+	
+	/**
+	 * Run an action on the page ID of each page embedding the given title, as each page of results arrives
+	 * Lets later work on the first pages start before the whole listing has been read
+	 * @param eiTitle	The title to retrieve results for
+	 * @param action	The action to run on each page ID
+	 */
+	public static void forEachPageId(String eiTitle, Consumer<Integer> action) {
+		forEach(eiTitle, e -> action.accept(e.pageid));
+	}
+	
+	/**
+	 * Send a request to get a page of embedded-in results along with each page's latest revision ID
+	 * @param eiTitle		The title to retrieve results for
+	 * @param continueMap	The continue parameters from the last response, or null for the first request
+	 * @return				A result set with a list of page info and pagination info
+	 */
+	private static PageInfoResult runInfoQuery(String eiTitle, Map<String, String> continueMap) {
+		Map<String, Object> params = new LinkedHashMap<String, Object>();
+		params.put("action", "query");
+		params.put("generator", "embeddedin");
+		params.put("geititle", eiTitle);
+		params.put("geilimit", EI_LIMIT);
+		params.put("geinamespace", EI_NAMESPACE);
+		params.put("prop", "info");
+		params.put("formatversion", "2");
+		params.put("format", "json");
+		if (continueMap!=null) {
+			params.putAll(continueMap);
+		}
+		
+		return ApiClient.get(params, PageInfoResult.class);
+	}
+	
+	/**
+	 * Get all pages embedding the given title with their latest revision IDs and touched timestamps
+	 * Costs the same number of requests as getPageIds, so it can be used to find edited pages cheaply
+	 * @param eiTitle	The title to retrieve results for
+	 * @return			Page info keyed by page ID
+	 */
+	public static Map<Integer, PageInfo> getPageInfo(String eiTitle) {
+		Map<Integer, PageInfo> pageInfo = new LinkedHashMap<Integer, PageInfo>();
+		
+		PageInfoResult result = runInfoQuery(eiTitle, null);
+		while (true) {
+			// Pages left out of a truncated listing would count as removed, so a missing or error response stops the update instead
+			if (result==null || result.error!=null || (result.query==null && result.continue_==null)) {
+				throw new IllegalStateException(getFailureMessage(eiTitle, result==null ? null : result.error, pageInfo.size()));
+			}
+			if (result.query!=null && result.query.pages!=null) {
+				for (PageInfo info:result.query.pages) {
+					pageInfo.put(info.pageid, info);
+				}
+			}
+			
+			if (result.continue_!=null) {
+				result = runInfoQuery(eiTitle, result.continue_);
+			} else {
+				break;
+			}
+		}
+		
+		return pageInfo;
+	}
+	
+	private static String getFailureMessage(String eiTitle, ParseQuery.Error error, int count) {
+		return "Embedded-in query for " + eiTitle + " failed after " + count + " pages ("
+				+ (error!=null ? error.code + ": " + error.info : "no results returned") + ")";
+	}
 }
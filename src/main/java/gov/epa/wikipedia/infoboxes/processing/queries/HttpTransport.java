@@ -0,0 +1,73 @@
+package gov.epa.wikipedia.infoboxes.processing.queries;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Interface for the HTTP client that sends MediaWiki API requests (see ApiClient)
+ * Implementations should negotiate gzip, reuse pooled keep-alive connections, and time out instead of hanging
+ * @author GSINCL01
+ *
+ */
+public interface HttpTransport {
+
+	/**
+	 * Available transports
+	 * JDK			HttpURLConnection, with gzip and the JDK's keep-alive connection cache (see JdkTransport)
+	 * UNIREST		Unirest, over its pooled Apache HttpClient (see UnirestTransport)
+	 */
+	public enum Backend {
+		JDK,
+		UNIREST
+	}
+
+	/**
+	 * A response with its body decoded to a string
+	 */
+	public static class Response {
+		public int status;
+		public String body;
+		// Header names are stored in lower case
+		public Map<String, String> headers = new LinkedHashMap<String, String>();
+
+		public Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		/**
+		 * Get a header value, ignoring the case of the name
+		 * @param name	The header name
+		 * @return		The first value of the header, or null if it was not sent
+		 */
+		public String getHeader(String name) {
+			return headers.get(name.toLowerCase(Locale.ROOT));
+		}
+
+		public Response withHeader(String name, String value) {
+			headers.put(name.toLowerCase(Locale.ROOT), value);
+			return this;
+		}
+	}
+
+	/**
+	 * Send a GET request
+	 * @param url			The endpoint URL
+	 * @param params		The query parameters, in order
+	 * @param headers		Extra request headers (e.g. If-None-Match)
+	 * @return				The response, whatever its status
+	 * @throws IOException	If the request could not be sent or the response could not be read
+	 */
+	Response get(String url, Map<String, Object> params, Map<String, String> headers) throws IOException;
+
+	/**
+	 * Send a POST request with form fields
+	 * @param url			The endpoint URL
+	 * @param fields		The form fields, in order
+	 * @return				The response, whatever its status
+	 * @throws IOException	If the request could not be sent or the response could not be read
+	 */
+	Response post(String url, Map<String, Object> fields) throws IOException;
+}
@@ -0,0 +1,174 @@
+package gov.epa.wikipedia.infoboxes.processing.queries;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.Metrics;
+
+/**
+ * Class to send API requests with the JDK's HttpURLConnection
+ * Requests ask for gzip (API responses are mostly HTML and JSON, which compress several times over), and every response
+ * body is read to the end, so that the JDK keeps its connection alive for the next request to the same host
+ * Up to http.maxConnections idle connections are kept per host; unless set on the command line, it is raised to
+ * WikipediaInfoboxesDict.FETCH_MAX_PER_HOST so that parallel fetches do not reconnect
+ * HttpURLConnection only speaks HTTP/1.1 (the Java 8 build has no HTTP/2 client), so each connection carries one request at a time
+ * @author GSINCL01
+ *
+ */
+public class JdkTransport implements HttpTransport {
+
+	/**
+	 * Stream that counts the bytes read through it, i.e., the compressed size of a response on the wire
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b!=-1) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+	}
+
+	static {
+		if (System.getProperty("http.maxConnections")==null) {
+			System.setProperty("http.maxConnections", String.valueOf(WikipediaInfoboxesDict.FETCH_MAX_PER_HOST));
+		}
+	}
+
+	private int connectTimeoutMillis;
+	private int readTimeoutMillis;
+
+	public JdkTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	/**
+	 * Create a transport with the timeouts in WikipediaInfoboxesDict
+	 * @return	The transport
+	 */
+	public static JdkTransport withDefaults() {
+		return new JdkTransport(WikipediaInfoboxesDict.HTTP_CONNECT_TIMEOUT_SECONDS * 1000,
+				WikipediaInfoboxesDict.HTTP_READ_TIMEOUT_SECONDS * 1000);
+	}
+
+	@Override
+	public Response get(String url, Map<String, Object> params, Map<String, String> headers) throws IOException {
+		String query = encode(params);
+		HttpURLConnection conn = open(query.isEmpty() ? url : url + "?" + query);
+		conn.setRequestMethod("GET");
+		for (Map.Entry<String, String> header:headers.entrySet()) {
+			conn.setRequestProperty(header.getKey(), header.getValue());
+		}
+
+		return read(conn);
+	}
+
+	@Override
+	public Response post(String url, Map<String, Object> fields) throws IOException {
+		byte[] form = encode(fields).getBytes(StandardCharsets.UTF_8);
+		HttpURLConnection conn = open(url);
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+		conn.setFixedLengthStreamingMode(form.length);
+		try (OutputStream out = conn.getOutputStream()) {
+			out.write(form);
+		}
+
+		return read(conn);
+	}
+
+	private HttpURLConnection open(String url) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		conn.setConnectTimeout(connectTimeoutMillis);
+		conn.setReadTimeout(readTimeoutMillis);
+		conn.setUseCaches(false);
+		conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+		conn.setRequestProperty("User-Agent", WikipediaInfoboxesDict.HTTP_USER_AGENT);
+		return conn;
+	}
+
+	/**
+	 * Read the status, headers, and decoded body of a response
+	 * The body stream is drained and closed even for error statuses, which returns the connection to the keep-alive cache
+	 */
+	private static Response read(HttpURLConnection conn) throws IOException {
+		int status = conn.getResponseCode();
+		InputStream stream = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+		byte[] bytes = new byte[0];
+		if (stream!=null) {
+			CountingInputStream raw = new CountingInputStream(stream);
+			String encoding = conn.getContentEncoding();
+			try (InputStream in = "gzip".equalsIgnoreCase(encoding) ? new GZIPInputStream(raw, 1 << 16)
+					: "deflate".equalsIgnoreCase(encoding) ? new InflaterInputStream(raw) : raw) {
+				bytes = readAll(in);
+			}
+			Metrics.add("http_wire_bytes_total", Metrics.labels("encoding", encoding==null ? "identity" : encoding), raw.count);
+		}
+
+		Response response = new Response(status, new String(bytes, StandardCharsets.UTF_8));
+		for (Map.Entry<String, List<String>> header:conn.getHeaderFields().entrySet()) {
+			// The status line is listed under a null name
+			if (header.getKey()!=null && !header.getValue().isEmpty()) {
+				response.withHeader(header.getKey(), header.getValue().get(0));
+			}
+		}
+
+		return response;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1 << 16];
+		int n;
+		while ((n = in.read(buffer))!=-1) {
+			out.write(buffer, 0, n);
+		}
+
+		return out.toByteArray();
+	}
+
+	private static String encode(Map<String, Object> params) throws UnsupportedEncodingException {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Object> param:params.entrySet()) {
+			if (sb.length() > 0) {
+				sb.append('&');
+			}
+			sb.append(URLEncoder.encode(param.getKey(), "UTF-8")).append('=')
+				.append(URLEncoder.encode(String.valueOf(param.getValue()), "UTF-8"));
+		}
+
+		return sb.toString();
+	}
+}
@@ -1,10 +1,9 @@
 package gov.epa.wikipedia.infoboxes.processing.queries;
 
-import com.google.gson.annotations.SerializedName;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
-import kong.unirest.HttpResponse;
-import kong.unirest.Unirest;
+import com.google.gson.annotations.SerializedName;
 
 /**
  * Class to run the Media Wiki "parse" query for page content and properties
@@ -33,6 +32,7 @@ public class ParseQuery {
 	public static class Parse {
 		public String title;
 		public Integer pageid;
+		public Long revid;
 		public Text text;
 		
 		// If we just need a fast query to associate page ID and title, use this instead of full text
@@ -68,18 +68,32 @@ public class ParseQuery {
 	 * @return			A result set with page info and contents
 	 */
 	public static ParseResult run(Integer pageId, String prop) {
-		HttpResponse<ParseResult> response = Unirest.get(WikipediaInfoboxesDict.WIKIPEDIA_API_URL)
-				.queryString("action", "parse")
-				.queryString("pageid", pageId)
-				.queryString("prop", prop)
-				.queryString("format", "json")
-				.asObject(ParseResult.class);
+		Map<String, Object> params = new LinkedHashMap<String, Object>();
+		params.put("action", "parse");
+		params.put("pageid", pageId);
+		params.put("prop", prop);
+		params.put("format", "json");
 		
-		if (response.getStatus()==200) {
-			return response.getBody();
-		} else {
-			return null;
-		}
+		return ApiClient.get(params, ParseResult.class);
+	}
+	
+	/**
+	 * Send a request to get the HTML contents of one section of a page (section 0 is the lead, above the first heading)
+	 * @param pageId	The page ID to retrieve contents for
+	 * @param prop		The property to retrieve contents for
+	 * @param section	The section number
+	 * @return			A result set with page info and the section's contents
+	 */
+	public static ParseResult runSection(Integer pageId, String prop, int section) {
+		Map<String, Object> params = new LinkedHashMap<String, Object>();
+		params.put("action", "parse");
+		params.put("pageid", pageId);
+		params.put("prop", prop);
+		params.put("section", section);
+		params.put("disablelimitreport", "1");
+		params.put("format", "json");
+		
+		return ApiClient.get(params, ParseResult.class);
 	}
 	
 	/**
@@ -89,17 +103,31 @@ public class ParseQuery {
 	 * @return		A result set with page info and contents
 	 */
 	public static ParseResult run(String page, String prop) {
-		HttpResponse<ParseResult> response = Unirest.get(WikipediaInfoboxesDict.WIKIPEDIA_API_URL)
-				.queryString("action", "parse")
-				.queryString("page", page)
-				.queryString("prop", prop)
-				.queryString("format", "json")
-				.asObject(ParseResult.class);
+		Map<String, Object> params = new LinkedHashMap<String, Object>();
+		params.put("action", "parse");
+		params.put("page", page);
+		params.put("prop", prop);
+		params.put("format", "json");
+		
+		return ApiClient.get(params, ParseResult.class);
+	}
+	
+	/**
+	 * Send a request to render arbitrary wikitext to HTML (sent as a POST, since the text can be long)
+	 * @param text	The wikitext to render
+	 * @param title	The page title to render the text as
+	 * @return		A result set with the rendered contents
+	 */
+	public static ParseResult runText(String text, String title) {
+		Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		fields.put("action", "parse");
+		fields.put("text", text);
+		fields.put("title", title);
+		fields.put("contentmodel", "wikitext");
+		fields.put("prop", "text");
+		fields.put("disablelimitreport", "1");
+		fields.put("format", "json");
 		
-		if (response.getStatus()==200) {
-			return response.getBody();
-		} else {
-			return null;
-		}
+		return ApiClient.post(fields, ParseResult.class);
 	}
 }
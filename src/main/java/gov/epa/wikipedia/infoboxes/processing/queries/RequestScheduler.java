@@ -0,0 +1,311 @@
+package gov.epa.wikipedia.infoboxes.processing.queries;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.Metrics;
+import gov.epa.wikipedia.infoboxes.processing.queries.HttpTransport.Response;
+import kong.unirest.Unirest;
+
+/**
+ * Class to pace API requests to the rate the server allows, retrying the requests it turns away (see ApiClient)
+ * Requests refused with 429 or 5xx or a maxlag or ratelimited error, or failing with an IOException, are retried after the
+ * server's Retry-After delay if it sent one (holding back every request until then), otherwise after an exponential backoff with full jitter
+ * Requests in flight are limited AIMD-style: the limit is halved when the server pushes back and grows by one after each
+ * limit's worth of successes, up to the maximum given
+ * Page IDs of retried and failed requests are kept for the summary printed by printStats
+ * @author GSINCL01
+ *
+ */
+public class RequestScheduler {
+
+	/**
+	 * Code sending a single attempt of a request
+	 */
+	public interface Attempt {
+		Response send() throws IOException;
+	}
+
+	/**
+	 * Json wrapper class for a MediaWiki error response, e.g. {"error":{"code":"maxlag","info":"Waiting for a database server: 6 seconds lagged."}}
+	 */
+	public static class ErrorResult {
+		public ErrorInfo error;
+	}
+
+	/**
+	 * "Error" element of a MediaWiki error response
+	 */
+	public static class ErrorInfo {
+		public String code;
+		public String info;
+	}
+
+	private int maxInFlight;
+	private int maxAttempts;
+	private long baseDelayMillis;
+	private long maxDelayMillis;
+
+	private int limit;
+	private int lowestLimit;
+	private int inFlight;
+	private int successes; // Since the limit last grew or shrank
+	private long epoch; // Incremented each time the limit is halved, so that one burst of errors halves it only once
+	private long pausedUntil;
+
+	private long retries;
+	private long failures;
+	private Set<Integer> retriedPageIds = new TreeSet<Integer>();
+	private Set<Integer> failedPageIds = new TreeSet<Integer>();
+
+	public RequestScheduler(int maxInFlight, int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.baseDelayMillis = Math.max(1, baseDelayMillis);
+		this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+		this.limit = this.maxInFlight;
+		this.lowestLimit = this.maxInFlight;
+	}
+
+	/**
+	 * Create a request scheduler with the default settings from WikipediaInfoboxesDict
+	 * @return	A request scheduler
+	 */
+	public static RequestScheduler withDefaults() {
+		return new RequestScheduler(WikipediaInfoboxesDict.FETCH_MAX_PER_HOST, WikipediaInfoboxesDict.API_MAX_ATTEMPTS,
+				WikipediaInfoboxesDict.API_RETRY_BASE_DELAY_MILLIS, WikipediaInfoboxesDict.API_RETRY_MAX_DELAY_MILLIS);
+	}
+
+	/**
+	 * Send a request once a slot is free, retrying it until the server accepts it or the attempts run out
+	 * @param query		The kind of request, for metrics and messages (e.g. parse)
+	 * @param params	The request parameters, to find the page IDs the request is for
+	 * @param attempt	The code sending one attempt of the request
+	 * @return			The response, with status 200 or 304
+	 * @throws UncheckedIOException	If the request failed with another status, or every attempt was turned away
+	 */
+	public Response send(String query, Map<String, Object> params, Attempt attempt) {
+		for (int attempts = 1; ; attempts++) {
+			long startEpoch = acquire();
+			Response response = null;
+			IOException error = null;
+			try {
+				response = attempt.send();
+			} catch (IOException e) {
+				error = e;
+			} finally {
+				release();
+			}
+
+			String reason = error!=null ? "io_error" : getRetryReason(response);
+			if (reason==null && (response.status==200 || response.status==304)) {
+				recordSuccess();
+				return response;
+			} else if (reason==null) {
+				recordFailure(query, params);
+				throw new UncheckedIOException(new IOException("HTTP " + response.status + " for " + describe(query, params)));
+			}
+
+			long retryAfterMillis = getRetryAfterMillis(response);
+			recordPushback(query, reason, startEpoch, retryAfterMillis);
+			if (attempts >= maxAttempts) {
+				recordFailure(query, params);
+				throw new UncheckedIOException(new IOException("Gave up on " + describe(query, params) + " after " + attempts
+						+ " attempts (" + (error!=null ? error.toString() : reason) + ")", error));
+			}
+
+			recordRetry(params);
+			if (retryAfterMillis < 0) {
+				// Without a Retry-After delay, each request backs off on its own so that retries spread out
+				sleep(ThreadLocalRandom.current().nextLong(getBackoffCapMillis(attempts) + 1));
+			}
+		}
+	}
+
+	/**
+	 * Get the reason to retry a response, if the server turned the request away rather than answering it
+	 * @param response	The response
+	 * @return			The reason (e.g. "429" or "maxlag"), or null if the response should not be retried
+	 */
+	static String getRetryReason(Response response) {
+		int status = response.status;
+		if (status==429 || status==500 || status==502 || status==503 || status==504) {
+			return String.valueOf(status);
+		} else if (status==200 && response.body!=null && response.body.startsWith("{\"error\"")) {
+			ErrorResult result = Unirest.config().getObjectMapper().readValue(response.body, ErrorResult.class);
+			String code = result==null || result.error==null ? null : result.error.code;
+			if ("maxlag".equals(code) || "ratelimited".equals(code)) {
+				return code;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Read the Retry-After header of a response, given either in seconds or as an HTTP date
+	 * @param response	The response, or null if the request failed without one
+	 * @return			The delay in milliseconds, or -1 if none was sent
+	 */
+	static long getRetryAfterMillis(Response response) {
+		String value = response==null ? null : response.getHeader("Retry-After");
+		if (value==null || value.trim().isEmpty()) {
+			return -1;
+		}
+
+		try {
+			return Math.max(0, Long.parseLong(value.trim()) * 1000);
+		} catch (NumberFormatException e) {
+			try {
+				long retryAt = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+				return Math.max(0, retryAt - System.currentTimeMillis());
+			} catch (DateTimeParseException e2) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Get the longest backoff before a retry, which doubles with each attempt up to the maximum delay
+	 */
+	private long getBackoffCapMillis(int attempts) {
+		return Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempts - 1, 30));
+	}
+
+	/**
+	 * Wait until requests are not held back and fewer than the limit are in flight, then take a slot
+	 * @return	The epoch the request was sent in
+	 */
+	private synchronized long acquire() {
+		try {
+			long waitMillis = pausedUntil - System.currentTimeMillis();
+			while (waitMillis > 0 || inFlight >= limit) {
+				wait(Math.max(waitMillis, 0));
+				waitMillis = pausedUntil - System.currentTimeMillis();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting to send request", e);
+		}
+
+		inFlight++;
+		return epoch;
+	}
+
+	private synchronized void release() {
+		inFlight--;
+		notifyAll();
+	}
+
+	private synchronized void recordSuccess() {
+		if (++successes >= limit) {
+			successes = 0;
+			if (limit < maxInFlight) {
+				limit++;
+				Metrics.set("http_concurrency_limit", "", limit);
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Halve the limit, unless it was already halved after this request was sent, and hold back every request until
+	 * the server's Retry-After delay has passed
+	 */
+	private synchronized void recordPushback(String query, String reason, long startEpoch, long retryAfterMillis) {
+		Metrics.increment("http_retries_total", Metrics.labels("query", query, "reason", reason));
+		if (startEpoch==epoch) {
+			epoch++;
+			successes = 0;
+			limit = Math.max(1, limit / 2);
+			lowestLimit = Math.min(lowestLimit, limit);
+			Metrics.set("http_concurrency_limit", "", limit);
+		}
+
+		if (retryAfterMillis > 0) {
+			pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + retryAfterMillis);
+		}
+	}
+
+	private synchronized void recordRetry(Map<String, Object> params) {
+		retries++;
+		retriedPageIds.addAll(getPageIds(params));
+	}
+
+	private synchronized void recordFailure(String query, Map<String, Object> params) {
+		failures++;
+		failedPageIds.addAll(getPageIds(params));
+		Metrics.increment("http_failures_total", Metrics.labels("query", query));
+	}
+
+	/**
+	 * Get the page IDs a request is for, from its pageid or pageids parameter
+	 */
+	private static List<Integer> getPageIds(Map<String, Object> params) {
+		List<Integer> pageIds = new ArrayList<Integer>();
+		Object value = params.containsKey("pageid") ? params.get("pageid") : params.get("pageids");
+		if (value==null) {
+			return pageIds;
+		}
+
+		for (String pageId:String.valueOf(value).split("\\|")) {
+			try {
+				pageIds.add(Integer.valueOf(pageId.trim()));
+			} catch (NumberFormatException e) {
+				// Not a page ID, so there is nothing to report
+			}
+		}
+		return pageIds;
+	}
+
+	private static String describe(String query, Map<String, Object> params) {
+		List<Integer> pageIds = getPageIds(params);
+		return query + " request" + (pageIds.isEmpty() ? "" : " for page " + pageIds.stream().map(String::valueOf).collect(Collectors.joining(", ")));
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting to retry request", e);
+		}
+	}
+
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	public synchronized Set<Integer> getRetriedPageIds() {
+		return new TreeSet<Integer>(retriedPageIds);
+	}
+
+	public synchronized Set<Integer> getFailedPageIds() {
+		return new TreeSet<Integer>(failedPageIds);
+	}
+
+	/**
+	 * Print how many requests were retried or failed, with the page IDs they were for
+	 */
+	public synchronized void printStats() {
+		System.out.println("Request scheduler: " + retries + " retries, " + failures + " failed requests; "
+				+ "requests at once limited to between " + lowestLimit + " and " + maxInFlight + " (" + limit + " at the end)");
+		if (!retriedPageIds.isEmpty()) {
+			System.out.println("Retried " + retriedPageIds.size() + " pages: " + retriedPageIds.stream().map(String::valueOf).collect(Collectors.joining(", ")));
+		}
+		if (!failedPageIds.isEmpty()) {
+			System.out.println("Failed " + failedPageIds.size() + " pages: " + failedPageIds.stream().map(String::valueOf).collect(Collectors.joining(", ")));
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package gov.epa.wikipedia.infoboxes.processing.queries;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.Metrics;
+
+/**
+ * Class to keep MediaWiki API responses on disk, so that repeated requests (e.g. after a crashed or retried run) skip the network
+ * Entries are keyed by the request parameters and evicted least recently used first once the cache is over its size limit
+ * Each entry is one gzipped JSON file named by the SHA-256 hash of its key; file modification times record last use across runs
+ * @author GSINCL01
+ *
+ */
+public class ResponseCache {
+
+	/**
+	 * Modes for using the cache
+	 * @author GSINCL01
+	 *
+	 */
+	public enum Mode {
+		OFF,			// Send every request, as in earlier versions
+		READ_WRITE,		// Reuse fresh entries, revalidate stale ones, and store new responses
+		OFFLINE			// Answer only from the cache (of any age) and never send requests
+	}
+
+	/**
+	 * A cached response body with the validators the server sent for it
+	 * @author GSINCL01
+	 *
+	 */
+	public static class Entry {
+		public String key;
+		public String etag;
+		public String lastModified;
+		public long fetchedAt;
+		public String body;
+
+		/**
+		 * Check if the entry can be used without asking the server
+		 * @param maxAgeMillis	The maximum age of a usable entry
+		 * @return				True if the entry was fetched or revalidated within the maximum age
+		 */
+		public boolean isFresh(long maxAgeMillis) {
+			return System.currentTimeMillis() - fetchedAt <= maxAgeMillis;
+		}
+
+		/**
+		 * Check if the server sent anything to revalidate the entry with
+		 * @return	True if the entry has an ETag or Last-Modified date
+		 */
+		public boolean hasValidators() {
+			return etag!=null || lastModified!=null;
+		}
+	}
+
+	private static Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+	private File folder;
+	private long maxBytes;
+	private long maxAgeMillis;
+	private Mode mode;
+
+	// Entry file names to sizes, in least to most recently used order
+	private LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long totalBytes;
+
+	private int hits;
+	private int revalidations;
+	private int misses;
+
+	public ResponseCache(String folderPath, long maxBytes, long maxAgeSeconds, Mode mode) {
+		this.folder = new File(folderPath);
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeSeconds * 1000;
+		this.mode = mode;
+		load();
+	}
+
+	/**
+	 * Create a response cache with the default settings from WikipediaInfoboxesDict
+	 * @return	A response cache
+	 */
+	public static ResponseCache withDefaults() {
+		return new ResponseCache(WikipediaInfoboxesDict.RESPONSE_CACHE_FOLDER_PATH, WikipediaInfoboxesDict.RESPONSE_CACHE_MAX_BYTES,
+				WikipediaInfoboxesDict.RESPONSE_CACHE_MAX_AGE_SECONDS, WikipediaInfoboxesDict.RESPONSE_CACHE_MODE);
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public long getMaxAgeMillis() {
+		return maxAgeMillis;
+	}
+
+	/**
+	 * Get a cached response
+	 * @param key	The request key (see ApiClient)
+	 * @return		The entry, or null if there is none (or it cannot be read)
+	 */
+	public Entry get(String key) {
+		String name = fileName(key);
+		synchronized (this) {
+			if (entries.get(name)==null) {
+				return null;
+			}
+		}
+
+		File file = new File(folder, name);
+		try (Reader reader = new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8)) {
+			Entry entry = gson.fromJson(reader, Entry.class);
+			if (entry==null || !key.equals(entry.key)) {
+				return null;
+			}
+
+			file.setLastModified(System.currentTimeMillis());
+			return entry;
+		} catch (IOException | JsonParseException e) {
+			// A damaged entry is treated as missing and overwritten by the next response
+			return null;
+		}
+	}
+
+	/**
+	 * Store a response, evicting least recently used entries if the cache is over its size limit
+	 * @param entry	The entry to store
+	 */
+	public void put(Entry entry) {
+		String name = fileName(entry.key);
+		File file = new File(folder, name);
+		File tempFile = new File(folder, name + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			folder.mkdirs();
+			try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tempFile)), StandardCharsets.UTF_8)) {
+				gson.toJson(entry, writer);
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			// The cache is an optimization, so failing to write it never fails the request
+			tempFile.delete();
+			return;
+		}
+
+		synchronized (this) {
+			Long oldSize = entries.put(name, file.length());
+			totalBytes += file.length() - (oldSize==null ? 0 : oldSize);
+			evict();
+		}
+	}
+
+	/**
+	 * Record a request served by the cache, for the summary printed by printStats
+	 * @param revalidated	True if the server was asked and confirmed the entry was unchanged
+	 */
+	public synchronized void recordHit(boolean revalidated) {
+		if (revalidated) {
+			revalidations++;
+		} else {
+			hits++;
+		}
+		Metrics.increment("cache_requests_total", Metrics.labels("result", revalidated ? "revalidated" : "hit"));
+	}
+
+	/**
+	 * Record a request the cache could not serve
+	 */
+	public synchronized void recordMiss() {
+		misses++;
+		Metrics.increment("cache_requests_total", Metrics.labels("result", "miss"));
+	}
+
+	/**
+	 * Print how many requests the cache served and how large it is
+	 */
+	public synchronized void printStats() {
+		System.out.println("Response cache: " + hits + " hits, " + revalidations + " revalidated, " + misses + " misses; "
+				+ entries.size() + " entries (" + totalBytes / (1024 * 1024) + " MB)");
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Remove every entry
+	 */
+	public synchronized void clear() {
+		for (String name:entries.keySet()) {
+			new File(folder, name).delete();
+		}
+		entries.clear();
+		totalBytes = 0;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			new File(folder, eldest.getKey()).delete();
+			totalBytes -= eldest.getValue();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Rebuild the recency order from file modification times
+	 */
+	private void load() {
+		File[] files = folder.listFiles((dir, name) -> name.endsWith(".json.gz"));
+		if (files==null) {
+			return;
+		}
+
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file:files) {
+			entries.put(file.getName(), file.length());
+			totalBytes += file.length();
+		}
+		evict();
+	}
+
+	private static String fileName(String key) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder(hash.length * 2 + 8);
+			for (byte b:hash) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.append(".json.gz").toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package gov.epa.wikipedia.infoboxes.processing.queries;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.google.gson.annotations.SerializedName;
+
+
+/**
+ * Class to run the Media Wiki "query" action with the "revisions" prop for the latest wikitext of many pages at once
+ * API doc: https://www.mediawiki.org/wiki/API:Revisions
+ * @author GSINCL01
+ *
+ */
+public class RevisionsQuery {
+
+	/**
+	 * Json wrapper class for result of revisions query (formatversion=2)
+	 * @author GSINCL01
+	 *
+	 */
+	public static class RevisionsResult {
+		public Boolean batchcomplete;
+		@SerializedName("continue")
+		public Map<String, String> continue_;
+		public Query query;
+	}
+
+	/**
+	 * "Query" element of result of revisions query
+	 * @author GSINCL01
+	 *
+	 */
+	public static class Query {
+		public List<Page> pages;
+	}
+
+	/**
+	 * "Page" element of result of revisions query
+	 * @author GSINCL01
+	 *
+	 */
+	public static class Page {
+		public Integer pageid;
+		public String title;
+		public Boolean missing;
+		public List<Revision> revisions;
+
+		/**
+		 * Get the wikitext of the latest revision, if it was returned
+		 * @return	The wikitext, or null if not (yet) returned
+		 */
+		public String getWikitext() {
+			if (revisions==null || revisions.isEmpty() || revisions.get(0).slots==null || revisions.get(0).slots.main==null) {
+				return null;
+			}
+
+			return revisions.get(0).slots.main.content;
+		}
+
+		/**
+		 * Get the ID of the latest revision, if it was returned
+		 * @return	The revision ID, or null if not (yet) returned
+		 */
+		public Long getRevId() {
+			if (revisions==null || revisions.isEmpty()) {
+				return null;
+			}
+
+			return revisions.get(0).revid;
+		}
+	}
+
+	/**
+	 * "Revision" element of result of revisions query
+	 * @author GSINCL01
+	 *
+	 */
+	public static class Revision {
+		public Long revid;
+		public String timestamp;
+		public Slots slots;
+	}
+
+	/**
+	 * "Slots" element of result of revisions query
+	 * @author GSINCL01
+	 *
+	 */
+	public static class Slots {
+		public Slot main;
+	}
+
+	/**
+	 * "Slot" element of result of revisions query
+	 * @author GSINCL01
+	 *
+	 */
+	public static class Slot {
+		public String contentmodel;
+		public String content;
+	}
+
+	/**
+	 * Send a single request for the latest revisions of a batch of pages
+	 * @param pageIds		The page IDs to retrieve (at most WikipediaInfoboxesDict.QUERY_BATCH_SIZE)
+	 * @param continueMap	The continue parameters from the last response, or null for the first request
+	 * @return				A result set with page revisions and continuation info
+	 */
+	private static RevisionsResult runSingleQuery(List<Integer> pageIds, Map<String, String> continueMap) {
+		Map<String, Object> params = new LinkedHashMap<String, Object>();
+		params.put("action", "query");
+		params.put("prop", "revisions");
+		params.put("rvprop", "ids|timestamp|content");
+		params.put("rvslots", "main");
+		params.put("pageids", pageIds.stream().map(String::valueOf).collect(Collectors.joining("|")));
+		params.put("formatversion", "2");
+		params.put("format", "json");
+		if (continueMap!=null) {
+			params.putAll(continueMap);
+		}
+
+		return ApiClient.get(params, RevisionsResult.class);
+	}
+
+	/**
+	 * Get the latest revisions of a batch of pages, following continuation until every page in the batch is complete
+	 * Large pages may not all fit in one response, in which case the API returns a partial batch and a continue code
+	 * @param pageIds	The page IDs to retrieve (at most WikipediaInfoboxesDict.QUERY_BATCH_SIZE)
+	 * @return			The pages in the same order as the page IDs (pages missing from the response are left out)
+	 */
+	public static List<Page> run(List<Integer> pageIds) {
+		Map<Integer, Page> pagesById = new LinkedHashMap<Integer, Page>();
+
+		RevisionsResult result = runSingleQuery(pageIds, null);
+		while (result!=null) {
+			if (result.query!=null && result.query.pages!=null) {
+				for (Page page:result.query.pages) {
+					if (page.pageid==null) {
+						continue;
+					}
+
+					// Keep whichever response actually carried the revision content for this page
+					Page existing = pagesById.get(page.pageid);
+					if (existing==null || existing.getWikitext()==null) {
+						pagesById.put(page.pageid, page);
+					}
+				}
+			}
+
+			if (result.continue_!=null) {
+				result = runSingleQuery(pageIds, result.continue_);
+			} else {
+				break;
+			}
+		}
+
+		List<Page> pages = new ArrayList<Page>();
+		for (Integer pageId:pageIds) {
+			Page page = pagesById.get(pageId);
+			if (page!=null) {
+				pages.add(page);
+			}
+		}
+
+		return pages;
+	}
+
+	/**
+	 * Split a list of page IDs into batches of the maximum size allowed by the API
+	 * @param pageIds	The page IDs to split
+	 * @param batchSize	The maximum batch size (50 for regular users, 500 for bots)
+	 * @return			A list of batches, in order
+	 */
+	public static List<List<Integer>> toBatches(List<Integer> pageIds, int batchSize) {
+		List<List<Integer>> batches = new ArrayList<List<Integer>>();
+		for (int i = 0; i < pageIds.size(); i += batchSize) {
+			batches.add(new ArrayList<Integer>(pageIds.subList(i, Math.min(i + batchSize, pageIds.size()))));
+		}
+
+		return batches;
+	}
+}
@@ -0,0 +1,68 @@
+package gov.epa.wikipedia.infoboxes.processing.queries;
+
+import java.io.IOException;
+import java.util.Map;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import kong.unirest.Header;
+import kong.unirest.HttpResponse;
+import kong.unirest.Unirest;
+import kong.unirest.UnirestException;
+
+/**
+ * Class to send API requests with Unirest, as in earlier versions
+ * Unirest's Apache HttpClient already asks for gzip and pools keep-alive connections; the pool is sized to
+ * WikipediaInfoboxesDict.FETCH_MAX_PER_HOST per host, and requests time out after the configured timeouts
+ * @author GSINCL01
+ *
+ */
+public class UnirestTransport implements HttpTransport {
+
+	public UnirestTransport(int connectTimeoutMillis, int socketTimeoutMillis) {
+		try {
+			Unirest.config().cookieSpec("standard").connectTimeout(connectTimeoutMillis).socketTimeout(socketTimeoutMillis)
+				.concurrency(Math.max(WikipediaInfoboxesDict.FETCH_MAX_PER_HOST, 200), WikipediaInfoboxesDict.FETCH_MAX_PER_HOST)
+				.setDefaultHeader("User-Agent", WikipediaInfoboxesDict.HTTP_USER_AGENT);
+		} catch (Exception e) {
+			// Ignore if Unirest already configured
+		}
+	}
+
+	/**
+	 * Create a transport with the timeouts in WikipediaInfoboxesDict
+	 * @return	The transport
+	 */
+	public static UnirestTransport withDefaults() {
+		return new UnirestTransport(WikipediaInfoboxesDict.HTTP_CONNECT_TIMEOUT_SECONDS * 1000,
+				WikipediaInfoboxesDict.HTTP_READ_TIMEOUT_SECONDS * 1000);
+	}
+
+	@Override
+	public Response get(String url, Map<String, Object> params, Map<String, String> headers) throws IOException {
+		try {
+			return toResponse(Unirest.get(url).queryString(params).headers(headers).asString());
+		} catch (UnirestException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public Response post(String url, Map<String, Object> fields) throws IOException {
+		try {
+			return toResponse(Unirest.post(url).fields(fields).asString());
+		} catch (UnirestException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	private static Response toResponse(HttpResponse<String> httpResponse) {
+		Response response = new Response(httpResponse.getStatus(), httpResponse.getBody());
+		for (Header header:httpResponse.getHeaders().all()) {
+			if (response.getHeader(header.getName())==null) {
+				response.withHeader(header.getName(), header.getValue());
+			}
+		}
+
+		return response;
+	}
+}
@@ -0,0 +1,100 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet;
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet.Kind;
+import gov.epa.wikipedia.infoboxes.processing.data.Infobox;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+
+/**
+ * Tests that files archived to the ArchiveStore are restored unchanged from their snapshots
+ * @author GSINCL01
+ *
+ */
+public class ArchiveStoreTest {
+
+	private static List<PageHtml> samplePages(String suffix) {
+		List<PageHtml> pages = new ArrayList<PageHtml>();
+		for (int pageId = 1; pageId <= 3; pageId++) {
+			PageHtml html = new PageHtml("Page " + pageId, pageId, Arrays.asList("<table class=\"infobox\">" + pageId + suffix + "</table>",
+					"<table class=\"infobox\">shared</table>"));
+			html.lastRevId = 100L + pageId;
+			html.touched = "2024-01-0" + pageId + "T00:00:00Z";
+			pages.add(html);
+		}
+		pages.add(new PageHtml("No infoboxes", 4, new ArrayList<String>()));
+		return pages;
+	}
+
+	@Test
+	public void restoresPageHtml() throws IOException {
+		List<PageHtml> pages = samplePages("");
+		PageDownloader.savePageHtml(pages, "archive_test_raw_html.ndjson");
+		String snapshotName = ArchiveStore.archivePageHtmlFile("archive_test_raw_html.ndjson");
+		assertTrue(ArchiveStore.listSnapshots("archive_test_raw_html.ndjson").contains(snapshotName));
+
+		// Objects already stored are shared with this snapshot, and the others are added
+		List<PageHtml> editedPages = samplePages(" edited");
+		PageDownloader.savePageHtml(editedPages, "archive_test_edited_raw_html.ndjson");
+		String editedSnapshotName = ArchiveStore.archivePageHtmlFile("archive_test_edited_raw_html.ndjson");
+
+		assertSamePages(pages, ArchiveStore.restorePageHtml(snapshotName));
+		assertSamePages(editedPages, ArchiveStore.restorePageHtml(editedSnapshotName));
+	}
+
+	@Test
+	public void restoresParsedPages() throws IOException {
+		List<ParsedPage> parsedPages = new ArrayList<ParsedPage>();
+		for (int pageId = 1; pageId <= 3; pageId++) {
+			ParsedPage page = new ParsedPage("Page " + pageId, pageId);
+			Infobox infobox = new Infobox();
+			infobox.infoboxTitle = "Infobox " + pageId;
+			infobox.casrns = IdentifierSet.of(Kind.CASRN, Arrays.asList("50-00-0", "64-17-5"));
+			infobox.inchikeys = IdentifierSet.of(Kind.INCHIKEY, Arrays.asList("WSFSSNUMVMOOMR-UHFFFAOYSA-N"));
+			page.infoboxes.add(infobox);
+			page.sourceHash = "hash" + pageId;
+			page.extractorVersion = Infobox.EXTRACTOR_VERSION;
+			parsedPages.add(page);
+		}
+		PageParser.saveParsedPages(parsedPages, "archive_test_parsed_data.ndjson");
+
+		List<ParsedPage> restored = ArchiveStore.restoreParsedPages(ArchiveStore.archiveParsedPagesFile("archive_test_parsed_data.ndjson"));
+		assertEquals(parsedPages.size(), restored.size());
+		for (int i = 0; i < parsedPages.size(); i++) {
+			assertEquals(parsedPages.get(i).pageId, restored.get(i).pageId);
+			assertEquals(parsedPages.get(i).title, restored.get(i).title);
+			assertEquals(parsedPages.get(i).sourceHash, restored.get(i).sourceHash);
+			assertEquals(parsedPages.get(i).infoboxes.get(0).infoboxTitle, restored.get(i).infoboxes.get(0).infoboxTitle);
+			assertEquals(parsedPages.get(i).infoboxes.get(0).casrns.toList(), restored.get(i).infoboxes.get(0).casrns.toList());
+			assertEquals(parsedPages.get(i).infoboxes.get(0).inchikeys, restored.get(i).infoboxes.get(0).inchikeys);
+		}
+	}
+
+	@Test
+	public void refusesMissingFiles() {
+		assertThrows(NoSuchFileException.class, () -> ArchiveStore.archivePageHtmlFile("archive_test_missing.ndjson"));
+	}
+
+	private static void assertSamePages(List<PageHtml> expected, List<PageHtml> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).pageId, actual.get(i).pageId);
+			assertEquals(expected.get(i).title, actual.get(i).title);
+			assertEquals(expected.get(i).infoboxHtml, actual.get(i).infoboxHtml);
+			assertEquals(expected.get(i).lastRevId, actual.get(i).lastRevId);
+			assertEquals(expected.get(i).touched, actual.get(i).touched);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.ColumnarFiles.Codec;
+import gov.epa.wikipedia.infoboxes.processing.ColumnarFiles.Column;
+import gov.epa.wikipedia.infoboxes.processing.ColumnarFiles.ColumnType;
+import gov.epa.wikipedia.infoboxes.processing.ColumnarFiles.ColumnarWriter;
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet;
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet.Kind;
+import gov.epa.wikipedia.infoboxes.processing.data.Infobox;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+
+/**
+ * Tests that Parquet files written by ColumnarFiles are read back unchanged by an independent reader (DuckDB)
+ * @author GSINCL01
+ *
+ */
+public class ColumnarFilesTest {
+
+	private static final List<Column> COLUMNS = Arrays.asList(
+			new Column("id", ColumnType.INT32, false, false),
+			new Column("name", ColumnType.STRING, true, false),
+			new Column("kind", ColumnType.STRING, false, true),
+			new Column("note", ColumnType.STRING, true, true));
+
+	@TempDir
+	Path folder;
+
+	/**
+	 * Run a query in DuckDB and return each row's columns joined with "|" (null values as "null")
+	 */
+	private static List<String> query(String sql) throws SQLException {
+		List<String> rows = new ArrayList<String>();
+		try (Connection connection = DriverManager.getConnection("jdbc:duckdb:");
+				Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery(sql)) {
+			int columns = resultSet.getMetaData().getColumnCount();
+			while (resultSet.next()) {
+				StringBuilder row = new StringBuilder();
+				for (int i = 1; i <= columns; i++) {
+					row.append(i > 1 ? "|" : "").append(resultSet.getObject(i));
+				}
+				rows.add(row.toString());
+			}
+		}
+		return rows;
+	}
+
+	private static String path(File file) {
+		return "'" + file.getAbsolutePath().replace("'", "''") + "'";
+	}
+
+	@Test
+	public void writesFilesReadableByDuckDb() throws IOException, SQLException {
+		for (Codec codec:Codec.values()) {
+			File file = folder.resolve("rows-" + codec + ".parquet").toFile();
+			List<String> expected = new ArrayList<String>();
+			try (ColumnarWriter writer = ColumnarFiles.openWriter(file, COLUMNS, 3, codec)) {
+				for (int i = 0; i < 10; i++) {
+					String name = i % 4==0 ? null : "name " + i + (i % 3==0 ? " – ünïcødé" : "");
+					String kind = i % 2==0 ? "EVEN" : "ODD";
+					String note = i % 5==0 ? null : "note " + (i % 3);
+					writer.write(i, name, kind, note);
+					expected.add(i + "|" + name + "|" + kind + "|" + note);
+				}
+				assertEquals(10, writer.getCount());
+			}
+
+			assertEquals(expected, query("SELECT id, name, kind, note FROM read_parquet(" + path(file) + ") ORDER BY id"));
+			assertEquals(Arrays.asList("4"), query("SELECT count(DISTINCT row_group_id) FROM parquet_metadata(" + path(file) + ")"));
+			assertEquals(Arrays.asList(codec.name()), query("SELECT DISTINCT compression FROM parquet_metadata(" + path(file) + ")"));
+			assertEquals(Arrays.asList("id|INT32", "name|BYTE_ARRAY", "kind|BYTE_ARRAY", "note|BYTE_ARRAY"),
+					query("SELECT name, type FROM parquet_schema(" + path(file) + ") WHERE type IS NOT NULL"));
+		}
+	}
+
+	@Test
+	public void writesEmptyFiles() throws IOException, SQLException {
+		File file = folder.resolve("empty.parquet").toFile();
+		ColumnarFiles.openWriter(file, COLUMNS).close();
+		assertEquals(Arrays.asList("0"), query("SELECT count(*) FROM read_parquet(" + path(file) + ")"));
+	}
+
+	@Test
+	public void exportsOneRowPerIdentifier() throws IOException, SQLException {
+		ParsedPage page = new ParsedPage("Formaldehyde", 11);
+		Infobox first = new Infobox();
+		first.infoboxTitle = "Formaldehyde";
+		first.casrns = IdentifierSet.of(Kind.CASRN, Arrays.asList("50-00-0"));
+		first.inchikeys = IdentifierSet.of(Kind.INCHIKEY, Arrays.asList("WSFSSNUMVMOOMR-UHFFFAOYSA-N"));
+		first.smiles = IdentifierSet.of(Kind.SMILES, Arrays.asList("C=O"));
+		Infobox second = new Infobox();
+		second.dtxsids = IdentifierSet.of(Kind.DTXSID, Arrays.asList("DTXSID7020637"));
+		page.infoboxes.add(first);
+		page.infoboxes.add(second);
+
+		assertEquals(4, PageParser.exportParsedPages(Arrays.asList(page, new ParsedPage("No infoboxes", 12)), "columnar_test.parquet"));
+		File file = new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + "columnar_test.parquet");
+		assertEquals(Arrays.asList(
+				"11|Formaldehyde|0|Formaldehyde|CASRN|50-00-0",
+				"11|Formaldehyde|0|Formaldehyde|INCHIKEY|WSFSSNUMVMOOMR-UHFFFAOYSA-N",
+				"11|Formaldehyde|0|Formaldehyde|SMILES|C=O",
+				"11|Formaldehyde|1|null|DTXSID|DTXSID7020637"),
+				query("SELECT page_id, page_title, infobox_index, infobox_title, identifier_type, identifier FROM read_parquet("
+						+ path(file) + ") ORDER BY infobox_index, identifier_type"));
+	}
+}
@@ -0,0 +1,115 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+
+/**
+ * Tests that DownloadJournal reads back the pages of an interrupted run, including after a torn write
+ * @author GSINCL01
+ *
+ */
+public class DownloadJournalTest {
+
+	private static final String FILE_NAME = "journal_test_raw_html.ndjson";
+	private static final File JOURNAL_FILE = new File(WikipediaInfoboxesDict.RAW_DATA_FOLDER_PATH + "journal_test_raw_html.journal.ndjson");
+
+	@BeforeEach
+	@AfterEach
+	public void deleteJournal() {
+		DownloadJournal.delete(FILE_NAME);
+	}
+
+	private static PageHtml page(int pageId, long revId) {
+		PageHtml html = new PageHtml("Page " + pageId, pageId, Arrays.asList("<table class=\"infobox\">" + pageId + "</table>"));
+		html.lastRevId = revId;
+		return html;
+	}
+
+	@Test
+	public void resumesLoggedPages() throws IOException {
+		try (DownloadJournal journal = DownloadJournal.open(FILE_NAME)) {
+			assertEquals(0, journal.getResumedCount());
+			journal.append(page(1, 10));
+			journal.append(page(2, 20));
+			journal.append(new PageHtml("Failed", null, Arrays.<String>asList()));
+		}
+
+		try (DownloadJournal journal = DownloadJournal.open(FILE_NAME)) {
+			assertEquals(2, journal.getResumedCount());
+			Map<Integer, PageHtml> pages = journal.getPages();
+			assertEquals(Arrays.asList(1, 2), Arrays.asList(pages.keySet().toArray()));
+			assertEquals(page(2, 20).infoboxHtml, pages.get(2).infoboxHtml);
+			assertEquals(Long.valueOf(20), pages.get(2).lastRevId);
+		}
+	}
+
+	@Test
+	public void latestRecordWins() throws IOException {
+		try (DownloadJournal journal = DownloadJournal.open(FILE_NAME)) {
+			journal.append(page(1, 10));
+			assertEquals(1, journal.discardIf(html -> html.lastRevId < 11));
+			assertTrue(journal.getPages().isEmpty());
+			journal.append(page(1, 11));
+		}
+
+		try (DownloadJournal journal = DownloadJournal.open(FILE_NAME)) {
+			assertEquals(1, journal.getResumedCount());
+			assertEquals(Long.valueOf(11), journal.getPages().get(1).lastRevId);
+		}
+	}
+
+	@Test
+	public void dropsTornLastRecord() throws IOException {
+		try (DownloadJournal journal = DownloadJournal.open(FILE_NAME)) {
+			journal.append(page(1, 10));
+			journal.append(page(2, 20));
+		}
+		long validLength = JOURNAL_FILE.length();
+
+		// A crash mid-write leaves part of a record without its newline
+		try (FileOutputStream out = new FileOutputStream(JOURNAL_FILE, true)) {
+			out.write("{\"title\":\"Page 3\",\"pageId\":3,\"infob".getBytes(StandardCharsets.UTF_8));
+		}
+
+		try (DownloadJournal journal = DownloadJournal.open(FILE_NAME)) {
+			assertEquals(2, journal.getResumedCount());
+			assertFalse(journal.getPages().containsKey(3));
+			assertEquals(validLength, JOURNAL_FILE.length());
+			journal.append(page(3, 30));
+		}
+
+		// Records appended after the recovery are read back too
+		try (DownloadJournal journal = DownloadJournal.open(FILE_NAME)) {
+			assertEquals(Arrays.asList(1, 2, 3), Arrays.asList(journal.getPages().keySet().toArray()));
+		}
+	}
+
+	@Test
+	public void stopsAtCorruptRecord() throws IOException {
+		try (DownloadJournal journal = DownloadJournal.open(FILE_NAME)) {
+			journal.append(page(1, 10));
+		}
+		try (FileOutputStream out = new FileOutputStream(JOURNAL_FILE, true)) {
+			out.write("not json\n".getBytes(StandardCharsets.UTF_8));
+		}
+
+		try (DownloadJournal journal = DownloadJournal.open(FILE_NAME)) {
+			assertEquals(1, journal.getResumedCount());
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.DsstoxLinker.InfoboxLink;
+import gov.epa.wikipedia.infoboxes.processing.DsstoxLinker.Status;
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet;
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet.Kind;
+import gov.epa.wikipedia.infoboxes.processing.data.Infobox;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+
+/**
+ * Tests that DsstoxLinker classifies each infobox as matched, conflicting, or unmatched against a small DSSTox export,
+ * and writes it to the report for its status
+ * @author GSINCL01
+ *
+ */
+public class DsstoxLinkerTest {
+
+	private static final String FILE_NAME = "linker_test_parsed_data.json";
+	private static final String STEM = "linker_test_parsed_data";
+
+	@TempDir
+	Path folder;
+
+	@AfterEach
+	public void tearDown() {
+		new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + FILE_NAME).delete();
+		for (Status status:Status.values()) {
+			reportFile(status).delete();
+		}
+	}
+
+	private static File reportFile(Status status) {
+		return new File(WikipediaInfoboxesDict.LINKAGE_FOLDER_PATH + STEM + "_" + status.name().toLowerCase() + ".ndjson");
+	}
+
+	private static ParsedPage page(int pageId, String title, String casrn, String dtxsid, String inchikey) {
+		Infobox infobox = new Infobox();
+		infobox.infoboxTitle = title;
+		infobox.casrns = IdentifierSet.of(Kind.CASRN, list(casrn));
+		infobox.dtxsids = IdentifierSet.of(Kind.DTXSID, list(dtxsid));
+		infobox.inchikeys = IdentifierSet.of(Kind.INCHIKEY, list(inchikey));
+		ParsedPage page = new ParsedPage("Page " + pageId, pageId);
+		page.infoboxes.add(infobox);
+		return page;
+	}
+
+	private static List<String> list(String value) {
+		return value==null ? Collections.<String>emptyList() : Arrays.asList(value);
+	}
+
+	private static List<String> titles(Status status) throws IOException {
+		return RecordFiles.readAll(reportFile(status), InfoboxLink.class).stream()
+				.map(link -> link.infoboxTitle).collect(Collectors.toList());
+	}
+
+	@Test
+	public void classifiesEachInfobox() throws IOException {
+		List<ParsedPage> pages = Arrays.asList(
+				// One substance by CAS number, and no DTXSID of its own to disagree with
+				page(1, "Formaldehyde", "50-00-0", null, null),
+				// One substance by CAS number, but the infobox gives another DTXSID
+				page(2, "Ethanol", "64-17-5", "DTXSID0000001", null),
+				// The CAS number and InChIKey point at different substances
+				page(3, "Methanol", "67-56-1", null, "LFQSCWFLJHTTHZ-UHFFFAOYSA-N"),
+				// Only a substance sharing the InChIKey skeleton, and a row without a DTXSID, which is skipped
+				page(4, "Water", "7732-18-5", null, "XLYOFNOQVPJJNP-UHFFFAOYSA-N"));
+		PageParser.saveParsedPages(pages, FILE_NAME);
+		IdentifierIndex index = IdentifierIndex.fromParsedPages(pages);
+
+		File export = folder.resolve("dsstox.csv").toFile();
+		Files.write(export.toPath(), Arrays.asList(
+				"DTXSID,PREFERRED_NAME,CASRN,INCHIKEY",
+				"DTXSID7020637,Formaldehyde,50-00-0,WSFSSNUMVMOOMR-UHFFFAOYSA-N",
+				"DTXSID9020584,Ethanol,64-17-5,LFQSCWFLJHTTHZ-UHFFFAOYSA-N",
+				"DTXSID2021731,Methanol,67-56-1,OKKJLVBELUTLKV-UHFFFAOYSA-N",
+				"DTXSID6026296,\"Water, deuterated\",,XLYOFNOQVPJJNP-UHFFFAOYSA-O",
+				"not-a-dtxsid,Water,7732-18-5,"), StandardCharsets.UTF_8);
+
+		Map<Status, Integer> counts = DsstoxLinker.link(export, Collections.singletonMap(FILE_NAME, index));
+
+		assertEquals(Integer.valueOf(1), counts.get(Status.MATCHED));
+		assertEquals(Integer.valueOf(2), counts.get(Status.CONFLICT));
+		assertEquals(Integer.valueOf(1), counts.get(Status.UNMATCHED));
+		assertEquals(Arrays.asList("Formaldehyde"), titles(Status.MATCHED));
+		assertEquals(Arrays.asList("Ethanol", "Methanol"), titles(Status.CONFLICT));
+		assertEquals(Arrays.asList("Water"), titles(Status.UNMATCHED));
+
+		InfoboxLink methanol = RecordFiles.readAll(reportFile(Status.CONFLICT), InfoboxLink.class).get(1);
+		assertEquals(Arrays.asList("DTXSID2021731", "DTXSID9020584"),
+				methanol.matches.stream().map(match -> match.dtxsid).sorted().collect(Collectors.toList()));
+
+		// A substance sharing only the skeleton is listed as a candidate but does not make the infobox matched
+		InfoboxLink water = RecordFiles.readAll(reportFile(Status.UNMATCHED), InfoboxLink.class).get(0);
+		assertEquals(0, water.matches.size());
+		assertEquals(Arrays.asList("DTXSID6026296"),
+				water.inchikeyBlockCandidates.stream().map(match -> match.dtxsid).collect(Collectors.toList()));
+	}
+}
@@ -0,0 +1,142 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.data.DumpPage;
+import gov.epa.wikipedia.infoboxes.processing.data.Infobox;
+
+/**
+ * Tests DumpReader against a small pages-articles fixture, as plain XML, bz2, and bz2 multistream with an index
+ * @author GSINCL01
+ *
+ */
+public class DumpReaderTest {
+
+	@TempDir
+	Path folder;
+
+	private static File getFixture() throws URISyntaxException {
+		return new File(DumpReaderTest.class.getResource("/fixtures/dump.xml").toURI());
+	}
+
+	private static List<DumpPage> readAll(File dumpFile) throws IOException {
+		List<DumpPage> pages = new ArrayList<DumpPage>();
+		DumpReader.forEachPage(dumpFile, pages::add);
+		return pages;
+	}
+
+	/**
+	 * Check the pages of the fixture: articles calling Chembox or Drugbox, without the redirect, the template page,
+	 * and the article without an infobox
+	 */
+	private static void assertFixturePages(List<DumpPage> pages) {
+		assertEquals(Arrays.asList(11, 12, 16), Arrays.asList(pages.stream().map(page -> page.pageId).toArray()));
+
+		DumpPage formaldehyde = pages.get(0);
+		assertEquals("Formaldehyde", formaldehyde.title);
+		assertEquals(Long.valueOf(500), formaldehyde.revId);
+		assertTrue(formaldehyde.callsTemplate(WikipediaInfoboxesDict.CHEMBOX_TEMPLATE_NAMES));
+		Infobox chembox = formaldehyde.parsedPage.infoboxes.get(0);
+		assertEquals("Formaldehyde", chembox.infoboxTitle);
+		assertEquals(Arrays.asList("50-00-0"), chembox.casrns.toList());
+		assertEquals(Arrays.asList("WSFSSNUMVMOOMR-UHFFFAOYSA-N"), chembox.inchikeys.toList());
+		assertEquals(Arrays.asList("DTXSID7020637"), chembox.dtxsids.toList());
+		assertEquals(Arrays.asList("C=O"), chembox.smiles.toList());
+
+		DumpPage aspirin = pages.get(1);
+		assertTrue(aspirin.callsTemplate(WikipediaInfoboxesDict.DRUGBOX_TEMPLATE_NAMES));
+		Infobox drugbox = aspirin.parsedPage.infoboxes.get(0);
+		assertEquals("Aspirin", drugbox.infoboxTitle);
+		assertEquals(Arrays.asList("50-78-2"), drugbox.casrns.toList());
+		assertEquals(Arrays.asList("DTXSID5020108"), drugbox.dtxsids.toList());
+
+		assertEquals(Arrays.asList("64-17-5"), pages.get(2).parsedPage.infoboxes.get(0).casrns.toList());
+	}
+
+	@Test
+	public void readsPlainXml() throws Exception {
+		assertFixturePages(readAll(getFixture()));
+	}
+
+	@Test
+	public void readsBzip2() throws Exception {
+		File dumpFile = folder.resolve("dump.xml.bz2").toFile();
+		try (OutputStream out = new BZip2CompressorOutputStream(new FileOutputStream(dumpFile))) {
+			out.write(Files.readAllBytes(getFixture().toPath()));
+		}
+
+		assertFixturePages(readAll(dumpFile));
+	}
+
+	@Test
+	public void readsMultistreamWithIndex() throws Exception {
+		// Split the fixture as Wikimedia does: the header, runs of pages, and the footer, each compressed as its own bz2 stream
+		String xml = new String(Files.readAllBytes(getFixture().toPath()), StandardCharsets.UTF_8);
+		List<String> pages = new ArrayList<String>();
+		List<String> pageIds = new ArrayList<String>();
+		Matcher matcher = Pattern.compile("(?s)  <page>.*?<id>(\\d+)</id>.*?</page>\n").matcher(xml);
+		while (matcher.find()) {
+			pages.add(matcher.group());
+			pageIds.add(matcher.group(1));
+		}
+		int firstPage = xml.indexOf("  <page>");
+		int lastPage = xml.lastIndexOf("</page>\n") + "</page>\n".length();
+
+		File dumpFile = folder.resolve("dump-multistream.xml.bz2").toFile();
+		StringBuilder index = new StringBuilder();
+		try (FileOutputStream out = new FileOutputStream(dumpFile)) {
+			writeStream(out, xml.substring(0, firstPage));
+			for (int start = 0; start < pages.size(); start += 2) {
+				long offset = out.getChannel().position();
+				for (int i = start; i < Math.min(start + 2, pages.size()); i++) {
+					index.append(offset).append(':').append(pageIds.get(i)).append(":Page ").append(pageIds.get(i)).append('\n');
+				}
+				writeStream(out, String.join("", pages.subList(start, Math.min(start + 2, pages.size()))));
+			}
+			writeStream(out, xml.substring(lastPage));
+		}
+
+		File indexFile = folder.resolve("dump-multistream-index.txt.bz2").toFile();
+		try (FileOutputStream out = new FileOutputStream(indexFile)) {
+			writeStream(out, index.toString());
+		}
+
+		assertFixturePages(collect(dumpFile, indexFile, 1));
+		assertFixturePages(collect(dumpFile, indexFile, 3));
+	}
+
+	private static List<DumpPage> collect(File dumpFile, File indexFile, int parallelism) throws IOException {
+		List<DumpPage> pages = new ArrayList<DumpPage>();
+		DumpReader.forEachPage(dumpFile, indexFile, parallelism, pages::add);
+		return pages;
+	}
+
+	private static void writeStream(FileOutputStream out, String text) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream bz2 = new BZip2CompressorOutputStream(bytes)) {
+			bz2.write(text.getBytes(StandardCharsets.UTF_8));
+		}
+		out.write(bytes.toByteArray());
+	}
+}
@@ -0,0 +1,103 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+
+/**
+ * Tests that FetchEngine keeps results in input order and tasks in flight within the per-host limit,
+ * including across engines running at the same time
+ * @author GSINCL01
+ *
+ */
+public class FetchEngineTest {
+
+	private static List<Integer> inputs(int count) {
+		List<Integer> inputs = new ArrayList<Integer>();
+		for (int i = 0; i < count; i++) {
+			inputs.add(i);
+		}
+		return inputs;
+	}
+
+	/**
+	 * Create a task that holds each input for a moment, recording the most tasks in flight at once
+	 */
+	private static Function<Integer, String> slowTask(AtomicInteger inFlight, AtomicInteger peak) {
+		return input -> {
+			int now = inFlight.incrementAndGet();
+			peak.accumulateAndGet(now, Math::max);
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				inFlight.decrementAndGet();
+			}
+			return "page " + input;
+		};
+	}
+
+	@Test
+	public void keepsResultsInInputOrder() {
+		List<String> expected = new ArrayList<String>();
+		for (Integer input:inputs(50)) {
+			expected.add("page " + input);
+		}
+
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+		assertEquals(expected, new FetchEngine(FetchEngine.Mode.PARALLEL, 4).run(inputs(50), slowTask(inFlight, peak)));
+		assertEquals(expected, new FetchEngine(FetchEngine.Mode.SEQUENTIAL, 4).run(inputs(50), slowTask(inFlight, peak)));
+	}
+
+	@Test
+	public void staysWithinParallelism() {
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+		new FetchEngine(FetchEngine.Mode.PARALLEL, 3).run(inputs(40), slowTask(inFlight, peak));
+		assertTrue(peak.get() <= 3, "peak " + peak.get());
+
+		peak.set(0);
+		new FetchEngine(FetchEngine.Mode.SEQUENTIAL, 8).run(inputs(10), slowTask(inFlight, peak));
+		assertEquals(1, peak.get());
+	}
+
+	@Test
+	public void staysWithinHostLimitAcrossEngines() throws InterruptedException {
+		int limit = WikipediaInfoboxesDict.FETCH_MAX_PER_HOST;
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+		Function<Integer, String> task = slowTask(inFlight, peak);
+
+		// Each engine alone would run more tasks at once than the host limit allows
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 3; t++) {
+			Thread thread = new Thread(() -> new FetchEngine(FetchEngine.Mode.PARALLEL, limit * 2).run(inputs(limit * 10), task));
+			threads.add(thread);
+			thread.start();
+		}
+		Thread single = new Thread(() -> {
+			FetchEngine engine = new FetchEngine(FetchEngine.Mode.PARALLEL, 1);
+			for (Integer input:inputs(limit * 5)) {
+				engine.runSingle(input, task);
+			}
+		});
+		threads.add(single);
+		single.start();
+		for (Thread thread:threads) {
+			thread.join(30000);
+		}
+
+		assertTrue(peak.get() <= limit, "peak " + peak.get() + " over limit " + limit);
+		assertTrue(peak.get() > 1, "peak " + peak.get());
+	}
+}
@@ -0,0 +1,135 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import gov.epa.wikipedia.infoboxes.processing.IdentifierIndex.IdentifierType;
+import gov.epa.wikipedia.infoboxes.processing.IdentifierIndex.Match;
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet;
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet.Kind;
+import gov.epa.wikipedia.infoboxes.processing.data.Infobox;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+
+/**
+ * Tests IdentifierIndex lookups and updates, including infoboxes with several identifiers of a type
+ * and identifiers shared between infoboxes and pages
+ * @author GSINCL01
+ *
+ */
+public class IdentifierIndexTest {
+
+	private static Infobox infobox(String title, List<String> casrns, List<String> dtxsids, List<String> inchikeys, List<String> smiles) {
+		Infobox infobox = new Infobox();
+		infobox.infoboxTitle = title;
+		infobox.casrns = IdentifierSet.of(Kind.CASRN, casrns);
+		infobox.dtxsids = IdentifierSet.of(Kind.DTXSID, dtxsids);
+		infobox.inchikeys = IdentifierSet.of(Kind.INCHIKEY, inchikeys);
+		infobox.smiles = IdentifierSet.of(Kind.SMILES, smiles);
+		return infobox;
+	}
+
+	private static ParsedPage page(int pageId, Infobox... infoboxes) {
+		ParsedPage page = new ParsedPage("Page " + pageId, pageId);
+		page.infoboxes.addAll(Arrays.asList(infoboxes));
+		return page;
+	}
+
+	/**
+	 * A page with two infoboxes, each with two identifiers of every type, sharing one of each
+	 */
+	private static ParsedPage mixturePage() {
+		return page(1,
+				infobox("First", Arrays.asList("50-00-0", "64-17-5"), Arrays.asList("DTXSID7020637", "DTXSID9020584"),
+						Arrays.asList("WSFSSNUMVMOOMR-UHFFFAOYSA-N", "LFQSCWFLJHTTHZ-UHFFFAOYSA-N"), Arrays.asList("C=O", "CCO")),
+				infobox("Second", Arrays.asList("64-17-5", "67-56-1"), Arrays.asList("DTXSID9020584", "DTXSID2021731"),
+						Arrays.asList("LFQSCWFLJHTTHZ-UHFFFAOYSA-N", "OKKJLVBELUTLKV-UHFFFAOYSA-N"), Arrays.asList("CCO", "CO")));
+	}
+
+	private static List<String> titles(List<Match> matches) {
+		return matches.stream().map(match -> match.pageId + ":" + match.infoboxTitle).collect(Collectors.toList());
+	}
+
+	@Test
+	public void indexesEveryIdentifierOfEveryInfobox() {
+		IdentifierIndex index = IdentifierIndex.fromParsedPages(Arrays.asList(mixturePage()));
+
+		assertEquals(Arrays.asList("1:First"), titles(index.lookup(IdentifierType.CASRN, "50-00-0")));
+		assertEquals(Arrays.asList("1:First", "1:Second"), titles(index.lookup(IdentifierType.CASRN, "64-17-5")));
+		assertEquals(Arrays.asList("1:Second"), titles(index.lookup(IdentifierType.CASRN, "67-56-1")));
+		assertEquals(Arrays.asList("1:First"), titles(index.lookup(IdentifierType.DTXSID, "DTXSID7020637")));
+		assertEquals(Arrays.asList("1:First", "1:Second"), titles(index.lookup(IdentifierType.DTXSID, "DTXSID9020584")));
+		assertEquals(Arrays.asList("1:Second"), titles(index.lookup(IdentifierType.DTXSID, "DTXSID2021731")));
+		assertEquals(Arrays.asList("1:First", "1:Second"), titles(index.lookup(IdentifierType.INCHIKEY, "LFQSCWFLJHTTHZ-UHFFFAOYSA-N")));
+		assertEquals(Arrays.asList("1:Second"), titles(index.lookup(IdentifierType.INCHIKEY, "OKKJLVBELUTLKV-UHFFFAOYSA-N")));
+		assertEquals(Arrays.asList("1:First", "1:Second"), titles(index.lookup(IdentifierType.SMILES, "CCO")));
+		assertEquals(Arrays.asList("1:Second"), titles(index.lookup(IdentifierType.SMILES, "CO")));
+	}
+
+	@Test
+	public void findsIdentifiersSharedAcrossPages() {
+		ParsedPage other = page(2, infobox("Other", Arrays.asList("64-17-5"), Arrays.<String>asList(), Arrays.<String>asList(), Arrays.<String>asList()));
+		IdentifierIndex index = IdentifierIndex.fromParsedPages(Arrays.asList(other, mixturePage()));
+
+		assertEquals(Arrays.asList("1:First", "1:Second", "2:Other"), titles(index.lookup(IdentifierType.CASRN, "64-17-5")));
+		assertArrayEquals(new int[] {1, 2}, index.lookupPageIds(IdentifierType.CASRN, Arrays.asList("64-17-5", "50-00-0")));
+		assertEquals(3, index.lookupPostings(IdentifierType.CASRN, Arrays.asList("64-17-5"))[0].length);
+	}
+
+	@Test
+	public void removesPagesWithRepeatedIdentifiers() {
+		IdentifierIndex index = IdentifierIndex.fromParsedPages(Arrays.asList(mixturePage()));
+		index.remove(1);
+
+		assertEquals(0, index.size());
+		for (IdentifierType type:IdentifierType.values()) {
+			index.forEach(type, (identifier, matches) -> assertTrue(matches.isEmpty(), identifier));
+		}
+		assertTrue(index.lookup(IdentifierType.INCHIKEY, "LFQSCWFLJHTTHZ-UHFFFAOYSA-N").isEmpty());
+		assertTrue(index.lookup(IdentifierType.CASRN, "64-17-5").isEmpty());
+	}
+
+	@Test
+	public void updatesOnlyChangedPages() {
+		IdentifierIndex index = IdentifierIndex.fromParsedPages(Arrays.asList(mixturePage(),
+				page(2, infobox("Other", Arrays.asList("64-17-5"), Arrays.<String>asList(), Arrays.<String>asList(), Arrays.<String>asList()))));
+
+		assertEquals(0, index.update(Arrays.asList(mixturePage(),
+				page(2, infobox("Other", Arrays.asList("64-17-5"), Arrays.<String>asList(), Arrays.<String>asList(), Arrays.<String>asList())))));
+
+		// Page 2 is edited to carry another CASRN, and page 3 replaces page 1
+		ParsedPage edited = page(2, infobox("Other", Arrays.asList("67-56-1", "67-56-1"), Arrays.<String>asList(), Arrays.<String>asList(), Arrays.<String>asList()));
+		ParsedPage added = page(3, infobox("Added", Arrays.asList("50-00-0"), Arrays.<String>asList(), Arrays.<String>asList(), Arrays.asList("C=O")));
+		assertEquals(3, index.update(Arrays.asList(edited, added)));
+
+		assertEquals(2, index.size());
+		assertTrue(index.lookup(IdentifierType.CASRN, "64-17-5").isEmpty());
+		assertEquals(Arrays.asList("2:Other"), titles(index.lookup(IdentifierType.CASRN, "67-56-1")));
+		assertEquals(Arrays.asList("3:Added"), titles(index.lookup(IdentifierType.CASRN, "50-00-0")));
+		assertEquals(Arrays.asList("3:Added"), titles(index.lookup(IdentifierType.SMILES, "C=O")));
+	}
+
+	@Test
+	public void updatesFromFile() throws IOException {
+		String fileName = "index_test_parsed_data.json";
+		IdentifierIndex index = IdentifierIndex.fromParsedPages(Arrays.asList(mixturePage(),
+				page(2, infobox("Other", Arrays.asList("64-17-5"), Arrays.<String>asList(), Arrays.<String>asList(), Arrays.<String>asList()))));
+
+		// Page 1 is unchanged, page 2 was removed, and page 3 was added
+		PageParser.saveParsedPages(Arrays.asList(mixturePage(),
+				page(3, infobox("Added", Arrays.asList("7732-18-5"), Arrays.<String>asList(), Arrays.<String>asList(), Arrays.<String>asList()))), fileName);
+		assertEquals(2, index.updateFromFile(fileName));
+
+		assertEquals(2, index.size());
+		assertEquals(Arrays.asList("1:First", "1:Second"), titles(index.lookup(IdentifierType.CASRN, "64-17-5")));
+		assertEquals(Arrays.asList("3:Added"), titles(index.lookup(IdentifierType.CASRN, "7732-18-5")));
+		assertEquals(0, index.updateFromFile(fileName));
+	}
+}
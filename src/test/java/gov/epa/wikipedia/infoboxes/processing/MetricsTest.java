@@ -0,0 +1,90 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Tests Metrics histogram quantiles, including empty histograms and durations beyond the largest bucket,
+ * and that the JSON export stays valid JSON
+ * @author GSINCL01
+ *
+ */
+public class MetricsTest {
+
+	@TempDir
+	Path folder;
+
+	@AfterEach
+	public void tearDown() {
+		Metrics.reset();
+	}
+
+	@Test
+	public void estimatesQuantilesFromBuckets() {
+		Metrics.Histogram histogram = new Metrics.Histogram();
+		assertTrue(Double.isNaN(histogram.quantile(0.5)));
+
+		for (int i = 0; i < 90; i++) {
+			histogram.observe(0.003);
+		}
+		for (int i = 0; i < 9; i++) {
+			histogram.observe(0.2);
+		}
+		histogram.observe(120);
+
+		assertEquals(0.005, histogram.quantile(0.5));
+		assertEquals(0.25, histogram.quantile(0.95));
+		assertEquals(0.25, histogram.quantile(0.99));
+		assertEquals(0.005, histogram.quantile(0));
+
+		// The slowest duration is beyond the largest bucket, which has no upper bound to report
+		assertTrue(Double.isNaN(histogram.quantile(1)));
+	}
+
+	@Test
+	public void exportsValidJson() throws IOException {
+		Metrics.reset();
+		Metrics.observeNanos("request_duration_seconds", Metrics.labels("query", "parse"), 120_000_000_000L);
+		Metrics.observeNanos("request_duration_seconds", Metrics.labels("query", "revisions"), 2_000_000L);
+		Metrics.set("stage_items_per_second", Metrics.labels("stage", "fetch"), Double.POSITIVE_INFINITY);
+
+		File file = folder.resolve("metrics.json").toFile();
+		Metrics.export(file, Metrics.Format.JSON);
+		String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		assertFalse(text.contains("Infinity") || text.contains("NaN"), text);
+
+		// Read strictly, as any JSON parser would
+		JsonObject json;
+		try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			json = new Gson().getAdapter(JsonElement.class).read(new JsonReader(reader)).getAsJsonObject();
+		}
+		JsonObject histograms = json.getAsJsonObject("histograms").getAsJsonObject("infoboxes_request_duration_seconds");
+		JsonObject slow = histograms.getAsJsonObject("query=\"parse\"");
+		assertEquals(1, slow.get("count").getAsLong());
+		assertFalse(slow.has("p50"));
+		assertEquals(0.0025, histograms.getAsJsonObject("query=\"revisions\"").get("p99").getAsDouble());
+
+		// The same values are still exported in the Prometheus format, which has +Inf
+		File promFile = folder.resolve("metrics.prom").toFile();
+		Metrics.export(promFile, Metrics.Format.PROMETHEUS);
+		String prom = new String(Files.readAllBytes(promFile.toPath()), StandardCharsets.UTF_8);
+		assertTrue(prom.contains("infoboxes_request_duration_seconds_bucket{query=\"parse\",le=\"+Inf\"} 1"), prom);
+	}
+}
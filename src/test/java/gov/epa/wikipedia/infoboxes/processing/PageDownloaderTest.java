@@ -0,0 +1,190 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.Gson;
+
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.queries.ApiClient;
+import gov.epa.wikipedia.infoboxes.processing.queries.FakeTransport;
+import gov.epa.wikipedia.infoboxes.processing.queries.HttpTransport.Response;
+import gov.epa.wikipedia.infoboxes.processing.queries.RequestScheduler;
+import gov.epa.wikipedia.infoboxes.processing.queries.ResponseCache;
+
+/**
+ * Tests PageDownloader against canned API responses, with a FakeTransport in place of the network
+ * @author GSINCL01
+ *
+ */
+public class PageDownloaderTest {
+
+	private static final Gson GSON = new Gson();
+	private static final Pattern CAS_PARAM_PATTERN = Pattern.compile("CAS_number=([0-9-]+)");
+
+	@TempDir
+	Path folder;
+
+	@BeforeEach
+	public void setUp() {
+		ApiClient.setCache(new ResponseCache(folder.toString(), 1L << 20, 0, ResponseCache.Mode.OFF));
+		ApiClient.setScheduler(new RequestScheduler(8, 2, 1, 5));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		ApiClient.setTransport(null);
+		ApiClient.setCache(null);
+		ApiClient.setScheduler(null);
+	}
+
+	/**
+	 * Create a revisions query response with the given wikitext, keyed by page ID, for pages titled "Page ID (drug)"
+	 */
+	static String revisionsBody(Map<Integer, String> wikitext) {
+		List<Object> pages = new ArrayList<Object>();
+		for (Map.Entry<Integer, String> entry:wikitext.entrySet()) {
+			Map<String, Object> slot = new LinkedHashMap<String, Object>();
+			slot.put("contentmodel", "wikitext");
+			slot.put("content", entry.getValue());
+			Map<String, Object> revision = new LinkedHashMap<String, Object>();
+			revision.put("revid", 1000 + entry.getKey());
+			revision.put("slots", singletonMap("main", slot));
+			Map<String, Object> page = new LinkedHashMap<String, Object>();
+			page.put("pageid", entry.getKey());
+			page.put("title", "Page " + entry.getKey() + " (drug)");
+			page.put("revisions", Arrays.asList(revision));
+			pages.add(page);
+		}
+
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("batchcomplete", true);
+		body.put("query", singletonMap("pages", pages));
+		return GSON.toJson(body);
+	}
+
+	/**
+	 * Render wikitext as the parse API would for an Infobox drug call, whose caption defaults to the title of the render
+	 */
+	static String renderBody(Map<String, Object> fields) {
+		String text = String.valueOf(fields.get("text"));
+		Matcher pageId = Pattern.compile("data-pageid=\"(\\d+)\"").matcher(text);
+		Matcher cas = CAS_PARAM_PATTERN.matcher(text);
+		String html = "<div class=\"" + PageHtml.BATCH_WRAPPER_CLASS + "\" data-pageid=\"" + (pageId.find() ? pageId.group(1) : "") + "\">"
+				+ "<table class=\"infobox\"><caption>" + fields.get("title") + "</caption>"
+				+ "<tr><th>CAS Number</th><td>" + (cas.find() ? cas.group(1) : "") + "</td></tr></table></div>";
+		Map<String, Object> parse = new LinkedHashMap<String, Object>();
+		parse.put("title", fields.get("title"));
+		parse.put("text", singletonMap("*", html));
+		return GSON.toJson(singletonMap("parse", parse));
+	}
+
+	/**
+	 * Create a parse query response for a whole page, with one infobox captioned with the page title
+	 */
+	static String parseBody(Integer pageId, Long revId) {
+		Map<String, Object> parse = new LinkedHashMap<String, Object>();
+		parse.put("title", "Page " + pageId);
+		parse.put("pageid", pageId);
+		parse.put("revid", revId);
+		parse.put("text", singletonMap("*", "<div><table class=\"infobox\"><caption>Page " + pageId + "</caption></table></div>"));
+		return GSON.toJson(singletonMap("parse", parse));
+	}
+
+	private static Map<String, Object> singletonMap(String key, Object value) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put(key, value);
+		return map;
+	}
+
+	@Test
+	public void refreshesEditedPages() throws IOException {
+		String fileName = "downloader_test_raw_html.json";
+		List<PageHtml> existing = new ArrayList<PageHtml>();
+		for (long[] page:new long[][] {{1, 100}, {2, 200}, {3, 300}, {5, 0}}) {
+			PageHtml html = new PageHtml("Page " + page[0], (int) page[0], Arrays.asList("<table class=\"infobox\"></table>"));
+			html.lastRevId = page[1]==0 ? null : page[1];
+			existing.add(html);
+		}
+		PageDownloader.savePageHtml(existing, fileName);
+
+		// Page 1 is unchanged, 2 was edited, 3 no longer embeds the template, 4 is new, and 5 was downloaded without a revision ID
+		Map<Integer, Long> listed = new LinkedHashMap<Integer, Long>();
+		listed.put(1, 100L);
+		listed.put(2, 201L);
+		listed.put(5, 500L);
+		listed.put(4, 400L);
+		StringBuilder pages = new StringBuilder();
+		listed.forEach((pageId, revId) -> pages.append(pages.length()==0 ? "" : ",")
+				.append("{\"pageid\":" + pageId + ",\"title\":\"Page " + pageId + "\",\"lastrevid\":" + revId + ",\"touched\":\"t" + pageId + "\"}"));
+		FakeTransport transport = new FakeTransport(request -> "parse".equals(request.params.get("action"))
+				? new Response(200, parseBody((Integer) request.params.get("pageid"), listed.get(request.params.get("pageid"))))
+				: new Response(200, "{\"batchcomplete\":true,\"query\":{\"pages\":[" + pages + "]}}"));
+		ApiClient.setTransport(transport);
+
+		PageDownloader.PageHtmlUpdate update = PageDownloader.findPageHtmlUpdate("Template:Chembox", fileName, PageDownloader.UpdateMode.CHANGED_PAGES);
+		assertEquals(Arrays.asList(2, 5, 4), new ArrayList<Integer>(update.getDownloaded().keySet()));
+		assertEquals(Collections.singleton(3), update.getRemovedPageIds());
+		assertEquals(Long.valueOf(201), update.getDownloaded().get(2).lastRevId);
+		assertEquals("t4", update.getDownloaded().get(4).touched);
+		assertTrue(update.hasChanges());
+
+		List<PageHtml> updated = new ArrayList<PageHtml>();
+		PageDownloader.writeUpdatedPageHtml(fileName, update, null, updated::add);
+		assertEquals(Arrays.asList(1, 2, 5, 4), updated.stream().map(html -> html.pageId).collect(Collectors.toList()));
+		assertEquals(Arrays.asList(100L, 201L, 500L, 400L), updated.stream().map(html -> html.lastRevId).collect(Collectors.toList()));
+		DownloadJournal.delete(fileName);
+
+		// Nothing has changed since, so a second update downloads nothing
+		PageDownloader.savePageHtml(updated, fileName);
+		transport = FakeTransport.always("{\"batchcomplete\":true,\"query\":{\"pages\":[" + pages + "]}}");
+		ApiClient.setTransport(transport);
+		update = PageDownloader.findPageHtmlUpdate("Template:Chembox", fileName, PageDownloader.UpdateMode.CHANGED_PAGES);
+		assertTrue(update.getDownloaded().isEmpty());
+		assertFalse(update.hasChanges());
+		assertEquals(1, transport.getRequests().size());
+		DownloadJournal.delete(fileName);
+	}
+
+	@Test
+	public void rendersEachBatchedPageAsItself() {
+		Map<Integer, String> wikitext = new LinkedHashMap<Integer, String>();
+		wikitext.put(11, "Lead.\n{{Infobox drug\n| CAS_number=50-78-2\n}}\nBody.");
+		wikitext.put(12, "{{Infobox drug\n| CAS_number=64-17-5\n}}");
+		FakeTransport transport = new FakeTransport(request -> request.method.equals("POST")
+				? new Response(200, renderBody(request.params)) : new Response(200, revisionsBody(wikitext)));
+		ApiClient.setTransport(transport);
+
+		List<PageHtml> pageHtml = PageDownloader.getPageHtmlFromApiBatch(Arrays.asList(11, 12));
+
+		assertEquals(2, pageHtml.size());
+		assertEquals("Page 11 (drug)", pageHtml.get(0).parsedPage.infoboxes.get(0).infoboxTitle);
+		assertEquals(Arrays.asList("50-78-2"), pageHtml.get(0).parsedPage.infoboxes.get(0).casrns.toList());
+		assertEquals(Long.valueOf(1011), pageHtml.get(0).lastRevId);
+		assertEquals("Page 12 (drug)", pageHtml.get(1).parsedPage.infoboxes.get(0).infoboxTitle);
+		assertEquals(Arrays.asList("64-17-5"), pageHtml.get(1).parsedPage.infoboxes.get(0).casrns.toList());
+
+		// One revisions query for the batch, then one render per page, each as that page
+		assertEquals(3, transport.getRequests().size());
+		assertEquals(Arrays.asList("Page 11 (drug)", "Page 12 (drug)"), transport.getRequests().stream()
+				.filter(request -> request.method.equals("POST")).map(request -> request.params.get("title")).collect(Collectors.toList()));
+	}
+}
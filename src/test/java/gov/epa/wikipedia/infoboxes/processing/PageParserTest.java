@@ -0,0 +1,73 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import gov.epa.wikipedia.infoboxes.processing.data.Infobox;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+
+/**
+ * Tests that PageParser parses pages in parallel in their original order, leaving out pages that fail to parse
+ * without failing the others
+ * @author GSINCL01
+ *
+ */
+public class PageParserTest {
+
+	private static final int PAGE_COUNT = 200;
+
+	/**
+	 * Create pages with one Drugbox infobox each, where every seventh page's HTML has no infobox table and fails to parse
+	 */
+	private static List<PageHtml> samplePages() {
+		List<PageHtml> pages = new ArrayList<PageHtml>();
+		for (int pageId = 1; pageId <= PAGE_COUNT; pageId++) {
+			String html = pageId % 7==0 ? "<div>Not an infobox</div>"
+					: "<table class=\"infobox\"><caption>Page " + pageId + "</caption><tr><th>CAS Number</th><td>50-00-0</td></tr></table>";
+			pages.add(new PageHtml("Page " + pageId, pageId, Arrays.asList(html)));
+		}
+		return pages;
+	}
+
+	private static List<Integer> expectedPageIds() {
+		List<Integer> pageIds = new ArrayList<Integer>();
+		for (int pageId = 1; pageId <= PAGE_COUNT; pageId++) {
+			if (pageId % 7!=0) {
+				pageIds.add(pageId);
+			}
+		}
+		return pageIds;
+	}
+
+	@Test
+	public void parsesInOrderAndIsolatesFailures() {
+		for (int parallelism:new int[] {1, 4}) {
+			List<ParsedPage> parsedPages = PageParser.parsePageHtml(samplePages(), parallelism);
+
+			assertEquals(expectedPageIds(), parsedPages.stream().map(page -> page.pageId).collect(Collectors.toList()));
+			for (ParsedPage page:parsedPages) {
+				assertEquals("Page " + page.pageId, page.infoboxes.get(0).infoboxTitle);
+				assertEquals(Arrays.asList("50-00-0"), page.infoboxes.get(0).casrns.toList());
+				assertEquals(Integer.valueOf(Infobox.EXTRACTOR_VERSION), page.extractorVersion);
+			}
+		}
+	}
+
+	@Test
+	public void usesInfoboxesExtractedAtDownload() {
+		// Pages downloaded from the API already carry their extracted infoboxes, which are used instead of parsing the HTML again
+		PageHtml html = new PageHtml("Page 1", 1, Arrays.asList("<div>Not an infobox</div>"));
+		html.parsedPage = new ParsedPage("Page 1", 1);
+		List<ParsedPage> parsedPages = PageParser.parsePageHtml(Arrays.asList(html), 2);
+
+		assertEquals(1, parsedPages.size());
+		assertEquals(0, parsedPages.get(0).infoboxes.size());
+	}
+}
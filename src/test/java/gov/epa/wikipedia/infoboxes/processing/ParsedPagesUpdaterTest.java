@@ -0,0 +1,103 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.data.ParsedPage;
+
+/**
+ * Tests that ParsedPagesUpdater parses only pages whose infobox HTML changed, and that a page failing to parse
+ * keeps its existing parsed page without counting as a change
+ * @author GSINCL01
+ *
+ */
+public class ParsedPagesUpdaterTest {
+
+	private static final String FILE_NAME = "updater_test_parsed_data.json";
+	private static final String BROKEN_HTML = "<div>Not an infobox</div>";
+
+	@AfterEach
+	public void tearDown() {
+		new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + FILE_NAME).delete();
+		partialFile().delete();
+	}
+
+	private static File partialFile() {
+		return new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + PagePipeline.PARTIAL_FILE_PREFIX + FILE_NAME);
+	}
+
+	private static PageHtml page(int pageId, String casrn) {
+		String html = casrn==null ? BROKEN_HTML : "<table class=\"infobox\"><caption>Page " + pageId + "</caption>"
+				+ "<tr><th>CAS Number</th><td>" + casrn + "</td></tr></table>";
+		return new PageHtml("Page " + pageId, pageId, Arrays.asList(html));
+	}
+
+	/**
+	 * Write pages through an updater over the existing file, then move the new file over it
+	 * @return	The updater, closed
+	 */
+	private static ParsedPagesUpdater update(List<PageHtml> pages) throws IOException {
+		ParsedPagesUpdater updater = new ParsedPagesUpdater(FILE_NAME,
+				pages.stream().map(html -> html.pageId).collect(Collectors.toCollection(HashSet::new)), partialFile());
+		try {
+			for (PageHtml html:pages) {
+				updater.write(html);
+			}
+		} finally {
+			updater.close();
+		}
+		Files.move(partialFile().toPath(), new File(WikipediaInfoboxesDict.PARSED_DATA_FOLDER_PATH + FILE_NAME).toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		return updater;
+	}
+
+	private static List<String> casrns(List<ParsedPage> pages) {
+		List<String> casrns = new ArrayList<String>();
+		for (ParsedPage page:pages) {
+			casrns.add(page.pageId + ":" + page.infoboxes.get(0).casrns.toList().get(0));
+		}
+		return casrns;
+	}
+
+	@Test
+	public void keepsExistingPagesThatFailToParse() throws IOException {
+		List<ParsedPage> existing = new ArrayList<ParsedPage>();
+		for (PageHtml html:Arrays.asList(page(1, "50-00-0"), page(2, "64-17-5"), page(3, "67-56-1"), page(4, "7732-18-5"))) {
+			existing.add(ParsedPage.fromPageHtml(html));
+		}
+		PageParser.saveParsedPages(existing, FILE_NAME);
+
+		// Page 1 is unchanged, 2 was edited, 3 was edited so that it fails to parse, 4 was removed, and 5 is new but fails to parse
+		List<PageHtml> pages = Arrays.asList(page(1, "50-00-0"), page(2, "71-43-2"), page(3, null), page(5, null));
+		ParsedPagesUpdater updater = update(pages);
+		assertTrue(updater.hasChanges());
+		assertEquals(3, updater.getCount());
+		assertEquals(Arrays.asList("1:50-00-0", "2:71-43-2", "3:67-56-1"), casrns(PageParser.getParsedPagesFromFile(FILE_NAME)));
+
+		// Nothing changed since, so the failing pages are parsed again and fail again without making the file look changed
+		updater = update(pages);
+		assertFalse(updater.hasChanges());
+		assertEquals(Arrays.asList("1:50-00-0", "2:71-43-2", "3:67-56-1"), casrns(PageParser.getParsedPagesFromFile(FILE_NAME)));
+
+		// Once page 3 parses again, its new parsed page replaces the old one
+		updater = update(Arrays.asList(page(1, "50-00-0"), page(2, "71-43-2"), page(3, "67-64-1")));
+		assertTrue(updater.hasChanges());
+		assertEquals(Arrays.asList("1:50-00-0", "2:71-43-2", "3:67-64-1"), casrns(PageParser.getParsedPagesFromFile(FILE_NAME)));
+	}
+}
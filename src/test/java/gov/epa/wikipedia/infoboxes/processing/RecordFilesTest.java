@@ -0,0 +1,94 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import gov.epa.wikipedia.infoboxes.processing.RecordFiles.RecordReader;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+
+/**
+ * Tests that records written by RecordFiles read back unchanged in every format
+ * @author GSINCL01
+ *
+ */
+public class RecordFilesTest {
+
+	@TempDir
+	Path folder;
+
+	private static List<PageHtml> samplePages() {
+		List<PageHtml> pages = new ArrayList<PageHtml>();
+		PageHtml formaldehyde = new PageHtml("Formaldehyde", 11, Arrays.asList("<table class=\"infobox\"><tr><td>50-00-0</td></tr></table>"));
+		formaldehyde.lastRevId = 500L;
+		formaldehyde.touched = "2024-01-01T00:00:00Z";
+		pages.add(formaldehyde);
+		pages.add(new PageHtml("Caféine – \"quoted\" & <escaped>", 12, Arrays.asList("<b>a</b>", "line\nbreak")));
+		pages.add(new PageHtml("No infoboxes", 13, Collections.<String>emptyList()));
+		return pages;
+	}
+
+	private static void assertSamePages(List<PageHtml> expected, List<PageHtml> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).title, actual.get(i).title);
+			assertEquals(expected.get(i).pageId, actual.get(i).pageId);
+			assertEquals(expected.get(i).infoboxHtml, actual.get(i).infoboxHtml);
+			assertEquals(expected.get(i).lastRevId, actual.get(i).lastRevId);
+			assertEquals(expected.get(i).touched, actual.get(i).touched);
+		}
+	}
+
+	@Test
+	public void roundTripsEveryFormat() throws IOException {
+		for (String name:Arrays.asList("pages.json", "pages.ndjson", "pages.json.gz", "pages.ndjson.gz")) {
+			File file = folder.resolve(name).toFile();
+			RecordFiles.writeAll(samplePages(), file, PageHtml.class);
+			assertSamePages(samplePages(), RecordFiles.readAll(file, PageHtml.class));
+		}
+	}
+
+	@Test
+	public void detectsFormatFromContents() throws IOException {
+		File ndjson = folder.resolve("pages.ndjson.gz").toFile();
+		RecordFiles.writeAll(samplePages(), ndjson, PageHtml.class);
+		File renamed = folder.resolve("pages.json").toFile();
+		Files.move(ndjson.toPath(), renamed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		assertSamePages(samplePages(), RecordFiles.readAll(renamed, PageHtml.class));
+	}
+
+	@Test
+	public void roundTripsEmptyFiles() throws IOException {
+		for (String name:Arrays.asList("empty.json", "empty.ndjson")) {
+			File file = folder.resolve(name).toFile();
+			RecordFiles.writeAll(Collections.<PageHtml>emptyList(), file, PageHtml.class);
+			assertTrue(RecordFiles.readAll(file, PageHtml.class).isEmpty());
+		}
+	}
+
+	@Test
+	public void readsOneRecordAtATime() throws IOException {
+		File file = folder.resolve("nested/pages.ndjson").toFile();
+		RecordFiles.writeAll(samplePages(), file, PageHtml.class);
+		try (RecordReader<PageHtml> reader = RecordFiles.openReader(file, PageHtml.class)) {
+			for (PageHtml expected:samplePages()) {
+				assertTrue(reader.hasNext());
+				assertEquals(expected.pageId, reader.next().pageId);
+			}
+			assertFalse(reader.hasNext());
+		}
+	}
+}
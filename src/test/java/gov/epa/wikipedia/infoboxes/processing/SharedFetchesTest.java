@@ -0,0 +1,88 @@
+package gov.epa.wikipedia.infoboxes.processing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.data.PageHtml;
+import gov.epa.wikipedia.infoboxes.processing.queries.ApiClient;
+import gov.epa.wikipedia.infoboxes.processing.queries.FakeTransport;
+import gov.epa.wikipedia.infoboxes.processing.queries.HttpTransport.Response;
+import gov.epa.wikipedia.infoboxes.processing.queries.RequestScheduler;
+import gov.epa.wikipedia.infoboxes.processing.queries.ResponseCache;
+
+/**
+ * Tests that templates sharing pages through SharedFetches never wait on each other while holding host permits,
+ * with a FakeTransport in place of the network
+ * @author GSINCL01
+ *
+ */
+public class SharedFetchesTest {
+
+	@TempDir
+	Path folder;
+
+	@BeforeEach
+	public void setUp() {
+		ApiClient.setCache(new ResponseCache(folder.toString(), 1L << 20, 0, ResponseCache.Mode.OFF));
+		ApiClient.setScheduler(new RequestScheduler(32, 32, 1, 5));
+		ApiClient.setTransport(new FakeTransport(request -> new Response(200,
+				PageDownloaderTest.parseBody((Integer) request.params.get("pageid"), 100L))));
+		SharedFetches.begin();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		SharedFetches.end();
+		ApiClient.setTransport(null);
+		ApiClient.setCache(null);
+		ApiClient.setScheduler(null);
+	}
+
+	@Test
+	public void waitsOnOtherTemplatesWithoutHoldingPermits() throws InterruptedException {
+		// More pages than host permits, all claimed by another template's pipeline (this thread) before an update asks for them
+		int pageCount = WikipediaInfoboxesDict.FETCH_MAX_PER_HOST + 4;
+		Set<Integer> pageIds = new LinkedHashSet<Integer>();
+		List<SharedFetches.Claim> claims = new ArrayList<SharedFetches.Claim>();
+		for (int pageId = 1; pageId <= pageCount; pageId++) {
+			pageIds.add(pageId);
+			claims.add(SharedFetches.claim(pageId));
+		}
+
+		AtomicReference<List<PageHtml>> updated = new AtomicReference<List<PageHtml>>();
+		Thread update = new Thread(() -> updated.set(PageDownloader.getPageHtmlFromApi(pageIds,
+				new FetchEngine(FetchEngine.Mode.PARALLEL, pageCount))));
+		update.start();
+
+		// Let the update's workers start waiting on the claimed pages
+		Thread.sleep(300);
+
+		// The pipeline still gets permits to fetch its pages, and gives up the last one, which the update then fetches itself
+		FetchEngine engine = new FetchEngine(FetchEngine.Mode.PARALLEL, 1);
+		assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+			for (SharedFetches.Claim claim:claims.subList(0, pageCount - 1)) {
+				claim.complete(engine.runSingle(claims.indexOf(claim) + 1, PageDownloader::getFullPageHtmlFromApi));
+			}
+			claims.get(pageCount - 1).fail(new IllegalStateException("Pipeline stopped"));
+			update.join();
+		});
+
+		assertEquals(new ArrayList<Integer>(pageIds), updated.get().stream().map(html -> html.pageId).collect(Collectors.toList()));
+		assertEquals(pageCount - 1, SharedFetches.end());
+	}
+}
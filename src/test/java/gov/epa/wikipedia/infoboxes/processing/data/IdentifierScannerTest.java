@@ -0,0 +1,78 @@
+package gov.epa.wikipedia.infoboxes.processing.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet.Kind;
+
+/**
+ * Tests that IdentifierScanner finds well-formed identifiers that stand alone in text, and nothing else
+ * @author GSINCL01
+ *
+ */
+public class IdentifierScannerTest {
+
+	private static List<String> scan(Kind kind, String text) {
+		return IdentifierScanner.scan(kind, text, IdentifierSet.empty(kind)).toList();
+	}
+
+	@Test
+	public void findsDtxsidsOfAnyLength() {
+		assertEquals(Arrays.asList("DTXSID7020182", "DTXSID0020232"), scan(Kind.DTXSID, "DTXSID7020182 (DTXSID0020232)"));
+
+		// Too long to pack, so kept as a string by IdentifierSet rather than dropped by the scanner
+		IdentifierSet set = IdentifierScanner.scan(Kind.DTXSID, "DTXSID12345678901234567", IdentifierSet.empty(Kind.DTXSID));
+		assertEquals(Arrays.asList("DTXSID12345678901234567"), set.toList());
+		assertEquals(0, set.getPacked().length);
+	}
+
+	@Test
+	public void findsOnlyStandaloneDtxsids() {
+		assertEquals(Collections.emptyList(), scan(Kind.DTXSID, "XDTXSID123 1DTXSID123 DTXSID123X DTXSID"));
+		assertEquals(Arrays.asList("DTXSID123"), scan(Kind.DTXSID, "XDTXSID123, DTXSID123."));
+		assertEquals(Arrays.asList("DTXSID7020182"), scan(Kind.DTXSID, "comptox/DTXSID7020182"));
+	}
+
+	@Test
+	public void checksCasChecksums() {
+		// 7732-18-5: 8*1 + 1*2 + 2*3 + 3*4 + 7*5 + 7*6 = 105, so the check digit is 5
+		assertTrue(IdentifierScanner.isValidCasChecksum("7732-18-5", 0, 9));
+		assertTrue(IdentifierScanner.isValidCasChecksum("CAS 50-00-0.", 4, 11));
+		assertTrue(IdentifierScanner.isValidCasChecksum("1333-74-0", 0, 9));
+		assertFalse(IdentifierScanner.isValidCasChecksum("7732-18-6", 0, 9));
+		assertFalse(IdentifierScanner.isValidCasChecksum("50-00-1", 0, 7));
+	}
+
+	@Test
+	public void findsValidCasNumbers() {
+		assertEquals(Arrays.asList("7732-18-5", "64-17-5"), scan(Kind.CASRN, "7732-18-5 [7732-18-6] (64-17-5)Y"));
+		assertEquals(Arrays.asList("1333-74-0"), scan(Kind.CASRN, "1333-74-0 (13-33-74-0)"));
+
+		// Not standalone: part of a longer run of digits, or followed by another digit
+		assertEquals(Collections.emptyList(), scan(Kind.CASRN, "12345678-18-5 7732-18-55 7732-18 1-00-0"));
+
+		// The range is returned as (start << 32 | end), and the search resumes from the given index
+		long range = IdentifierScanner.findCasrn("CAS: 50-00-0", 0);
+		assertEquals(5, (int) (range >>> 32));
+		assertEquals(12, (int) range);
+		assertEquals(IdentifierScanner.NOT_FOUND, IdentifierScanner.findCasrn("CAS: 50-00-0", 6));
+	}
+
+	@Test
+	public void findsWellFormedInchikeys() {
+		assertEquals(Arrays.asList("XLYOFNOQVPJJNP-UHFFFAOYSA-N", "LFQSCWFLJHTTHZ-UHFFFAOYNA-N"),
+				scan(Kind.INCHIKEY, "InChIKey: XLYOFNOQVPJJNP-UHFFFAOYSA-N; LFQSCWFLJHTTHZ-UHFFFAOYNA-N"));
+
+		// Lower case, a missing block, a bad standard flag or version, or not standalone
+		assertEquals(Collections.emptyList(), scan(Kind.INCHIKEY, "xlyofnoqvpjjnp-uhfffaoysa-n XLYOFNOQVPJJNP-UHFFFAOYSA "
+				+ "XLYOFNOQVPJJNP-UHFFFAOYXA-N XLYOFNOQVPJJNP-UHFFFAOYSB-N AXLYOFNOQVPJJNP-UHFFFAOYSA-N XLYOFNOQVPJJNP-UHFFFAOYSA-NA"));
+		assertEquals(IdentifierScanner.NOT_FOUND, IdentifierScanner.findInchikey("XLYOFNOQVPJJNP-UHFFFAOYSA-", 0));
+	}
+}
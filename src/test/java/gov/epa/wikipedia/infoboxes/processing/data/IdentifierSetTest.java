@@ -0,0 +1,97 @@
+package gov.epa.wikipedia.infoboxes.processing.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.Gson;
+
+import gov.epa.wikipedia.infoboxes.processing.data.IdentifierSet.Kind;
+
+/**
+ * Tests that IdentifierSet packs and unpacks identifiers unchanged, keeps values it cannot pack in first-seen order,
+ * and reads and writes the same JSON arrays of strings as before
+ * @author GSINCL01
+ *
+ */
+public class IdentifierSetTest {
+
+	private static final Gson GSON = new Gson();
+
+	@Test
+	public void roundTripsPackedValues() {
+		// Leading zeros are kept by the digit count in each encoding
+		IdentifierSet dtxsids = IdentifierSet.of(Kind.DTXSID, Arrays.asList("DTXSID0020232", "DTXSID7020182", "DTXSID0000000000000001"));
+		assertEquals(Arrays.asList("DTXSID0020232", "DTXSID7020182", "DTXSID0000000000000001"), dtxsids.toList());
+		assertEquals(3, dtxsids.getPacked().length);
+
+		IdentifierSet casrns = IdentifierSet.of(Kind.CASRN, Arrays.asList("7732-18-5", "50-00-0", "0050-00-0"));
+		assertEquals(Arrays.asList("7732-18-5", "50-00-0", "0050-00-0"), casrns.toList());
+		assertEquals(3, casrns.getPacked().length);
+
+		IdentifierSet inchikeys = IdentifierSet.of(Kind.INCHIKEY, Arrays.asList("WSFSSNUMVMOOMR-UHFFFAOYSA-N", "AAAAAAAAAAAAAA-AAAAAAAASA-A"));
+		assertEquals(Arrays.asList("WSFSSNUMVMOOMR-UHFFFAOYSA-N", "AAAAAAAAAAAAAA-AAAAAAAASA-A"), inchikeys.toList());
+		assertEquals(4, inchikeys.getPacked().length);
+	}
+
+	@Test
+	public void keepsUnpackableValuesInFirstSeenOrder() {
+		// A DTXSID too long to pack and a malformed one are kept as strings, between the packed values
+		IdentifierSet dtxsids = IdentifierSet.of(Kind.DTXSID, Arrays.asList("DTXSID12345678901234567", "DTXSID7020182",
+				"DTXSID12345678901234567", "DTXSID", "DTXSID0020232"));
+		assertEquals(Arrays.asList("DTXSID12345678901234567", "DTXSID7020182", "DTXSID", "DTXSID0020232"), dtxsids.toList());
+		assertEquals(2, dtxsids.getPacked().length);
+		assertTrue(dtxsids.contains("DTXSID12345678901234567"));
+
+		IdentifierSet casrns = IdentifierSet.of(Kind.CASRN, Arrays.asList("50-00-0", "see below"))
+				.plus(Arrays.asList("64-17-5", "50-00-0", null, "n/a"));
+		assertEquals(Arrays.asList("50-00-0", "see below", "64-17-5", "n/a"), casrns.toList());
+		assertEquals(4, casrns.size());
+	}
+
+	@Test
+	public void sharesEmptyAndUnchangedSets() {
+		assertSame(IdentifierSet.empty(Kind.SMILES), IdentifierSet.of(Kind.SMILES, Collections.<String>emptyList()));
+		IdentifierSet smiles = IdentifierSet.of(Kind.SMILES, Arrays.asList("C=O", "CCO"));
+		assertSame(smiles, smiles.plus(Arrays.asList("CCO", "C=O")));
+		assertEquals(Arrays.asList("C=O", "CCO"), smiles.toList());
+
+		// Repeated SMILES share one string, while the pool stays bounded
+		String parsed = new String("CC(=O)Oc1ccccc1C(=O)O");
+		IdentifierSet first = IdentifierSet.of(Kind.SMILES, Arrays.asList(new String("CC(=O)Oc1ccccc1C(=O)O")));
+		assertSame(first.toList().get(0), IdentifierSet.of(Kind.SMILES, Arrays.asList(parsed)).toList().get(0));
+	}
+
+	@Test
+	public void equalsIgnoresOrderButNotKind() {
+		IdentifierSet casrns = IdentifierSet.of(Kind.CASRN, Arrays.asList("50-00-0", "64-17-5", "n/a"));
+		IdentifierSet reordered = IdentifierSet.of(Kind.CASRN, Arrays.asList("n/a", "64-17-5", "50-00-0"));
+		assertEquals(casrns, reordered);
+		assertEquals(casrns.hashCode(), reordered.hashCode());
+
+		assertNotEquals(casrns, IdentifierSet.of(Kind.CASRN, Arrays.asList("50-00-0", "64-17-5")));
+		assertNotEquals(IdentifierSet.of(Kind.SMILES, Arrays.asList("n/a")), IdentifierSet.of(Kind.CASRN, Arrays.asList("n/a")));
+		assertFalse(casrns.equals(null));
+	}
+
+	@Test
+	public void readsAndWritesJsonArrays() {
+		Infobox infobox = GSON.fromJson("{\"infoboxTitle\":\"Water\",\"casrns\":[\"7732-18-5\",null,\"n/a\"],\"dtxsids\":null,"
+				+ "\"inchikeys\":[\"XLYOFNOQVPJJNP-UHFFFAOYSA-N\"]}", Infobox.class);
+		assertEquals(Arrays.asList("7732-18-5", "n/a"), infobox.casrns.toList());
+		assertSame(IdentifierSet.empty(Kind.DTXSID), infobox.dtxsids);
+		assertSame(IdentifierSet.empty(Kind.SMILES), infobox.smiles);
+
+		// A null set is written as an empty array, so files read by older versions still have every field
+		infobox.smiles = null;
+		assertEquals("{\"infoboxTitle\":\"Water\",\"dtxsids\":[],\"casrns\":[\"7732-18-5\",\"n/a\"],"
+				+ "\"inchikeys\":[\"XLYOFNOQVPJJNP-UHFFFAOYSA-N\"],\"smiles\":[]}", GSON.toJson(infobox));
+	}
+}
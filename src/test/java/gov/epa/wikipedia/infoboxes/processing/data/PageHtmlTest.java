@@ -0,0 +1,76 @@
+package gov.epa.wikipedia.infoboxes.processing.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jsoup.nodes.Element;
+import org.junit.jupiter.api.Test;
+
+import gov.epa.wikipedia.infoboxes.processing.queries.ParseQuery.Parse;
+import gov.epa.wikipedia.infoboxes.processing.queries.ParseQuery.ParseResult;
+import gov.epa.wikipedia.infoboxes.processing.queries.ParseQuery.Text;
+
+/**
+ * Tests that PageHtml extracts infoboxes while the page is downloaded, and that a page whose infoboxes fail to extract
+ * is still returned with its infobox HTML rather than failing the download
+ * @author GSINCL01
+ *
+ */
+public class PageHtmlTest {
+
+	private static ParseResult parseResult(String html) {
+		ParseResult result = new ParseResult();
+		result.parse = new Parse();
+		result.parse.title = "Page 1";
+		result.parse.pageid = 1;
+		result.parse.revid = 100L;
+		result.parse.text = new Text();
+		result.parse.text.html = html;
+		return result;
+	}
+
+	@Test
+	public void extractsInfoboxesAtDownload() {
+		PageHtml html = PageHtml.fromParseResult(parseResult("<div><table class=\"infobox\"><caption>Page 1</caption>"
+				+ "<tr><th>CAS Number</th><td>50-00-0</td></tr></table></div>"), false);
+
+		assertTrue(html.infoboxHtml.isEmpty());
+		assertEquals(Long.valueOf(100), html.lastRevId);
+		assertEquals(Arrays.asList("50-00-0"), html.parsedPage.infoboxes.get(0).casrns.toList());
+	}
+
+	@Test
+	public void keepsHtmlWhenExtractionFails() {
+		// A table that fails partway through extraction, standing in for infobox markup the extractor does not expect
+		Element broken = new Element("table") {
+			@Override
+			public Element selectFirst(String cssQuery) {
+				throw new IllegalStateException("Unexpected infobox markup");
+			}
+		};
+		broken.addClass("infobox");
+
+		PageHtml html = new PageHtml("Page 1", 1, Collections.<String>emptyList());
+		PageHtml.extractInfoboxes(html, Arrays.asList(broken));
+
+		// The infobox HTML is kept even if it was not asked for, so the page is saved and parsed again from it later
+		assertNull(html.parsedPage);
+		assertEquals(Arrays.asList("<table class=\"infobox\"></table>"), html.infoboxHtml);
+		ParsedPage parsedPage = ParsedPage.fromPageHtml(html);
+		assertNotNull(parsedPage);
+		assertEquals(Integer.valueOf(1), parsedPage.pageId);
+	}
+
+	@Test
+	public void failsWithoutPage() {
+		ParseResult result = new ParseResult();
+		IllegalStateException e = assertThrows(IllegalStateException.class, () -> PageHtml.fromParseResult(result, false));
+		assertTrue(e.getMessage().contains("no page in result"), e.getMessage());
+	}
+}
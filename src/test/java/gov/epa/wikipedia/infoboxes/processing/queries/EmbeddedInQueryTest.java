@@ -0,0 +1,113 @@
+package gov.epa.wikipedia.infoboxes.processing.queries;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import gov.epa.wikipedia.infoboxes.processing.queries.EmbeddedInQuery.PageInfo;
+import gov.epa.wikipedia.infoboxes.processing.queries.HttpTransport.Response;
+
+/**
+ * Tests that EmbeddedInQuery follows continuation through every page of results, and fails rather than truncates
+ * the listing when a page of results is missing, with a FakeTransport in place of the network
+ * @author GSINCL01
+ *
+ */
+public class EmbeddedInQueryTest {
+
+	private static final String TITLE = "Template:Chembox";
+
+	@TempDir
+	Path folder;
+
+	@BeforeEach
+	public void setUp() {
+		ApiClient.setCache(new ResponseCache(folder.toString(), 1L << 20, 0, ResponseCache.Mode.OFF));
+		ApiClient.setScheduler(new RequestScheduler(8, 1, 1, 5));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		ApiClient.setTransport(null);
+		ApiClient.setCache(null);
+		ApiClient.setScheduler(null);
+	}
+
+	/**
+	 * Answer list=embeddedin queries with three pages of results, continued with eicontinue codes "2" and "3"
+	 */
+	private static Response listing(FakeTransport.Request request) {
+		Object eiContinue = request.params.get("eicontinue");
+		if (eiContinue==null) {
+			return new Response(200, "{\"batchcomplete\":\"\",\"continue\":{\"eicontinue\":\"2\",\"continue\":\"-||\"},"
+					+ "\"query\":{\"embeddedin\":[{\"pageid\":1,\"ns\":0,\"title\":\"A\"},{\"pageid\":2,\"ns\":0,\"title\":\"B\"}]}}");
+		} else if (eiContinue.equals("2")) {
+			return new Response(200, "{\"continue\":{\"eicontinue\":\"3\",\"continue\":\"-||\"},"
+					+ "\"query\":{\"embeddedin\":[{\"pageid\":3,\"ns\":0,\"title\":\"C\"}]}}");
+		}
+		return new Response(200, "{\"batchcomplete\":\"\",\"query\":{\"embeddedin\":[{\"pageid\":4,\"ns\":0,\"title\":\"D\"}]}}");
+	}
+
+	/**
+	 * Answer generator=embeddedin queries with two pages of page info, continued with a geicontinue code
+	 */
+	private static Response pageInfo(FakeTransport.Request request) {
+		if (request.params.get("geicontinue")==null) {
+			return new Response(200, "{\"continue\":{\"geicontinue\":\"0|3\",\"continue\":\"geicontinue||\"},"
+					+ "\"query\":{\"pages\":[{\"pageid\":1,\"title\":\"A\",\"lastrevid\":100,\"touched\":\"2024-01-01T00:00:00Z\"},"
+					+ "{\"pageid\":2,\"title\":\"B\",\"lastrevid\":200}]}}");
+		}
+		return new Response(200, "{\"batchcomplete\":true,\"query\":{\"pages\":[{\"pageid\":3,\"title\":\"C\",\"lastrevid\":300}]}}");
+	}
+
+	@Test
+	public void followsEmbeddedInContinuation() {
+		FakeTransport transport = new FakeTransport(EmbeddedInQueryTest::listing);
+		ApiClient.setTransport(transport);
+
+		List<Integer> pageIds = new ArrayList<Integer>();
+		EmbeddedInQuery.forEachPageId(TITLE, pageIds::add);
+		assertEquals(Arrays.asList(1, 2, 3, 4), pageIds);
+		assertEquals(3, transport.getRequests().size());
+		assertEquals("2", transport.getRequests().get(1).params.get("eicontinue"));
+		assertEquals("3", transport.getRequests().get(2).params.get("eicontinue"));
+		assertEquals(TITLE, transport.getRequests().get(2).params.get("eititle"));
+	}
+
+	@Test
+	public void followsPageInfoContinuation() {
+		FakeTransport transport = new FakeTransport(EmbeddedInQueryTest::pageInfo);
+		ApiClient.setTransport(transport);
+
+		Map<Integer, PageInfo> pageInfo = EmbeddedInQuery.getPageInfo(TITLE);
+		assertEquals(Arrays.asList(1, 2, 3), new ArrayList<Integer>(pageInfo.keySet()));
+		assertEquals(Long.valueOf(100), pageInfo.get(1).lastrevid);
+		assertEquals("2024-01-01T00:00:00Z", pageInfo.get(1).touched);
+		assertEquals(Long.valueOf(300), pageInfo.get(3).lastrevid);
+		assertEquals("0|3", transport.getRequests().get(1).params.get("geicontinue"));
+	}
+
+	@Test
+	public void failsInsteadOfTruncating() {
+		// The second page of results is an error, e.g. a database error or an expired continuation
+		String error = "{\"error\":{\"code\":\"internal_api_error_DBQueryError\",\"info\":\"Database query error.\"}}";
+		ApiClient.setTransport(new FakeTransport(request -> request.params.containsKey("eicontinue") || request.params.containsKey("geicontinue")
+				? new Response(200, error) : request.params.containsKey("generator") ? pageInfo(request) : listing(request)));
+
+		IllegalStateException e = assertThrows(IllegalStateException.class, () -> EmbeddedInQuery.getPageIds(TITLE));
+		assertTrue(e.getMessage().contains("after 2 pages"), e.getMessage());
+		e = assertThrows(IllegalStateException.class, () -> EmbeddedInQuery.getPageInfo(TITLE));
+		assertTrue(e.getMessage().contains("internal_api_error_DBQueryError"), e.getMessage());
+	}
+}
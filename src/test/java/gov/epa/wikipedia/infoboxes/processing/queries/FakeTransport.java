@@ -0,0 +1,80 @@
+package gov.epa.wikipedia.infoboxes.processing.queries;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class to answer API requests in process, without a network or server, e.g. to test query classes against canned responses
+ * Set it with ApiClient.setTransport; every request is recorded, and answered by the handler given
+ * @author GSINCL01
+ *
+ */
+public class FakeTransport implements HttpTransport {
+
+	/**
+	 * A recorded request
+	 */
+	public static class Request {
+		public String method;
+		public String url;
+		public Map<String, Object> params;
+		public Map<String, String> headers;
+	}
+
+	/**
+	 * Code that answers a request (throw IOException to simulate a network failure)
+	 */
+	public interface Handler {
+		Response handle(Request request) throws IOException;
+	}
+
+	private Handler handler;
+	private List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+
+	public FakeTransport(Handler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Create a transport that answers every request with the same body and status 200
+	 * @param body	The response body
+	 * @return		The transport
+	 */
+	public static FakeTransport always(String body) {
+		return new FakeTransport(request -> new Response(200, body));
+	}
+
+	@Override
+	public Response get(String url, Map<String, Object> params, Map<String, String> headers) throws IOException {
+		return handle("GET", url, params, headers);
+	}
+
+	@Override
+	public Response post(String url, Map<String, Object> fields) throws IOException {
+		return handle("POST", url, fields, Collections.<String, String>emptyMap());
+	}
+
+	/**
+	 * Get the requests sent so far, in order
+	 * @return	The recorded requests
+	 */
+	public List<Request> getRequests() {
+		synchronized (requests) {
+			return new ArrayList<Request>(requests);
+		}
+	}
+
+	private Response handle(String method, String url, Map<String, Object> params, Map<String, String> headers) throws IOException {
+		Request request = new Request();
+		request.method = method;
+		request.url = url;
+		request.params = new LinkedHashMap<String, Object>(params);
+		request.headers = new LinkedHashMap<String, String>(headers);
+		requests.add(request);
+		return handler.handle(request);
+	}
+}
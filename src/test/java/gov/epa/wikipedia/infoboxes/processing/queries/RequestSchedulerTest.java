@@ -0,0 +1,186 @@
+package gov.epa.wikipedia.infoboxes.processing.queries;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import gov.epa.wikipedia.infoboxes.WikipediaInfoboxesDict;
+import gov.epa.wikipedia.infoboxes.processing.queries.HttpTransport.Response;
+
+/**
+ * Tests RequestScheduler retries and pacing, through ApiClient with a FakeTransport in place of the network
+ * @author GSINCL01
+ *
+ */
+public class RequestSchedulerTest {
+
+	/**
+	 * Json wrapper class for the canned responses
+	 */
+	public static class Result {
+		public String value;
+	}
+
+	private static final String OK_BODY = "{\"value\":\"ok\"}";
+
+	@TempDir
+	Path folder;
+
+	@BeforeEach
+	public void setUp() {
+		ApiClient.setCache(new ResponseCache(folder.toString(), 1L << 20, 0, ResponseCache.Mode.OFF));
+		ApiClient.setScheduler(new RequestScheduler(8, 4, 1, 5));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		ApiClient.setTransport(null);
+		ApiClient.setCache(null);
+		ApiClient.setScheduler(null);
+	}
+
+	private static Map<String, Object> parseParams(int pageId) {
+		Map<String, Object> params = new LinkedHashMap<String, Object>();
+		params.put("action", "parse");
+		params.put("pageid", pageId);
+		params.put("format", "json");
+		return params;
+	}
+
+	/**
+	 * Create a transport answering requests with the given responses in turn, then with OK_BODY
+	 */
+	private static FakeTransport inTurn(Response... responses) {
+		AtomicInteger next = new AtomicInteger();
+		return new FakeTransport(request -> {
+			int i = next.getAndIncrement();
+			return i < responses.length ? responses[i] : new Response(200, OK_BODY);
+		});
+	}
+
+	@Test
+	public void retriesUntilAccepted() {
+		FakeTransport transport = inTurn(new Response(503, ""), new Response(429, "").withHeader("Retry-After", "0"),
+				new Response(200, "{\"error\":{\"code\":\"maxlag\",\"info\":\"Waiting for a database server: 6 seconds lagged.\"}}"));
+		ApiClient.setTransport(transport);
+
+		assertEquals("ok", ApiClient.get(parseParams(42), Result.class).value);
+		assertEquals(4, transport.getRequests().size());
+		for (FakeTransport.Request request:transport.getRequests()) {
+			assertEquals(WikipediaInfoboxesDict.API_MAXLAG_SECONDS, request.params.get("maxlag"));
+		}
+		assertEquals(Collections.singleton(42), ApiClient.getScheduler().getRetriedPageIds());
+		assertTrue(ApiClient.getScheduler().getFailedPageIds().isEmpty());
+	}
+
+	@Test
+	public void retriesNetworkFailures() {
+		AtomicInteger calls = new AtomicInteger();
+		FakeTransport transport = new FakeTransport(request -> {
+			if (calls.getAndIncrement()==0) {
+				throw new IOException("Connection reset");
+			}
+			return new Response(200, OK_BODY);
+		});
+		ApiClient.setTransport(transport);
+
+		assertEquals("ok", ApiClient.get(parseParams(7), Result.class).value);
+		assertEquals(2, transport.getRequests().size());
+	}
+
+	@Test
+	public void givesUpAfterMaxAttempts() {
+		FakeTransport transport = new FakeTransport(request -> new Response(502, ""));
+		ApiClient.setTransport(transport);
+
+		UncheckedIOException e = assertThrows(UncheckedIOException.class, () -> ApiClient.get(parseParams(77), Result.class));
+		assertTrue(e.getMessage().contains("page 77"), e.getMessage());
+		assertEquals(4, transport.getRequests().size());
+		assertEquals(Collections.singleton(77), ApiClient.getScheduler().getFailedPageIds());
+	}
+
+	@Test
+	public void doesNotRetryOtherStatuses() {
+		FakeTransport transport = new FakeTransport(request -> new Response(404, ""));
+		ApiClient.setTransport(transport);
+
+		assertThrows(UncheckedIOException.class, () -> ApiClient.get(parseParams(5), Result.class));
+		assertEquals(1, transport.getRequests().size());
+	}
+
+	@Test
+	public void waitsForRetryAfter() {
+		ApiClient.setTransport(inTurn(new Response(503, "").withHeader("Retry-After", "1")));
+
+		long start = System.nanoTime();
+		assertEquals("ok", ApiClient.get(parseParams(1), Result.class).value);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 900);
+	}
+
+	@Test
+	public void readsRetryAfterDates() {
+		String inTenSeconds = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now().plusSeconds(10));
+		long millis = RequestScheduler.getRetryAfterMillis(new Response(503, "").withHeader("Retry-After", inTenSeconds));
+		assertTrue(millis > 8000 && millis <= 10000, String.valueOf(millis));
+		assertEquals(2000, RequestScheduler.getRetryAfterMillis(new Response(503, "").withHeader("retry-after", "2")));
+		assertEquals(-1, RequestScheduler.getRetryAfterMillis(new Response(503, "").withHeader("Retry-After", "soon")));
+		assertEquals(-1, RequestScheduler.getRetryAfterMillis(null));
+	}
+
+	@Test
+	public void halvesLimitOncePerBurst() throws InterruptedException {
+		RequestScheduler scheduler = new RequestScheduler(8, 2, 1, 1);
+		int threads = 4;
+		CountDownLatch inFlight = new CountDownLatch(threads);
+		List<Thread> senders = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			AtomicInteger attempts = new AtomicInteger();
+			Thread sender = new Thread(() -> {
+				try {
+					scheduler.send("parse", Collections.<String, Object>emptyMap(), () -> {
+						if (attempts.getAndIncrement() > 0) {
+							return new Response(404, "");
+						}
+
+						// Every first attempt is in flight at once, so all are pushed back in the same burst
+						inFlight.countDown();
+						try {
+							inFlight.await(10, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						return new Response(503, "");
+					});
+				} catch (UncheckedIOException e) {
+					// The 404 after the retry is expected
+				}
+			});
+			senders.add(sender);
+			sender.start();
+		}
+		for (Thread sender:senders) {
+			sender.join(10000);
+		}
+
+		assertEquals(4, scheduler.getLimit());
+	}
+}
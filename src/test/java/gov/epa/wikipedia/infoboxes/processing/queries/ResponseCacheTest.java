@@ -0,0 +1,145 @@
+package gov.epa.wikipedia.infoboxes.processing.queries;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import gov.epa.wikipedia.infoboxes.processing.queries.HttpTransport.Response;
+
+/**
+ * Tests that ApiClient reuses, revalidates, and refuses cached responses as the ResponseCache mode says,
+ * with a FakeTransport in place of the network
+ * @author GSINCL01
+ *
+ */
+public class ResponseCacheTest {
+
+	/**
+	 * Json wrapper class for the canned responses
+	 */
+	public static class Result {
+		public String value;
+	}
+
+	private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+	@TempDir
+	Path folder;
+
+	@BeforeEach
+	public void setUp() {
+		ApiClient.setScheduler(new RequestScheduler(8, 2, 1, 5));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		ApiClient.setTransport(null);
+		ApiClient.setCache(null);
+		ApiClient.setScheduler(null);
+	}
+
+	private static Map<String, Object> params(String title) {
+		Map<String, Object> params = new LinkedHashMap<String, Object>();
+		params.put("action", "query");
+		params.put("list", "embeddedin");
+		params.put("eititle", title);
+		return params;
+	}
+
+	private static String body(String value) {
+		return "{\"value\":\"" + value + "\"}";
+	}
+
+	@Test
+	public void reusesFreshResponses() {
+		ApiClient.setCache(new ResponseCache(folder.toString(), 1L << 20, 3600, ResponseCache.Mode.READ_WRITE));
+		FakeTransport transport = new FakeTransport(request -> new Response(200, body(String.valueOf(request.params.get("eititle")))));
+		ApiClient.setTransport(transport);
+
+		assertEquals("A", ApiClient.get(params("A"), Result.class).value);
+		assertEquals("A", ApiClient.get(params("A"), Result.class).value);
+		assertEquals("B", ApiClient.get(params("B"), Result.class).value);
+		assertEquals(2, transport.getRequests().size());
+	}
+
+	@Test
+	public void revalidatesStaleResponses() {
+		ApiClient.setCache(new ResponseCache(folder.toString(), 1L << 20, 0, ResponseCache.Mode.READ_WRITE));
+		FakeTransport transport = new FakeTransport(request -> request.headers.containsKey("If-None-Match")
+				? new Response(304, "") : new Response(200, body("first")).withHeader("ETag", "\"v1\""));
+		ApiClient.setTransport(transport);
+
+		assertEquals("first", ApiClient.get(params("A"), Result.class).value);
+		assertEquals("first", ApiClient.get(params("A"), Result.class).value);
+		assertEquals(2, transport.getRequests().size());
+		assertFalse(transport.getRequests().get(0).headers.containsKey("If-None-Match"));
+		assertEquals("\"v1\"", transport.getRequests().get(1).headers.get("If-None-Match"));
+	}
+
+	@Test
+	public void doesNotCacheErrorResponses() {
+		ApiClient.setCache(new ResponseCache(folder.toString(), 1L << 20, 3600, ResponseCache.Mode.READ_WRITE));
+		FakeTransport transport = new FakeTransport(request -> new Response(200, "{\"error\":{\"code\":\"missingtitle\",\"info\":\"No such page\"}}"));
+		ApiClient.setTransport(transport);
+
+		ApiClient.get(params("A"), Result.class);
+		ApiClient.get(params("A"), Result.class);
+		assertEquals(2, transport.getRequests().size());
+		assertEquals(0, ApiClient.getCache().size());
+	}
+
+	@Test
+	public void offlineAnswersOnlyFromCache() {
+		ApiClient.setCache(new ResponseCache(folder.toString(), 1L << 20, 3600, ResponseCache.Mode.READ_WRITE));
+		ApiClient.setTransport(FakeTransport.always(body("cached")));
+		ApiClient.get(params("A"), Result.class);
+
+		// A new cache on the same folder finds the entry written to disk
+		ApiClient.setCache(new ResponseCache(folder.toString(), 1L << 20, 0, ResponseCache.Mode.OFFLINE));
+		FakeTransport transport = FakeTransport.always(body("sent"));
+		ApiClient.setTransport(transport);
+
+		assertEquals("cached", ApiClient.get(params("A"), Result.class).value);
+		assertNull(ApiClient.get(params("B"), Result.class));
+		assertEquals(0, transport.getRequests().size());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedEntries() {
+		// Entries are gzipped on disk, so random bodies are used to give them a predictable size (roughly 225 KB each)
+		ResponseCache cache = new ResponseCache(folder.toString(), 600 * 1024, 3600, ResponseCache.Mode.READ_WRITE);
+		put(cache, "a");
+		put(cache, "b");
+		cache.get("a");
+		put(cache, "c");
+
+		assertEquals(2, cache.size());
+		assertEquals("a", cache.get("a").key);
+		assertNull(cache.get("b"));
+		assertEquals("c", cache.get("c").key);
+	}
+
+	private static void put(ResponseCache cache, String key) {
+		Random random = new Random(key.hashCode());
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < 300 * 1024; i++) {
+			value.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		}
+
+		ResponseCache.Entry entry = new ResponseCache.Entry();
+		entry.key = key;
+		entry.fetchedAt = System.currentTimeMillis();
+		entry.body = body(value.toString());
+		cache.put(entry);
+	}
+}